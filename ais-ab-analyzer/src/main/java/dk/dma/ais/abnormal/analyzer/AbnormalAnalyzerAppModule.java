@@ -31,8 +31,12 @@ import dk.dma.ais.abnormal.analyzer.reports.ReportScheduler;
 import dk.dma.ais.abnormal.analyzer.services.SafetyZoneService;
 import dk.dma.ais.abnormal.event.db.EventRepository;
 import dk.dma.ais.abnormal.event.db.csv.CsvEventRepository;
+import dk.dma.ais.abnormal.event.db.export.EventArchiver;
 import dk.dma.ais.abnormal.event.db.jpa.JpaEventRepository;
 import dk.dma.ais.abnormal.event.db.jpa.JpaSessionFactoryFactory;
+import dk.dma.ais.abnormal.event.db.live.EventNotificationServer;
+import dk.dma.ais.abnormal.event.db.live.PublishingEventRepository;
+import dk.dma.ais.abnormal.event.db.log.LogEventRepository;
 import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
 import dk.dma.ais.abnormal.stat.db.data.DatasetMetaData;
 import dk.dma.ais.abnormal.stat.db.data.ShipTypeAndSizeStatisticData;
@@ -74,16 +78,23 @@ import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Predicate;
 
@@ -91,14 +102,21 @@ import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_AIS_DATA
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_AIS_DATASOURCE_URL;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_APPL_GRID_RESOLUTION_DEFAULT;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_APPL_STATISTICS_DUMP_PERIOD;
+import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_ARCHIVE_DIRECTORY;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_CSV_FILE;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_H2_FILE;
+import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_LOG_FILE;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_PGSQL_HOST;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_PGSQL_NAME;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_PGSQL_PASSWORD;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_PGSQL_PORT;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_PGSQL_USERNAME;
+import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_PUSH_ADDRESS;
+import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_PUSH_PORT;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_REPOSITORY_TYPE;
+import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_RETENTION_MONTHS;
+import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_WRITEBEHIND_BATCHSIZE;
+import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_EVENTS_WRITEBEHIND_MAXLAG;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_FILTER_CUSTOM_EXPRESSION;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_FILTER_LOCATION_BBOX_EAST;
 import static dk.dma.ais.abnormal.analyzer.config.Configuration.CONFKEY_FILTER_LOCATION_BBOX_NORTH;
@@ -230,9 +248,19 @@ public class AbnormalAnalyzerAppModule extends AbstractModule {
             if ("csv".equalsIgnoreCase(eventRepositoryType)) {
                 String csvFileName = configuration.getString(CONFKEY_EVENTS_CSV_FILE);
                 eventRepository = new CsvEventRepository(Files.newOutputStream(Paths.get(csvFileName), StandardOpenOption.CREATE_NEW), false);
+            } else if ("log".equalsIgnoreCase(eventRepositoryType)) {
+                LogEventRepository logEventRepository = new LogEventRepository(Paths.get(configuration.getString(CONFKEY_EVENTS_LOG_FILE)));
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        logEventRepository.close();
+                    } catch (IOException e) {
+                        LOG.error(e.getMessage(), e);
+                    }
+                }, "event-repository-shutdown"));
+                eventRepository = logEventRepository;
             } else if ("h2".equalsIgnoreCase(eventRepositoryType)) {
                 SessionFactory sessionFactory = JpaSessionFactoryFactory.newH2SessionFactory(new File(configuration.getString(CONFKEY_EVENTS_H2_FILE)));
-                eventRepository = new JpaEventRepository(sessionFactory, false);
+                eventRepository = newJpaEventRepository(sessionFactory);
             } else if ("pgsql".equalsIgnoreCase(eventRepositoryType)) {
                 SessionFactory sessionFactory = JpaSessionFactoryFactory.newPostgresSessionFactory(
                     configuration.getString(CONFKEY_EVENTS_PGSQL_HOST),
@@ -241,10 +269,29 @@ public class AbnormalAnalyzerAppModule extends AbstractModule {
                     configuration.getString(CONFKEY_EVENTS_PGSQL_USERNAME),
                     configuration.getString(CONFKEY_EVENTS_PGSQL_PASSWORD)
                 );
-                eventRepository = new JpaEventRepository(sessionFactory, false);
+                eventRepository = newJpaEventRepository(sessionFactory);
             } else {
                 throw new IllegalArgumentException("eventRepositoryType: " + eventRepositoryType);
             }
+
+            int pushPort = configuration.getInt(CONFKEY_EVENTS_PUSH_PORT, 0);
+            if (pushPort > 0) {
+                String pushAddress = configuration.getString(CONFKEY_EVENTS_PUSH_ADDRESS);
+                InetAddress bindAddress = isBlank(pushAddress) ? InetAddress.getLoopbackAddress() : InetAddress.getByName(pushAddress.trim());
+                if (! bindAddress.isLoopbackAddress()) {
+                    LOG.warn("Pushing event notifications without authentication on " + bindAddress + ".");
+                }
+                EventNotificationServer notificationServer = new EventNotificationServer(new InetSocketAddress(bindAddress, pushPort), EventNotificationServer.DEFAULT_QUEUE_CAPACITY);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        notificationServer.close();
+                    } catch (IOException e) {
+                        LOG.error(e.getMessage(), e);
+                    }
+                }, "event-push-shutdown"));
+                LOG.info("Pushing event notifications on " + bindAddress.getHostAddress() + ":" + notificationServer.getPort() + ".");
+                eventRepository = new PublishingEventRepository(eventRepository, notificationServer);
+            }
         } catch (HibernateException e) {
             LOG.error(e.getMessage(), e);
             throw e;
@@ -256,6 +303,57 @@ public class AbnormalAnalyzerAppModule extends AbstractModule {
         return eventRepository;
     }
 
+    private JpaEventRepository newJpaEventRepository(SessionFactory sessionFactory) {
+        Configuration configuration = getConfiguration();
+        int maxLag = configuration.getInt(CONFKEY_EVENTS_WRITEBEHIND_MAXLAG, 0);
+        JpaEventRepository eventRepository;
+        if (maxLag <= 0) {
+            eventRepository = new JpaEventRepository(sessionFactory, false);
+        } else {
+            eventRepository = new JpaEventRepository(sessionFactory, maxLag, configuration.getInt(CONFKEY_EVENTS_WRITEBEHIND_BATCHSIZE, 100));
+            Runtime.getRuntime().addShutdownHook(new Thread(eventRepository::close, "event-repository-shutdown"));
+
+            AppStatisticsService statisticsService = getOrCreateAppStatisticsService();
+            statisticsService.setAnalysisStatisticsSupplier("EventRepository", "Persistence lag (msecs)", eventRepository::getPersistenceLagMillis);
+            statisticsService.setAnalysisStatisticsSupplier("EventRepository", "Pending events", eventRepository::getNumberOfPendingEvents);
+            statisticsService.setAnalysisStatisticsSupplier("EventRepository", "Events retried", eventRepository::getNumberOfEventsRetried);
+            statisticsService.setAnalysisStatisticsSupplier("EventRepository", "Events failed", eventRepository::getNumberOfEventsFailed);
+        }
+
+        // Events and vessels written by earlier versions cannot be found by area or vessel name until updated
+        eventRepository.updateMissingBoundingBoxes();
+        eventRepository.updateMissingVesselSearchTrigrams();
+
+        int retentionMonths = configuration.getInt(CONFKEY_EVENTS_RETENTION_MONTHS, 0);
+        if (retentionMonths > 0) {
+            String archiveDirectory = configuration.getString(CONFKEY_EVENTS_ARCHIVE_DIRECTORY);
+            if (isBlank(archiveDirectory)) {
+                throw new IllegalArgumentException(CONFKEY_EVENTS_ARCHIVE_DIRECTORY + " must be set when " + CONFKEY_EVENTS_RETENTION_MONTHS + " is " + retentionMonths + ".");
+            }
+            scheduleEventArchiver(new EventArchiver(eventRepository, Paths.get(archiveDirectory), retentionMonths));
+        }
+
+        return eventRepository;
+    }
+
+    /**
+     * Run the archiver once a day on a background thread; first time shortly after startup.
+     */
+    private static void scheduleEventArchiver(EventArchiver eventArchiver) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                eventArchiver.archive(LocalDateTime.now(ZoneOffset.UTC));
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Failed to archive events: " + e.getMessage(), e);
+            }
+        }, 1, TimeUnit.DAYS.toMinutes(1), TimeUnit.MINUTES);
+    }
+
     @Provides
     @Singleton
     StatisticDataRepository provideStatisticDataRepository() {
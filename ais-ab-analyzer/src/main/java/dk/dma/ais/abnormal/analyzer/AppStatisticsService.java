@@ -16,6 +16,8 @@
 
 package dk.dma.ais.abnormal.analyzer;
 
+import java.util.function.LongSupplier;
+
 /**
  * A statistics service class which can be called with updates for certain events, such as reception of
  * a packet or a message. Via the dumpStatistics() method the service can dump its collected statistics
@@ -25,4 +27,9 @@ package dk.dma.ais.abnormal.analyzer;
 public interface AppStatisticsService extends dk.dma.ais.abnormal.application.statistics.AppStatisticsService {
     void incAnalysisStatistics(String analysis, String statistic);
     void setAnalysisStatistics(String analysis, String statistic, long value);
+
+    /**
+     * Register a statistic whose value is read from the supplier each time statistics are dumped.
+     */
+    void setAnalysisStatisticsSupplier(String analysis, String statistic, LongSupplier value);
 }
@@ -19,9 +19,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
 
 /**
  * Class for holding information on the file processing process
@@ -35,6 +38,8 @@ public class AppStatisticsServiceImpl extends dk.dma.ais.abnormal.application.st
 
     private Map<String, HashMap<String, Long>> allAnalysisStatistics = new ConcurrentHashMap<>();
 
+    private List<Runnable> analysisStatisticsSuppliers = new CopyOnWriteArrayList<>();
+
     public AppStatisticsServiceImpl() {
     }
 
@@ -46,6 +51,8 @@ public class AppStatisticsServiceImpl extends dk.dma.ais.abnormal.application.st
     public void dumpStatistics() {
         super.dumpStatistics();
 
+        analysisStatisticsSuppliers.forEach(Runnable::run);
+
         LOG.info("==== Abnormal analyzer statistics ====");
         Set<String> statisticNames = this.allAnalysisStatistics.keySet();
         for (String statisticName : statisticNames) {
@@ -87,4 +94,9 @@ public class AppStatisticsServiceImpl extends dk.dma.ais.abnormal.application.st
         }
         analysisStatistics.put(statisticsName, Long.valueOf(value));
     }
+
+    @Override
+    public void setAnalysisStatisticsSupplier(String analysisName, String statisticsName, LongSupplier value) {
+        analysisStatisticsSuppliers.add(() -> setAnalysisStatistics(analysisName, statisticsName, value.getAsLong()));
+    }
 }
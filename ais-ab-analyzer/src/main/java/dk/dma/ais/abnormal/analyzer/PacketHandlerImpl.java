@@ -27,6 +27,7 @@ import dk.dma.ais.abnormal.analyzer.analysis.FreeFlowAnalysis;
 import dk.dma.ais.abnormal.analyzer.analysis.ShipTypeAndSizeAnalysis;
 import dk.dma.ais.abnormal.analyzer.analysis.SpeedOverGroundAnalysis;
 import dk.dma.ais.abnormal.analyzer.analysis.SuddenSpeedChangeAnalysis;
+import dk.dma.ais.abnormal.event.db.EventRepository;
 import dk.dma.ais.filter.IPacketFilter;
 import dk.dma.ais.message.AisMessage;
 import dk.dma.ais.message.AisMessage5;
@@ -54,6 +55,7 @@ public class PacketHandlerImpl implements PacketHandler {
     private final Configuration configuration;
     private final AppStatisticsService statisticsService;
     private final EventEmittingTracker tracker;
+    private final EventRepository eventRepository;
     private final Set<IPacketFilter> filters;
     private final Predicate<AisPacket> shipNameFilter;
     private final Injector injector;
@@ -66,6 +68,7 @@ public class PacketHandlerImpl implements PacketHandler {
             Injector injector,
             AppStatisticsService statisticsService,
             EventEmittingTracker tracker,
+            EventRepository eventRepository,
             Set<IPacketFilter> filters,
             @Named("shipNameFilter") Predicate<AisPacket> shipNameFilter
     ) {
@@ -73,6 +76,7 @@ public class PacketHandlerImpl implements PacketHandler {
         this.injector = injector;
         this.statisticsService = statisticsService;
         this.tracker = tracker;
+        this.eventRepository = eventRepository;
         this.filters = filters;
         this.shipNameFilter = shipNameFilter;
         this.analyses = initAnalyses();
@@ -142,7 +146,8 @@ public class PacketHandlerImpl implements PacketHandler {
     }
 
     private void doWork(AisPacket packet) {
-        tracker.update(packet);
+        // The analyses triggered by the packet write their events in one unit of work
+        eventRepository.runInUnitOfWork(() -> tracker.update(packet));
     }
 
     Set<Analysis> initAnalyses() {
@@ -122,9 +122,7 @@ public abstract class Analysis {
         Event ongoingEvent = eventRepository.findOngoingEventByVessel(mmsi, eventClass);
         if (ongoingEvent != null) {
             LocalDateTime timestamp = track.getTimeOfLastUpdateTyped();
-            ongoingEvent.setState(Event.State.PAST);
-            ongoingEvent.setEndTime(timestamp);
-            eventRepository.save(ongoingEvent);
+            eventRepository.endEvent(ongoingEvent, timestamp);
         }
     }
 
@@ -156,12 +154,11 @@ public abstract class Analysis {
                 }
             }
 
-            addTrackingPoint(event, mmsi, positionTimestamp, position, cog, sog, hdg, interpolated, certainty);
+            eventRepository.appendTrackingPoint(event, mmsi, newTrackingPoint(positionTimestamp, position, cog, sog, hdg, interpolated, certainty));
         } else {
             event = buildEvent(primaryTrack, otherTracks);
+            eventRepository.save(event);
         }
-
-        eventRepository.save(event);
     }
 
     /**
@@ -169,19 +166,23 @@ public abstract class Analysis {
      */
     protected static void addTrackingPoint(Event event, int mmsi, LocalDateTime positionTimestamp, Position position, Float cog, Float sog, Float hdg, Boolean interpolated, TrackingPoint.EventCertainty eventCertainty) {
         event.getBehaviour(mmsi).addTrackingPoint(
-                TrackingPointBuilder.TrackingPoint()
-                        .timestamp(positionTimestamp)
-                        .positionInterpolated(interpolated)
-                        .eventCertainty(eventCertainty)
-                        .speedOverGround(sog)
-                        .courseOverGround(cog)
-                        .trueHeading(hdg)
-                        .latitude(position.getLatitude())
-                        .longitude(position.getLongitude())
-                        .getTrackingPoint()
+                newTrackingPoint(positionTimestamp, position, cog, sog, hdg, interpolated, eventCertainty)
         );
     }
 
+    private static TrackingPoint newTrackingPoint(LocalDateTime positionTimestamp, Position position, Float cog, Float sog, Float hdg, Boolean interpolated, TrackingPoint.EventCertainty eventCertainty) {
+        return TrackingPointBuilder.TrackingPoint()
+                .timestamp(positionTimestamp)
+                .positionInterpolated(interpolated)
+                .eventCertainty(eventCertainty)
+                .speedOverGround(sog)
+                .courseOverGround(cog)
+                .trueHeading(hdg)
+                .latitude(position.getLatitude())
+                .longitude(position.getLongitude())
+                .getTrackingPoint();
+    }
+
     /**
      * Add the most recent track points (except THE most recent one) to the track history.
      * @param event
@@ -84,6 +84,13 @@ public final class Configuration {
     public static final String CONFKEY_EVENTS_PGSQL_PASSWORD = "events.pgsql.password";
     public static final String CONFKEY_EVENTS_H2_FILE = "events.h2.file";
     public static final String CONFKEY_EVENTS_CSV_FILE = "events.csv.file";
+    public static final String CONFKEY_EVENTS_LOG_FILE = "events.log.file";
+    public static final String CONFKEY_EVENTS_WRITEBEHIND_MAXLAG = "events.writebehind.maxlag";
+    public static final String CONFKEY_EVENTS_WRITEBEHIND_BATCHSIZE = "events.writebehind.batchsize";
+    public static final String CONFKEY_EVENTS_RETENTION_MONTHS = "events.retention.months";
+    public static final String CONFKEY_EVENTS_ARCHIVE_DIRECTORY = "events.archive.directory";
+    public static final String CONFKEY_EVENTS_PUSH_PORT = "events.push.port";
+    public static final String CONFKEY_EVENTS_PUSH_ADDRESS = "events.push.address";
     public static final String CONFKEY_AIS_DATASOURCE_URL = "ais.datasource.url";
     public static final String CONFKEY_AIS_DATASOURCE_DOWNSAMPLING = "ais.datasource.downsampling";
     public static final String CONFKEY_REPORTS_ENABLED = "reports.enabled";
@@ -157,8 +164,8 @@ public final class Configuration {
             return false;
         } else {
             String t = eventsRepositoryType.toLowerCase().trim();
-            if (! ("h2".equals(t) || "pgsql".equals(t) || "csv".equals(t))) {
-                LOG.error("Illegal value: '" + t + "'. Only 'pgsql', 'h2' or 'csv' allowed for configuration key: " + CONFKEY_EVENTS_REPOSITORY_TYPE);
+            if (! ("h2".equals(t) || "pgsql".equals(t) || "csv".equals(t) || "log".equals(t))) {
+                LOG.error("Illegal value: '" + t + "'. Only 'pgsql', 'h2', 'csv' or 'log' allowed for configuration key: " + CONFKEY_EVENTS_REPOSITORY_TYPE);
                 return false;
             }
         }
@@ -213,6 +220,21 @@ public final class Configuration {
             }
         }
 
+        // Validate event retention
+        if ("h2".equals(eventsRepositoryType.toLowerCase().trim()) || "pgsql".equals(eventsRepositoryType.toLowerCase().trim())) {
+            int retentionMonths;
+            try {
+                retentionMonths = configuration.getInt(CONFKEY_EVENTS_RETENTION_MONTHS, 0);
+            } catch (ConversionException e) {
+                LOG.error("Illegal integer value for: " + CONFKEY_EVENTS_RETENTION_MONTHS);
+                return false;
+            }
+            if (retentionMonths > 0 && isBlank(configuration.getString(CONFKEY_EVENTS_ARCHIVE_DIRECTORY))) {
+                LOG.error("Missing value for: " + CONFKEY_EVENTS_ARCHIVE_DIRECTORY + " (required when " + CONFKEY_EVENTS_RETENTION_MONTHS + " > 0)");
+                return false;
+            }
+        }
+
         // Validate analysis - drift
         if (!isValidPositiveFloat(configuration, CONFKEY_ANALYSIS_DRIFT_PERIOD)) return false;
         if (!isValidPositiveFloat(configuration, CONFKEY_ANALYSIS_DRIFT_DISTANCE)) return false;
@@ -50,7 +50,7 @@ public class PacketHandlerImplTest {
         context.checking(new Expectations() {{
         }});
 
-        PacketHandlerImpl sut = new PacketHandlerImpl(configuration, injectorMock, null, null, null, null);
+        PacketHandlerImpl sut = new PacketHandlerImpl(configuration, injectorMock, null, null, null, null, null);
         Set<Analysis> analyses = sut.getAnalyses();
 
         assertEquals(0, analyses.size());
@@ -88,7 +88,7 @@ public class PacketHandlerImplTest {
             oneOf(injectorMock).getInstance(with(FreeFlowAnalysis.class)); will(returnValue(new FreeFlowAnalysis(configuration, null, trackingServiceMock, null)));
         }});
 
-        PacketHandlerImpl sut = new PacketHandlerImpl(configuration, injectorMock, null, null, null, null);
+        PacketHandlerImpl sut = new PacketHandlerImpl(configuration, injectorMock, null, null, null, null, null);
 
         Set<Analysis> analyses = sut.getAnalyses();
         assertEquals(7, analyses.size());
@@ -127,7 +127,7 @@ public class PacketHandlerImplTest {
             oneOf(injectorMock).getInstance(with(CloseEncounterAnalysis.class)); will(returnValue(new CloseEncounterAnalysis(configuration, null, trackingServiceMock, null, safetyZoneService)));
         }});
 
-        PacketHandlerImpl sut = new PacketHandlerImpl(configuration, injectorMock, null, null, null, null);
+        PacketHandlerImpl sut = new PacketHandlerImpl(configuration, injectorMock, null, null, null, null, null);
 
         Set<Analysis> analyses = sut.getAnalyses();
         assertEquals(2, analyses.size());
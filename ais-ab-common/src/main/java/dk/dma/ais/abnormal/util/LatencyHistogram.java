@@ -0,0 +1,119 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.util;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations from which percentiles can be read while it is updated.
+ *
+ * Durations are counted in logarithmic buckets of microseconds; SUB_BUCKETS per power of two. A percentile is
+ * reported as the upper bound of the bucket it falls into (but never above the max. recorded duration), so it
+ * is at most 1/SUB_BUCKETS too high. Counts are kept since the histogram was created.
+ */
+@ThreadSafe
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int NUMBER_OF_BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Record a duration.
+     * @param nanos the duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketOf(nanos / 1000));
+        count.increment();
+        sumNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : sumNanos.sum() / 1000.0 / n;
+    }
+
+    public long getMaxMicros() {
+        return maxNanos.get() / 1000;
+    }
+
+    /**
+     * Return the approximate duration in usecs below which the given fraction of the recorded durations fall.
+     * @param fraction 0.0 &lt; fraction &lt;= 1.0; e.g. 0.99 for the 99th percentile.
+     */
+    public long getPercentileMicros(double fraction) {
+        long[] snapshot = new long[NUMBER_OF_BUCKETS];
+        long n = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        final long max = getMaxMicros();
+        long seen = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /** Values below SUB_BUCKETS get a bucket each; above that, the SUB_BUCKET_BITS bits after the leading one select the bucket */
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Return the largest value in usecs counted in the given bucket */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowerBound = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+}
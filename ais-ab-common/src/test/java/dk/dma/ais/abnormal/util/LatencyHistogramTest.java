@@ -0,0 +1,116 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getMeanMicros(), 1e-9);
+        assertEquals(0, histogram.getPercentileMicros(0.99));
+        assertEquals(0, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void smallValuesHaveABucketEachAndLargerValuesShareBuckets() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(1, LatencyHistogram.bucketOf(1));
+        assertEquals(2, LatencyHistogram.bucketOf(2));
+        assertEquals(3, LatencyHistogram.bucketOf(3));
+        assertEquals(5, LatencyHistogram.bucketOf(5));
+        assertEquals(7, LatencyHistogram.bucketOf(7));
+        assertEquals(8, LatencyHistogram.bucketOf(8));
+        assertEquals(8, LatencyHistogram.bucketOf(9));
+        assertEquals(9, LatencyHistogram.bucketOf(10));
+        assertEquals(LatencyHistogram.NUMBER_OF_BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void bucketsAreContiguousAndAtMostAQuarterWide() {
+        long lowerBound = 0;
+        for (int bucket = 0; bucket < LatencyHistogram.NUMBER_OF_BUCKETS; bucket++) {
+            long upperBound = LatencyHistogram.upperBoundOf(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(lowerBound));
+            assertEquals(bucket, LatencyHistogram.bucketOf(upperBound));
+            assertTrue(upperBound - lowerBound <= lowerBound / 4);
+            lowerBound = upperBound + 1;
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.NUMBER_OF_BUCKETS - 1));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(3000);    // 3 usecs
+        }
+        histogram.record(100000);      // 100 usecs
+        histogram.record(1000000);     // 1000 usecs
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(3, histogram.getPercentileMicros(0.50));
+        assertEquals(3, histogram.getPercentileMicros(0.98));
+        assertEquals(111, histogram.getPercentileMicros(0.99));
+        assertEquals(1000, histogram.getPercentileMicros(1.0));
+        assertEquals(1000, histogram.getMaxMicros());
+        assertEquals((98 * 3.0 + 100.0 + 1000.0) / 100, histogram.getMeanMicros(), 1e-9);
+    }
+
+    @Test
+    public void negativeDurationsCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5000);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(1.0));
+        assertEquals(0, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final long nanos = (t + 1) * 1000000L;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(nanos);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, histogram.getCount());
+        assertEquals(4000, histogram.getMaxMicros());
+        assertEquals(2500.0, histogram.getMeanMicros(), 1e-9);
+        assertEquals(4000, histogram.getPercentileMicros(1.0));
+    }
+}
@@ -17,9 +17,14 @@
 package dk.dma.ais.abnormal.event.db;
 
 import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.EventLocation;
+import dk.dma.ais.abnormal.event.db.domain.EventSummary;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
 
+import java.time.LocalDateTime;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Database-agnostic interface for the Event repository.
@@ -38,6 +43,25 @@ public interface EventRepository {
      */
     void save(Event event);
 
+    /**
+     * Add a tracking point to the behaviour of a vessel in a saved event, and store only the
+     * new tracking point - not the rest of the event.
+     *
+     * @param event the event; previously saved.
+     * @param mmsi the MMSI of the vessel to whose behaviour the tracking point is added.
+     * @param trackingPoint the new tracking point.
+     */
+    void appendTrackingPoint(Event event, int mmsi, TrackingPoint trackingPoint);
+
+    /**
+     * Set the state of a saved event to PAST and its end time to endTime, and store only these two
+     * properties - not the rest of the event.
+     *
+     * @param event the event; previously saved.
+     * @param endTime the time when the event ended.
+     */
+    void endEvent(Event event, LocalDateTime endTime);
+
     /**
      * Get an event from the database.
      *
@@ -50,8 +74,12 @@ public interface EventRepository {
      * Get events (past and ongoing) where active period spans inside from and to parameters, where
      * event type is of given type, and where vessel has given name, callsign or IMO no.
      *
+     * A numeric vessel parameter is matched exactly against MMSI and IMO no.; otherwise it is matched as a
+     * case-insensitive substring of name or callsign.
+     *
      * If any of the parameters north, east, south, west are supplied, they must all four be supplied. All returned
-     * events will then be completely or partly inside the area bounded by these four values.
+     * events will then be completely or partly inside the area bounded by these four values. Implementations may
+     * approximate this by the bounding box of each event's tracking points.
      *
      * @param from
      * @param to
@@ -65,6 +93,49 @@ public interface EventRepository {
      */
     List<Event> findEventsByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west);
 
+    /**
+     * Get one page of the events found by findEventsByFromAndToAndTypeAndVesselAndArea(from, to, type, vessel, north,
+     * east, south, west). Events are ordered by id. The next page is found by passing the id of the last event
+     * on this page as afterId.
+     *
+     * @param afterId only events with id greater than afterId are returned; or null to start from the first event.
+     * @param maxResults max. no. of events returned; or 0 for no limit.
+     */
+    List<Event> findEventsByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults);
+
+    /**
+     * Pass the events found by findEventsByFromAndToAndTypeAndVesselAndArea(from, to, type, vessel, north, east,
+     * south, west, afterId, maxResults) to a consumer, one at a time and ordered by id. Implementations may pass
+     * events while the result is read from the repository, so that the full result is never held in memory; the
+     * consumer must then not keep references to the events.
+     *
+     * @return the no. of events passed to the consumer.
+     */
+    default long findEventsByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults, Consumer<Event> consumer) {
+        List<Event> events = findEventsByFromAndToAndTypeAndVesselAndArea(from, to, type, vessel, north, east, south, west, afterId, maxResults);
+        events.forEach(consumer);
+        return events.size();
+    }
+
+    /**
+     * Pass summaries of the events found by findEventsByFromAndToAndTypeAndVesselAndArea(from, to, type, vessel, north,
+     * east, south, west, afterId, maxResults) to a consumer, one at a time and ordered by id. Summaries are passed
+     * while the result is read from the repository, so the full result is never held in memory.
+     *
+     * @return the no. of summaries passed to the consumer.
+     */
+    long findEventSummariesByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults, Consumer<EventSummary> consumer);
+
+    /**
+     * Pass the location of each event with an id above afterId (suppressed events excepted) to a consumer, one at
+     * a time and ordered by id. Implementations should read only the columns needed; not the behaviours.
+     *
+     * @return the no. of locations passed to the consumer.
+     */
+    default long findEventLocations(long afterId, Consumer<EventLocation> consumer) {
+        return findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, null, null, null, null, null, afterId, 0, event -> consumer.accept(EventLocation.of(event)));
+    }
+
     /**
      * Get all events (past and ongoing) which are active inside the given time period. All event which have a second
      * of its lifespan inside the query time span is included - e.g. events starting before 'from' but ending after
@@ -86,4 +157,14 @@ public interface EventRepository {
 
     <T extends Event> T findOngoingEventByVessel(int mmsi, Class<T> eventClass);
 
+    /**
+     * Run work which may write several events as one unit; e.g. the analyses of one AIS packet. Repositories
+     * may use this to share resources, such as a database session and transaction, between the writes.
+     *
+     * @param work the work to run on the current thread.
+     */
+    default void runInUnitOfWork(Runnable work) {
+        work.run();
+    }
+
 }
@@ -20,6 +20,7 @@ import com.google.inject.Inject;
 import dk.dma.ais.abnormal.event.db.EventRepository;
 import dk.dma.ais.abnormal.event.db.domain.Behaviour;
 import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.EventSummary;
 import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
@@ -32,6 +33,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.HashMap;
@@ -39,6 +41,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 import static java.time.temporal.ChronoUnit.MINUTES;
 
@@ -140,6 +143,18 @@ public class CsvEventRepository implements EventRepository {
         }
     }
 
+    @Override
+    public void appendTrackingPoint(Event event, int mmsi, TrackingPoint trackingPoint) {
+        event.getBehaviour(mmsi).addTrackingPoint(trackingPoint);
+    }
+
+    @Override
+    public void endEvent(Event event, LocalDateTime endTime) {
+        event.setState(Event.State.PAST);
+        event.setEndTime(endTime);
+        save(event);
+    }
+
     private String filterSuggestion(Event event) {
         DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH:mm");
 
@@ -174,6 +189,16 @@ public class CsvEventRepository implements EventRepository {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public List<Event> findEventsByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long findEventSummariesByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults, Consumer<EventSummary> consumer) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public List<Event> findEventsByFromAndTo(Date from, Date to) {
         throw new UnsupportedOperationException();
@@ -0,0 +1,193 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.density;
+
+import dk.dma.ais.abnormal.event.db.EventRepository;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.EventLocation;
+import dk.dma.enav.model.geometry.BoundingBox;
+import dk.dma.enav.model.geometry.grid.Cell;
+import dk.dma.enav.model.geometry.grid.Grid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * EventDensityIndex holds the no. of events per grid cell, event type and day; so that the density of
+ * events in any area and period can be computed without reading the events.
+ *
+ * An event is counted in the cell holding the centre of its bounding box (or its first tracking point if
+ * it has no bounding box), on the day it started. The cost of a query depends on the no. of days queried
+ * and the no. of cells holding events on those days, but not on the no. of events.
+ *
+ * The index is built and kept up to date from an EventRepository by update(); each call reads the id and location
+ * of the events saved since the previous call. Events later deleted from the repository remain counted.
+ *
+ * Event ids are assigned before the events are committed, so an event may become visible after events with higher
+ * ids. update() therefore reads again the last ID_LAG_WINDOW ids below the highest id seen, and counts the events
+ * among them not counted before. Events committed later than that are never counted. The same applies to events
+ * without a position yet: they are counted if they get one while within the window.
+ */
+@ThreadSafe
+public class EventDensityIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventDensityIndex.class);
+
+    /** No. of ids below the highest id seen which are read again by update() */
+    static final long ID_LAG_WINDOW = 10000;
+
+    private final Grid grid;
+
+    /** epoch day -> event type -> cell id -> no. of events */
+    private final NavigableMap<Long, ConcurrentMap<String, ConcurrentMap<Long, AtomicInteger>>> counts = new ConcurrentSkipListMap<>();
+
+    /** cell id -> latitude and longitude of the centre of the cell */
+    private final ConcurrentMap<Long, double[]> cellCentres = new ConcurrentHashMap<>();
+
+    private final long idLagWindow;
+
+    @GuardedBy("this")
+    private long lastEventId;
+
+    /** The ids above lastEventId - idLagWindow which have been counted; not those read without a position */
+    @GuardedBy("this")
+    private final NavigableSet<Long> countedIds = new TreeSet<>();
+
+    public EventDensityIndex(Grid grid) {
+        this(grid, ID_LAG_WINDOW);
+    }
+
+    EventDensityIndex(Grid grid, long idLagWindow) {
+        this.grid = grid;
+        this.idLagWindow = idLagWindow;
+    }
+
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Count the events saved in the repository since the last update.
+     *
+     * @return the no. of events counted.
+     */
+    public synchronized long update(EventRepository eventRepository) {
+        final long start = System.currentTimeMillis();
+        final long[] n = {0};
+        eventRepository.findEventLocations(Math.max(0, lastEventId - idLagWindow), location -> {
+            if (!countedIds.contains(location.getId()) && add(location)) {
+                countedIds.add(location.getId());
+                n[0]++;
+            }
+            lastEventId = Math.max(lastEventId, location.getId());
+        });
+        countedIds.headSet(lastEventId - idLagWindow, true).clear();
+        if (n[0] > 0) {
+            LOG.info("Counted " + n[0] + " events in density index in " + (System.currentTimeMillis() - start) + " msecs.");
+        }
+        return n[0];
+    }
+
+    /**
+     * Count an event.
+     *
+     * @return true if the event was counted; false if its position is unknown.
+     */
+    public boolean add(Event event) {
+        return add(EventLocation.of(event));
+    }
+
+    /**
+     * Count an event at its location.
+     *
+     * @return true if the event was counted; false if its position is unknown.
+     */
+    public boolean add(EventLocation location) {
+        if (!location.hasPosition() || location.getStartTime() == null) {
+            return false;
+        }
+        add(location.getEventType(), location.getStartTime().toLocalDate(), location.getLatitude(), location.getLongitude());
+        return true;
+    }
+
+    /**
+     * Count an event of the given type on the given day at the given position.
+     */
+    public void add(String eventType, LocalDate day, double latitude, double longitude) {
+        Cell cell = grid.getCell(latitude, longitude);
+        long cellId = cell.getCellId();
+        cellCentres.computeIfAbsent(cellId, id -> {
+            BoundingBox bbox = grid.getBoundingBoxOfCell(cell);
+            return new double[] {(bbox.getMinLat() + bbox.getMaxLat()) / 2.0, (bbox.getMinLon() + bbox.getMaxLon()) / 2.0};
+        });
+        counts.computeIfAbsent(day.toEpochDay(), d -> new ConcurrentHashMap<>())
+            .computeIfAbsent(eventType, t -> new ConcurrentHashMap<>())
+            .computeIfAbsent(cellId, c -> new AtomicInteger())
+            .incrementAndGet();
+    }
+
+    /**
+     * Compute a heatmap of the events in an area and period, binned in rows x columns equally sized bins.
+     *
+     * @param from first day of the period (inclusive).
+     * @param to last day of the period (inclusive).
+     * @param eventType type of events to count; or null to count all types.
+     */
+    public EventHeatmap getHeatmap(LocalDate from, LocalDate to, String eventType, double north, double east, double south, double west, int rows, int columns) {
+        if (north <= south || east <= west) {
+            throw new IllegalArgumentException("Area must have north > south and east > west.");
+        }
+        if (rows <= 0 || columns <= 0) {
+            throw new IllegalArgumentException("rows and columns must be positive.");
+        }
+
+        final int[] bins = new int[rows * columns];
+        final double binHeight = (north - south) / rows;
+        final double binWidth = (east - west) / columns;
+
+        for (Map<String, ConcurrentMap<Long, AtomicInteger>> countsOfDay : counts.subMap(from.toEpochDay(), true, to.toEpochDay(), true).values()) {
+            for (Map.Entry<String, ConcurrentMap<Long, AtomicInteger>> countsOfType : countsOfDay.entrySet()) {
+                if (eventType != null && !eventType.equals(countsOfType.getKey())) {
+                    continue;
+                }
+                for (Map.Entry<Long, AtomicInteger> countOfCell : countsOfType.getValue().entrySet()) {
+                    double[] centre = cellCentres.get(countOfCell.getKey());
+                    if (centre[0] < south || centre[0] >= north || centre[1] < west || centre[1] >= east) {
+                        continue;
+                    }
+                    int row = Math.min(rows - 1, (int) ((north - centre[0]) / binHeight));
+                    int column = Math.min(columns - 1, (int) ((centre[1] - west) / binWidth));
+                    bins[row * columns + column] += countOfCell.getValue().get();
+                }
+            }
+        }
+
+        return new EventHeatmap(north, east, south, west, rows, columns, bins);
+    }
+
+}
@@ -0,0 +1,99 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.density;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The no. of events in each of rows x columns equally sized bins covering an area. Bins are ordered
+ * row by row from the north-west corner.
+ */
+@Immutable
+public final class EventHeatmap {
+
+    private final double north;
+    private final double east;
+    private final double south;
+    private final double west;
+    private final int rows;
+    private final int columns;
+    private final int[] counts;
+    private final long total;
+    private final int max;
+
+    EventHeatmap(double north, double east, double south, double west, int rows, int columns, int[] counts) {
+        this.north = north;
+        this.east = east;
+        this.south = south;
+        this.west = west;
+        this.rows = rows;
+        this.columns = columns;
+        this.counts = counts;
+
+        long total = 0;
+        int max = 0;
+        for (int count : counts) {
+            total += count;
+            max = Math.max(max, count);
+        }
+        this.total = total;
+        this.max = max;
+    }
+
+    public double getNorth() {
+        return north;
+    }
+
+    public double getEast() {
+        return east;
+    }
+
+    public double getSouth() {
+        return south;
+    }
+
+    public double getWest() {
+        return west;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int[] getCounts() {
+        return counts.clone();
+    }
+
+    public int getCount(int row, int column) {
+        return counts[row * columns + column];
+    }
+
+    /** Total no. of events in the heatmap */
+    public long getTotal() {
+        return total;
+    }
+
+    /** Largest no. of events in any bin */
+    public int getMax() {
+        return max;
+    }
+
+}
@@ -26,6 +26,8 @@ import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.JoinTable;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.OrderBy;
@@ -40,6 +42,11 @@ import static java.util.Collections.sort;
 @Entity
 public class Behaviour {
 
+    /** Names of the table linking behaviours to tracking points, and of its columns (the JPA defaults) */
+    public static final String TRACKINGPOINTS_JOIN_TABLE = "Behaviour_TrackingPoint";
+    public static final String TRACKINGPOINTS_JOIN_COLUMN = "Behaviour_id";
+    public static final String TRACKINGPOINTS_INVERSE_JOIN_COLUMN = "trackingPoints_id";
+
     public Behaviour() {
         trackingPoints = new LinkedList<>();
     }
@@ -69,6 +76,13 @@ public class Behaviour {
         return id;
     }
 
+    /**
+     * Set the id. Only for repositories; e.g. to clear an id generated in a transaction which was rolled back.
+     */
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public boolean isPrimary() {
         return isPrimary;
     }
@@ -96,6 +110,11 @@ public class Behaviour {
     // TODO create index on behaviour_trackingpoint (behaviour_id);
     @NotNull
     @OneToMany(cascade = CascadeType.ALL)
+    @JoinTable(
+        name = TRACKINGPOINTS_JOIN_TABLE,
+        joinColumns = @JoinColumn(name = TRACKINGPOINTS_JOIN_COLUMN),
+        inverseJoinColumns = @JoinColumn(name = TRACKINGPOINTS_INVERSE_JOIN_COLUMN)
+    )
     @Fetch(FetchMode.JOIN)
     @OrderBy("timestamp")
     private List<TrackingPoint> trackingPoints;
@@ -49,7 +49,9 @@ import java.util.stream.Collectors;
     indexes = {
         @Index(name="INDEX_EVENT_STARTTIME", columnList = "startTime"),
         @Index(name="INDEX_EVENT_ENDTIME", columnList = "endTime"),
-        @Index(name="INDEX_EVENT_SUPPRESSED", columnList = "suppressed")
+        @Index(name="INDEX_EVENT_SUPPRESSED", columnList = "suppressed"),
+        @Index(name="INDEX_EVENT_BOUNDINGBOX_LATITUDE", columnList = "boundingBoxSouth, boundingBoxNorth"),
+        @Index(name="INDEX_EVENT_BOUNDINGBOX_LONGITUDE", columnList = "boundingBoxWest, boundingBoxEast")
     }
 )
 @Entity
@@ -80,6 +82,15 @@ public abstract class Event {
     @Fetch(FetchMode.JOIN)
     private Set<Behaviour> behaviours;
 
+    /**
+     * The bounding box of all tracking points of this event; used to search events by area
+     * without joining the tracking points. Null if the event has no tracking points.
+     */
+    private Double boundingBoxNorth;
+    private Double boundingBoxEast;
+    private Double boundingBoxSouth;
+    private Double boundingBoxWest;
+
     /** A title of the event in English language. */
     @NotBlank
     private String title;
@@ -95,6 +106,14 @@ public abstract class Event {
         return id;
     }
 
+    /**
+     * Set the id of this event. Only for repositories which assign ids themselves; in a relational
+     * database the id is generated when the event is first saved.
+     */
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public String getEventType() {
         return this.getClass().getSimpleName();
     }
@@ -164,6 +183,62 @@ public abstract class Event {
         this.description = description;
     }
 
+    public Double getBoundingBoxNorth() {
+        return boundingBoxNorth;
+    }
+
+    public Double getBoundingBoxEast() {
+        return boundingBoxEast;
+    }
+
+    public Double getBoundingBoxSouth() {
+        return boundingBoxSouth;
+    }
+
+    public Double getBoundingBoxWest() {
+        return boundingBoxWest;
+    }
+
+    /**
+     * Recompute the bounding box from all tracking points of all behaviours of this event.
+     */
+    public void updateBoundingBox() {
+        boundingBoxNorth = boundingBoxEast = boundingBoxSouth = boundingBoxWest = null;
+        behaviours.forEach(b -> b.getTrackingPoints().forEach(tp -> extendBoundingBox(tp)));
+    }
+
+    /**
+     * Extend the bounding box of this event to include the position of a tracking point.
+     *
+     * @return true if the bounding box was changed.
+     */
+    public boolean extendBoundingBox(TrackingPoint trackingPoint) {
+        final Double latitude = trackingPoint.getLatitude();
+        final Double longitude = trackingPoint.getLongitude();
+        if (latitude == null || longitude == null) {
+            return false;
+        }
+
+        boolean changed = false;
+        if (boundingBoxNorth == null || latitude > boundingBoxNorth) {
+            boundingBoxNorth = latitude;
+            changed = true;
+        }
+        if (boundingBoxSouth == null || latitude < boundingBoxSouth) {
+            boundingBoxSouth = latitude;
+            changed = true;
+        }
+        if (boundingBoxEast == null || longitude > boundingBoxEast) {
+            boundingBoxEast = longitude;
+            changed = true;
+        }
+        if (boundingBoxWest == null || longitude < boundingBoxWest) {
+            boundingBoxWest = longitude;
+            changed = true;
+        }
+        return changed;
+    }
+
     public Set<Integer> involvedMmsis() {
         return behaviours.stream().map(b -> b.getVessel().getMmsi()).distinct().collect(Collectors.toSet());
     }
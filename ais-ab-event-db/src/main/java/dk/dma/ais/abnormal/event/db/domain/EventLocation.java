@@ -0,0 +1,107 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.domain;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.time.LocalDateTime;
+
+/**
+ * The id, type, start time and position of an event; without its behaviours.
+ *
+ * The position of an event is the centre of its bounding box; or its first tracking point if it has no
+ * bounding box. The position is null if unknown.
+ */
+@Immutable
+public final class EventLocation {
+
+    private final long id;
+    private final String eventType;
+    private final LocalDateTime startTime;
+    private final Double latitude;
+    private final Double longitude;
+
+    public EventLocation(long id, String eventType, LocalDateTime startTime, Double latitude, Double longitude) {
+        this.id = id;
+        this.eventType = eventType;
+        this.startTime = startTime;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Create the location of an event from the centre of its bounding box, given as read from the repository.
+     */
+    public static EventLocation of(long id, String eventType, LocalDateTime startTime, Double north, Double east, Double south, Double west) {
+        if (north != null && east != null && south != null && west != null) {
+            return new EventLocation(id, eventType, startTime, (north + south) / 2.0, (east + west) / 2.0);
+        }
+        return new EventLocation(id, eventType, startTime, null, null);
+    }
+
+    public static EventLocation of(Event event) {
+        EventLocation location = of(event.getId(), event.getEventType(), event.getStartTime(), event.getBoundingBoxNorth(), event.getBoundingBoxEast(), event.getBoundingBoxSouth(), event.getBoundingBoxWest());
+        if (location.hasPosition()) {
+            return location;
+        }
+
+        Behaviour behaviour = event.primaryBehaviour();
+        if (behaviour != null && !behaviour.getTrackingPoints().isEmpty()) {
+            TrackingPoint trackingPoint = behaviour.getTrackingPoints().first();
+            if (trackingPoint.getLatitude() != null && trackingPoint.getLongitude() != null) {
+                return new EventLocation(event.getId(), event.getEventType(), event.getStartTime(), trackingPoint.getLatitude(), trackingPoint.getLongitude());
+            }
+        }
+
+        return location;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public LocalDateTime getStartTime() {
+        return startTime;
+    }
+
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    public boolean hasPosition() {
+        return latitude != null && longitude != null;
+    }
+
+    @Override
+    public String toString() {
+        return "EventLocation{" +
+                "id=" + id +
+                ", eventType='" + eventType + '\'' +
+                ", startTime=" + startTime +
+                ", latitude=" + latitude +
+                ", longitude=" + longitude +
+                '}';
+    }
+}
@@ -0,0 +1,86 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.domain;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.time.LocalDateTime;
+
+/**
+ * A light-weight summary of an Event without its behaviours and tracking points.
+ */
+@Immutable
+public final class EventSummary {
+
+    private final long id;
+    private final String eventType;
+    private final Event.State state;
+    private final LocalDateTime startTime;
+    private final LocalDateTime endTime;
+    private final String title;
+    private final String description;
+
+    public EventSummary(long id, String eventType, Event.State state, LocalDateTime startTime, LocalDateTime endTime, String title, String description) {
+        this.id = id;
+        this.eventType = eventType;
+        this.state = state;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.title = title;
+        this.description = description;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public Event.State getState() {
+        return state;
+    }
+
+    public LocalDateTime getStartTime() {
+        return startTime;
+    }
+
+    public LocalDateTime getEndTime() {
+        return endTime;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public String toString() {
+        return "EventSummary{" +
+                "id=" + id +
+                ", eventType='" + eventType + '\'' +
+                ", state=" + state +
+                ", startTime=" + startTime +
+                ", endTime=" + endTime +
+                ", title='" + title + '\'' +
+                '}';
+    }
+}
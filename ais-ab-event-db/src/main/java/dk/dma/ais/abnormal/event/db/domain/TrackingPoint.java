@@ -78,6 +78,13 @@ public class TrackingPoint implements Comparable<TrackingPoint> {
         return id;
     }
 
+    /**
+     * Set the id. Only for repositories; e.g. to clear an id generated in a transaction which was rolled back.
+     */
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public Double getLatitude() {
         return latitude;
     }
@@ -66,6 +66,13 @@ public class Vessel implements Serializable {
         return id;
     }
 
+    /**
+     * Set the id. Only for repositories; e.g. to clear an id generated in a transaction which was rolled back.
+     */
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public String getName() {
         return name;
     }
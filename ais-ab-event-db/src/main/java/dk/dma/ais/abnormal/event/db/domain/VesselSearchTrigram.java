@@ -0,0 +1,116 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.domain;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A VesselSearchTrigram records that the normalised name or call sign of a vessel contains a given
+ * sequence of three characters. The trigrams are used to search vessels by substring of name or call sign
+ * using an index; instead of a LIKE '%...%' scan of all vessels.
+ *
+ * Trigrams are written when a vessel is first persisted.
+ */
+@Table(
+    indexes = {
+        @Index(name="INDEX_VESSELSEARCHTRIGRAM_TRIGRAM", columnList = "trigram, vesselId")
+    }
+)
+@Entity
+public class VesselSearchTrigram {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private long id;
+
+    /** The id of the vessel */
+    @NotNull
+    private long vesselId;
+
+    @NotNull
+    private String trigram;
+
+    protected VesselSearchTrigram() {
+    }
+
+    public VesselSearchTrigram(long vesselId, String trigram) {
+        this.vesselId = vesselId;
+        this.trigram = trigram;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getVesselId() {
+        return vesselId;
+    }
+
+    public String getTrigram() {
+        return trigram;
+    }
+
+    /**
+     * Normalise a text for searching: Upper case; and each run of characters which are not letters
+     * or digits replaced by a single space.
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.toUpperCase(Locale.ENGLISH).replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+    }
+
+    /**
+     * Get the distinct trigrams of the normalised form of each of the given texts.
+     */
+    public static Set<String> trigramsOf(String... texts) {
+        Set<String> trigrams = new LinkedHashSet<>();
+        for (String text : texts) {
+            String normalized = normalize(text);
+            for (int i = 0; i + 3 <= normalized.length(); i++) {
+                trigrams.add(normalized.substring(i, i + 3));
+            }
+        }
+        return trigrams;
+    }
+
+    /**
+     * Get the trigrams contained in every text matching a LIKE pattern; i.e. the trigrams of each
+     * literal part of the pattern between the wildcards % and _.
+     */
+    public static Set<String> trigramsOfPattern(String pattern) {
+        return trigramsOf(pattern == null ? new String[0] : pattern.split("[%_]"));
+    }
+
+    /**
+     * Get the trigrams to be recorded for a vessel.
+     */
+    public static Set<String> trigramsOf(Vessel vessel) {
+        return trigramsOf(vessel.getName(), vessel.getCallsign());
+    }
+
+}
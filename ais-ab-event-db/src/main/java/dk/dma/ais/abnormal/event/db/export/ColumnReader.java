@@ -0,0 +1,158 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.export;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A ColumnReader decodes the values of one column of a block, as written by a ColumnWriter.
+ */
+@NotThreadSafe
+final class ColumnReader {
+
+    private final byte[] bytes;
+    private int position;
+    private long previous;
+
+    private ColumnReader(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Read the length and contents of a column from in.
+     */
+    static ColumnReader read(InputStream in) throws IOException {
+        long length = readUnsigned(in);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid column length " + length + ".");
+        }
+        byte[] bytes = new byte[(int) length];
+        int n = 0;
+        while (n < bytes.length) {
+            int r = in.read(bytes, n, bytes.length - n);
+            if (r < 0) {
+                throw new EOFException("Column truncated.");
+            }
+            n += r;
+        }
+        return new ColumnReader(bytes);
+    }
+
+    long readUnsigned() throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    long readSigned() throws IOException {
+        return unzigzag(readUnsigned());
+    }
+
+    long readDelta() throws IOException {
+        previous += readSigned();
+        return previous;
+    }
+
+    Long readNullableDelta() throws IOException {
+        long value = readUnsigned();
+        if (value == 0) {
+            return null;
+        }
+        previous += unzigzag(value - 1);
+        return previous;
+    }
+
+    Integer readNullableInt() throws IOException {
+        long value = readUnsigned();
+        return value == 0 ? null : (int) unzigzag(value - 1);
+    }
+
+    boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    Boolean readNullableBoolean() throws IOException {
+        int value = readByte();
+        return value == 0 ? null : value == 2;
+    }
+
+    Float readNullableFloat() throws IOException {
+        if (readByte() == 0) {
+            return null;
+        }
+        int bits = readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+        return Float.intBitsToFloat(bits);
+    }
+
+    Double readNullableDouble() throws IOException {
+        if (readByte() == 0) {
+            return null;
+        }
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = bits << 8 | readByte();
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    byte[] readBytes() throws IOException {
+        long length = readUnsigned();
+        if (length > bytes.length - position) {
+            throw new EOFException("Column truncated.");
+        }
+        byte[] value = new byte[(int) length];
+        System.arraycopy(bytes, position, value, 0, value.length);
+        position += value.length;
+        return value;
+    }
+
+    private int readByte() throws IOException {
+        if (position >= bytes.length) {
+            throw new EOFException("Column truncated.");
+        }
+        return bytes[position++] & 0xFF;
+    }
+
+    static long readUnsigned(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
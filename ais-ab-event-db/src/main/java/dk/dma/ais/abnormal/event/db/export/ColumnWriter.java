@@ -0,0 +1,127 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.export;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A ColumnWriter buffers the encoded values of one column of a block in memory until the block is flushed.
+ *
+ * Integers are written as unsigned LEB128 variable length integers; signed values are zigzag encoded
+ * first. Delta encoded values are written as the difference to the previous value of the column in the
+ * same block. Nullable values reserve the encoded value 0 for null.
+ */
+@NotThreadSafe
+final class ColumnWriter {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+    private long previous;
+
+    void writeUnsigned(long value) {
+        while ((value & ~0x7FL) != 0) {
+            bytes.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        bytes.write((int) value);
+    }
+
+    void writeSigned(long value) {
+        writeUnsigned(zigzag(value));
+    }
+
+    void writeDelta(long value) {
+        writeSigned(value - previous);
+        previous = value;
+    }
+
+    void writeNullableDelta(Long value) {
+        if (value == null) {
+            writeUnsigned(0);
+        } else {
+            writeUnsigned(zigzag(value - previous) + 1);
+            previous = value;
+        }
+    }
+
+    void writeNullableInt(Integer value) {
+        writeUnsigned(value == null ? 0 : zigzag(value) + 1);
+    }
+
+    void writeBoolean(boolean value) {
+        bytes.write(value ? 1 : 0);
+    }
+
+    void writeNullableBoolean(Boolean value) {
+        bytes.write(value == null ? 0 : value ? 2 : 1);
+    }
+
+    void writeNullableFloat(Float value) {
+        if (value == null) {
+            bytes.write(0);
+        } else {
+            bytes.write(1);
+            int bits = Float.floatToIntBits(value);
+            bytes.write(bits >>> 24);
+            bytes.write(bits >>> 16);
+            bytes.write(bits >>> 8);
+            bytes.write(bits);
+        }
+    }
+
+    void writeNullableDouble(Double value) {
+        if (value == null) {
+            bytes.write(0);
+        } else {
+            bytes.write(1);
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes.write((int) (bits >>> shift));
+            }
+        }
+    }
+
+    void writeBytes(byte[] value) {
+        writeUnsigned(value.length);
+        bytes.write(value, 0, value.length);
+    }
+
+    /**
+     * Write the length and contents of the column to out, and make the column empty.
+     */
+    void flushTo(OutputStream out) throws IOException {
+        writeUnsigned(out, bytes.size());
+        bytes.writeTo(out);
+        bytes.reset();
+        previous = 0;
+    }
+
+    static void writeUnsigned(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+}
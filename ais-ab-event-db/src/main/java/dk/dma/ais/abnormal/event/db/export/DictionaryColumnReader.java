@@ -0,0 +1,59 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.export;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A DictionaryColumnReader decodes a column of strings written by a DictionaryColumnWriter.
+ */
+@NotThreadSafe
+final class DictionaryColumnReader {
+
+    private final String[] dictionary;
+    private final ColumnReader indices;
+
+    private DictionaryColumnReader(String[] dictionary, ColumnReader indices) {
+        this.dictionary = dictionary;
+        this.indices = indices;
+    }
+
+    static DictionaryColumnReader read(InputStream in) throws IOException {
+        ColumnReader strings = ColumnReader.read(in);
+        long size = strings.readUnsigned();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Invalid dictionary size " + size + ".");
+        }
+        String[] dictionary = new String[(int) size];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = new String(strings.readBytes(), StandardCharsets.UTF_8);
+        }
+        return new DictionaryColumnReader(dictionary, ColumnReader.read(in));
+    }
+
+    String read() throws IOException {
+        long index = indices.readUnsigned();
+        if (index > dictionary.length) {
+            throw new IOException("Invalid dictionary index " + index + ".");
+        }
+        return index == 0 ? null : dictionary[(int) index - 1];
+    }
+
+}
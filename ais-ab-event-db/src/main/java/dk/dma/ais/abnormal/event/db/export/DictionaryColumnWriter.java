@@ -0,0 +1,61 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.export;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A DictionaryColumnWriter writes a column of strings as a dictionary of the distinct strings in the block,
+ * followed by the 1-based dictionary index of each value; 0 for null.
+ */
+@NotThreadSafe
+final class DictionaryColumnWriter {
+
+    private final Map<String, Integer> dictionary = new LinkedHashMap<>();
+    private final ColumnWriter indices = new ColumnWriter();
+
+    void write(String value) {
+        if (value == null) {
+            indices.writeUnsigned(0);
+        } else {
+            Integer index = dictionary.get(value);
+            if (index == null) {
+                index = dictionary.size() + 1;
+                dictionary.put(value, index);
+            }
+            indices.writeUnsigned(index);
+        }
+    }
+
+    /**
+     * Write the dictionary and the indices to out, and make the column empty.
+     */
+    void flushTo(OutputStream out) throws IOException {
+        ColumnWriter strings = new ColumnWriter();
+        strings.writeUnsigned(dictionary.size());
+        dictionary.keySet().forEach(value -> strings.writeBytes(value.getBytes(StandardCharsets.UTF_8)));
+        strings.flushTo(out);
+        indices.flushTo(out);
+        dictionary.clear();
+    }
+
+}
@@ -0,0 +1,185 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.export;
+
+import dk.dma.ais.abnormal.event.db.jpa.JpaEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * The EventArchiver enforces a retention period on the events of a repository. Past events are kept in the
+ * repository for the given number of whole months after the month in which they started; then they are
+ * written to an archive file in the export format, and deleted from the repository.
+ *
+ * Events are archived month by month, in files named events-yyyy-MM.aevc in the archive directory. Events
+ * which end after the retention period of the month in which they started are archived later, in files named
+ * events-yyyy-MM.1.aevc, events-yyyy-MM.2.aevc and so on. Ongoing events are never archived.
+ *
+ * An archive file is written completely and forced to disk before the events in it are deleted. Exactly the
+ * events written to the file are deleted; events which become due while a month is being archived are archived
+ * by the next run.
+ */
+@NotThreadSafe
+public class EventArchiver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventArchiver.class);
+
+    static final String FILE_PREFIX = "events-";
+    static final String FILE_SUFFIX = ".aevc";
+
+    private final JpaEventRepository eventRepository;
+    private final Path archiveDirectory;
+    private final int retentionMonths;
+
+    /**
+     * @param eventRepository the repository to archive events from.
+     * @param archiveDirectory the directory to write archive files to.
+     * @param retentionMonths the number of whole months for which past events are kept in the repository.
+     */
+    public EventArchiver(JpaEventRepository eventRepository, Path archiveDirectory, int retentionMonths) {
+        if (retentionMonths < 0) {
+            throw new IllegalArgumentException("retentionMonths must not be negative; not " + retentionMonths + ".");
+        }
+        this.eventRepository = eventRepository;
+        this.archiveDirectory = archiveDirectory;
+        this.retentionMonths = retentionMonths;
+    }
+
+    /**
+     * Archive the past events which are older than the retention period.
+     *
+     * @param now the current time; in UTC.
+     * @return the number of archived events.
+     */
+    public long archive(LocalDateTime now) throws IOException {
+        LocalDateTime earliestStartTime = eventRepository.findEarliestStartTime();
+        if (earliestStartTime == null) {
+            return 0;
+        }
+
+        final long t0 = currentTimeMillis();
+
+        YearMonth firstRetainedMonth = YearMonth.from(now).minusMonths(retentionMonths);
+        LocalDateTime endedBefore = firstRetainedMonth.atDay(1).atStartOfDay();
+
+        Files.createDirectories(archiveDirectory);
+
+        long n = 0;
+        for (YearMonth month = YearMonth.from(earliestStartTime); month.isBefore(firstRetainedMonth); month = month.plusMonths(1)) {
+            n += archive(month, endedBefore);
+        }
+
+        if (n > 0) {
+            LOG.info("Archived " + n + " events started before " + firstRetainedMonth + " in " + (currentTimeMillis() - t0) + " msecs.");
+        }
+        return n;
+    }
+
+    private long archive(YearMonth month, LocalDateTime endedBefore) throws IOException {
+        Path tempFile = Files.createTempFile(archiveDirectory, FILE_PREFIX + month, FILE_SUFFIX + ".tmp");
+        try {
+            List<Long> ids = new ArrayList<>();
+            long n;
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                OutputStream out = new ForcingOutputStream(channel);
+                try (EventExportWriter writer = new EventExportWriter(out)) {
+                    eventRepository.forEachEventStartedIn(month, endedBefore, event -> {
+                        try {
+                            writer.write(event);
+                            ids.add(event.getId());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    n = writer.getNumberOfEvents();
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+
+            if (n == 0) {
+                return 0;
+            }
+
+            Path file = nextArchiveFile(month);
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Wrote " + n + " events started in " + month + " to " + file + ".");
+
+            int deleted = eventRepository.deleteEvents(ids);
+            if (deleted != ids.size()) {
+                LOG.warn("Deleted " + deleted + " of the " + ids.size() + " events archived to " + file + ".");
+            }
+            return n;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private Path nextArchiveFile(YearMonth month) {
+        Path file = archiveDirectory.resolve(FILE_PREFIX + month + FILE_SUFFIX);
+        for (int i = 1; Files.exists(file); i++) {
+            file = archiveDirectory.resolve(FILE_PREFIX + month + "." + i + FILE_SUFFIX);
+        }
+        return file;
+    }
+
+    /**
+     * An output stream to a file channel, which forces the written data to disk when closed.
+     */
+    private static final class ForcingOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private final OutputStream out;
+
+        ForcingOutputStream(FileChannel channel) {
+            this.channel = channel;
+            this.out = Channels.newOutputStream(channel);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.force(true);
+            out.close();
+        }
+    }
+}
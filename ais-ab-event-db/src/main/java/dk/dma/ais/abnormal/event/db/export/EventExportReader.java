@@ -0,0 +1,283 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.export;
+
+import dk.dma.ais.abnormal.event.db.domain.Behaviour;
+import dk.dma.ais.abnormal.event.db.domain.CloseEncounterEvent;
+import dk.dma.ais.abnormal.event.db.domain.CourseOverGroundEvent;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.ShipSizeOrTypeEvent;
+import dk.dma.ais.abnormal.event.db.domain.SpeedOverGroundEvent;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import dk.dma.ais.abnormal.event.db.domain.Vessel;
+import dk.dma.ais.abnormal.event.db.domain.Zone;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.function.ObjLongConsumer;
+
+import static dk.dma.ais.abnormal.event.db.export.EventExportWriter.DEGREES_PER_UNIT;
+
+/**
+ * EventExportReader reads files written by EventExportWriter. Events are read one block at a time, and
+ * recreated as (detached) domain objects.
+ */
+@NotThreadSafe
+public class EventExportReader implements Closeable {
+
+    private static final String EVENT_PACKAGE = Event.class.getPackage().getName();
+
+    private final DataInputStream in;
+    private final int version;
+
+    public EventExportReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in instanceof ByteArrayInputStream || in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 65536));
+
+        byte[] magic = new byte[EventExportWriter.MAGIC.length];
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, EventExportWriter.MAGIC)) {
+            throw new IOException("Not an event export file.");
+        }
+        this.version = this.in.read();
+        if (version < 1 || version > EventExportWriter.VERSION) {
+            throw new IOException("Unsupported event export format version " + version + ".");
+        }
+    }
+
+    /**
+     * Decode a single event encoded by EventExportWriter.toBytes().
+     */
+    public static Event fromBytes(byte[] bytes) throws IOException {
+        Event[] result = new Event[1];
+        try (EventExportReader reader = new EventExportReader(new ByteArrayInputStream(bytes))) {
+            if (reader.forEach((event, id) -> result[0] = event) != 1) {
+                throw new IOException("Expected exactly one event.");
+            }
+        }
+        return result[0];
+    }
+
+    /**
+     * Read all remaining events and pass each of them to the consumer together with its id in the
+     * database from which it was exported.
+     *
+     * @return the number of events read.
+     */
+    public long forEach(ObjLongConsumer<Event> consumer) throws IOException {
+        long n = 0;
+        long numberOfEvents;
+        while ((numberOfEvents = ColumnReader.readUnsigned(in)) > 0) {
+            ColumnReader.readUnsigned(in); // no. of behaviours
+            ColumnReader.readUnsigned(in); // no. of tracking points
+            n += readBlock(numberOfEvents, consumer);
+        }
+        return n;
+    }
+
+    private long readBlock(long numberOfEvents, ObjLongConsumer<Event> consumer) throws IOException {
+        ColumnReader eventId = ColumnReader.read(in);
+        DictionaryColumnReader eventType = DictionaryColumnReader.read(in);
+        DictionaryColumnReader eventState = DictionaryColumnReader.read(in);
+        ColumnReader eventStartTime = ColumnReader.read(in);
+        ColumnReader eventEndTime = ColumnReader.read(in);
+        ColumnReader eventSuppressed = ColumnReader.read(in);
+        DictionaryColumnReader eventTitle = DictionaryColumnReader.read(in);
+        DictionaryColumnReader eventDescription = DictionaryColumnReader.read(in);
+        ColumnReader eventBehaviours = ColumnReader.read(in);
+
+        ColumnReader eventShipType = null, eventShipLength = null, eventSpeedOverGround = null, eventCourseOverGround = null, eventZones = null;
+        ZoneColumns zoneColumns = null;
+        if (version >= 2) {
+            eventShipType = ColumnReader.read(in);
+            eventShipLength = ColumnReader.read(in);
+            eventSpeedOverGround = ColumnReader.read(in);
+            eventCourseOverGround = ColumnReader.read(in);
+            eventZones = ColumnReader.read(in);
+            zoneColumns = new ZoneColumns(in);
+        }
+
+        ColumnReader behaviourPrimary = ColumnReader.read(in);
+        ColumnReader vesselMmsi = ColumnReader.read(in);
+        ColumnReader vesselImo = ColumnReader.read(in);
+        DictionaryColumnReader vesselName = DictionaryColumnReader.read(in);
+        DictionaryColumnReader vesselCallsign = DictionaryColumnReader.read(in);
+        ColumnReader vesselType = ColumnReader.read(in);
+        ColumnReader vesselToBow = ColumnReader.read(in);
+        ColumnReader vesselToStern = ColumnReader.read(in);
+        ColumnReader vesselToPort = ColumnReader.read(in);
+        ColumnReader vesselToStarboard = ColumnReader.read(in);
+        ColumnReader behaviourTrackingPoints = ColumnReader.read(in);
+
+        ColumnReader trackingPointTimestamp = ColumnReader.read(in);
+        ColumnReader trackingPointLatitude = ColumnReader.read(in);
+        ColumnReader trackingPointLongitude = ColumnReader.read(in);
+        ColumnReader trackingPointSpeedOverGround = ColumnReader.read(in);
+        ColumnReader trackingPointCourseOverGround = ColumnReader.read(in);
+        ColumnReader trackingPointTrueHeading = ColumnReader.read(in);
+        ColumnReader trackingPointPositionInterpolated = ColumnReader.read(in);
+        ColumnReader trackingPointEventCertainty = ColumnReader.read(in);
+
+        for (long i = 0; i < numberOfEvents; i++) {
+            long id = eventId.readDelta();
+            Event event = newEvent(eventType.read());
+            event.setId(id);
+            String state = eventState.read();
+            event.setState(state == null ? null : Event.State.valueOf(state));
+            event.setStartTime(toLocalDateTime(eventStartTime.readNullableDelta()));
+            event.setEndTime(toLocalDateTime(eventEndTime.readNullableDelta()));
+            event.setSuppressed(eventSuppressed.readBoolean());
+            event.setTitle(eventTitle.read());
+            event.setDescription(eventDescription.read());
+
+            if (version >= 2) {
+                Integer shipType = eventShipType.readNullableInt();
+                Integer shipLength = eventShipLength.readNullableInt();
+                Integer speedOverGround = eventSpeedOverGround.readNullableInt();
+                Integer courseOverGround = eventCourseOverGround.readNullableInt();
+                if (event instanceof ShipSizeOrTypeEvent) {
+                    ((ShipSizeOrTypeEvent) event).setShipType(valueOf(shipType));
+                    ((ShipSizeOrTypeEvent) event).setShipLength(valueOf(shipLength));
+                } else if (event instanceof SpeedOverGroundEvent) {
+                    ((SpeedOverGroundEvent) event).setShipType(valueOf(shipType));
+                    ((SpeedOverGroundEvent) event).setShipLength(valueOf(shipLength));
+                    ((SpeedOverGroundEvent) event).setSpeedOverGround(valueOf(speedOverGround));
+                } else if (event instanceof CourseOverGroundEvent) {
+                    ((CourseOverGroundEvent) event).setShipType(valueOf(shipType));
+                    ((CourseOverGroundEvent) event).setShipLength(valueOf(shipLength));
+                    ((CourseOverGroundEvent) event).setCourseOverGround(valueOf(courseOverGround));
+                }
+
+                long zones = eventZones.readUnsigned();
+                Zone safetyZoneOfPrimaryVessel = (zones & 1) != 0 ? zoneColumns.read() : null;
+                Zone extentOfSecondaryVessel = (zones & 2) != 0 ? zoneColumns.read() : null;
+                if (event instanceof CloseEncounterEvent) {
+                    ((CloseEncounterEvent) event).setSafetyZoneOfPrimaryVessel(safetyZoneOfPrimaryVessel);
+                    ((CloseEncounterEvent) event).setExtentOfSecondaryVessel(extentOfSecondaryVessel);
+                }
+            }
+
+            long numberOfBehaviours = eventBehaviours.readUnsigned();
+            for (long j = 0; j < numberOfBehaviours; j++) {
+                Behaviour behaviour = new Behaviour();
+                behaviour.setPrimary(behaviourPrimary.readBoolean());
+
+                Vessel vessel = new Vessel();
+                vessel.setMmsi((int) vesselMmsi.readSigned());
+                vessel.setImo(vesselImo.readNullableInt());
+                vessel.setName(vesselName.read());
+                vessel.setCallsign(vesselCallsign.read());
+                vessel.setType(vesselType.readNullableInt());
+                vessel.setToBow(vesselToBow.readNullableInt());
+                vessel.setToStern(vesselToStern.readNullableInt());
+                vessel.setToPort(vesselToPort.readNullableInt());
+                vessel.setToStarboard(vesselToStarboard.readNullableInt());
+                behaviour.setVessel(vessel);
+
+                long numberOfTrackingPoints = behaviourTrackingPoints.readUnsigned();
+                for (long k = 0; k < numberOfTrackingPoints; k++) {
+                    TrackingPoint trackingPoint = new TrackingPoint();
+                    trackingPoint.setTimestamp(toLocalDateTime(trackingPointTimestamp.readNullableDelta()));
+                    trackingPoint.setLatitude(toDegrees(trackingPointLatitude.readNullableDelta()));
+                    trackingPoint.setLongitude(toDegrees(trackingPointLongitude.readNullableDelta()));
+                    trackingPoint.setSpeedOverGround(trackingPointSpeedOverGround.readNullableFloat());
+                    trackingPoint.setCourseOverGround(trackingPointCourseOverGround.readNullableFloat());
+                    trackingPoint.setTrueHeading(trackingPointTrueHeading.readNullableFloat());
+                    trackingPoint.setPositionInterpolated(trackingPointPositionInterpolated.readNullableBoolean());
+                    Integer certainty = trackingPointEventCertainty.readNullableInt();
+                    trackingPoint.setEventCertainty(certainty == null ? null : TrackingPoint.EventCertainty.values()[certainty]);
+                    behaviour.addTrackingPoint(trackingPoint);
+                }
+
+                event.addBehaviour(behaviour);
+            }
+
+            event.updateBoundingBox();
+            consumer.accept(event, id);
+        }
+
+        return numberOfEvents;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private static Event newEvent(String eventType) throws IOException {
+        try {
+            return (Event) Class.forName(EVENT_PACKAGE + "." + eventType).newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IOException("Cannot create event of type " + eventType + ".", e);
+        }
+    }
+
+    private static int valueOf(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    private static LocalDateTime toLocalDateTime(Long epochMillis) {
+        return epochMillis == null ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC);
+    }
+
+    private static Double toDegrees(Long units) {
+        return units == null ? null : units * DEGREES_PER_UNIT;
+    }
+
+    /**
+     * The columns of the zones of CloseEncounterEvents in a block.
+     */
+    private static final class ZoneColumns {
+        final ColumnReader targetTimestamp;
+        final ColumnReader centerLatitude;
+        final ColumnReader centerLongitude;
+        final ColumnReader majorAxisHeading;
+        final ColumnReader majorSemiAxisLength;
+        final ColumnReader minorSemiAxisLength;
+
+        ZoneColumns(InputStream in) throws IOException {
+            targetTimestamp = ColumnReader.read(in);
+            centerLatitude = ColumnReader.read(in);
+            centerLongitude = ColumnReader.read(in);
+            majorAxisHeading = ColumnReader.read(in);
+            majorSemiAxisLength = ColumnReader.read(in);
+            minorSemiAxisLength = ColumnReader.read(in);
+        }
+
+        Zone read() throws IOException {
+            Zone zone = new Zone();
+            Long timestamp = targetTimestamp.readNullableDelta();
+            zone.setTargetTimestamp(timestamp == null ? null : new Date(timestamp));
+            zone.setCenterLatitude(centerLatitude.readNullableDouble());
+            zone.setCenterLongitude(centerLongitude.readNullableDouble());
+            zone.setMajorAxisHeading(majorAxisHeading.readNullableDouble());
+            zone.setMajorSemiAxisLength(majorSemiAxisLength.readNullableDouble());
+            zone.setMinorSemiAxisLength(minorSemiAxisLength.readNullableDouble());
+            return zone;
+        }
+    }
+
+}
@@ -0,0 +1,346 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.export;
+
+import dk.dma.ais.abnormal.event.db.domain.Behaviour;
+import dk.dma.ais.abnormal.event.db.domain.CloseEncounterEvent;
+import dk.dma.ais.abnormal.event.db.domain.CourseOverGroundEvent;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.ShipSizeOrTypeEvent;
+import dk.dma.ais.abnormal.event.db.domain.SpeedOverGroundEvent;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import dk.dma.ais.abnormal.event.db.domain.Vessel;
+import dk.dma.ais.abnormal.event.db.domain.Zone;
+import dk.dma.ais.abnormal.event.db.jpa.JpaEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Date;
+
+/**
+ * EventExportWriter writes events with their behaviours, vessels and tracking points to a compact
+ * columnar binary file for offline analysis. The file can be read by EventExportReader.
+ *
+ * The file starts with the bytes "AEVC" and a format version; followed by blocks of up to blockSize events,
+ * and ends with an empty block. Each block starts with the no. of events, behaviours and tracking points in
+ * the block; followed by one column per field of these (see the writeXxx methods below for the order).
+ * Strings are dictionary encoded per block; ids, timestamps and positions are delta encoded. Timestamps
+ * are stored as msecs since the epoch in UTC and positions in units of 1e-7 degrees.
+ *
+ * Fields specific to individual event types are stored in columns of their own, which are null for events
+ * of other types. Version 1 files, which did not have these columns, can still be read.
+ */
+@NotThreadSafe
+public class EventExportWriter implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventExportWriter.class);
+
+    static final byte[] MAGIC = { 'A', 'E', 'V', 'C' };
+    static final int VERSION = 2;
+    static final double DEGREES_PER_UNIT = 1e-7;
+
+    private static final int DEFAULT_BLOCK_SIZE = 10000;
+
+    private final OutputStream out;
+    private final int blockSize;
+
+    private final ColumnWriter eventId = new ColumnWriter();
+    private final DictionaryColumnWriter eventType = new DictionaryColumnWriter();
+    private final DictionaryColumnWriter eventState = new DictionaryColumnWriter();
+    private final ColumnWriter eventStartTime = new ColumnWriter();
+    private final ColumnWriter eventEndTime = new ColumnWriter();
+    private final ColumnWriter eventSuppressed = new ColumnWriter();
+    private final DictionaryColumnWriter eventTitle = new DictionaryColumnWriter();
+    private final DictionaryColumnWriter eventDescription = new DictionaryColumnWriter();
+    private final ColumnWriter eventBehaviours = new ColumnWriter();
+
+    private final ColumnWriter eventShipType = new ColumnWriter();
+    private final ColumnWriter eventShipLength = new ColumnWriter();
+    private final ColumnWriter eventSpeedOverGround = new ColumnWriter();
+    private final ColumnWriter eventCourseOverGround = new ColumnWriter();
+    private final ColumnWriter eventZones = new ColumnWriter();
+
+    private final ColumnWriter zoneTargetTimestamp = new ColumnWriter();
+    private final ColumnWriter zoneCenterLatitude = new ColumnWriter();
+    private final ColumnWriter zoneCenterLongitude = new ColumnWriter();
+    private final ColumnWriter zoneMajorAxisHeading = new ColumnWriter();
+    private final ColumnWriter zoneMajorSemiAxisLength = new ColumnWriter();
+    private final ColumnWriter zoneMinorSemiAxisLength = new ColumnWriter();
+
+    private final ColumnWriter behaviourPrimary = new ColumnWriter();
+    private final ColumnWriter vesselMmsi = new ColumnWriter();
+    private final ColumnWriter vesselImo = new ColumnWriter();
+    private final DictionaryColumnWriter vesselName = new DictionaryColumnWriter();
+    private final DictionaryColumnWriter vesselCallsign = new DictionaryColumnWriter();
+    private final ColumnWriter vesselType = new ColumnWriter();
+    private final ColumnWriter vesselToBow = new ColumnWriter();
+    private final ColumnWriter vesselToStern = new ColumnWriter();
+    private final ColumnWriter vesselToPort = new ColumnWriter();
+    private final ColumnWriter vesselToStarboard = new ColumnWriter();
+    private final ColumnWriter behaviourTrackingPoints = new ColumnWriter();
+
+    private final ColumnWriter trackingPointTimestamp = new ColumnWriter();
+    private final ColumnWriter trackingPointLatitude = new ColumnWriter();
+    private final ColumnWriter trackingPointLongitude = new ColumnWriter();
+    private final ColumnWriter trackingPointSpeedOverGround = new ColumnWriter();
+    private final ColumnWriter trackingPointCourseOverGround = new ColumnWriter();
+    private final ColumnWriter trackingPointTrueHeading = new ColumnWriter();
+    private final ColumnWriter trackingPointPositionInterpolated = new ColumnWriter();
+    private final ColumnWriter trackingPointEventCertainty = new ColumnWriter();
+
+    private int eventsInBlock, behavioursInBlock, trackingPointsInBlock;
+    private long numberOfEvents;
+
+    public EventExportWriter(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    EventExportWriter(OutputStream out, int blockSize) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive; not " + blockSize + ".");
+        }
+        this.out = out instanceof ByteArrayOutputStream || out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out, 65536);
+        this.blockSize = blockSize;
+        this.out.write(MAGIC);
+        this.out.write(VERSION);
+    }
+
+    /**
+     * Export all events which were active between from and to from a repository.
+     *
+     * @return the number of exported events.
+     */
+    public static long export(JpaEventRepository eventRepository, Date from, Date to, OutputStream out) throws IOException {
+        try (EventExportWriter writer = new EventExportWriter(out)) {
+            eventRepository.forEachEvent(from, to, event -> {
+                try {
+                    writer.write(event);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            LOG.info("Exported " + writer.getNumberOfEvents() + " events.");
+            return writer.getNumberOfEvents();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Encode a single event as a complete export file.
+     */
+    public static byte[] toBytes(Event event) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        try (EventExportWriter writer = new EventExportWriter(out, 1)) {
+            writer.write(event);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by ByteArrayOutputStream
+        }
+        return out.toByteArray();
+    }
+
+    public void write(Event event) throws IOException {
+        eventId.writeDelta(event.getId());
+        eventType.write(event.getEventType());
+        eventState.write(event.getState() == null ? null : event.getState().name());
+        eventStartTime.writeNullableDelta(toEpochMillis(event.getStartTime()));
+        eventEndTime.writeNullableDelta(toEpochMillis(event.getEndTime()));
+        eventSuppressed.writeBoolean(event.isSuppressed());
+        eventTitle.write(event.getTitle());
+        eventDescription.write(event.getDescription());
+        writeEventTypeSpecific(event);
+
+        eventBehaviours.writeUnsigned(event.getBehaviours().size());
+        for (Behaviour behaviour : event.getBehaviours()) {
+            writeBehaviour(behaviour);
+        }
+
+        numberOfEvents++;
+        if (++eventsInBlock >= blockSize) {
+            flushBlock();
+        }
+    }
+
+    private void writeEventTypeSpecific(Event event) {
+        Integer shipType = null, shipLength = null, speedOverGround = null, courseOverGround = null;
+        Zone safetyZoneOfPrimaryVessel = null, extentOfSecondaryVessel = null;
+        if (event instanceof ShipSizeOrTypeEvent) {
+            shipType = ((ShipSizeOrTypeEvent) event).getShipType();
+            shipLength = ((ShipSizeOrTypeEvent) event).getShipLength();
+        } else if (event instanceof SpeedOverGroundEvent) {
+            shipType = ((SpeedOverGroundEvent) event).getShipType();
+            shipLength = ((SpeedOverGroundEvent) event).getShipLength();
+            speedOverGround = ((SpeedOverGroundEvent) event).getSpeedOverGround();
+        } else if (event instanceof CourseOverGroundEvent) {
+            shipType = ((CourseOverGroundEvent) event).getShipType();
+            shipLength = ((CourseOverGroundEvent) event).getShipLength();
+            courseOverGround = ((CourseOverGroundEvent) event).getCourseOverGround();
+        } else if (event instanceof CloseEncounterEvent) {
+            safetyZoneOfPrimaryVessel = ((CloseEncounterEvent) event).getSafetyZoneOfPrimaryVessel();
+            extentOfSecondaryVessel = ((CloseEncounterEvent) event).getExtentOfSecondaryVessel();
+        }
+
+        eventShipType.writeNullableInt(shipType);
+        eventShipLength.writeNullableInt(shipLength);
+        eventSpeedOverGround.writeNullableInt(speedOverGround);
+        eventCourseOverGround.writeNullableInt(courseOverGround);
+
+        // Bit 0: safety zone of primary vessel, bit 1: extent of secondary vessel
+        eventZones.writeUnsigned((safetyZoneOfPrimaryVessel != null ? 1 : 0) | (extentOfSecondaryVessel != null ? 2 : 0));
+        if (safetyZoneOfPrimaryVessel != null) {
+            writeZone(safetyZoneOfPrimaryVessel);
+        }
+        if (extentOfSecondaryVessel != null) {
+            writeZone(extentOfSecondaryVessel);
+        }
+    }
+
+    private void writeZone(Zone zone) {
+        zoneTargetTimestamp.writeNullableDelta(zone.getTargetTimestamp() == null ? null : zone.getTargetTimestamp().getTime());
+        zoneCenterLatitude.writeNullableDouble(zone.getCenterLatitude());
+        zoneCenterLongitude.writeNullableDouble(zone.getCenterLongitude());
+        zoneMajorAxisHeading.writeNullableDouble(zone.getMajorAxisHeading());
+        zoneMajorSemiAxisLength.writeNullableDouble(zone.getMajorSemiAxisLength());
+        zoneMinorSemiAxisLength.writeNullableDouble(zone.getMinorSemiAxisLength());
+    }
+
+    private void writeBehaviour(Behaviour behaviour) {
+        Vessel vessel = behaviour.getVessel();
+        behaviourPrimary.writeBoolean(behaviour.isPrimary());
+        vesselMmsi.writeSigned(vessel.getMmsi());
+        vesselImo.writeNullableInt(vessel.getImo());
+        vesselName.write(vessel.getName());
+        vesselCallsign.write(vessel.getCallsign());
+        vesselType.writeNullableInt(vessel.getType());
+        vesselToBow.writeNullableInt(vessel.getToBow());
+        vesselToStern.writeNullableInt(vessel.getToStern());
+        vesselToPort.writeNullableInt(vessel.getToPort());
+        vesselToStarboard.writeNullableInt(vessel.getToStarboard());
+
+        behaviourTrackingPoints.writeUnsigned(behaviour.getTrackingPoints().size());
+        for (TrackingPoint trackingPoint : behaviour.getTrackingPoints()) {
+            writeTrackingPoint(trackingPoint);
+        }
+
+        behavioursInBlock++;
+    }
+
+    private void writeTrackingPoint(TrackingPoint trackingPoint) {
+        trackingPointTimestamp.writeNullableDelta(toEpochMillis(trackingPoint.getTimestamp()));
+        trackingPointLatitude.writeNullableDelta(toUnits(trackingPoint.getLatitude()));
+        trackingPointLongitude.writeNullableDelta(toUnits(trackingPoint.getLongitude()));
+        trackingPointSpeedOverGround.writeNullableFloat(trackingPoint.getSpeedOverGround());
+        trackingPointCourseOverGround.writeNullableFloat(trackingPoint.getCourseOverGround());
+        trackingPointTrueHeading.writeNullableFloat(trackingPoint.getTrueHeading());
+        trackingPointPositionInterpolated.writeNullableBoolean(trackingPoint.getPositionInterpolated());
+        trackingPointEventCertainty.writeNullableInt(trackingPoint.getEventCertainty() == null ? null : trackingPoint.getEventCertainty().ordinal());
+
+        trackingPointsInBlock++;
+    }
+
+    private void flushBlock() throws IOException {
+        if (eventsInBlock == 0) {
+            return;
+        }
+
+        ColumnWriter.writeUnsigned(out, eventsInBlock);
+        ColumnWriter.writeUnsigned(out, behavioursInBlock);
+        ColumnWriter.writeUnsigned(out, trackingPointsInBlock);
+
+        eventId.flushTo(out);
+        eventType.flushTo(out);
+        eventState.flushTo(out);
+        eventStartTime.flushTo(out);
+        eventEndTime.flushTo(out);
+        eventSuppressed.flushTo(out);
+        eventTitle.flushTo(out);
+        eventDescription.flushTo(out);
+        eventBehaviours.flushTo(out);
+
+        eventShipType.flushTo(out);
+        eventShipLength.flushTo(out);
+        eventSpeedOverGround.flushTo(out);
+        eventCourseOverGround.flushTo(out);
+        eventZones.flushTo(out);
+
+        zoneTargetTimestamp.flushTo(out);
+        zoneCenterLatitude.flushTo(out);
+        zoneCenterLongitude.flushTo(out);
+        zoneMajorAxisHeading.flushTo(out);
+        zoneMajorSemiAxisLength.flushTo(out);
+        zoneMinorSemiAxisLength.flushTo(out);
+
+        behaviourPrimary.flushTo(out);
+        vesselMmsi.flushTo(out);
+        vesselImo.flushTo(out);
+        vesselName.flushTo(out);
+        vesselCallsign.flushTo(out);
+        vesselType.flushTo(out);
+        vesselToBow.flushTo(out);
+        vesselToStern.flushTo(out);
+        vesselToPort.flushTo(out);
+        vesselToStarboard.flushTo(out);
+        behaviourTrackingPoints.flushTo(out);
+
+        trackingPointTimestamp.flushTo(out);
+        trackingPointLatitude.flushTo(out);
+        trackingPointLongitude.flushTo(out);
+        trackingPointSpeedOverGround.flushTo(out);
+        trackingPointCourseOverGround.flushTo(out);
+        trackingPointTrueHeading.flushTo(out);
+        trackingPointPositionInterpolated.flushTo(out);
+        trackingPointEventCertainty.flushTo(out);
+
+        eventsInBlock = behavioursInBlock = trackingPointsInBlock = 0;
+    }
+
+    public long getNumberOfEvents() {
+        return numberOfEvents;
+    }
+
+    /**
+     * Write the remaining events and the end of the file, and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            ColumnWriter.writeUnsigned(out, 0);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Long toEpochMillis(LocalDateTime time) {
+        return time == null ? null : time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static Long toUnits(Double degrees) {
+        return degrees == null ? null : Math.round(degrees / DEGREES_PER_UNIT);
+    }
+
+}
@@ -0,0 +1,210 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.export;
+
+import dk.dma.ais.abnormal.event.db.domain.Behaviour;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import dk.dma.ais.abnormal.event.db.domain.Vessel;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * KmlEventWriter writes events to a KML document for display in Google Earth; either as plain KML or
+ * as KMZ (a zip archive holding the document as 'doc.kml').
+ *
+ * Each event becomes a Folder spanning the time of the event. The tracking points of each involved
+ * vessel are written as a gx:Track in a Placemark styled by whether the vessel is primary to the event;
+ * the primary vessel first.
+ * Events are written as they are passed to write(), so memory use does not depend on the number of events.
+ */
+@NotThreadSafe
+public class KmlEventWriter implements Closeable {
+
+    static final String KML_NAMESPACE = "http://www.opengis.net/kml/2.2";
+    static final String GX_NAMESPACE = "http://www.google.com/kml/ext/2.2";
+    static final String KMZ_ENTRY_NAME = "doc.kml";
+
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private final OutputStream out;
+    private final ZipOutputStream zip;
+    private final XMLStreamWriter xml;
+
+    /**
+     * @param out the stream to write to; closed when this writer is closed.
+     * @param name the name of the KML document.
+     * @param kmz true to write KMZ; false to write plain KML.
+     */
+    public KmlEventWriter(OutputStream out, String name, boolean kmz) throws IOException {
+        OutputStream buffered = out instanceof ByteArrayOutputStream || out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out, 65536);
+        if (kmz) {
+            this.zip = new ZipOutputStream(buffered);
+            this.zip.setLevel(Deflater.BEST_SPEED);
+            this.zip.putNextEntry(new ZipEntry(KMZ_ENTRY_NAME));
+            this.out = zip;
+        } else {
+            this.zip = null;
+            this.out = buffered;
+        }
+
+        try {
+            this.xml = XML_OUTPUT_FACTORY.createXMLStreamWriter(this.out, "UTF-8");
+            writeStartOfDocument(name);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void write(Event event) throws IOException {
+        try {
+            xml.writeStartElement("Folder");
+            writeElement("name", "[" + event.getId() + "] " + nullToEmpty(event.getTitle()));
+            writeElement("description", nullToEmpty(event.getDescription()));
+            xml.writeStartElement("TimeSpan");
+            writeElement("begin", toKmlTime(event.getStartTime()));
+            if (event.getEndTime() != null) {
+                writeElement("end", toKmlTime(event.getEndTime()));
+            }
+            xml.writeEndElement();
+
+            // Behaviours are unordered; write the primary vessel first
+            for (Behaviour behaviour : event.getBehaviours()) {
+                if (behaviour.isPrimary()) {
+                    writeBehaviour(behaviour);
+                }
+            }
+            for (Behaviour behaviour : event.getBehaviours()) {
+                if (! behaviour.isPrimary()) {
+                    writeBehaviour(behaviour);
+                }
+            }
+
+            xml.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.writeEndElement();
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.flush();
+            xml.close();
+            if (zip != null) {
+                zip.closeEntry();
+                zip.finish();
+            }
+            out.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeStartOfDocument(String name) throws XMLStreamException {
+        xml.writeStartDocument("UTF-8", "1.0");
+        xml.writeStartElement("kml");
+        xml.writeDefaultNamespace(KML_NAMESPACE);
+        xml.writeNamespace("gx", GX_NAMESPACE);
+        xml.writeStartElement("Document");
+        writeElement("name", nullToEmpty(name));
+        writeStyle("primary", "ff0000ff", 3);
+        writeStyle("secondary", "ff00ffff", 2);
+    }
+
+    private void writeStyle(String id, String color, int width) throws XMLStreamException {
+        xml.writeStartElement("Style");
+        xml.writeAttribute("id", id);
+        xml.writeStartElement("IconStyle");
+        writeElement("color", color);
+        xml.writeStartElement("Icon");
+        writeElement("href", "http://maps.google.com/mapfiles/kml/shapes/sailing.png");
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeStartElement("LineStyle");
+        writeElement("color", color);
+        writeElement("width", String.valueOf(width));
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+
+    private void writeBehaviour(Behaviour behaviour) throws XMLStreamException {
+        Vessel vessel = behaviour.getVessel();
+
+        xml.writeStartElement("Placemark");
+        if (vessel != null) {
+            writeElement("name", (vessel.getName() == null ? "" : vessel.getName().trim() + " ") + "(" + vessel.getMmsi() + ")");
+        }
+        writeElement("styleUrl", behaviour.isPrimary() ? "#primary" : "#secondary");
+
+        // A gx:Track lists all timestamps followed by all coordinates in the same order
+        xml.writeStartElement("gx", "Track", GX_NAMESPACE);
+        writeElement("altitudeMode", "clampToGround");
+        for (TrackingPoint trackingPoint : behaviour.getTrackingPoints()) {
+            if (hasPosition(trackingPoint)) {
+                writeElement("when", toKmlTime(trackingPoint.getTimestamp()));
+            }
+        }
+        for (TrackingPoint trackingPoint : behaviour.getTrackingPoints()) {
+            if (hasPosition(trackingPoint)) {
+                xml.writeStartElement("gx", "coord", GX_NAMESPACE);
+                xml.writeCharacters(trackingPoint.getLongitude() + " " + trackingPoint.getLatitude() + " 0");
+                xml.writeEndElement();
+            }
+        }
+        xml.writeEndElement();
+
+        xml.writeEndElement();
+    }
+
+    private void writeElement(String localName, String text) throws XMLStreamException {
+        xml.writeStartElement(localName);
+        xml.writeCharacters(text);
+        xml.writeEndElement();
+    }
+
+    private static boolean hasPosition(TrackingPoint trackingPoint) {
+        return trackingPoint.getTimestamp() != null && trackingPoint.getLatitude() != null && trackingPoint.getLongitude() != null;
+    }
+
+    private static String toKmlTime(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toString();
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+}
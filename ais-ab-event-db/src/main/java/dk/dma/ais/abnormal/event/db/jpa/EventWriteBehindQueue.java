@@ -0,0 +1,470 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.jpa;
+
+import dk.dma.ais.abnormal.event.db.domain.Behaviour;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import dk.dma.ais.abnormal.event.db.domain.Vessel;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * EventWriteBehindQueue holds events which have been saved, but not yet written to the database.
+ *
+ * Writes of the same Event object are coalesced into one pending write. A pending write of a new or
+ * re-saved event writes the whole event; otherwise only appended tracking points and the end of the
+ * event are written. Pending events are
+ * written by a dedicated thread in one transaction per batch. A batch is written when batchSize events
+ * are pending, or when the oldest pending event has waited for half of maxLagMillis. If writing falls
+ * behind, so that more than MAX_PENDING_BATCHES batches are pending, then enqueue() blocks until the
+ * writer catches up.
+ *
+ * If a batch fails, its events are written again one per transaction; so that an event which cannot be
+ * written does not hold back the others. Events which still fail are queued again and retried with
+ * exponential backoff. An event is given up after MAX_WRITE_ATTEMPTS failed attempts.
+ *
+ * Events are written while holding their monitor. Code that modifies an event after it has been saved
+ * must therefore synchronize on the event while doing so (as JpaEventRepository.appendTrackingPoint()
+ * and endEvent() do).
+ */
+@ThreadSafe
+final class EventWriteBehindQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventWriteBehindQueue.class);
+
+    static final int MAX_PENDING_BATCHES = 4;
+
+    static final int MAX_WRITE_ATTEMPTS = 10;
+    static final long MIN_RETRY_BACKOFF_MILLIS = 1000;
+    static final long MAX_RETRY_BACKOFF_MILLIS = 60000;
+
+    private final SessionFactory sessionFactory;
+    private final long maxLagMillis;
+    private final int batchSize;
+    private final long minRetryBackoffMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition writeNeeded = lock.newCondition();
+    private final Condition written = lock.newCondition();
+
+    /** Pending writes in the order they were first queued */
+    @GuardedBy("lock")
+    private LinkedHashMap<Event, PendingWrite> pending = new LinkedHashMap<>();
+
+    /** Time the oldest event in the batch currently being written was first saved; or 0 */
+    @GuardedBy("lock")
+    private long oldestInFlight;
+
+    /** Time before which failed writes are not retried; or 0 */
+    @GuardedBy("lock")
+    private long retryNotBefore;
+
+    @GuardedBy("lock")
+    private boolean closed;
+
+    private final AtomicLong eventsWritten = new AtomicLong();
+    private final AtomicLong eventsFailed = new AtomicLong();
+    private final AtomicLong eventsRetried = new AtomicLong();
+    private final AtomicLong transactions = new AtomicLong();
+
+    private final Thread writerThread;
+
+    EventWriteBehindQueue(SessionFactory sessionFactory, long maxLagMillis, int batchSize) {
+        this(sessionFactory, maxLagMillis, batchSize, MIN_RETRY_BACKOFF_MILLIS);
+    }
+
+    EventWriteBehindQueue(SessionFactory sessionFactory, long maxLagMillis, int batchSize, long minRetryBackoffMillis) {
+        if (maxLagMillis <= 0) {
+            throw new IllegalArgumentException("maxLagMillis must be positive; not " + maxLagMillis + ".");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive; not " + batchSize + ".");
+        }
+
+        this.sessionFactory = sessionFactory;
+        this.maxLagMillis = maxLagMillis;
+        this.batchSize = batchSize;
+        this.minRetryBackoffMillis = minRetryBackoffMillis;
+
+        this.writerThread = new Thread(this::writeLoop, "event-write-behind");
+        this.writerThread.start();
+
+        LOG.info("Writing events behind with max. lag " + maxLagMillis + " msecs and batch size " + batchSize + ".");
+    }
+
+    /**
+     * Queue an event for writing to the database in full.
+     */
+    void enqueueSave(Event event) {
+        enqueue(event, write -> write.save = true);
+    }
+
+    /**
+     * Queue a tracking point, which has been added to a behaviour of an event, for writing to the database.
+     *
+     * @param boundingBoxExtended true if the bounding box of the event was extended by the tracking point.
+     */
+    void enqueueAppend(Event event, Behaviour behaviour, TrackingPoint trackingPoint, boolean boundingBoxExtended) {
+        enqueue(event, write -> write.append(behaviour, trackingPoint, boundingBoxExtended));
+    }
+
+    /**
+     * Queue the state and end time of an event for writing to the database.
+     */
+    void enqueueEnd(Event event) {
+        enqueue(event, write -> write.end = true);
+    }
+
+    /**
+     * Find or create the pending write of the event and apply the change to it. The change is applied while
+     * holding the lock; so the writer thread cannot take the pending write while it is being changed.
+     */
+    private void enqueue(Event event, Consumer<PendingWrite> change) {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Write-behind queue is closed.");
+            }
+            while (pending.size() >= MAX_PENDING_BATCHES * batchSize && !pending.containsKey(event)) {
+                written.awaitUninterruptibly();
+            }
+            PendingWrite write = pending.get(event);
+            if (write == null) {
+                write = new PendingWrite(currentTimeMillis());
+                pending.put(event, write);
+            }
+            change.accept(write);
+            if (pending.size() >= batchSize) {
+                writeNeeded.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the time in msecs that the oldest saved, but not yet written, event has waited; or 0 if all
+     * saved events are written.
+     */
+    long getPersistenceLagMillis() {
+        lock.lock();
+        try {
+            long oldest = oldestInFlight;
+            if (oldest == 0 && !pending.isEmpty()) {
+                oldest = pending.values().iterator().next().since;
+            }
+            return oldest == 0 ? 0 : Math.max(0, currentTimeMillis() - oldest);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getNumberOfPendingEvents() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getNumberOfEventsWritten() {
+        return eventsWritten.get();
+    }
+
+    /** Return the no. of events which were given up after MAX_WRITE_ATTEMPTS failed writes */
+    long getNumberOfEventsFailed() {
+        return eventsFailed.get();
+    }
+
+    /** Return the no. of times an event has been queued again after a failed write */
+    long getNumberOfEventsRetried() {
+        return eventsRetried.get();
+    }
+
+    /**
+     * Write all pending events and stop the writer thread.
+     */
+    void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writeNeeded.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for pending events to be written.", e);
+            Thread.currentThread().interrupt();
+        }
+
+        LOG.info("Write-behind closed. " + eventsWritten.get() + " events written in " + transactions.get() + " transactions; " + eventsRetried.get() + " retried; " + eventsFailed.get() + " failed.");
+    }
+
+    private void writeLoop() {
+        boolean interrupted = false;
+        while (true) {
+            Map<Event, PendingWrite> batch;
+
+            lock.lock();
+            try {
+                try {
+                    while (!interrupted && !closed && !isWriteDue()) {
+                        long wait = pending.isEmpty() ? maxLagMillis : pending.values().iterator().next().since + maxLagMillis / 2 - currentTimeMillis();
+                        writeNeeded.await(Math.max(1, wait), TimeUnit.MILLISECONDS);
+                    }
+                    long backoff;
+                    while (!interrupted && (backoff = retryNotBefore - currentTimeMillis()) > 0) {
+                        writeNeeded.await(backoff, TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    LOG.warn("Event writer interrupted; writing pending events and stopping.");
+                    interrupted = true;
+                    closed = true;
+                }
+                if ((closed || interrupted) && pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                oldestInFlight = batch.isEmpty() ? 0 : batch.values().iterator().next().since;
+            } finally {
+                lock.unlock();
+            }
+
+            Map<Event, PendingWrite> failed = batch.isEmpty() ? Collections.emptyMap() : write(batch);
+
+            lock.lock();
+            try {
+                if (!failed.isEmpty()) {
+                    requeue(failed, interrupted);
+                }
+                oldestInFlight = 0;
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private boolean isWriteDue() {
+        return pending.size() >= batchSize || (!pending.isEmpty() && currentTimeMillis() - pending.values().iterator().next().since >= maxLagMillis / 2);
+    }
+
+    /**
+     * Queue failed writes again ahead of the writes queued since they were taken; merging writes of the
+     * same event. Writes which have failed MAX_WRITE_ATTEMPTS times are given up.
+     */
+    @GuardedBy("lock")
+    private void requeue(Map<Event, PendingWrite> failed, boolean giveUp) {
+        LinkedHashMap<Event, PendingWrite> requeued = new LinkedHashMap<>();
+        int maxAttempts = 0;
+        for (Map.Entry<Event, PendingWrite> entry : failed.entrySet()) {
+            PendingWrite write = entry.getValue();
+            if (giveUp || ++write.attempts >= MAX_WRITE_ATTEMPTS) {
+                eventsFailed.incrementAndGet();
+                LOG.error("Giving up writing event " + entry.getKey().getId() + " (" + entry.getKey().getEventType() + ") after " + write.attempts + " attempts.");
+            } else {
+                requeued.put(entry.getKey(), write);
+                maxAttempts = Math.max(maxAttempts, write.attempts);
+            }
+        }
+        for (Map.Entry<Event, PendingWrite> entry : pending.entrySet()) {
+            PendingWrite write = requeued.get(entry.getKey());
+            if (write == null) {
+                requeued.put(entry.getKey(), entry.getValue());
+            } else {
+                write.merge(entry.getValue());
+            }
+        }
+        pending = requeued;
+
+        if (maxAttempts > 0) {
+            long backoff = Math.min(MAX_RETRY_BACKOFF_MILLIS, minRetryBackoffMillis << Math.min(maxAttempts - 1, 16));
+            retryNotBefore = currentTimeMillis() + backoff;
+            eventsRetried.addAndGet(failed.size());
+            LOG.warn("Retrying " + failed.size() + " events in " + backoff + " msecs.");
+        }
+    }
+
+    /**
+     * Write a batch in one transaction. If that fails, write its events one per transaction.
+     *
+     * @return the events which could not be written.
+     */
+    private Map<Event, PendingWrite> write(Map<Event, PendingWrite> batch) {
+        final long t0 = currentTimeMillis();
+        final long oldest = batch.values().iterator().next().since;
+
+        Map<Event, PendingWrite> failed = Collections.emptyMap();
+        if (!writeInTransaction(batch)) {
+            if (batch.size() == 1) {
+                failed = batch;
+            } else {
+                failed = new LinkedHashMap<>();
+                for (Map.Entry<Event, PendingWrite> entry : batch.entrySet()) {
+                    if (!writeInTransaction(Collections.singletonMap(entry.getKey(), entry.getValue()))) {
+                        failed.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+
+        final long t1 = currentTimeMillis();
+        final long lag = t1 - oldest;
+        LOG.debug("Wrote " + (batch.size() - failed.size()) + " of " + batch.size() + " events in " + (t1 - t0) + " msecs; lag " + lag + " msecs.");
+        if (lag > maxLagMillis) {
+            LOG.warn("Event persistence lag is " + lag + " msecs; max. " + maxLagMillis + " msecs expected.");
+        }
+        return failed;
+    }
+
+    private boolean writeInTransaction(Map<Event, PendingWrite> batch) {
+        Session session = sessionFactory.openSession();
+        try {
+            session.beginTransaction();
+            for (Map.Entry<Event, PendingWrite> entry : batch.entrySet()) {
+                final Event event = entry.getKey();
+                synchronized (event) {
+                    entry.getValue().write(session, event);
+                }
+            }
+            session.getTransaction().commit();
+            transactions.incrementAndGet();
+            eventsWritten.addAndGet(batch.size());
+            return true;
+        } catch (RuntimeException e) {
+            LOG.error("Failed to write " + batch.size() + " events: " + e.getMessage(), e);
+            try {
+                session.getTransaction().rollback();
+            } catch (RuntimeException re) {
+                LOG.error(re.getMessage(), re);
+            }
+            for (Map.Entry<Event, PendingWrite> entry : batch.entrySet()) {
+                synchronized (entry.getKey()) {
+                    entry.getValue().rollback();
+                }
+            }
+            return false;
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * The changes to an event which are waiting to be written. Guarded by the queue lock until
+     * taken by the writer thread; and again when queued after a failed write.
+     */
+    private static final class PendingWrite {
+        final long since;
+        boolean save;
+        boolean end;
+        boolean boundingBox;
+        int attempts;
+        final List<Behaviour> appendedBehaviours = new ArrayList<>(1);
+        final List<TrackingPoint> appendedTrackingPoints = new ArrayList<>(1);
+
+        /** Objects which got a generated id during the current write; their ids are cleared on rollback */
+        final List<Object> unsaved = new ArrayList<>();
+
+        PendingWrite(long since) {
+            this.since = since;
+        }
+
+        void append(Behaviour behaviour, TrackingPoint trackingPoint, boolean boundingBoxExtended) {
+            if (!save) {
+                appendedBehaviours.add(behaviour);
+                appendedTrackingPoints.add(trackingPoint);
+                boundingBox |= boundingBoxExtended;
+            }
+        }
+
+        /** Add the changes of a later write of the same event to this one */
+        void merge(PendingWrite later) {
+            save |= later.save;
+            end |= later.end;
+            boundingBox |= later.boundingBox;
+            if (!save) {
+                appendedBehaviours.addAll(later.appendedBehaviours);
+                appendedTrackingPoints.addAll(later.appendedTrackingPoints);
+            } else {
+                appendedBehaviours.clear();
+                appendedTrackingPoints.clear();
+            }
+        }
+
+        /** Must be called while synchronized on the event */
+        void write(Session session, Event event) {
+            unsaved.clear();
+            if (save || event.getId() == 0 || appendedBehaviours.stream().anyMatch(b -> b.getId() == 0)) {
+                JpaEventRepository.collectUnsaved(event, unsaved);
+                event.updateBoundingBox();
+                List<Vessel> newVessels = JpaEventRepository.newVessels(event);
+                session.saveOrUpdate(event);
+                JpaEventRepository.insertVesselSearchTrigrams(session, newVessels);
+                session.flush();
+                session.evict(event);
+            } else {
+                appendedTrackingPoints.stream().filter(tp -> tp.getId() == 0).forEach(unsaved::add);
+                for (int i = 0; i < appendedTrackingPoints.size(); i++) {
+                    JpaEventRepository.insertTrackingPoint(session, appendedBehaviours.get(i), appendedTrackingPoints.get(i));
+                }
+                if (boundingBox) {
+                    JpaEventRepository.updateEventBoundingBox(session, event);
+                }
+                if (end) {
+                    JpaEventRepository.updateEventEnd(session, event);
+                }
+            }
+        }
+
+        /**
+         * Clear the ids generated during a write which was rolled back; so that the objects are inserted
+         * when the write is retried. Must be called while synchronized on the event.
+         */
+        void rollback() {
+            JpaEventRepository.clearGeneratedIds(unsaved);
+            unsaved.clear();
+        }
+    }
+
+}
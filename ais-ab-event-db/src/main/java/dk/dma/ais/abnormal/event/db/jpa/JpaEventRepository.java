@@ -18,22 +18,55 @@ package dk.dma.ais.abnormal.event.db.jpa;
 
 import com.google.inject.Inject;
 import dk.dma.ais.abnormal.event.db.EventRepository;
+import dk.dma.ais.abnormal.event.db.domain.Behaviour;
 import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.EventLocation;
+import dk.dma.ais.abnormal.event.db.domain.EventSummary;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import dk.dma.ais.abnormal.event.db.domain.Vessel;
+import dk.dma.ais.abnormal.event.db.domain.VesselSearchTrigram;
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.concurrent.GuardedBy;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static java.lang.System.currentTimeMillis;
 
 /**
  * JpaEventRepository is an implementation of the EventRepository interface which
  * manages persistent Event objects in a relational database accessed via Hibernate.
+ *
+ * Unless readonly, the repository keeps an in-memory index of ongoing events by mmsi and event class.
+ * The index is loaded from the database on first use, and maintained on every save, so that
+ * findOngoingEventByVessel() can be answered without accessing the database. This assumes that
+ * no other process is writing events to the same database.
+ *
+ * In write-behind mode, saved events are written to the database asynchronously in batches (see
+ * EventWriteBehindQueue), and queries may not see the most recently saved events until they are
+ * written. Saved events must only be modified through appendTrackingPoint() and endEvent(), or while
+ * synchronized on the event. close() must be called to write the remaining events when the repository is no longer used.
+ *
+ * Otherwise each write uses a session and transaction of its own; unless it is done inside runInUnitOfWork(),
+ * where all writes of the unit share one.
  */
 @SuppressWarnings("JpaQlInspection")
 public class JpaEventRepository implements EventRepository {
@@ -43,18 +76,110 @@ public class JpaEventRepository implements EventRepository {
         LOG.info(this.getClass().getSimpleName() + " created (" + this + ").");
     }
 
+    /** No. of rows fetched from the database at a time when streaming search results */
+    private static final int STREAMING_FETCH_SIZE = 500;
+    private static final int BATCH_UPDATE_SIZE = 100;
+
     private final SessionFactory sessionFactory;
     private final boolean readonly;
 
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @GuardedBy("lock")
+    private Map<Integer, Map<Class<? extends Event>, Event>> ongoingEvents;
+
+    private final EventWriteBehindQueue writeBehindQueue;
+
+    /** Max. age of the cached result of getEventTypes() */
+    private static final long EVENT_TYPES_CACHE_MILLIS = 60000;
+
+    private final Object eventTypesLock = new Object();
+
+    @GuardedBy("eventTypesLock")
+    private List<String> eventTypes;
+
+    @GuardedBy("eventTypesLock")
+    private long eventTypesLoaded;
+
+    /** The unit of work in progress on each thread */
+    private final ThreadLocal<UnitOfWork> unitOfWork = new ThreadLocal<>();
+
     @Inject
     public JpaEventRepository(SessionFactory sessionFactory, boolean readonly) {
         this.readonly = readonly;
         this.sessionFactory = sessionFactory;
+        this.writeBehindQueue = null;
+    }
+
+    /**
+     * Create a writable repository in write-behind mode.
+     *
+     * @param sessionFactory the session factory.
+     * @param maxLagMillis the max. time in msecs from an event is saved until it is written to the database.
+     * @param batchSize the max. no. of events written to the database in one transaction.
+     */
+    public JpaEventRepository(SessionFactory sessionFactory, long maxLagMillis, int batchSize) {
+        this.readonly = false;
+        this.sessionFactory = sessionFactory;
+
+        // Load ongoing events before any are saved, so that pending events are always indexed
+        lock.lock();
+        try {
+            loadOngoingEvents();
+        } finally {
+            lock.unlock();
+        }
+
+        this.writeBehindQueue = new EventWriteBehindQueue(sessionFactory, maxLagMillis, batchSize);
+    }
+
+    /**
+     * Return the time in msecs that the oldest saved, but not yet written, event has waited. Always 0
+     * unless in write-behind mode.
+     */
+    public long getPersistenceLagMillis() {
+        return writeBehindQueue == null ? 0 : writeBehindQueue.getPersistenceLagMillis();
+    }
+
+    /**
+     * Return the no. of saved events which are not yet written to the database. Always 0 unless
+     * in write-behind mode.
+     */
+    public int getNumberOfPendingEvents() {
+        return writeBehindQueue == null ? 0 : writeBehindQueue.getNumberOfPendingEvents();
+    }
+
+    /**
+     * Return the no. of times a saved event has been queued for writing again after a failed write.
+     * Always 0 unless in write-behind mode.
+     */
+    public long getNumberOfEventsRetried() {
+        return writeBehindQueue == null ? 0 : writeBehindQueue.getNumberOfEventsRetried();
+    }
+
+    /**
+     * Return the no. of saved events which were given up after repeated failed writes. Always 0 unless
+     * in write-behind mode.
+     */
+    public long getNumberOfEventsFailed() {
+        return writeBehindQueue == null ? 0 : writeBehindQueue.getNumberOfEventsFailed();
+    }
+
+    /**
+     * Write any pending events to the database. The repository can not be used to save events
+     * after it has been closed.
+     */
+    public void close() {
+        if (writeBehindQueue != null) {
+            writeBehindQueue.close();
+        }
     }
 
     private Session getSession() {
         Session session = sessionFactory.openSession();
-        LOG.debug("Database session acquired: " + session);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Database session acquired: " + session);
+        }
 
         if (readonly) {
             session.setDefaultReadOnly(true);
@@ -63,33 +188,459 @@ public class JpaEventRepository implements EventRepository {
         return session;
     }
 
+    private static void closeSession(Session session) {
+        session.close();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Database session closed: " + session);
+        }
+    }
+
+    /**
+     * Run work on the current thread as one unit of work. Events written by the work share one session and
+     * one transaction, which is committed when the work completes; instead of a session and transaction per
+     * write. The session is opened by the first write; so a unit of work in which nothing is written does not
+     * access the database.
+     *
+     * If a write fails, or the work throws, the writes of the unit are rolled back: Ids generated for them are
+     * cleared, and the changes they made to the index of ongoing events are undone; so the rolled back events
+     * are saved again when next written. A failed write is rethrown, but callers may swallow it (e.g. EventBus
+     * subscribers); so later writes of a failed unit are written each in a session and transaction of its own.
+     * Queries inside the unit use their own sessions; they do not see the uncommitted writes of the unit.
+     *
+     * Units of work do not nest; work is run in the enclosing unit if there is one. In write-behind mode
+     * writes are already batched, and the work is just run.
+     */
     @Override
-    public List<String> getEventTypes() {
-        Session session = getSession();
+    public void runInUnitOfWork(Runnable work) {
+        if (readonly || writeBehindQueue != null || unitOfWork.get() != null) {
+            work.run();
+            return;
+        }
 
-        List events = null;
+        // Events saved in the unit must be indexed when saved; not loaded later before they are committed
+        lock.lock();
         try {
-            Query query = session.createQuery("SELECT DISTINCT e.class AS c FROM Event e WHERE e.suppressed=false ORDER BY c");
-            events = query.list();
+            if (ongoingEvents == null) {
+                loadOngoingEvents();
+            }
         } finally {
-            session.close();
-            LOG.debug("Database session closed: " + session);
+            lock.unlock();
         }
 
-        return events;
+        UnitOfWork uow = new UnitOfWork();
+        unitOfWork.set(uow);
+        try {
+            work.run();
+            if (uow.session != null) {
+                uow.session.getTransaction().commit();
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Committed " + uow.writes + " writes in one unit of work.");
+                }
+            }
+        } catch (RuntimeException e) {
+            rollback(uow, e);
+            throw e;
+        } finally {
+            unitOfWork.remove();
+            if (uow.session != null) {
+                closeSession(uow.session);
+            }
+        }
+    }
+
+    /**
+     * Roll back the writes of a unit of work and discard its session. Later writes of the unit are written
+     * in sessions of their own.
+     */
+    private void rollback(UnitOfWork uow, RuntimeException cause) {
+        if (uow.failed) {
+            return;
+        }
+        uow.failed = true;
+
+        if (uow.session != null) {
+            LOG.error("Rolling back " + uow.writes + " writes of unit of work: " + cause.getMessage());
+            try {
+                uow.session.getTransaction().rollback();
+            } catch (RuntimeException re) {
+                LOG.error(re.getMessage(), re);
+            } finally {
+                closeSession(uow.session);
+                uow.session = null;
+            }
+        }
+
+        clearGeneratedIds(uow.unsaved);
+        uow.unsaved.clear();
+
+        lock.lock();
+        try {
+            uow.replacedOngoingEvents.forEach((mmsi, replaced) -> replaced.forEach((type, event) -> {
+                Map<Class<? extends Event>, Event> eventMap = ongoingEvents.get(mmsi);
+                if (event != null) {
+                    if (eventMap == null) {
+                        eventMap = new HashMap<>();
+                        ongoingEvents.put(mmsi, eventMap);
+                    }
+                    eventMap.put(type, event);
+                } else if (eventMap != null) {
+                    eventMap.remove(type);
+                    if (eventMap.isEmpty()) {
+                        ongoingEvents.remove(mmsi);
+                    }
+                }
+            }));
+            uow.replacedOngoingEvents.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Perform a write in the unit of work of the current thread; or in a session and transaction of its own
+     * if there is none (or the unit has failed). If the write fails, the ids generated by it (or by the unit)
+     * are cleared.
+     *
+     * @param writer performs the write.
+     * @param unsaved adds the objects which will get a generated id by the write to the given list.
+     */
+    private void write(Consumer<Session> writer, Consumer<List<Object>> unsaved) {
+        UnitOfWork uow = unitOfWork.get();
+        if (uow == null || uow.failed) {
+            List<Object> generated = new ArrayList<>(1);
+            unsaved.accept(generated);
+            Session session = getSession();
+            try {
+                session.beginTransaction();
+                writer.accept(session);
+                session.getTransaction().commit();
+            } catch (RuntimeException e) {
+                try {
+                    session.getTransaction().rollback();
+                } catch (RuntimeException re) {
+                    LOG.error(re.getMessage(), re);
+                }
+                clearGeneratedIds(generated);
+                throw e;
+            } finally {
+                closeSession(session);
+            }
+        } else {
+            unsaved.accept(uow.unsaved);
+            try {
+                if (uow.session == null) {
+                    uow.session = getSession();
+                    uow.session.beginTransaction();
+                }
+                writer.accept(uow.session);
+                uow.writes++;
+                // Detach the written entities, as if written in a session of their own
+                uow.session.flush();
+                uow.session.clear();
+            } catch (RuntimeException e) {
+                rollback(uow, e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The session and transaction shared by the writes of a unit of work; and what is needed to roll them back.
+     */
+    private static final class UnitOfWork {
+        Session session;
+        int writes;
+        boolean failed;
+
+        /** Objects which got a generated id in the unit; their ids are cleared on rollback */
+        final List<Object> unsaved = new ArrayList<>();
+
+        /** The ongoing events indexed by MMSI and type before the unit changed them; null if none */
+        final Map<Integer, Map<Class<? extends Event>, Event>> replacedOngoingEvents = new HashMap<>();
+    }
+
+    /**
+     * Add the parts of event which have not been persisted (and so will get a generated id when the
+     * event is saved) to unsaved.
+     */
+    static void collectUnsaved(Event event, List<Object> unsaved) {
+        if (event.getId() == 0) {
+            unsaved.add(event);
+        }
+        for (Behaviour behaviour : event.getBehaviours()) {
+            if (behaviour.getId() == 0) {
+                unsaved.add(behaviour);
+            }
+            if (behaviour.getVessel() != null && behaviour.getVessel().getId() == 0) {
+                unsaved.add(behaviour.getVessel());
+            }
+            behaviour.getTrackingPoints().stream().filter(tp -> tp.getId() == 0).forEach(unsaved::add);
+        }
+    }
+
+    /**
+     * Clear the ids generated by a write which was rolled back; so that the objects are inserted when
+     * written again.
+     */
+    static void clearGeneratedIds(List<Object> unsaved) {
+        for (Object object : unsaved) {
+            if (object instanceof Event) {
+                ((Event) object).setId(0);
+            } else if (object instanceof Behaviour) {
+                ((Behaviour) object).setId(0);
+            } else if (object instanceof Vessel) {
+                ((Vessel) object).setId(0);
+            } else if (object instanceof TrackingPoint) {
+                ((TrackingPoint) object).setId(0);
+            }
+        }
+    }
+
+    /**
+     * Get the event types. The result is cached for EVENT_TYPES_CACHE_MILLIS, since the query must scan all
+     * events; types of events saved through this repository are added to the cached result at once.
+     */
+    @Override
+    public List<String> getEventTypes() {
+        synchronized (eventTypesLock) {
+            if (eventTypes == null || currentTimeMillis() - eventTypesLoaded > EVENT_TYPES_CACHE_MILLIS) {
+                Session session = getSession();
+                try {
+                    Query query = session.createQuery("SELECT DISTINCT e.class AS c FROM Event e WHERE e.suppressed=false ORDER BY c");
+                    List<String> types = new ArrayList<>();
+                    for (Object type : query.list()) {
+                        types.add(type instanceof Class ? ((Class) type).getSimpleName() : String.valueOf(type));
+                    }
+                    eventTypes = Collections.unmodifiableList(types);
+                    eventTypesLoaded = currentTimeMillis();
+                } finally {
+                    closeSession(session);
+                }
+            }
+            return eventTypes;
+        }
+    }
+
+    /**
+     * Add the type of a saved event to the cached event types.
+     */
+    private void updateEventTypes(Event event) {
+        synchronized (eventTypesLock) {
+            String type = event.getEventType();
+            if (eventTypes != null && ! event.isSuppressed() && ! eventTypes.contains(type)) {
+                List<String> types = new ArrayList<>(eventTypes);
+                types.add(type);
+                Collections.sort(types);
+                eventTypes = Collections.unmodifiableList(types);
+            }
+        }
     }
 
     @Override
     public void save(Event event) {
+        updateEventTypes(event);
+        if (writeBehindQueue != null) {
+            updateOngoingEvents(event);
+            writeBehindQueue.enqueueSave(event);
+            return;
+        }
+
+        write(session -> {
+            event.updateBoundingBox();
+            List<Vessel> newVessels = newVessels(event);
+            session.saveOrUpdate(event);
+            insertVesselSearchTrigrams(session, newVessels);
+        }, unsaved -> collectUnsaved(event, unsaved));
+
+        if (! readonly) {
+            updateOngoingEvents(event);
+        }
+    }
+
+    @Override
+    public void appendTrackingPoint(Event event, int mmsi, TrackingPoint trackingPoint) {
+        final Behaviour behaviour;
+        final boolean boundingBoxExtended;
+        synchronized (event) {
+            behaviour = event.getBehaviour(mmsi);
+            if (behaviour == null) {
+                throw new IllegalArgumentException("Event " + event.getId() + " has no behaviour for MMSI " + mmsi + ".");
+            }
+            behaviour.addTrackingPoint(trackingPoint);
+            boundingBoxExtended = event.extendBoundingBox(trackingPoint);
+        }
+
+        if (writeBehindQueue != null) {
+            writeBehindQueue.enqueueAppend(event, behaviour, trackingPoint, boundingBoxExtended);
+        } else if (behaviour.getId() == 0) {
+            save(event);
+        } else {
+            write(session -> {
+                insertTrackingPoint(session, behaviour, trackingPoint);
+                if (boundingBoxExtended) {
+                    updateEventBoundingBox(session, event);
+                }
+            }, unsaved -> {
+                if (trackingPoint.getId() == 0) {
+                    unsaved.add(trackingPoint);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void endEvent(Event event, LocalDateTime endTime) {
+        synchronized (event) {
+            event.setState(Event.State.PAST);
+            event.setEndTime(endTime);
+        }
+
+        if (writeBehindQueue != null) {
+            updateOngoingEvents(event);
+            writeBehindQueue.enqueueEnd(event);
+        } else if (event.getId() == 0) {
+            save(event);
+        } else {
+            write(session -> updateEventEnd(session, event), unsaved -> { });
+            if (! readonly) {
+                updateOngoingEvents(event);
+            }
+        }
+    }
+
+    /**
+     * Insert a new tracking point of an already persisted behaviour; without loading or writing
+     * the other tracking points of the behaviour. Does nothing if the tracking point is already persisted.
+     */
+    static void insertTrackingPoint(Session session, Behaviour behaviour, TrackingPoint trackingPoint) {
+        if (trackingPoint.getId() != 0) {
+            return;
+        }
+        session.save(trackingPoint);
+        session.flush();
+        session.createSQLQuery("INSERT INTO " + Behaviour.TRACKINGPOINTS_JOIN_TABLE + " (" + Behaviour.TRACKINGPOINTS_JOIN_COLUMN + ", " + Behaviour.TRACKINGPOINTS_INVERSE_JOIN_COLUMN + ") VALUES (:behaviourId, :trackingPointId)")
+            .setLong("behaviourId", behaviour.getId())
+            .setLong("trackingPointId", trackingPoint.getId())
+            .executeUpdate();
+        session.evict(trackingPoint);
+    }
+
+    /**
+     * Update the state and end time of an already persisted event; without writing the rest of the event.
+     */
+    static void updateEventEnd(Session session, Event event) {
+        session.createQuery("UPDATE Event e SET e.state = :state, e.endTime = :endTime WHERE e.id = :id")
+            .setParameter("state", event.getState())
+            .setParameter("endTime", event.getEndTime())
+            .setLong("id", event.getId())
+            .executeUpdate();
+    }
+
+    /**
+     * Get the vessels of an event which are not yet persisted.
+     */
+    static List<Vessel> newVessels(Event event) {
+        return event.getBehaviours().stream().map(Behaviour::getVessel).filter(v -> v != null && v.getId() == 0).collect(Collectors.toList());
+    }
+
+    /**
+     * Insert the search trigrams of vessels which have just been saved.
+     */
+    static void insertVesselSearchTrigrams(Session session, List<Vessel> vessels) {
+        for (Vessel vessel : vessels) {
+            for (String trigram : VesselSearchTrigram.trigramsOf(vessel)) {
+                session.save(new VesselSearchTrigram(vessel.getId(), trigram));
+            }
+        }
+    }
+
+    /**
+     * Update the bounding box of an already persisted event; without writing the rest of the event.
+     */
+    static void updateEventBoundingBox(Session session, Event event) {
+        session.createQuery("UPDATE Event e SET e.boundingBoxNorth = :north, e.boundingBoxEast = :east, e.boundingBoxSouth = :south, e.boundingBoxWest = :west WHERE e.id = :id")
+            .setParameter("north", event.getBoundingBoxNorth())
+            .setParameter("east", event.getBoundingBoxEast())
+            .setParameter("south", event.getBoundingBoxSouth())
+            .setParameter("west", event.getBoundingBoxWest())
+            .setLong("id", event.getId())
+            .executeUpdate();
+    }
+
+    /**
+     * Compute and store the bounding box of persisted events which have none; i.e. events written before
+     * the bounding box was introduced. Events without tracking points are left without a bounding box.
+     *
+     * @return the number of events examined.
+     */
+    public int updateMissingBoundingBoxes() {
+        if (readonly) {
+            throw new IllegalStateException("Repository is readonly.");
+        }
+
+        int n = 0;
         Session session = getSession();
         try {
             session.beginTransaction();
-            session.saveOrUpdate(event);
+            ScrollableResults results = session.createQuery("SELECT e FROM Event e WHERE e.boundingBoxNorth IS NULL").scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    ((Event) results.get(0)).updateBoundingBox();
+                    if (++n % BATCH_UPDATE_SIZE == 0) {
+                        session.flush();
+                        session.clear();
+                    }
+                }
+            } finally {
+                results.close();
+            }
             session.getTransaction().commit();
         } finally {
-            session.close();
-            LOG.debug("Database session closed: " + session);
+            closeSession(session);
+        }
+
+        if (n > 0) {
+            LOG.info("Examined bounding box of " + n + " events.");
+        }
+        return n;
+    }
+
+    /**
+     * Insert search trigrams for persisted vessels which have a name or call sign but no trigrams; i.e. vessels
+     * written before the trigrams were introduced.
+     *
+     * @return the number of vessels examined.
+     */
+    public int updateMissingVesselSearchTrigrams() {
+        if (readonly) {
+            throw new IllegalStateException("Repository is readonly.");
+        }
+
+        int n = 0;
+        Session session = getSession();
+        try {
+            session.beginTransaction();
+            ScrollableResults results = session.createQuery("SELECT v FROM Vessel v WHERE (v.name IS NOT NULL OR v.callsign IS NOT NULL) AND NOT EXISTS (SELECT t FROM VesselSearchTrigram t WHERE t.vesselId = v.id)").scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    insertVesselSearchTrigrams(session, Collections.singletonList((Vessel) results.get(0)));
+                    if (++n % BATCH_UPDATE_SIZE == 0) {
+                        session.flush();
+                        session.clear();
+                    }
+                }
+            } finally {
+                results.close();
+            }
+            session.getTransaction().commit();
+        } finally {
+            closeSession(session);
         }
+
+        if (n > 0) {
+            LOG.info("Examined search trigrams of " + n + " vessels.");
+        }
+        return n;
     }
 
     @Override
@@ -99,118 +650,427 @@ public class JpaEventRepository implements EventRepository {
         try {
             event = (Event) session.get(Event.class, eventId);
         } finally {
-            session.close();
-            LOG.debug("Database session closed: " + session);
+            closeSession(session);
         }
         return event;
     }
 
     @Override
     public List<Event> findEventsByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west) {
-        Session session = getSession();
+        return findEventsByFromAndToAndTypeAndVesselAndArea(from, to, type, vessel, north, east, south, west, null, 0);
+    }
 
-        boolean usesFrom = false, usesTo = false, usesType = false, usesVessel = false, usesArea = false;
+    @Override
+    public List<Event> findEventsByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults) {
+        Session session = getSession();
 
         List events = null;
         try {
-            StringBuilder hql = new StringBuilder();
+            Query query = createEventSearchQuery(session, "DISTINCT e", from, to, type, vessel, north, east, south, west, afterId);
+            if (maxResults > 0) {
+                query.setMaxResults(maxResults);
+            }
+
+            LOG.debug("Query: " + query.toString());
+            final long t0 = currentTimeMillis();
+            events = query.list();
+            final long t1 = currentTimeMillis();
+            LOG.debug("Found " + events.size() + " matching events in " + (t1-t0) + " msecs.");
+        } finally {
+            closeSession(session);
+        }
+
+        return events;
+    }
 
-            hql.append("SELECT DISTINCT e FROM Event e ");
+    @Override
+    public long findEventsByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults, Consumer<Event> consumer) {
+        Session session = getSession();
+
+        long n = 0;
+        try {
+            session.beginTransaction();
 
-            if (! StringUtils.isBlank(vessel)) {
-                hql.append("LEFT JOIN e.behaviours AS b ");
+            Query query = createEventSearchQuery(session, "DISTINCT e", from, to, type, vessel, north, east, south, west, afterId);
+            query.setReadOnly(true);
+            query.setFetchSize(STREAMING_FETCH_SIZE);
+            if (maxResults > 0) {
+                query.setMaxResults(maxResults);
             }
 
-            if (north != null && east != null && south != null && west != null) {
-                hql.append("LEFT JOIN e.behaviours AS b LEFT JOIN b.trackingPoints AS tp WHERE e.suppressed=false AND latitude<:north AND latitude>:south AND longitude<:east AND longitude>:west AND ");
-                usesArea = true;
-            } else {
-                hql.append("WHERE e.suppressed=false AND ");
+            LOG.debug("Query: " + query.toString());
+            final long t0 = currentTimeMillis();
+            ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    consumer.accept((Event) results.get(0));
+                    if (++n % STREAMING_FETCH_SIZE == 0) {
+                        session.clear();
+                    }
+                }
+            } finally {
+                results.close();
             }
+            final long t1 = currentTimeMillis();
+            LOG.debug("Streamed " + n + " matching events in " + (t1-t0) + " msecs.");
+
+            session.getTransaction().commit();
+        } finally {
+            closeSession(session);
+        }
 
-            // from
-            if (from != null) {
-                hql.append("(e.startTime >= :from OR e.endTime >= :from) AND ");
-                usesFrom = true;
+        return n;
+    }
+
+    @Override
+    public long findEventSummariesByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults, Consumer<EventSummary> consumer) {
+        Session session = getSession();
+
+        long n = 0;
+        try {
+            // Some JDBC drivers (e.g. PostgreSQL) only use the fetch size inside a transaction
+            session.beginTransaction();
+
+            Query query = createEventSearchQuery(session, "DISTINCT e.id, e.class, e.state, e.startTime, e.endTime, e.title, e.description", from, to, type, vessel, north, east, south, west, afterId);
+            query.setReadOnly(true);
+            query.setFetchSize(STREAMING_FETCH_SIZE);
+            if (maxResults > 0) {
+                query.setMaxResults(maxResults);
             }
 
-            // to
-            if (to != null) {
-                hql.append("(e.startTime <= :to OR e.endTime <= :to) AND ");
-                usesTo = true;
+            LOG.debug("Query: " + query.toString());
+            final long t0 = currentTimeMillis();
+            ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    Object[] row = results.get();
+                    Object eventType = row[1];
+                    consumer.accept(new EventSummary(
+                        ((Number) row[0]).longValue(),
+                        eventType instanceof Class ? ((Class) eventType).getSimpleName() : String.valueOf(eventType),
+                        (Event.State) row[2],
+                        (LocalDateTime) row[3],
+                        (LocalDateTime) row[4],
+                        (String) row[5],
+                        (String) row[6]
+                    ));
+                    n++;
+                }
+            } finally {
+                results.close();
             }
+            final long t1 = currentTimeMillis();
+            LOG.debug("Streamed " + n + " matching event summaries in " + (t1-t0) + " msecs.");
 
-            // type
-            if (! StringUtils.isBlank(type)) {
-                hql.append("TYPE(e) IN (:classes) AND ");
-                usesType = true;
+            session.getTransaction().commit();
+        } finally {
+            closeSession(session);
+        }
+
+        return n;
+    }
+
+    @Override
+    public long findEventLocations(long afterId, Consumer<EventLocation> consumer) {
+        Session session = getSession();
+
+        long n = 0;
+        try {
+            session.beginTransaction();
+
+            Query query = createEventSearchQuery(session, "e.id, e.class, e.startTime, e.boundingBoxNorth, e.boundingBoxEast, e.boundingBoxSouth, e.boundingBoxWest", null, null, null, null, null, null, null, null, afterId);
+            query.setReadOnly(true);
+            query.setFetchSize(STREAMING_FETCH_SIZE);
+
+            ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    Object[] row = results.get();
+                    Object eventType = row[1];
+                    consumer.accept(EventLocation.of(
+                        ((Number) row[0]).longValue(),
+                        eventType instanceof Class ? ((Class) eventType).getSimpleName() : String.valueOf(eventType),
+                        (LocalDateTime) row[2],
+                        (Double) row[3],
+                        (Double) row[4],
+                        (Double) row[5],
+                        (Double) row[6]
+                    ));
+                    n++;
+                }
+            } finally {
+                results.close();
             }
 
-            // vessel
-            if (! StringUtils.isBlank(vessel)) {
-                hql.append("(");
-                hql.append("b.vessel.callsign LIKE :vessel OR ");
-                hql.append("b.vessel.name LIKE :vessel OR ");
-                try {
-                    Long vesselAsLong = Long.valueOf(vessel);
-                    hql.append("b.vessel.mmsi = :vessel OR ");
-                    hql.append("b.vessel.imo = :vessel OR ");
-                } catch (NumberFormatException e) {
+            session.getTransaction().commit();
+        } finally {
+            closeSession(session);
+        }
+
+        return n;
+    }
+
+    /**
+     * Pass all events (except suppressed ones) which were active between from and to to a consumer, in order
+     * of id. The events are read with a database cursor and detached after being passed to the consumer; so
+     * any number of events can be processed without holding them all in memory. The consumer must not keep
+     * references to the events.
+     *
+     * @param from if not null; only events active on or after this time are included.
+     * @param to if not null; only events active on or before this time are included.
+     * @return the number of events passed to the consumer.
+     */
+    public long forEachEvent(Date from, Date to, Consumer<Event> consumer) {
+        Session session = getSession();
+
+        long n = 0;
+        try {
+            session.beginTransaction();
+
+            Query query = createEventSearchQuery(session, "e", from, to, null, null, null, null, null, null, null);
+            query.setReadOnly(true);
+            query.setFetchSize(STREAMING_FETCH_SIZE);
+
+            final long t0 = currentTimeMillis();
+            ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    consumer.accept((Event) results.get(0));
+                    if (++n % STREAMING_FETCH_SIZE == 0) {
+                        session.clear();
+                    }
                 }
-                hql.replace(hql.length()-3, hql.length(), ")"); // "OR " -> ")"
-                if (! vessel.startsWith("%")) {
-                    vessel = "%" + vessel;
+            } finally {
+                results.close();
+            }
+            final long t1 = currentTimeMillis();
+            LOG.debug("Streamed " + n + " events in " + (t1-t0) + " msecs.");
+
+            session.getTransaction().commit();
+        } finally {
+            closeSession(session);
+        }
+
+        return n;
+    }
+
+    /**
+     * Get the earliest start time of any event; or null if there are no events.
+     */
+    public LocalDateTime findEarliestStartTime() {
+        Session session = getSession();
+        try {
+            return (LocalDateTime) session.createQuery("SELECT MIN(e.startTime) FROM Event e").uniqueResult();
+        } finally {
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Pass the past events (including suppressed ones) which started in the given month, and ended before
+     * endedBefore, to a consumer in order of id. The events are streamed as by forEachEvent(). Once archived,
+     * they can be removed by passing their ids to deleteEvents().
+     *
+     * @return the number of events passed to the consumer.
+     */
+    public long forEachEventStartedIn(YearMonth month, LocalDateTime endedBefore, Consumer<Event> consumer) {
+        Session session = getSession();
+
+        long n = 0;
+        try {
+            session.beginTransaction();
+
+            Query query = createStartedInQuery(session, "e", month, endedBefore);
+            query.setReadOnly(true);
+            query.setFetchSize(STREAMING_FETCH_SIZE);
+
+            ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    consumer.accept((Event) results.get(0));
+                    if (++n % STREAMING_FETCH_SIZE == 0) {
+                        session.clear();
+                    }
                 }
-                if (! vessel.endsWith("%")) {
-                    vessel = vessel + "%";
+            } finally {
+                results.close();
+            }
+
+            session.getTransaction().commit();
+        } finally {
+            closeSession(session);
+        }
+
+        return n;
+    }
+
+    /**
+     * Delete the events with the given ids; together with their behaviours, vessels and tracking points. Ids of
+     * events which do not exist are ignored. The events are deleted in batches of BATCH_UPDATE_SIZE; each in a
+     * transaction of its own.
+     *
+     * @return the number of deleted events.
+     */
+    public int deleteEvents(List<Long> ids) {
+        if (readonly) {
+            throw new IllegalStateException("Repository is readonly.");
+        }
+
+        int n = 0;
+        Session session = getSession();
+        try {
+            for (int i = 0; i < ids.size(); i += BATCH_UPDATE_SIZE) {
+                List<Long> batch = ids.subList(i, Math.min(i + BATCH_UPDATE_SIZE, ids.size()));
+                session.beginTransaction();
+                List<Event> events = session.createQuery("SELECT e FROM Event e WHERE e.id IN (:ids)").setParameterList("ids", batch).list();
+                List<Long> vesselIds = events.stream().flatMap(e -> e.getBehaviours().stream()).map(b -> b.getVessel().getId()).collect(Collectors.toList());
+                if (! vesselIds.isEmpty()) {
+                    session.createQuery("DELETE FROM VesselSearchTrigram t WHERE t.vesselId IN (:vesselIds)").setParameterList("vesselIds", vesselIds).executeUpdate();
                 }
-                usesVessel = true;
+                events.forEach(session::delete);
+                session.getTransaction().commit();
+                session.clear();
+                n += events.size();
             }
+        } finally {
+            closeSession(session);
+        }
 
-            //
-            String hqlAsString = hql.toString().trim();
-            if (hqlAsString.endsWith("AND")) {
-                hqlAsString = hqlAsString.substring(0, hqlAsString.lastIndexOf("AND"));
+        if (n > 0) {
+            synchronized (eventTypesLock) {
+                eventTypes = null;
             }
+            LOG.info("Deleted " + n + " events.");
+        }
+        return n;
+    }
+
+    private static Query createStartedInQuery(Session session, String select, YearMonth month, LocalDateTime endedBefore) {
+        return session.createQuery("SELECT " + select + " FROM Event e WHERE e.startTime >= :from AND e.startTime < :to AND e.state = :state AND e.endTime < :endedBefore ORDER BY e.id")
+            .setParameter("from", month.atDay(1).atStartOfDay())
+            .setParameter("to", month.plusMonths(1).atDay(1).atStartOfDay())
+            .setParameter("state", Event.State.PAST)
+            .setParameter("endedBefore", endedBefore);
+    }
 
-            //
-            Query query = session.createQuery(hqlAsString);
-            if (usesArea) {
-                query.setParameter("north", north);
-                query.setParameter("east", east);
-                query.setParameter("south", south);
-                query.setParameter("west", west);
+    /**
+     * Create the query used to search events by time, type, vessel and area; ordered by event id.
+     *
+     * @param select the select expression; must include e.id if DISTINCT.
+     */
+    private static Query createEventSearchQuery(Session session, String select, Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId) {
+        boolean usesFrom = false, usesTo = false, usesType = false, usesVessel = false, usesArea = false, usesAfterId = false;
+
+        StringBuilder hql = new StringBuilder();
+
+        hql.append("SELECT ").append(select).append(" FROM Event e ");
+
+        if (! StringUtils.isBlank(vessel)) {
+            hql.append("JOIN e.behaviours AS b ");
+        }
+
+        if (north != null && east != null && south != null && west != null) {
+            // the event's bounding box overlaps the area
+            hql.append("WHERE e.suppressed=false AND e.boundingBoxSouth<:north AND e.boundingBoxNorth>:south AND e.boundingBoxWest<:east AND e.boundingBoxEast>:west AND ");
+            usesArea = true;
+        } else {
+            hql.append("WHERE e.suppressed=false AND ");
+        }
+
+        // from
+        if (from != null) {
+            hql.append("(e.startTime >= :from OR e.endTime >= :from) AND ");
+            usesFrom = true;
+        }
+
+        // to; same as (e.startTime <= :to OR e.endTime <= :to) since no event ends before it starts, but can use the index
+        if (to != null) {
+            hql.append("e.startTime <= :to AND ");
+            usesTo = true;
+        }
+
+        // type
+        if (! StringUtils.isBlank(type)) {
+            hql.append("TYPE(e) IN (:classes) AND ");
+            usesType = true;
+        }
+
+        // vessel
+        Integer vesselNumber = null;
+        Set<String> vesselTrigrams = Collections.emptySet();
+        if (! StringUtils.isBlank(vessel)) {
+            try {
+                vesselNumber = Integer.valueOf(vessel.trim());
+            } catch (NumberFormatException e) {
             }
-            if (usesFrom) {
-                query.setParameter("from", from);
+
+            if (vesselNumber != null) {
+                // MMSI or IMO no.; exact match
+                hql.append("(b.vessel.mmsi = :vesselNumber OR b.vessel.imo = :vesselNumber) AND ");
+            } else {
+                // Substring of name or call sign; candidates found by trigrams, then confirmed by LIKE
+                vesselTrigrams = VesselSearchTrigram.trigramsOfPattern(vessel);
+                if (! vesselTrigrams.isEmpty()) {
+                    hql.append("b.vessel.id IN (SELECT t.vesselId FROM VesselSearchTrigram t WHERE t.trigram IN (:vesselTrigrams) GROUP BY t.vesselId HAVING COUNT(DISTINCT t.trigram) = :vesselTrigramCount) AND ");
+                }
+                hql.append("(UPPER(b.vessel.callsign) LIKE :vessel OR UPPER(b.vessel.name) LIKE :vessel) AND ");
+                vessel = "%" + StringUtils.strip(vessel, "%").toUpperCase(Locale.ENGLISH) + "%";
             }
-            if (usesTo) {
-                query.setParameter("to", to);
+            usesVessel = true;
+        }
+
+        // paging
+        if (afterId != null) {
+            hql.append("e.id > :afterId AND ");
+            usesAfterId = true;
+        }
+
+        //
+        String hqlAsString = hql.toString().trim();
+        if (hqlAsString.endsWith("AND")) {
+            hqlAsString = hqlAsString.substring(0, hqlAsString.lastIndexOf("AND"));
+        }
+        hqlAsString = hqlAsString.trim() + " ORDER BY e.id";
+
+        //
+        Query query = session.createQuery(hqlAsString);
+        if (usesArea) {
+            query.setParameter("north", north);
+            query.setParameter("east", east);
+            query.setParameter("south", south);
+            query.setParameter("west", west);
+        }
+        if (usesFrom) {
+            query.setParameter("from", from);
+        }
+        if (usesTo) {
+            query.setParameter("to", to);
+        }
+        if (usesType) {
+            String className = "dk.dma.ais.abnormal.event.db.domain." + type;
+            try {
+                Class clazz = Class.forName(className);
+                query.setParameter("classes", clazz);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Class " + className + " not found.");
             }
-            if (usesType) {
-                String className = "dk.dma.ais.abnormal.event.db.domain." + type;
-                try {
-                    Class clazz = Class.forName(className);
-                    query.setParameter("classes", clazz);
-                } catch (ClassNotFoundException e) {
-                    throw new IllegalArgumentException("Class " + className + " not found.");
+        }
+        if (usesVessel) {
+            if (vesselNumber != null) {
+                query.setParameter("vesselNumber", vesselNumber);
+            } else {
+                if (! vesselTrigrams.isEmpty()) {
+                    query.setParameterList("vesselTrigrams", vesselTrigrams);
+                    query.setParameter("vesselTrigramCount", (long) vesselTrigrams.size());
                 }
-            }
-            if (usesVessel) {
                 query.setParameter("vessel", vessel);
             }
-
-            LOG.debug("Query: " + query.toString());
-            final long t0 = currentTimeMillis();
-            events = query.list();
-            final long t1 = currentTimeMillis();
-            LOG.debug("Found " + events.size() + " matching events in " + (t1-t0) + " msecs.");
-        } finally {
-            session.close();
-            LOG.debug("Database session closed: " + session);
+        }
+        if (usesAfterId) {
+            query.setParameter("afterId", afterId);
         }
 
-        return events;
+        return query;
     }
 
     @Override
@@ -222,9 +1082,11 @@ public class JpaEventRepository implements EventRepository {
         List events = null;
         try {
             StringBuilder hql = new StringBuilder();
+            // Events which start or end between from and to; the redundant e.startTime <= :to limits the
+            // events examined to those starting before to, using the index
             hql.append("SELECT e FROM Event e WHERE ");
-            hql.append("(e.suppressed=false AND e.startTime >= :from AND e.startTime <= :to) OR ");
-            hql.append("(e.suppressed=false AND e.endTime >= :from AND e.endTime <= :to) ");
+            hql.append("e.suppressed=false AND e.startTime <= :to AND ");
+            hql.append("(e.startTime >= :from OR (e.endTime >= :from AND e.endTime <= :to)) ");
             hql.append("ORDER BY e.startTime");
 
             Query query = session.createQuery(hql.toString());
@@ -233,8 +1095,7 @@ public class JpaEventRepository implements EventRepository {
 
             events = query.list();
         } finally {
-            session.close();
-            LOG.debug("Database session closed: " + session);
+            closeSession(session);
         }
 
         LOG.debug("Found " + events.size() + " matching events.");
@@ -252,8 +1113,7 @@ public class JpaEventRepository implements EventRepository {
             query.setMaxResults(numberOfEvents);
             events = query.list();
         } finally {
-            session.close();
-            LOG.debug("Database session closed: " + session);
+            closeSession(session);
         }
 
         return events;
@@ -261,6 +1121,29 @@ public class JpaEventRepository implements EventRepository {
 
     @Override
     public <T extends Event> T findOngoingEventByVessel(int mmsi, Class<T> eventClass) {
+        if (readonly) {
+            return findOngoingEventByVesselInDatabase(mmsi, eventClass);
+        }
+
+        Event event = null;
+
+        lock.lock();
+        try {
+            if (ongoingEvents == null) {
+                loadOngoingEvents();
+            }
+            Map<Class<? extends Event>, Event> eventMap = ongoingEvents.get(mmsi);
+            if (eventMap != null) {
+                event = eventMap.get(eventClass);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return event == null ? null : (T) event;
+    }
+
+    private <T extends Event> T findOngoingEventByVesselInDatabase(int mmsi, Class<T> eventClass) {
         Session session = getSession();
 
         T event = null;
@@ -280,10 +1163,102 @@ public class JpaEventRepository implements EventRepository {
             }
 
         } finally {
-            session.close();
-            LOG.debug("Database session closed: " + session);
+            closeSession(session);
         }
 
         return event;
     }
+
+    /**
+     * Load all ongoing events from the database into the index of ongoing events.
+     */
+    @GuardedBy("lock")
+    private void loadOngoingEvents() {
+        final long t0 = currentTimeMillis();
+
+        ongoingEvents = new HashMap<>();
+
+        Session session = getSession();
+        try {
+            Query query = session.createQuery("SELECT DISTINCT e FROM Event e WHERE e.state = :state AND e.suppressed=false");
+            query.setString("state", "ONGOING");
+            List events = query.list();
+            if (events != null) {
+                events.forEach(event -> insertOngoingEvent((Event) event));
+            }
+        } finally {
+            closeSession(session);
+        }
+
+        LOG.info("Loaded ongoing events for " + ongoingEvents.size() + " vessels in " + (currentTimeMillis() - t0) + " msecs.");
+    }
+
+    /**
+     * Reflect a saved event in the index of ongoing events. Does nothing if the index is not loaded yet,
+     * since the saved event will then be loaded from the database with the rest.
+     */
+    private void updateOngoingEvents(Event event) {
+        lock.lock();
+        try {
+            if (ongoingEvents != null) {
+                if (event.getState() == Event.State.ONGOING && ! event.isSuppressed()) {
+                    insertOngoingEvent(event);
+                } else {
+                    removeOngoingEvent(event);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void insertOngoingEvent(Event event) {
+        event.involvedMmsis().forEach(mmsi -> {
+            Map<Class<? extends Event>, Event> eventMap = ongoingEvents.get(mmsi);
+            rememberOngoingEvent(mmsi, event.getClass(), eventMap);
+
+            if (eventMap == null) {
+                eventMap = new HashMap<>();
+                ongoingEvents.put(mmsi, eventMap);
+            }
+
+            Event previous = eventMap.put(event.getClass(), event);
+            if (previous != null && previous != event && previous.getId() != event.getId()) {
+                LOG.warn("More than one ongoing event of type " + event.getClass() + " for MMSI " + mmsi + "; expected max. 1. Using newest.");
+            }
+        });
+    }
+
+    @GuardedBy("lock")
+    private void removeOngoingEvent(Event event) {
+        event.involvedMmsis().forEach(mmsi -> {
+            Map<Class<? extends Event>, Event> eventMap = ongoingEvents.get(mmsi);
+            if (eventMap != null) {
+                Event indexed = eventMap.get(event.getClass());
+                if (indexed == event || (indexed != null && indexed.getId() == event.getId())) {
+                    rememberOngoingEvent(mmsi, event.getClass(), eventMap);
+                    eventMap.remove(event.getClass());
+                    if (eventMap.isEmpty()) {
+                        ongoingEvents.remove(mmsi);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Remember the ongoing event indexed for mmsi and type before it is first changed in the unit of work
+     * of the current thread (if any); so that it can be restored if the unit is rolled back.
+     */
+    @GuardedBy("lock")
+    private void rememberOngoingEvent(int mmsi, Class<? extends Event> type, Map<Class<? extends Event>, Event> eventMap) {
+        UnitOfWork uow = unitOfWork.get();
+        if (uow != null && ! uow.failed) {
+            Map<Class<? extends Event>, Event> replaced = uow.replacedOngoingEvents.computeIfAbsent(mmsi, m -> new HashMap<>());
+            if (! replaced.containsKey(type)) {
+                replaced.put(type, eventMap == null ? null : eventMap.get(type));
+            }
+        }
+    }
 }
@@ -25,6 +25,7 @@ import dk.dma.ais.abnormal.event.db.domain.SpeedOverGroundEvent;
 import dk.dma.ais.abnormal.event.db.domain.SuddenSpeedChangeEvent;
 import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
 import dk.dma.ais.abnormal.event.db.domain.Vessel;
+import dk.dma.ais.abnormal.event.db.domain.VesselSearchTrigram;
 import dk.dma.ais.abnormal.event.db.domain.Zone;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
@@ -63,6 +64,8 @@ public final class JpaSessionFactoryFactory {
             //.setProperty("hibernate.show_sql", "true")
             .setProperty("hibernate.hbm2ddl.auto", "update")
             .setProperty("hibernate.order_updates", "true")
+            .setProperty("hibernate.order_inserts", "true")
+            .setProperty("hibernate.jdbc.batch_size", "50")
             .setProperty("hibernate.cache.provider_class", "org.hibernate.cache.EhCacheProvider")
             .setProperty("hibernate.cache.use_second_level_cache", "true")
             .setProperty("hibernate.cache.use_query_cache", "true")
@@ -84,6 +87,7 @@ public final class JpaSessionFactoryFactory {
             .addAnnotatedClass(CloseEncounterEvent.class)
             .addAnnotatedClass(Zone.class)
             .addAnnotatedClass(Vessel.class)
+            .addAnnotatedClass(VesselSearchTrigram.class)
             .addAnnotatedClass(Behaviour.class)
             .addAnnotatedClass(TrackingPoint.class);
 
@@ -121,6 +125,8 @@ public final class JpaSessionFactoryFactory {
             //.setProperty("hibernate.show_sql", "true")
             .setProperty("hibernate.hbm2ddl.auto", "update")
             .setProperty("hibernate.order_updates", "true")
+            .setProperty("hibernate.order_inserts", "true")
+            .setProperty("hibernate.jdbc.batch_size", "50")
             .setProperty("hibernate.connection_pool_size", "1")
             .setProperty("hibernate.cache.provider_class", "org.hibernate.cache.EhCacheProvider")
             .setProperty("hibernate.cache.use_second_level_cache", "true")
@@ -145,6 +151,7 @@ public final class JpaSessionFactoryFactory {
             .addAnnotatedClass(CloseEncounterEvent.class)
             .addAnnotatedClass(Zone.class)
             .addAnnotatedClass(Vessel.class)
+            .addAnnotatedClass(VesselSearchTrigram.class)
             .addAnnotatedClass(Behaviour.class)
             .addAnnotatedClass(TrackingPoint.class);
 
@@ -0,0 +1,170 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.live;
+
+import dk.dma.ais.abnormal.event.db.domain.Behaviour;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+
+import javax.annotation.concurrent.Immutable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * A notification that an event has been raised, maintained or lowered by the analyzer.
+ *
+ * Notifications carry only what is needed to update a live view; the full event can be loaded from
+ * the event repository by its id. The id is 0 if the event had not yet been assigned an id when the
+ * notification was sent (e.g. by a write-behind repository).
+ */
+@Immutable
+public final class EventNotification {
+
+    public enum Kind {
+        RAISED, MAINTAINED, LOWERED
+    }
+
+    private final Kind kind;
+    private final long eventId;
+    private final String eventType;
+    private final int mmsi;
+    private final long timestamp;
+    private final Double latitude;
+    private final Double longitude;
+    private final String title;
+
+    public EventNotification(Kind kind, long eventId, String eventType, int mmsi, long timestamp, Double latitude, Double longitude, String title) {
+        this.kind = kind;
+        this.eventId = eventId;
+        this.eventType = eventType;
+        this.mmsi = mmsi;
+        this.timestamp = timestamp;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.title = title;
+    }
+
+    static EventNotification raised(Event event) {
+        Behaviour behaviour = event.primaryBehaviour();
+        TrackingPoint trackingPoint = behaviour == null || behaviour.getTrackingPoints().isEmpty() ? null : behaviour.getTrackingPoints().last();
+        return new EventNotification(Kind.RAISED, event.getId(), event.getEventType(), behaviour == null ? 0 : behaviour.getVessel().getMmsi(),
+            toEpochMillis(event.getStartTime()), trackingPoint == null ? null : trackingPoint.getLatitude(), trackingPoint == null ? null : trackingPoint.getLongitude(), event.getTitle());
+    }
+
+    static EventNotification maintained(Event event, int mmsi, TrackingPoint trackingPoint) {
+        return new EventNotification(Kind.MAINTAINED, event.getId(), event.getEventType(), mmsi,
+            toEpochMillis(trackingPoint.getTimestamp()), trackingPoint.getLatitude(), trackingPoint.getLongitude(), event.getTitle());
+    }
+
+    static EventNotification lowered(Event event, LocalDateTime endTime) {
+        Behaviour behaviour = event.primaryBehaviour();
+        return new EventNotification(Kind.LOWERED, event.getId(), event.getEventType(), behaviour == null ? 0 : behaviour.getVessel().getMmsi(),
+            toEpochMillis(endTime), null, null, event.getTitle());
+    }
+
+    private static long toEpochMillis(LocalDateTime timestamp) {
+        return timestamp == null ? 0 : timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public long getEventId() {
+        return eventId;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    /** The MMSI of the primary vessel of the event; or of the vessel which was tracked if MAINTAINED */
+    public int getMmsi() {
+        return mmsi;
+    }
+
+    /** The time of the notified change in msecs since the epoch */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /** The latitude of the most recent tracking point; or null if not known */
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    /** The longitude of the most recent tracking point; or null if not known */
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Write this notification in the wire format of EventNotificationServer.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(kind.ordinal());
+        out.writeLong(eventId);
+        out.writeUTF(eventType == null ? "" : eventType);
+        out.writeInt(mmsi);
+        out.writeLong(timestamp);
+        out.writeBoolean(latitude != null && longitude != null);
+        if (latitude != null && longitude != null) {
+            out.writeDouble(latitude);
+            out.writeDouble(longitude);
+        }
+        out.writeUTF(title == null ? "" : title);
+    }
+
+    /**
+     * Read a notification written by writeTo().
+     */
+    public static EventNotification readFrom(DataInput in) throws IOException {
+        final int kind = in.readUnsignedByte();
+        if (kind >= Kind.values().length) {
+            throw new IOException("Unknown event notification kind: " + kind);
+        }
+        final long eventId = in.readLong();
+        final String eventType = in.readUTF();
+        final int mmsi = in.readInt();
+        final long timestamp = in.readLong();
+        Double latitude = null, longitude = null;
+        if (in.readBoolean()) {
+            latitude = in.readDouble();
+            longitude = in.readDouble();
+        }
+        final String title = in.readUTF();
+        return new EventNotification(Kind.values()[kind], eventId, eventType, mmsi, timestamp, latitude, longitude, title);
+    }
+
+    @Override
+    public String toString() {
+        return "EventNotification{" +
+                "kind=" + kind +
+                ", eventId=" + eventId +
+                ", eventType='" + eventType + '\'' +
+                ", mmsi=" + mmsi +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
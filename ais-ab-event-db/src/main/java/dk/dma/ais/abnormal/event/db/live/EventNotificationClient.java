@@ -0,0 +1,133 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.live;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.function.Consumer;
+
+import static dk.dma.ais.abnormal.event.db.live.EventNotificationServer.FRAME_LOST;
+import static dk.dma.ais.abnormal.event.db.live.EventNotificationServer.FRAME_NOTIFICATION;
+import static dk.dma.ais.abnormal.event.db.live.EventNotificationServer.MAGIC;
+import static dk.dma.ais.abnormal.event.db.live.EventNotificationServer.VERSION;
+
+/**
+ * EventNotificationClient subscribes to an EventNotificationServer and passes the received notifications
+ * to a consumer on a thread of its own. If the connection fails or cannot be established, the client
+ * reconnects every RECONNECT_DELAY_MILLIS until closed.
+ *
+ * Notifications sent while the client is not connected, or discarded by the server because the client
+ * was too slow, are lost. The resync callback is called whenever this may have happened - on each
+ * (re)connect and when the server reports lost notifications - so that the receiver can reload its
+ * state from the event repository.
+ */
+@ThreadSafe
+public class EventNotificationClient implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventNotificationClient.class);
+
+    static final long RECONNECT_DELAY_MILLIS = 5000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final InetSocketAddress address;
+    private final Consumer<EventNotification> consumer;
+    private final Runnable resync;
+    private final Thread reader;
+
+    private volatile boolean closed;
+    private volatile Socket socket;
+
+    /**
+     * @param address the address of the EventNotificationServer.
+     * @param consumer receives the notifications.
+     * @param resync called when notifications may have been lost.
+     */
+    public EventNotificationClient(InetSocketAddress address, Consumer<EventNotification> consumer, Runnable resync) {
+        this.address = address;
+        this.consumer = consumer;
+        this.resync = resync;
+        this.reader = new Thread(this::run, "event-notification-client");
+        this.reader.setDaemon(true);
+    }
+
+    public void start() {
+        reader.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        reader.interrupt();
+        Socket s = socket;
+        if (s != null) {
+            s.close();
+        }
+    }
+
+    private void run() {
+        boolean connectionFailureLogged = false;
+        while (!closed) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(address, CONNECT_TIMEOUT_MILLIS);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Unsupported event notification protocol.");
+                }
+                LOG.info("Receiving event notifications from " + address + ".");
+                connectionFailureLogged = false;
+                resync.run();
+
+                while (!closed) {
+                    final byte frame = in.readByte();
+                    if (frame == FRAME_NOTIFICATION) {
+                        consumer.accept(EventNotification.readFrom(in));
+                    } else if (frame == FRAME_LOST) {
+                        LOG.warn("Event notifications were lost.");
+                        resync.run();
+                    } else {
+                        throw new IOException("Unknown event notification frame type: " + frame);
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed && !connectionFailureLogged) {
+                    LOG.warn("No event notifications from " + address + ": " + e.getMessage() + ". Retrying every " + RECONNECT_DELAY_MILLIS + " msecs.");
+                    connectionFailureLogged = true;
+                }
+            } finally {
+                socket = null;
+            }
+
+            if (!closed) {
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
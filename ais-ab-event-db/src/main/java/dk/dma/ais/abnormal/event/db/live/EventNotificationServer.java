@@ -0,0 +1,200 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.live;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * EventNotificationServer publishes event notifications to any number of subscribers connected
+ * by TCP; typically instances of EventNotificationClient in the web application.
+ *
+ * Each subscriber has a bounded queue and a thread of its own writing to it, so accept() never blocks
+ * on a slow subscriber. If a subscriber's queue is full its pending notifications are discarded and
+ * replaced by a single FRAME_LOST frame, which tells the subscriber to resynchronise from the event
+ * repository.
+ *
+ * Wire format: the server starts each connection with MAGIC and VERSION (int each). Then follows a
+ * sequence of frames; each a frame type byte, followed by an EventNotification if the type is
+ * FRAME_NOTIFICATION.
+ */
+@ThreadSafe
+public class EventNotificationServer implements Consumer<EventNotification>, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventNotificationServer.class);
+
+    static final int MAGIC = 0x41424e54; // "ABNT"
+    static final int VERSION = 1;
+    static final byte FRAME_NOTIFICATION = 1;
+    static final byte FRAME_LOST = 2;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private final ServerSocket serverSocket;
+    private final int queueCapacity;
+    private final Set<Subscriber> subscribers = new CopyOnWriteArraySet<>();
+    private final Thread acceptor;
+
+    private volatile boolean closed;
+
+    /**
+     * Create a server and start accepting subscribers.
+     *
+     * @param address the address to listen on; use a loopback address to accept only local subscribers.
+     * @param queueCapacity the max. no. of notifications queued for each subscriber.
+     */
+    public EventNotificationServer(InetSocketAddress address, int queueCapacity) throws IOException {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be positive; not " + queueCapacity + ".");
+        }
+        this.queueCapacity = queueCapacity;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(address);
+
+        this.acceptor = new Thread(this::acceptSubscribers, "event-notification-server");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+
+        LOG.info("Publishing event notifications on " + serverSocket.getLocalSocketAddress() + ".");
+    }
+
+    /** Return the port the server listens on */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** Return the no. of currently connected subscribers */
+    public int getNumberOfSubscribers() {
+        return subscribers.size();
+    }
+
+    /**
+     * Publish a notification to all connected subscribers. Never blocks.
+     */
+    @Override
+    public void accept(EventNotification notification) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(notification);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        subscribers.forEach(Subscriber::close);
+    }
+
+    private void acceptSubscribers() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Subscriber subscriber = new Subscriber(socket);
+                subscribers.add(subscriber);
+                subscriber.writer.start();
+                LOG.info("Event notification subscriber connected from " + socket.getRemoteSocketAddress() + ".");
+            } catch (SocketException e) {
+                if (!closed) {
+                    LOG.error(e.getMessage(), e);
+                }
+            } catch (IOException e) {
+                LOG.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private final class Subscriber implements Runnable {
+        private final Socket socket;
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private final AtomicBoolean lost = new AtomicBoolean();
+        private final Thread writer;
+
+        Subscriber(Socket socket) {
+            this.socket = socket;
+            this.writer = new Thread(this, "event-notification-writer-" + socket.getRemoteSocketAddress());
+            this.writer.setDaemon(true);
+        }
+
+        void offer(EventNotification notification) {
+            if (!queue.offer(notification)) {
+                if (lost.compareAndSet(false, true)) {
+                    LOG.warn("Event notification subscriber " + socket.getRemoteSocketAddress() + " is too slow; discarding its queued notifications.");
+                }
+                queue.clear();
+                queue.offer(FRAME_LOST);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.flush();
+
+                while (!closed) {
+                    Object frame = queue.take();
+                    if (frame instanceof EventNotification) {
+                        out.writeByte(FRAME_NOTIFICATION);
+                        ((EventNotification) frame).writeTo(out);
+                    } else {
+                        out.writeByte(FRAME_LOST);
+                        lost.set(false);
+                    }
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                LOG.info("Event notification subscriber " + socket.getRemoteSocketAddress() + " disconnected: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+            subscribers.remove(this);
+            writer.interrupt();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.debug(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.live;
+
+import dk.dma.ais.abnormal.event.db.EventRepository;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.EventLocation;
+import dk.dma.ais.abnormal.event.db.domain.EventSummary;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * An EventRepository which passes all calls to another EventRepository, and publishes a notification
+ * each time an event is raised (saved for the first time), maintained (a tracking point is appended)
+ * or lowered (ended).
+ *
+ * Notifications are published after the change has been passed to the repository. Changes made inside
+ * runInUnitOfWork() are not committed until the unit of work completes; so their notifications are held
+ * back until then, and discarded if the unit fails. Since a failed write rolls back the writes of its unit
+ * even if the failure is swallowed by the work, a failed write also discards the notifications held back
+ * so far. Failures to publish are logged, but never affect the repository.
+ */
+@ThreadSafe
+public class PublishingEventRepository implements EventRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PublishingEventRepository.class);
+
+    private final EventRepository eventRepository;
+    private final Consumer<EventNotification> publisher;
+
+    /** Notifications held back until the unit of work of the current thread completes */
+    private final ThreadLocal<List<EventNotification>> unitOfWorkNotifications = new ThreadLocal<>();
+
+    /**
+     * @param eventRepository the repository to store events in.
+     * @param publisher receives the notifications; must not block.
+     */
+    public PublishingEventRepository(EventRepository eventRepository, Consumer<EventNotification> publisher) {
+        this.eventRepository = eventRepository;
+        this.publisher = publisher;
+    }
+
+    @Override
+    public List<String> getEventTypes() {
+        return eventRepository.getEventTypes();
+    }
+
+    @Override
+    public void save(Event event) {
+        final boolean raised = event.getId() == 0;
+        write(() -> eventRepository.save(event));
+        if (raised) {
+            publish(event, () -> EventNotification.raised(event));
+        }
+    }
+
+    @Override
+    public void appendTrackingPoint(Event event, int mmsi, TrackingPoint trackingPoint) {
+        write(() -> eventRepository.appendTrackingPoint(event, mmsi, trackingPoint));
+        publish(event, () -> EventNotification.maintained(event, mmsi, trackingPoint));
+    }
+
+    @Override
+    public void endEvent(Event event, LocalDateTime endTime) {
+        write(() -> eventRepository.endEvent(event, endTime));
+        publish(event, () -> EventNotification.lowered(event, endTime));
+    }
+
+    /**
+     * Pass a write to the repository; discarding the held back notifications of the unit of work if it fails.
+     */
+    private void write(Runnable write) {
+        try {
+            write.run();
+        } catch (RuntimeException e) {
+            List<EventNotification> notifications = unitOfWorkNotifications.get();
+            if (notifications != null && ! notifications.isEmpty()) {
+                LOG.debug("Discarding " + notifications.size() + " notifications of failed unit of work.");
+                notifications.clear();
+            }
+            throw e;
+        }
+    }
+
+    private void publish(Event event, Supplier<EventNotification> notification) {
+        try {
+            List<EventNotification> notifications = unitOfWorkNotifications.get();
+            if (notifications != null) {
+                notifications.add(notification.get());
+            } else {
+                publisher.accept(notification.get());
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to publish notification of event " + event.getId() + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Event getEvent(long eventId) {
+        return eventRepository.getEvent(eventId);
+    }
+
+    @Override
+    public List<Event> findEventsByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west) {
+        return eventRepository.findEventsByFromAndToAndTypeAndVesselAndArea(from, to, type, vessel, north, east, south, west);
+    }
+
+    @Override
+    public List<Event> findEventsByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults) {
+        return eventRepository.findEventsByFromAndToAndTypeAndVesselAndArea(from, to, type, vessel, north, east, south, west, afterId, maxResults);
+    }
+
+    @Override
+    public long findEventsByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults, Consumer<Event> consumer) {
+        return eventRepository.findEventsByFromAndToAndTypeAndVesselAndArea(from, to, type, vessel, north, east, south, west, afterId, maxResults, consumer);
+    }
+
+    @Override
+    public long findEventSummariesByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults, Consumer<EventSummary> consumer) {
+        return eventRepository.findEventSummariesByFromAndToAndTypeAndVesselAndArea(from, to, type, vessel, north, east, south, west, afterId, maxResults, consumer);
+    }
+
+    @Override
+    public long findEventLocations(long afterId, Consumer<EventLocation> consumer) {
+        return eventRepository.findEventLocations(afterId, consumer);
+    }
+
+    @Override
+    public List<Event> findEventsByFromAndTo(Date from, Date to) {
+        return eventRepository.findEventsByFromAndTo(from, to);
+    }
+
+    @Override
+    public List<Event> findRecentEvents(int numberOfEvents) {
+        return eventRepository.findRecentEvents(numberOfEvents);
+    }
+
+    @Override
+    public <T extends Event> T findOngoingEventByVessel(int mmsi, Class<T> eventClass) {
+        return eventRepository.findOngoingEventByVessel(mmsi, eventClass);
+    }
+
+    @Override
+    public void runInUnitOfWork(Runnable work) {
+        if (unitOfWorkNotifications.get() != null) {
+            eventRepository.runInUnitOfWork(work);
+            return;
+        }
+
+        List<EventNotification> notifications = new ArrayList<>();
+        unitOfWorkNotifications.set(notifications);
+        try {
+            eventRepository.runInUnitOfWork(work);
+        } finally {
+            unitOfWorkNotifications.remove();
+        }
+
+        for (EventNotification notification : notifications) {
+            try {
+                publisher.accept(notification);
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to publish notification of event " + notification.getEventId() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+}
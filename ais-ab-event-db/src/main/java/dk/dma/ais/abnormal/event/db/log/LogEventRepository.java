@@ -0,0 +1,989 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.log;
+
+import com.google.common.collect.Iterators;
+import dk.dma.ais.abnormal.event.db.EventRepository;
+import dk.dma.ais.abnormal.event.db.domain.Behaviour;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.EventSummary;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import dk.dma.ais.abnormal.event.db.domain.Vessel;
+import dk.dma.ais.abnormal.event.db.domain.VesselSearchTrigram;
+import dk.dma.ais.abnormal.event.db.export.EventExportReader;
+import dk.dma.ais.abnormal.event.db.export.EventExportWriter;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * LogEventRepository is an implementation of the EventRepository interface which stores events in
+ * an append-only log file, without a database.
+ *
+ * Every save() appends a snapshot of the event to the log; appendTrackingPoint() and endEvent() append
+ * only the change. An event is read back by decoding its latest snapshot and applying the later changes.
+ * The id, time, type, vessels and bounding box of each event are held in in-memory indexes, which are
+ * rebuilt from the log when the repository is opened. Ongoing events are held in memory in full.
+ *
+ * Each record of the log is a 4 byte length followed by the record type, the event id and the payload.
+ * Snapshots are encoded with EventExportWriter. A record which was only partially written (e.g. on a crash)
+ * is truncated when the log is opened. Records are written to the operating system on each call, and forced
+ * to disk on close().
+ *
+ * The vessel and spatial indexes are ordered by event id; so searches, which return events in id order, merge
+ * the candidates from afterId on and stop after maxResults matches without copying or sorting them.
+ *
+ * Times given as java.util.Date are compared to event times in UTC. The log is never compacted; old
+ * snapshots of events remain in the file.
+ */
+@ThreadSafe
+public class LogEventRepository implements EventRepository, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogEventRepository.class);
+
+    private static final byte RECORD_SAVE = 1;
+    private static final byte RECORD_APPEND = 2;
+    private static final byte RECORD_END = 3;
+
+    /** Size of the cells of the spatial index in degrees */
+    private static final double CELL_SIZE = 1.0;
+
+    /** Events with a bounding box covering more cells than this are not put in the spatial index */
+    private static final int MAX_CELLS_PER_EVENT = 64;
+
+    private static final String EVENT_PACKAGE = Event.class.getPackage().getName();
+
+    private static final Comparator<IndexEntry> BY_ID = Comparator.comparingLong(e -> e.id);
+
+    private final Path file;
+    private final FileChannel channel;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @GuardedBy("lock")
+    private long size;
+
+    @GuardedBy("lock")
+    private long nextId = 1;
+
+    @GuardedBy("lock")
+    private final TreeMap<Long, IndexEntry> entries = new TreeMap<>();
+
+    @GuardedBy("lock")
+    private final TreeMap<LocalDateTime, Set<IndexEntry>> entriesByStartTime = new TreeMap<>();
+
+    @GuardedBy("lock")
+    private final TreeMap<LocalDateTime, Set<IndexEntry>> entriesByEndTime = new TreeMap<>();
+
+    /** Entries by MMSI and IMO no. of their vessels; each by id */
+    @GuardedBy("lock")
+    private final Map<Integer, NavigableMap<Long, IndexEntry>> entriesByVesselNumber = new HashMap<>();
+
+    /** Entries by trigrams of their vessels' names and callsigns; each by id */
+    @GuardedBy("lock")
+    private final Map<String, NavigableMap<Long, IndexEntry>> entriesByVesselTrigram = new HashMap<>();
+
+    /** Entries by the cells covered by their bounding box; each by id */
+    @GuardedBy("lock")
+    private final Map<Long, NavigableMap<Long, IndexEntry>> entriesByCell = new HashMap<>();
+
+    /** Entries whose bounding box covers too many cells to be put in entriesByCell; by id */
+    @GuardedBy("lock")
+    private final NavigableMap<Long, IndexEntry> entriesOfLargeArea = new TreeMap<>();
+
+    @GuardedBy("lock")
+    private final Map<Integer, Map<Class<? extends Event>, Event>> ongoingEvents = new HashMap<>();
+
+    /**
+     * Open the log in the given file; or create it if it does not exist. The indexes are rebuilt from the log.
+     */
+    public LogEventRepository(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        lock.writeLock().lock();
+        try {
+            final long t0 = currentTimeMillis();
+            load();
+            final long t1 = currentTimeMillis();
+            LOG.info("Loaded " + entries.size() + " events from " + file + " (" + size + " bytes) in " + (t1 - t0) + " msecs.");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (channel.isOpen()) {
+                channel.force(true);
+                channel.close();
+                LOG.info("Closed " + file + ".");
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> getEventTypes() {
+        lock.readLock().lock();
+        try {
+            return entries.values().stream().filter(e -> !e.suppressed).map(e -> e.eventType).distinct().sorted().collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void save(Event event) {
+        lock.writeLock().lock();
+        try {
+            IndexEntry entry;
+            byte[] snapshot;
+            synchronized (event) {
+                if (event.getId() == 0) {
+                    event.setId(nextId++);
+                }
+                event.updateBoundingBox();
+                snapshot = EventExportWriter.toBytes(event);
+                entry = new IndexEntry(event);
+            }
+
+            long offset = append(RECORD_SAVE, event.getId(), snapshot);
+
+            IndexEntry previous = entries.get(event.getId());
+            if (previous != null) {
+                removeFromIndexes(previous);
+            }
+            entry.offsets.add(offset);
+            addToIndexes(entry);
+
+            updateOngoingEvents(event, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void appendTrackingPoint(Event event, int mmsi, TrackingPoint trackingPoint) {
+        lock.writeLock().lock();
+        try {
+            IndexEntry entry = entries.get(event.getId());
+            final boolean boundingBoxExtended;
+            synchronized (event) {
+                Behaviour behaviour = event.getBehaviour(mmsi);
+                if (behaviour == null) {
+                    throw new IllegalArgumentException("Event " + event.getId() + " has no behaviour for MMSI " + mmsi + ".");
+                }
+                behaviour.addTrackingPoint(trackingPoint);
+                boundingBoxExtended = event.extendBoundingBox(trackingPoint);
+            }
+
+            if (entry == null) {
+                save(event);
+                return;
+            }
+
+            long offset = append(RECORD_APPEND, event.getId(), encodeTrackingPoint(mmsi, trackingPoint));
+            entry.offsets.add(offset);
+            if (boundingBoxExtended) {
+                removeFromSpatialIndex(entry);
+                entry.setBoundingBox(event);
+                addToSpatialIndex(entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void endEvent(Event event, LocalDateTime endTime) {
+        lock.writeLock().lock();
+        try {
+            synchronized (event) {
+                event.setState(Event.State.PAST);
+                event.setEndTime(endTime);
+            }
+
+            IndexEntry entry = entries.get(event.getId());
+            if (entry == null) {
+                save(event);
+                return;
+            }
+
+            long offset = append(RECORD_END, event.getId(), encodeEnd(endTime));
+            entry.offsets.add(offset);
+            removeFromIndexes(entry);
+            entry.state = Event.State.PAST;
+            entry.endTime = endTime;
+            addToIndexes(entry);
+
+            updateOngoingEvents(event, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Event getEvent(long eventId) {
+        lock.readLock().lock();
+        try {
+            IndexEntry entry = entries.get(eventId);
+            return entry == null ? null : readEvent(entry);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Event> findEventsByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west) {
+        return findEventsByFromAndToAndTypeAndVesselAndArea(from, to, type, vessel, north, east, south, west, null, 0);
+    }
+
+    @Override
+    public List<Event> findEventsByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults) {
+        lock.readLock().lock();
+        try {
+            final long t0 = currentTimeMillis();
+            List<Event> events = search(new Criteria(from, to, type, vessel, north, east, south, west), afterId, maxResults).stream().map(this::readEvent).collect(Collectors.toList());
+            final long t1 = currentTimeMillis();
+            LOG.debug("Found " + events.size() + " matching events in " + (t1-t0) + " msecs.");
+            return events;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long findEventSummariesByFromAndToAndTypeAndVesselAndArea(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west, Long afterId, int maxResults, Consumer<EventSummary> consumer) {
+        List<EventSummary> summaries;
+        lock.readLock().lock();
+        try {
+            summaries = search(new Criteria(from, to, type, vessel, north, east, south, west), afterId, maxResults).stream()
+                .map(e -> new EventSummary(e.id, e.eventType, e.state, e.startTime, e.endTime, e.title, e.description))
+                .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        summaries.forEach(consumer);
+        return summaries.size();
+    }
+
+    @Override
+    public List<Event> findEventsByFromAndTo(Date from, Date to) {
+        LocalDateTime f = toLocalDateTime(from), t = toLocalDateTime(to);
+
+        lock.readLock().lock();
+        try {
+            Set<IndexEntry> candidates = new HashSet<>();
+            entriesByStartTime.subMap(f, true, t, true).values().forEach(candidates::addAll);
+            entriesByEndTime.subMap(f, true, t, true).values().forEach(candidates::addAll);
+            return candidates.stream()
+                .filter(e -> !e.suppressed)
+                .sorted(Comparator.comparing((IndexEntry e) -> e.startTime).thenComparing(e -> e.id))
+                .map(this::readEvent)
+                .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Event> findRecentEvents(int numberOfEvents) {
+        lock.readLock().lock();
+        try {
+            List<Event> events = new ArrayList<>(numberOfEvents);
+            for (Set<IndexEntry> entriesAtTime : entriesByStartTime.descendingMap().values()) {
+                for (IndexEntry entry : entriesAtTime) {
+                    if (events.size() >= numberOfEvents) {
+                        return events;
+                    }
+                    if (!entry.suppressed) {
+                        events.add(readEvent(entry));
+                    }
+                }
+            }
+            return events;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T extends Event> T findOngoingEventByVessel(int mmsi, Class<T> eventClass) {
+        lock.readLock().lock();
+        try {
+            Map<Class<? extends Event>, Event> eventMap = ongoingEvents.get(mmsi);
+            return eventMap == null ? null : (T) eventMap.get(eventClass);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the entries of non-suppressed events matching the criteria; ordered by id.
+     */
+    @GuardedBy("lock")
+    private List<IndexEntry> search(Criteria criteria, Long afterId, int maxResults) {
+        Iterator<IndexEntry> candidates = criteria.findCandidates(afterId == null ? 0 : afterId);
+
+        List<IndexEntry> result = new ArrayList<>();
+        long previousId = 0;
+        while (candidates.hasNext()) {
+            IndexEntry entry = candidates.next();
+            if (entry.id == previousId) {
+                continue; // Found in more than one cell
+            }
+            previousId = entry.id;
+            if (criteria.matches(entry)) {
+                result.add(entry);
+                if (maxResults > 0 && result.size() >= maxResults) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    @GuardedBy("lock")
+    private void updateOngoingEvents(Event event, IndexEntry entry) {
+        for (int mmsi : entry.mmsis) {
+            Map<Class<? extends Event>, Event> eventMap = ongoingEvents.get(mmsi);
+            if (entry.state == Event.State.ONGOING && !entry.suppressed) {
+                if (eventMap == null) {
+                    eventMap = new HashMap<>();
+                    ongoingEvents.put(mmsi, eventMap);
+                }
+                eventMap.put(event.getClass(), event);
+            } else if (eventMap != null && eventMap.get(event.getClass()) != null && eventMap.get(event.getClass()).getId() == event.getId()) {
+                eventMap.remove(event.getClass());
+                if (eventMap.isEmpty()) {
+                    ongoingEvents.remove(mmsi);
+                }
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private void addToIndexes(IndexEntry entry) {
+        entries.put(entry.id, entry);
+        if (entry.startTime != null) {
+            entriesByStartTime.computeIfAbsent(entry.startTime, k -> new HashSet<>()).add(entry);
+        }
+        if (entry.endTime != null) {
+            entriesByEndTime.computeIfAbsent(entry.endTime, k -> new HashSet<>()).add(entry);
+        }
+        for (Integer number : entry.vesselNumbers()) {
+            entriesByVesselNumber.computeIfAbsent(number, k -> new TreeMap<>()).put(entry.id, entry);
+        }
+        for (String trigram : entry.vesselTrigrams) {
+            entriesByVesselTrigram.computeIfAbsent(trigram, k -> new TreeMap<>()).put(entry.id, entry);
+        }
+        addToSpatialIndex(entry);
+    }
+
+    @GuardedBy("lock")
+    private void removeFromIndexes(IndexEntry entry) {
+        entries.remove(entry.id);
+        if (entry.startTime != null) {
+            removeFrom(entriesByStartTime, entry.startTime, entry);
+        }
+        if (entry.endTime != null) {
+            removeFrom(entriesByEndTime, entry.endTime, entry);
+        }
+        for (Integer number : entry.vesselNumbers()) {
+            removeById(entriesByVesselNumber, number, entry);
+        }
+        for (String trigram : entry.vesselTrigrams) {
+            removeById(entriesByVesselTrigram, trigram, entry);
+        }
+        removeFromSpatialIndex(entry);
+    }
+
+    @GuardedBy("lock")
+    private void addToSpatialIndex(IndexEntry entry) {
+        List<Long> cells = entry.cells();
+        if (cells == null) {
+            entriesOfLargeArea.put(entry.id, entry);
+        } else {
+            cells.forEach(cell -> entriesByCell.computeIfAbsent(cell, k -> new TreeMap<>()).put(entry.id, entry));
+        }
+    }
+
+    @GuardedBy("lock")
+    private void removeFromSpatialIndex(IndexEntry entry) {
+        List<Long> cells = entry.cells();
+        if (cells == null) {
+            entriesOfLargeArea.remove(entry.id);
+        } else {
+            cells.forEach(cell -> removeById(entriesByCell, cell, entry));
+        }
+    }
+
+    private static <K> void removeById(Map<K, NavigableMap<Long, IndexEntry>> index, K key, IndexEntry entry) {
+        NavigableMap<Long, IndexEntry> entriesById = index.get(key);
+        if (entriesById != null) {
+            entriesById.remove(entry.id);
+            if (entriesById.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static <K> void removeFrom(Map<K, Set<IndexEntry>> index, K key, IndexEntry entry) {
+        Set<IndexEntry> set = index.get(key);
+        if (set != null) {
+            set.remove(entry);
+            if (set.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Read the log from start to end, and build the indexes. Loads ongoing events in full.
+     */
+    @GuardedBy("lock")
+    private void load() throws IOException {
+        long offset = 0;
+        long fileSize = channel.size();
+
+        channel.position(0);
+        // The stream is not closed; that would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 65536));
+        while (offset < fileSize) {
+            byte[] record;
+            try {
+                int length = in.readInt();
+                if (length < 9 || offset + 4 + length > fileSize) {
+                    throw new EOFException();
+                }
+                record = new byte[length];
+                in.readFully(record);
+            } catch (EOFException e) {
+                LOG.warn("Truncating incomplete record at offset " + offset + " of " + file + ".");
+                channel.truncate(offset);
+                break;
+            }
+            loadRecord(offset, record);
+            offset += 4 + record.length;
+        }
+
+        size = offset;
+        channel.position(size);
+
+        for (IndexEntry entry : entries.values()) {
+            if (entry.state == Event.State.ONGOING && !entry.suppressed) {
+                updateOngoingEvents(readEvent(entry), entry);
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private void loadRecord(long offset, byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        long id = in.readLong();
+        nextId = Math.max(nextId, id + 1);
+
+        IndexEntry entry = entries.get(id);
+        if (type == RECORD_SAVE) {
+            Event event = EventExportReader.fromBytes(readRemaining(in));
+            event.setId(id);
+            if (entry != null) {
+                removeFromIndexes(entry);
+            }
+            entry = new IndexEntry(event);
+            entry.offsets.add(offset);
+            addToIndexes(entry);
+        } else if (entry == null) {
+            LOG.warn("Ignoring record for unknown event " + id + " at offset " + offset + " of " + file + ".");
+        } else if (type == RECORD_APPEND) {
+            in.readInt(); // mmsi
+            TrackingPoint trackingPoint = decodeTrackingPoint(in);
+            entry.offsets.add(offset);
+            if (trackingPoint.getLatitude() != null && trackingPoint.getLongitude() != null) {
+                removeFromSpatialIndex(entry);
+                entry.extendBoundingBox(trackingPoint.getLatitude(), trackingPoint.getLongitude());
+                addToSpatialIndex(entry);
+            }
+        } else if (type == RECORD_END) {
+            entry.offsets.add(offset);
+            removeFromIndexes(entry);
+            entry.state = Event.State.PAST;
+            entry.endTime = toLocalDateTime(in.readLong());
+            addToIndexes(entry);
+        } else {
+            throw new IOException("Unknown record type " + type + " at offset " + offset + " of " + file + ".");
+        }
+    }
+
+    /**
+     * Read an event by decoding its latest snapshot, and applying the later changes.
+     */
+    private Event readEvent(IndexEntry entry) {
+        try {
+            Event event = null;
+            for (long offset : entry.offsets) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(offset)));
+                byte type = in.readByte();
+                in.readLong(); // id
+                if (type == RECORD_SAVE) {
+                    event = EventExportReader.fromBytes(readRemaining(in));
+                    event.setId(entry.id);
+                } else if (type == RECORD_APPEND) {
+                    int mmsi = in.readInt();
+                    event.getBehaviour(mmsi).addTrackingPoint(decodeTrackingPoint(in));
+                } else if (type == RECORD_END) {
+                    event.setState(Event.State.PAST);
+                    event.setEndTime(toLocalDateTime(in.readLong()));
+                }
+            }
+            event.updateBoundingBox();
+            return event;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read event " + entry.id + " from " + file + ".", e);
+        }
+    }
+
+    private byte[] read(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, offset);
+        ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+        readFully(record, offset + 4);
+        return record.array();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Append a record to the log.
+     * @return the offset of the record.
+     */
+    @GuardedBy("lock")
+    private long append(byte type, long id, byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(4 + 1 + 8 + payload.length);
+        record.putInt(1 + 8 + payload.length);
+        record.put(type);
+        record.putLong(id);
+        record.put(payload);
+        record.flip();
+
+        long offset = size;
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record, size + record.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write to " + file + ".", e);
+        }
+        size += record.limit();
+        return offset;
+    }
+
+    private static byte[] readRemaining(DataInputStream in) throws IOException {
+        byte[] remaining = new byte[in.available()];
+        in.readFully(remaining);
+        return remaining;
+    }
+
+    private static byte[] encodeTrackingPoint(int mmsi, TrackingPoint trackingPoint) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(mmsi);
+            int flags = (trackingPoint.getTimestamp() != null ? 1 : 0)
+                | (trackingPoint.getLatitude() != null ? 2 : 0)
+                | (trackingPoint.getLongitude() != null ? 4 : 0)
+                | (trackingPoint.getSpeedOverGround() != null ? 8 : 0)
+                | (trackingPoint.getCourseOverGround() != null ? 16 : 0)
+                | (trackingPoint.getTrueHeading() != null ? 32 : 0)
+                | (trackingPoint.getPositionInterpolated() != null ? 64 : 0)
+                | (trackingPoint.getEventCertainty() != null ? 128 : 0);
+            out.writeByte(flags);
+            if (trackingPoint.getTimestamp() != null) {
+                out.writeLong(toEpochMillis(trackingPoint.getTimestamp()));
+            }
+            if (trackingPoint.getLatitude() != null) {
+                out.writeDouble(trackingPoint.getLatitude());
+            }
+            if (trackingPoint.getLongitude() != null) {
+                out.writeDouble(trackingPoint.getLongitude());
+            }
+            if (trackingPoint.getSpeedOverGround() != null) {
+                out.writeFloat(trackingPoint.getSpeedOverGround());
+            }
+            if (trackingPoint.getCourseOverGround() != null) {
+                out.writeFloat(trackingPoint.getCourseOverGround());
+            }
+            if (trackingPoint.getTrueHeading() != null) {
+                out.writeFloat(trackingPoint.getTrueHeading());
+            }
+            if (trackingPoint.getPositionInterpolated() != null) {
+                out.writeBoolean(trackingPoint.getPositionInterpolated());
+            }
+            if (trackingPoint.getEventCertainty() != null) {
+                out.writeByte(trackingPoint.getEventCertainty().ordinal());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by ByteArrayOutputStream
+        }
+        return bytes.toByteArray();
+    }
+
+    private static TrackingPoint decodeTrackingPoint(DataInputStream in) throws IOException {
+        TrackingPoint trackingPoint = new TrackingPoint();
+        int flags = in.readUnsignedByte();
+        if ((flags & 1) != 0) {
+            trackingPoint.setTimestamp(toLocalDateTime(in.readLong()));
+        }
+        if ((flags & 2) != 0) {
+            trackingPoint.setLatitude(in.readDouble());
+        }
+        if ((flags & 4) != 0) {
+            trackingPoint.setLongitude(in.readDouble());
+        }
+        if ((flags & 8) != 0) {
+            trackingPoint.setSpeedOverGround(in.readFloat());
+        }
+        if ((flags & 16) != 0) {
+            trackingPoint.setCourseOverGround(in.readFloat());
+        }
+        if ((flags & 32) != 0) {
+            trackingPoint.setTrueHeading(in.readFloat());
+        }
+        if ((flags & 64) != 0) {
+            trackingPoint.setPositionInterpolated(in.readBoolean());
+        }
+        if ((flags & 128) != 0) {
+            trackingPoint.setEventCertainty(TrackingPoint.EventCertainty.values()[in.readUnsignedByte()]);
+        }
+        return trackingPoint;
+    }
+
+    private static byte[] encodeEnd(LocalDateTime endTime) {
+        return ByteBuffer.allocate(8).putLong(endTime == null ? Long.MIN_VALUE : toEpochMillis(endTime)).array();
+    }
+
+    private static long toEpochMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return epochMillis == Long.MIN_VALUE ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC);
+    }
+
+    private static LocalDateTime toLocalDateTime(Date date) {
+        return date == null ? null : LocalDateTime.ofInstant(date.toInstant(), ZoneOffset.UTC);
+    }
+
+    private static long cell(int latitudeIndex, int longitudeIndex) {
+        return ((long) latitudeIndex << 32) | (longitudeIndex & 0xFFFFFFFFL);
+    }
+
+    private static int cellIndex(double degrees) {
+        return (int) Math.floor(degrees / CELL_SIZE);
+    }
+
+    /**
+     * The indexed properties of an event, and the offsets of its latest snapshot and later changes in the log.
+     */
+    private static final class IndexEntry {
+        final long id;
+        final String eventType;
+        final boolean suppressed;
+        final String title;
+        final String description;
+        final LocalDateTime startTime;
+        Event.State state;
+        LocalDateTime endTime;
+        Double north, east, south, west;
+
+        final int[] mmsis;
+        final Set<Integer> imos = new HashSet<>(2);
+        final List<String> vesselNames = new ArrayList<>(2);
+        final Set<String> vesselTrigrams = new HashSet<>();
+
+        final List<Long> offsets = new ArrayList<>(1);
+
+        IndexEntry(Event event) {
+            this.id = event.getId();
+            this.eventType = event.getEventType();
+            this.suppressed = event.isSuppressed();
+            this.title = event.getTitle();
+            this.description = event.getDescription();
+            this.startTime = event.getStartTime();
+            this.state = event.getState();
+            this.endTime = event.getEndTime();
+            setBoundingBox(event);
+
+            Set<Behaviour> behaviours = event.getBehaviours();
+            this.mmsis = new int[behaviours.size()];
+            int i = 0;
+            for (Behaviour behaviour : behaviours) {
+                Vessel vessel = behaviour.getVessel();
+                mmsis[i++] = vessel.getMmsi();
+                if (vessel.getImo() != null) {
+                    imos.add(vessel.getImo());
+                }
+                if (vessel.getName() != null) {
+                    vesselNames.add(vessel.getName().toUpperCase(Locale.ENGLISH));
+                }
+                if (vessel.getCallsign() != null) {
+                    vesselNames.add(vessel.getCallsign().toUpperCase(Locale.ENGLISH));
+                }
+                vesselTrigrams.addAll(VesselSearchTrigram.trigramsOf(vessel));
+            }
+        }
+
+        void setBoundingBox(Event event) {
+            north = event.getBoundingBoxNorth();
+            east = event.getBoundingBoxEast();
+            south = event.getBoundingBoxSouth();
+            west = event.getBoundingBoxWest();
+        }
+
+        void extendBoundingBox(double latitude, double longitude) {
+            north = north == null ? latitude : Math.max(north, latitude);
+            south = south == null ? latitude : Math.min(south, latitude);
+            east = east == null ? longitude : Math.max(east, longitude);
+            west = west == null ? longitude : Math.min(west, longitude);
+        }
+
+        Set<Integer> vesselNumbers() {
+            Set<Integer> numbers = new HashSet<>(imos);
+            for (int mmsi : mmsis) {
+                numbers.add(mmsi);
+            }
+            return numbers;
+        }
+
+        /**
+         * @return the cells covered by the bounding box; an empty list if there is no bounding box; or null if
+         *         it covers more than MAX_CELLS_PER_EVENT cells.
+         */
+        List<Long> cells() {
+            if (north == null) {
+                return Collections.emptyList();
+            }
+            return cellsCovering(north, east, south, west);
+        }
+    }
+
+    /**
+     * @return the cells covering an area; or null if more than MAX_CELLS_PER_EVENT cells.
+     */
+    private static List<Long> cellsCovering(double north, double east, double south, double west) {
+        int s = cellIndex(south), n = cellIndex(north), w = cellIndex(west), e = cellIndex(east);
+        if ((long) (n - s + 1) * (e - w + 1) > MAX_CELLS_PER_EVENT) {
+            return null;
+        }
+        List<Long> cells = new ArrayList<>((n - s + 1) * (e - w + 1));
+        for (int lat = s; lat <= n; lat++) {
+            for (int lon = w; lon <= e; lon++) {
+                cells.add(cell(lat, lon));
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * The search criteria of findEventsByFromAndToAndTypeAndVesselAndArea(); with the same semantics as in
+     * JpaEventRepository.
+     */
+    private final class Criteria {
+        final LocalDateTime from, to;
+        final String type;
+        final Integer vesselNumber;
+        final String vesselText;
+        final Set<String> vesselTrigrams;
+        final boolean usesArea;
+        final Double north, east, south, west;
+
+        Criteria(Date from, Date to, String type, String vessel, Double north, Double east, Double south, Double west) {
+            this.from = toLocalDateTime(from);
+            this.to = toLocalDateTime(to);
+
+            if (StringUtils.isBlank(type)) {
+                this.type = null;
+            } else {
+                try {
+                    Class.forName(EVENT_PACKAGE + "." + type);
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalArgumentException("Class " + EVENT_PACKAGE + "." + type + " not found.");
+                }
+                this.type = type;
+            }
+
+            Integer number = null;
+            if (!StringUtils.isBlank(vessel)) {
+                try {
+                    number = Integer.valueOf(vessel.trim());
+                } catch (NumberFormatException e) {
+                }
+            }
+            this.vesselNumber = number;
+            if (number == null && !StringUtils.isBlank(vessel)) {
+                this.vesselText = StringUtils.strip(vessel, "%").toUpperCase(Locale.ENGLISH);
+                this.vesselTrigrams = VesselSearchTrigram.trigramsOf(vesselText);
+            } else {
+                this.vesselText = null;
+                this.vesselTrigrams = Collections.emptySet();
+            }
+
+            this.usesArea = north != null && east != null && south != null && west != null;
+            this.north = north;
+            this.east = east;
+            this.south = south;
+            this.west = west;
+        }
+
+        /**
+         * Find a superset of the matching entries with ids above afterId, using the most selective index
+         * available. The entries are returned in id order; an entry in more than one cell is returned once
+         * for each cell.
+         */
+        @GuardedBy("lock")
+        Iterator<IndexEntry> findCandidates(long afterId) {
+            if (vesselNumber != null) {
+                return after(entriesByVesselNumber.get(vesselNumber), afterId);
+            }
+            if (!vesselTrigrams.isEmpty()) {
+                NavigableMap<Long, IndexEntry> candidates = null;
+                for (String trigram : vesselTrigrams) {
+                    NavigableMap<Long, IndexEntry> entriesOfTrigram = entriesByVesselTrigram.get(trigram);
+                    if (entriesOfTrigram == null) {
+                        return Collections.emptyIterator();
+                    }
+                    if (candidates == null || entriesOfTrigram.size() < candidates.size()) {
+                        candidates = entriesOfTrigram;
+                    }
+                }
+                return after(candidates, afterId);
+            }
+            if (usesArea) {
+                List<Long> cells = cellsCovering(north, east, south, west);
+                if (cells != null) {
+                    List<Iterator<IndexEntry>> candidates = new ArrayList<>(cells.size() + 1);
+                    candidates.add(after(entriesOfLargeArea, afterId));
+                    cells.forEach(cell -> candidates.add(after(entriesByCell.get(cell), afterId)));
+                    return Iterators.mergeSorted(candidates, BY_ID);
+                }
+            }
+            // The time indexes are not ordered by id; scanning all entries in id order stops after maxResults matches
+            return after(entries, afterId);
+        }
+
+        boolean matches(IndexEntry entry) {
+            if (entry.suppressed) {
+                return false;
+            }
+            if (from != null && !(isOnOrAfter(entry.startTime, from) || isOnOrAfter(entry.endTime, from))) {
+                return false;
+            }
+            if (to != null && !(isOnOrBefore(entry.startTime, to) || isOnOrBefore(entry.endTime, to))) {
+                return false;
+            }
+            if (type != null && !type.equals(entry.eventType)) {
+                return false;
+            }
+            if (vesselNumber != null && !(entry.imos.contains(vesselNumber) || contains(entry.mmsis, vesselNumber))) {
+                return false;
+            }
+            if (vesselText != null) {
+                if (!entry.vesselTrigrams.containsAll(vesselTrigrams) || entry.vesselNames.stream().noneMatch(name -> name.contains(vesselText))) {
+                    return false;
+                }
+            }
+            if (usesArea) {
+                if (entry.north == null || !(entry.south < north && entry.north > south && entry.west < east && entry.east > west)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static Iterator<IndexEntry> after(NavigableMap<Long, IndexEntry> entriesById, long afterId) {
+        return entriesById == null ? Collections.emptyIterator() : entriesById.tailMap(afterId, false).values().iterator();
+    }
+
+    private static boolean isOnOrAfter(LocalDateTime time, LocalDateTime limit) {
+        return time != null && !time.isBefore(limit);
+    }
+
+    private static boolean isOnOrBefore(LocalDateTime time, LocalDateTime limit) {
+        return time != null && !time.isAfter(limit);
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
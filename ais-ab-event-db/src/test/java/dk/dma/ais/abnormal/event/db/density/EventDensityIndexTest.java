@@ -0,0 +1,200 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.density;
+
+import dk.dma.ais.abnormal.event.db.EventRepository;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.EventLocation;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import dk.dma.ais.abnormal.event.db.domain.builders.SuddenSpeedChangeEventBuilder;
+import dk.dma.enav.model.geometry.grid.Grid;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventDensityIndexTest {
+
+    private static final LocalDate DAY = LocalDate.of(2017, 1, 22);
+
+    private EventDensityIndex index;
+
+    @Before
+    public void setUp() {
+        index = new EventDensityIndex(Grid.create(0.01));
+    }
+
+    @Test
+    public void countsEventsInBinsOfArea() {
+        index.add("DriftEvent", DAY, 57.5, 10.5);
+        index.add("DriftEvent", DAY, 57.5, 10.5);
+        index.add("DriftEvent", DAY, 57.7, 10.2);
+        index.add("DriftEvent", DAY, 56.5, 11.5);
+        index.add("DriftEvent", DAY, 60.0, 10.5); // outside area
+
+        EventHeatmap heatmap = index.getHeatmap(DAY, DAY, null, 58.0, 12.0, 56.0, 10.0, 2, 2);
+
+        assertEquals(3, heatmap.getCount(0, 0));
+        assertEquals(0, heatmap.getCount(0, 1));
+        assertEquals(0, heatmap.getCount(1, 0));
+        assertEquals(1, heatmap.getCount(1, 1));
+        assertEquals(4, heatmap.getTotal());
+        assertEquals(3, heatmap.getMax());
+    }
+
+    @Test
+    public void countsOnlyEventsOfTypeAndPeriod() {
+        index.add("DriftEvent", DAY, 57.5, 10.5);
+        index.add("SpeedOverGroundEvent", DAY, 57.5, 10.5);
+        index.add("DriftEvent", DAY.plusDays(1), 57.5, 10.5);
+        index.add("DriftEvent", DAY.plusDays(2), 57.5, 10.5);
+
+        assertEquals(2, index.getHeatmap(DAY, DAY.plusDays(1), "DriftEvent", 58.0, 12.0, 56.0, 10.0, 1, 1).getTotal());
+        assertEquals(1, index.getHeatmap(DAY, DAY, "SpeedOverGroundEvent", 58.0, 12.0, 56.0, 10.0, 1, 1).getTotal());
+        assertEquals(4, index.getHeatmap(DAY.minusDays(10), DAY.plusDays(10), null, 58.0, 12.0, 56.0, 10.0, 1, 1).getTotal());
+        assertEquals(0, index.getHeatmap(DAY.plusDays(3), DAY.plusDays(10), null, 58.0, 12.0, 56.0, 10.0, 1, 1).getTotal());
+    }
+
+    @Test
+    public void countsEventAtCentreOfItsBoundingBox() {
+        Event event = SuddenSpeedChangeEventBuilder.SuddenSpeedChangeEvent()
+            .startTime(LocalDateTime.of(2017, 1, 22, 10, 0, 0))
+            .behaviour()
+                .isPrimary(true)
+                .trackingPoints(trackingPoint(LocalDateTime.of(2017, 1, 22, 10, 0, 10), 57.8, 10.4))
+                .vessel()
+                    .mmsi(123456789)
+                    .name("name")
+                .trackingPoint()
+                    .timestamp(LocalDateTime.of(2017, 1, 22, 10, 0, 0))
+                    .latitude(57.2)
+                    .longitude(10.2)
+            .getEvent();
+        event.updateBoundingBox();
+
+        assertTrue(index.add(event));
+
+        EventHeatmap heatmap = index.getHeatmap(DAY, DAY, null, 58.0, 11.0, 57.0, 10.0, 2, 2);
+        assertEquals(1, heatmap.getCount(0, 0));
+        assertEquals(1, heatmap.getTotal());
+    }
+
+    @Test
+    public void ignoresEventWithoutPosition() {
+        SuddenSpeedChangeEventBuilder builder = SuddenSpeedChangeEventBuilder.SuddenSpeedChangeEvent();
+        builder.startTime(LocalDateTime.of(2017, 1, 22, 10, 0, 0));
+        Event event = builder.getEvent();
+
+        assertFalse(index.add(event));
+    }
+
+    @Test
+    public void updateCountsEventsCommittedLateWithinLagWindowOnce() {
+        final JUnit4Mockery context = new JUnit4Mockery();
+        final EventRepository eventRepository = context.mock(EventRepository.class);
+        index = new EventDensityIndex(Grid.create(0.01), 2);
+
+        context.checking(new Expectations() {{
+            oneOf(eventRepository).findEventLocations(with(equal(0L)), with(any(Consumer.class))); will(passLocations(1, 3));
+            // 2 is committed after 3; 1 is no longer read
+            oneOf(eventRepository).findEventLocations(with(equal(1L)), with(any(Consumer.class))); will(passLocations(2, 3, 4));
+            oneOf(eventRepository).findEventLocations(with(equal(2L)), with(any(Consumer.class))); will(passLocations(3, 4, 5));
+            oneOf(eventRepository).findEventLocations(with(equal(3L)), with(any(Consumer.class))); will(passLocations(4, 5));
+        }});
+
+        assertEquals(2, index.update(eventRepository));
+        assertEquals(2, index.update(eventRepository));
+        assertEquals(1, index.update(eventRepository));
+        assertEquals(0, index.update(eventRepository));
+
+        assertEquals(5, index.getHeatmap(DAY, DAY, null, 58.0, 12.0, 56.0, 10.0, 1, 1).getTotal());
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void updateCountsEventOnceItHasPositionWithinLagWindow() {
+        final JUnit4Mockery context = new JUnit4Mockery();
+        final EventRepository eventRepository = context.mock(EventRepository.class);
+        index = new EventDensityIndex(Grid.create(0.01), 2);
+
+        context.checking(new Expectations() {{
+            // 1 has no position yet when first read
+            oneOf(eventRepository).findEventLocations(with(equal(0L)), with(any(Consumer.class))); will(new CustomAction("pass locations") {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object invoke(Invocation invocation) {
+                    Consumer<EventLocation> consumer = (Consumer<EventLocation>) invocation.getParameter(1);
+                    consumer.accept(new EventLocation(1, "DriftEvent", LocalDateTime.of(2017, 1, 22, 10, 0, 0), null, null));
+                    consumer.accept(new EventLocation(2, "DriftEvent", LocalDateTime.of(2017, 1, 22, 10, 0, 0), 57.5, 10.5));
+                    return 2L;
+                }
+            });
+            oneOf(eventRepository).findEventLocations(with(equal(0L)), with(any(Consumer.class))); will(passLocations(1, 2));
+        }});
+
+        assertEquals(1, index.update(eventRepository));
+        assertEquals(1, index.update(eventRepository));
+
+        assertEquals(2, index.getHeatmap(DAY, DAY, null, 58.0, 12.0, 56.0, 10.0, 1, 1).getTotal());
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void ignoresLocationWithoutPosition() {
+        assertFalse(index.add(new EventLocation(1, "DriftEvent", LocalDateTime.of(2017, 1, 22, 10, 0, 0), null, null)));
+        assertTrue(index.add(EventLocation.of(2, "DriftEvent", LocalDateTime.of(2017, 1, 22, 10, 0, 0), 57.6, 10.6, 57.4, 10.4)));
+        assertEquals(1, index.getHeatmap(DAY, DAY, null, 58.0, 12.0, 56.0, 10.0, 1, 1).getTotal());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyArea() {
+        index.getHeatmap(DAY, DAY, null, 56.0, 12.0, 58.0, 10.0, 2, 2);
+    }
+
+    private static CustomAction passLocations(final long... ids) {
+        return new CustomAction("pass locations") {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Invocation invocation) {
+                Consumer<EventLocation> consumer = (Consumer<EventLocation>) invocation.getParameter(1);
+                for (long id : ids) {
+                    consumer.accept(new EventLocation(id, "DriftEvent", LocalDateTime.of(2017, 1, 22, 10, 0, 0), 57.5, 10.5));
+                }
+                return (long) ids.length;
+            }
+        };
+    }
+
+    private static TrackingPoint trackingPoint(LocalDateTime timestamp, double latitude, double longitude) {
+        TrackingPoint trackingPoint = new TrackingPoint();
+        trackingPoint.setTimestamp(timestamp);
+        trackingPoint.setLatitude(latitude);
+        trackingPoint.setLongitude(longitude);
+        return trackingPoint;
+    }
+
+}
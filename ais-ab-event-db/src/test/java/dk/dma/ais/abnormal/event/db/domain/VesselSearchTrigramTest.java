@@ -0,0 +1,58 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.domain;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VesselSearchTrigramTest {
+
+    @Test
+    public void normalizeUpperCasesAndCollapsesSeparators() {
+        assertEquals("MAERSK LINE 2", VesselSearchTrigram.normalize("  Maersk--line @@2 "));
+        assertEquals("", VesselSearchTrigram.normalize(null));
+    }
+
+    @Test
+    public void trigramsOfNameAndCallsign() {
+        Vessel vessel = new Vessel();
+        vessel.setName("Ursa");
+        vessel.setCallsign("OXKC2");
+
+        assertEquals(new LinkedHashSet<>(Arrays.asList("URS", "RSA", "OXK", "XKC", "KC2")), VesselSearchTrigram.trigramsOf(vessel));
+    }
+
+    @Test
+    public void trigramsOfPatternAreTrigramsOfLiteralParts() {
+        assertEquals(new LinkedHashSet<>(Arrays.asList("URS", "RSA")), VesselSearchTrigram.trigramsOfPattern("%ursa%"));
+        assertEquals(new LinkedHashSet<>(Arrays.asList("MAE", "AER", "LIN", "INE")), VesselSearchTrigram.trigramsOfPattern("Mae%rs_line"));
+        assertTrue(VesselSearchTrigram.trigramsOfPattern("ur_a").isEmpty());
+        assertTrue(VesselSearchTrigram.trigramsOfPattern("%").isEmpty());
+        assertTrue(VesselSearchTrigram.trigramsOfPattern(null).isEmpty());
+    }
+
+    @Test
+    public void noTrigramsOfShortText() {
+        assertTrue(VesselSearchTrigram.trigramsOf("ab", null).isEmpty());
+    }
+
+}
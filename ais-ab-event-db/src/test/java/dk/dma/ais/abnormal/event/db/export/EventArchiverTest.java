@@ -0,0 +1,195 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.export;
+
+import dk.dma.ais.abnormal.event.db.domain.CourseOverGroundEvent;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.SuddenSpeedChangeEvent;
+import dk.dma.ais.abnormal.event.db.jpa.JpaEventRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventArchiverTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2017, 4, 10, 3, 0, 0);
+
+    private Path archiveDirectory;
+    private FakeEventRepository eventRepository;
+    private EventArchiver archiver;
+
+    @Before
+    public void setUp() throws IOException {
+        archiveDirectory = Files.createTempDirectory("archive");
+        eventRepository = new FakeEventRepository();
+        archiver = new EventArchiver(eventRepository, archiveDirectory, 2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(archiveDirectory)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.deleteIfExists(archiveDirectory);
+    }
+
+    @Test
+    public void archivesPastEventsBeforeRetentionPeriodInFullAndDeletesThem() throws IOException {
+        CourseOverGroundEvent january = createCourseOverGroundEvent(1, LocalDateTime.of(2017, 1, 5, 12, 0));
+        Event february = createEvent(2, LocalDateTime.of(2017, 2, 1, 0, 0), LocalDateTime.of(2017, 2, 1, 0, 5));
+        Event ongoing = createEvent(3, LocalDateTime.of(2017, 1, 20, 0, 0), null);
+        eventRepository.events.addAll(Arrays.asList(january, february, ongoing));
+
+        assertEquals(1, archiver.archive(NOW));
+
+        assertEquals(Arrays.asList(1L), eventRepository.deletedIds);
+        assertEquals(Arrays.asList(february, ongoing), eventRepository.events);
+
+        List<Event> archived = read(archiveDirectory.resolve("events-2017-01.aevc"));
+        assertEquals(1, archived.size());
+        CourseOverGroundEvent copy = (CourseOverGroundEvent) archived.get(0);
+        assertEquals(january.getStartTime(), copy.getStartTime());
+        assertEquals(january.getEndTime(), copy.getEndTime());
+        assertEquals(23, copy.getCourseOverGround());
+        assertEquals(7, copy.getShipType());
+        assertEquals(4, copy.getShipLength());
+    }
+
+    @Test
+    public void deletesOnlyTheEventsWrittenToTheArchive() throws IOException {
+        eventRepository.events.add(createEvent(1, LocalDateTime.of(2017, 1, 5, 12, 0), LocalDateTime.of(2017, 1, 5, 12, 10)));
+        // Ends, and so becomes due, after the month has been read; but before the events are deleted
+        Event late = createEvent(2, LocalDateTime.of(2017, 1, 6, 12, 0), null);
+        eventRepository.events.add(late);
+        eventRepository.afterRead = () -> {
+            late.setState(Event.State.PAST);
+            late.setEndTime(LocalDateTime.of(2017, 1, 6, 12, 10));
+        };
+
+        assertEquals(1, archiver.archive(NOW));
+        assertEquals(Arrays.asList(1L), eventRepository.deletedIds);
+        assertEquals(Arrays.asList(late), eventRepository.events);
+
+        assertEquals(1, archiver.archive(NOW));
+        assertEquals(Arrays.asList(1L, 2L), eventRepository.deletedIds);
+        assertTrue(eventRepository.events.isEmpty());
+        assertEquals(1, read(archiveDirectory.resolve("events-2017-01.1.aevc")).size());
+    }
+
+    @Test
+    public void writesNoFileWhenNothingIsDue() throws IOException {
+        assertEquals(0, archiver.archive(NOW));
+
+        eventRepository.events.add(createEvent(1, LocalDateTime.of(2017, 3, 5, 12, 0), LocalDateTime.of(2017, 3, 5, 12, 10)));
+        assertEquals(0, archiver.archive(NOW));
+
+        assertTrue(eventRepository.deletedIds.isEmpty());
+        try (Stream<Path> files = Files.list(archiveDirectory)) {
+            assertFalse(files.findAny().isPresent());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeRetention() {
+        new EventArchiver(eventRepository, archiveDirectory, -1);
+    }
+
+    private static List<Event> read(Path file) throws IOException {
+        List<Event> events = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(file); EventExportReader reader = new EventExportReader(in)) {
+            reader.forEach((event, id) -> events.add(event));
+        }
+        return events;
+    }
+
+    private static Event createEvent(long id, LocalDateTime startTime, LocalDateTime endTime) {
+        Event event = new SuddenSpeedChangeEvent();
+        initEvent(event, id, startTime, endTime);
+        return event;
+    }
+
+    private static CourseOverGroundEvent createCourseOverGroundEvent(long id, LocalDateTime startTime) {
+        CourseOverGroundEvent event = new CourseOverGroundEvent();
+        initEvent(event, id, startTime, startTime.plusMinutes(10));
+        event.setCourseOverGround(23);
+        event.setShipType(7);
+        event.setShipLength(4);
+        return event;
+    }
+
+    private static void initEvent(Event event, long id, LocalDateTime startTime, LocalDateTime endTime) {
+        event.setId(id);
+        event.setStartTime(startTime);
+        event.setEndTime(endTime);
+        event.setState(endTime == null ? Event.State.ONGOING : Event.State.PAST);
+        event.setTitle("Event " + id);
+    }
+
+    /**
+     * A repository holding events in memory; with the semantics of the archiving methods of JpaEventRepository.
+     */
+    private static final class FakeEventRepository extends JpaEventRepository {
+        final List<Event> events = new ArrayList<>();
+        final List<Long> deletedIds = new ArrayList<>();
+        Runnable afterRead = () -> {};
+
+        FakeEventRepository() {
+            super(null, false);
+        }
+
+        @Override
+        public LocalDateTime findEarliestStartTime() {
+            return events.stream().map(Event::getStartTime).min(LocalDateTime::compareTo).orElse(null);
+        }
+
+        @Override
+        public long forEachEventStartedIn(YearMonth month, LocalDateTime endedBefore, Consumer<Event> consumer) {
+            long n = events.stream()
+                .filter(e -> YearMonth.from(e.getStartTime()).equals(month) && e.getState() == Event.State.PAST && e.getEndTime().isBefore(endedBefore))
+                .peek(consumer)
+                .count();
+            afterRead.run();
+            afterRead = () -> {};
+            return n;
+        }
+
+        @Override
+        public int deleteEvents(List<Long> ids) {
+            deletedIds.addAll(ids);
+            int n = events.size();
+            events.removeIf(e -> ids.contains(e.getId()));
+            return n - events.size();
+        }
+    }
+
+}
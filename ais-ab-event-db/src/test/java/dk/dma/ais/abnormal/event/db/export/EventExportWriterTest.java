@@ -0,0 +1,251 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.export;
+
+import dk.dma.ais.abnormal.event.db.domain.Behaviour;
+import dk.dma.ais.abnormal.event.db.domain.CloseEncounterEvent;
+import dk.dma.ais.abnormal.event.db.domain.CourseOverGroundEvent;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.ShipSizeOrTypeEvent;
+import dk.dma.ais.abnormal.event.db.domain.SpeedOverGroundEvent;
+import dk.dma.ais.abnormal.event.db.domain.SuddenSpeedChangeEvent;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import dk.dma.ais.abnormal.event.db.domain.Zone;
+import dk.dma.ais.abnormal.event.db.domain.builders.BehaviourBuilder;
+import dk.dma.ais.abnormal.event.db.domain.builders.SuddenSpeedChangeEventBuilder;
+import dk.dma.ais.abnormal.event.db.domain.builders.VesselBuilder;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventExportWriterTest {
+
+    @Test
+    public void roundTrip() throws Exception {
+        Event event = createEvent(LocalDateTime.of(2017, 1, 22, 10, 0, 0));
+
+        List<Event> events = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        readAll(writeAll(10, event), events, ids);
+
+        assertEquals(1, events.size());
+        assertEquals(0L, (long) ids.get(0));
+
+        Event copy = events.get(0);
+        assertTrue(copy instanceof SuddenSpeedChangeEvent);
+        assertEquals(Event.State.PAST, copy.getState());
+        assertEquals(event.getStartTime(), copy.getStartTime());
+        assertNull(copy.getEndTime());
+        assertEquals("title", copy.getTitle());
+        assertEquals("description", copy.getDescription());
+        assertEquals(2, copy.getBehaviours().size());
+
+        Behaviour primary = copy.primaryBehaviour();
+        assertEquals(123456789, primary.getVessel().getMmsi());
+        assertEquals(Integer.valueOf(123456), primary.getVessel().getImo());
+        assertEquals("name", primary.getVessel().getName());
+        assertEquals("callsign", primary.getVessel().getCallsign());
+        assertEquals(Integer.valueOf(40), primary.getVessel().getToStarboard());
+        assertEquals(2, primary.getTrackingPoints().size());
+
+        TrackingPoint first = primary.getTrackingPoints().first();
+        assertEquals(event.getStartTime(), first.getTimestamp());
+        assertEquals(56.1234567, first.getLatitude(), 1e-9);
+        assertEquals(12.7654321, first.getLongitude(), 1e-9);
+        assertEquals(12.5f, first.getSpeedOverGround(), 1e-6);
+        assertEquals(TrackingPoint.EventCertainty.RAISED, first.getEventCertainty());
+        assertEquals(false, first.getPositionInterpolated());
+
+        TrackingPoint last = primary.getTrackingPoints().last();
+        assertEquals(event.getStartTime().plusSeconds(10), last.getTimestamp());
+        assertNull(last.getTrueHeading());
+        assertEquals(56.1200000, last.getLatitude(), 1e-9);
+
+        Behaviour secondary = copy.arbitraryNonPrimaryBehaviour();
+        assertEquals(987654321, secondary.getVessel().getMmsi());
+        assertNull(secondary.getVessel().getImo());
+        assertNull(secondary.getVessel().getName());
+        assertEquals(0, secondary.getTrackingPoints().size());
+
+        assertEquals(56.1234567, copy.getBoundingBoxNorth(), 1e-9);
+    }
+
+    @Test
+    public void roundTripOfSeveralBlocks() throws Exception {
+        Event[] events = new Event[7];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = createEvent(LocalDateTime.of(2017, 1, 22, 10, 0, 0).plusHours(i));
+        }
+
+        List<Event> copies = new ArrayList<>();
+        readAll(writeAll(3, events), copies, new ArrayList<>());
+
+        assertEquals(events.length, copies.size());
+        for (int i = 0; i < events.length; i++) {
+            assertEquals(events[i].getStartTime(), copies.get(i).getStartTime());
+            assertEquals(2, copies.get(i).primaryBehaviour().getTrackingPoints().size());
+        }
+    }
+
+    @Test
+    public void repeatedStringsAreStoredOnce() throws Exception {
+        Event[] events = new Event[100];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = createEvent(LocalDateTime.of(2017, 1, 22, 10, 0, 0).plusMinutes(i));
+        }
+        String bytes = new String(writeAll(1000, events), StandardCharsets.ISO_8859_1);
+
+        assertEquals(bytes.indexOf("description"), bytes.lastIndexOf("description"));
+        assertEquals(bytes.indexOf("callsign"), bytes.lastIndexOf("callsign"));
+    }
+
+    @Test
+    public void roundTripOfTypeSpecificFields() throws Exception {
+        ShipSizeOrTypeEvent shipSizeOrType = new ShipSizeOrTypeEvent();
+        shipSizeOrType.setShipType(7);
+        shipSizeOrType.setShipLength(3);
+
+        SpeedOverGroundEvent speedOverGround = new SpeedOverGroundEvent();
+        speedOverGround.setShipType(2);
+        speedOverGround.setShipLength(4);
+        speedOverGround.setSpeedOverGround(11);
+
+        CourseOverGroundEvent courseOverGround = new CourseOverGroundEvent();
+        courseOverGround.setShipType(5);
+        courseOverGround.setShipLength(6);
+        courseOverGround.setCourseOverGround(23);
+
+        CloseEncounterEvent closeEncounter = new CloseEncounterEvent();
+        closeEncounter.setSafetyZoneOfPrimaryVessel(createZone(1485079200000L, 56.1234567891, 12.7654321987, 45.5, 500.25, 200.125));
+        CloseEncounterEvent closeEncounterWithoutZones = new CloseEncounterEvent();
+
+        List<Event> events = new ArrayList<>();
+        readAll(writeAll(2, shipSizeOrType, speedOverGround, courseOverGround, closeEncounter, closeEncounterWithoutZones), events, new ArrayList<>());
+
+        assertEquals(5, events.size());
+        assertEquals(7, ((ShipSizeOrTypeEvent) events.get(0)).getShipType());
+        assertEquals(3, ((ShipSizeOrTypeEvent) events.get(0)).getShipLength());
+        assertEquals(2, ((SpeedOverGroundEvent) events.get(1)).getShipType());
+        assertEquals(4, ((SpeedOverGroundEvent) events.get(1)).getShipLength());
+        assertEquals(11, ((SpeedOverGroundEvent) events.get(1)).getSpeedOverGround());
+        assertEquals(5, ((CourseOverGroundEvent) events.get(2)).getShipType());
+        assertEquals(6, ((CourseOverGroundEvent) events.get(2)).getShipLength());
+        assertEquals(23, ((CourseOverGroundEvent) events.get(2)).getCourseOverGround());
+
+        Zone zone = ((CloseEncounterEvent) events.get(3)).getSafetyZoneOfPrimaryVessel();
+        assertEquals(new Date(1485079200000L), zone.getTargetTimestamp());
+        assertEquals(56.1234567891, zone.getCenterLatitude(), 0.0);
+        assertEquals(12.7654321987, zone.getCenterLongitude(), 0.0);
+        assertEquals(45.5, zone.getMajorAxisHeading(), 0.0);
+        assertEquals(500.25, zone.getMajorSemiAxisLength(), 0.0);
+        assertEquals(200.125, zone.getMinorSemiAxisLength(), 0.0);
+        assertNull(((CloseEncounterEvent) events.get(3)).getExtentOfSecondaryVessel());
+        assertNull(((CloseEncounterEvent) events.get(4)).getSafetyZoneOfPrimaryVessel());
+        assertNull(((CloseEncounterEvent) events.get(4)).getExtentOfSecondaryVessel());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws Exception {
+        new EventExportReader(new ByteArrayInputStream("eventId,eventType\r\n".getBytes()));
+    }
+
+    private static byte[] writeAll(int blockSize, Event... events) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EventExportWriter writer = new EventExportWriter(out, blockSize)) {
+            for (Event event : events) {
+                writer.write(event);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void readAll(byte[] bytes, List<Event> events, List<Long> ids) throws IOException {
+        try (EventExportReader reader = new EventExportReader(new ByteArrayInputStream(bytes))) {
+            reader.forEach((event, id) -> {
+                events.add(event);
+                ids.add(id);
+            });
+        }
+    }
+
+    private static Zone createZone(long targetTimestamp, double centerLatitude, double centerLongitude, double majorAxisHeading, double majorSemiAxisLength, double minorSemiAxisLength) {
+        Zone zone = new Zone();
+        zone.setTargetTimestamp(new Date(targetTimestamp));
+        zone.setCenterLatitude(centerLatitude);
+        zone.setCenterLongitude(centerLongitude);
+        zone.setMajorAxisHeading(majorAxisHeading);
+        zone.setMajorSemiAxisLength(majorSemiAxisLength);
+        zone.setMinorSemiAxisLength(minorSemiAxisLength);
+        return zone;
+    }
+
+    private static Event createEvent(LocalDateTime startTime) {
+        TrackingPoint second = new TrackingPoint();
+        second.setTimestamp(startTime.plusSeconds(10));
+        second.setLatitude(56.12);
+        second.setLongitude(12.76);
+        second.setPositionInterpolated(true);
+        second.setEventCertainty(TrackingPoint.EventCertainty.UNCERTAIN);
+
+        Event event = SuddenSpeedChangeEventBuilder.SuddenSpeedChangeEvent()
+            .title("title")
+            .description("description")
+            .state(Event.State.PAST)
+            .startTime(startTime)
+            .behaviour()
+                .isPrimary(true)
+                .trackingPoints(second)
+                .vessel()
+                    .mmsi(123456789)
+                    .imo(123456)
+                    .callsign("callsign")
+                    .type(1)
+                    .toBow(10)
+                    .toStern(20)
+                    .toPort(30)
+                    .toStarboard(40)
+                    .name("name")
+                .trackingPoint()
+                    .timestamp(startTime)
+                    .positionInterpolated(false)
+                    .eventCertainty(TrackingPoint.EventCertainty.RAISED)
+                    .speedOverGround(12.5f)
+                    .courseOverGround(45f)
+                    .trueHeading(46f)
+                    .latitude(56.1234567)
+                    .longitude(12.7654321)
+            .getEvent();
+
+        Behaviour secondary = BehaviourBuilder.Behaviour().isPrimary(false).getBehaviour();
+        secondary.setVessel(VesselBuilder.Vessel().mmsi(987654321).getVessel());
+        event.addBehaviour(secondary);
+
+        return event;
+    }
+
+}
@@ -0,0 +1,147 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.export;
+
+import dk.dma.ais.abnormal.event.db.domain.Behaviour;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import dk.dma.ais.abnormal.event.db.domain.builders.BehaviourBuilder;
+import dk.dma.ais.abnormal.event.db.domain.builders.SuddenSpeedChangeEventBuilder;
+import dk.dma.ais.abnormal.event.db.domain.builders.VesselBuilder;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static dk.dma.ais.abnormal.event.db.export.KmlEventWriter.GX_NAMESPACE;
+import static dk.dma.ais.abnormal.event.db.export.KmlEventWriter.KML_NAMESPACE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class KmlEventWriterTest {
+
+    @Test
+    public void writesEventsAsFoldersWithTracks() throws Exception {
+        Document kml = parse(new ByteArrayInputStream(writeAll(false, createEvent(LocalDateTime.of(2017, 1, 22, 10, 0, 0)), createEvent(LocalDateTime.of(2017, 1, 22, 11, 0, 0)))));
+
+        NodeList folders = kml.getElementsByTagNameNS(KML_NAMESPACE, "Folder");
+        assertEquals(2, folders.getLength());
+
+        Element folder = (Element) folders.item(0);
+        assertEquals("[0] title", text(folder, "name"));
+        assertEquals("2017-01-22T10:00:00Z", text(folder, "begin"));
+        assertEquals(2, folder.getElementsByTagNameNS(KML_NAMESPACE, "Placemark").getLength());
+        assertEquals("#primary", text((Element) folder.getElementsByTagNameNS(KML_NAMESPACE, "Placemark").item(0), "styleUrl"));
+        assertEquals("#secondary", text((Element) folder.getElementsByTagNameNS(KML_NAMESPACE, "Placemark").item(1), "styleUrl"));
+
+        Element primaryTrack = (Element) folder.getElementsByTagNameNS(GX_NAMESPACE, "Track").item(0);
+        NodeList whens = primaryTrack.getElementsByTagNameNS(KML_NAMESPACE, "when");
+        NodeList coords = primaryTrack.getElementsByTagNameNS(GX_NAMESPACE, "coord");
+        assertEquals(2, whens.getLength());
+        assertEquals(2, coords.getLength());
+        assertEquals("2017-01-22T10:00:00Z", whens.item(0).getTextContent());
+        assertEquals("12.7654321 56.1234567 0", coords.item(0).getTextContent());
+        assertEquals("2017-01-22T10:00:10Z", whens.item(1).getTextContent());
+    }
+
+    @Test
+    public void writesKmzWithDocKml() throws Exception {
+        byte[] kmz = writeAll(true, createEvent(LocalDateTime.of(2017, 1, 22, 10, 0, 0)));
+
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(kmz))) {
+            ZipEntry entry = zip.getNextEntry();
+            assertNotNull(entry);
+            assertEquals("doc.kml", entry.getName());
+            ByteArrayOutputStream kml = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = zip.read(buffer)) > 0; ) {
+                kml.write(buffer, 0, n);
+            }
+            assertNull(zip.getNextEntry());
+            assertEquals(1, parse(new ByteArrayInputStream(kml.toByteArray())).getElementsByTagNameNS(KML_NAMESPACE, "Folder").getLength());
+        }
+    }
+
+    @Test
+    public void writesEmptyDocument() throws Exception {
+        Document kml = parse(new ByteArrayInputStream(writeAll(false)));
+
+        assertEquals("events", text(kml.getDocumentElement(), "name"));
+        assertEquals(0, kml.getElementsByTagNameNS(KML_NAMESPACE, "Folder").getLength());
+    }
+
+    private static byte[] writeAll(boolean kmz, Event... events) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (KmlEventWriter writer = new KmlEventWriter(out, "events", kmz)) {
+            for (Event event : events) {
+                writer.write(event);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static Document parse(InputStream in) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(in);
+    }
+
+    private static String text(Element element, String localName) {
+        return element.getElementsByTagNameNS(KML_NAMESPACE, localName).item(0).getTextContent();
+    }
+
+    private static Event createEvent(LocalDateTime startTime) {
+        TrackingPoint second = new TrackingPoint();
+        second.setTimestamp(startTime.plusSeconds(10));
+        second.setLatitude(56.12);
+        second.setLongitude(12.76);
+
+        Event event = SuddenSpeedChangeEventBuilder.SuddenSpeedChangeEvent()
+            .title("title")
+            .description("description")
+            .state(Event.State.PAST)
+            .startTime(startTime)
+            .behaviour()
+                .isPrimary(true)
+                .trackingPoints(second)
+                .vessel()
+                    .mmsi(123456789)
+                    .name("name")
+                .trackingPoint()
+                    .timestamp(startTime)
+                    .latitude(56.1234567)
+                    .longitude(12.7654321)
+            .getEvent();
+
+        Behaviour secondary = BehaviourBuilder.Behaviour().isPrimary(false).getBehaviour();
+        secondary.setVessel(VesselBuilder.Vessel().mmsi(987654321).getVessel());
+        event.addBehaviour(secondary);
+
+        return event;
+    }
+
+}
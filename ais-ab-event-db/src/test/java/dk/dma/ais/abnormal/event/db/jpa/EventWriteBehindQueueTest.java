@@ -0,0 +1,247 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.jpa;
+
+import dk.dma.ais.abnormal.event.db.domain.Behaviour;
+import dk.dma.ais.abnormal.event.db.domain.ShipSizeOrTypeEvent;
+import dk.dma.ais.abnormal.event.db.domain.SpeedOverGroundEvent;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.action.VoidAction;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventWriteBehindQueueTest {
+
+    private JUnit4Mockery context;
+    private SessionFactory sessionFactory;
+    private Session session;
+
+    @Before
+    public void init() {
+        context = new JUnit4Mockery();
+        context.setThreadingPolicy(new Synchroniser());
+
+        sessionFactory = context.mock(SessionFactory.class);
+        session = context.mock(Session.class);
+    }
+
+    @Test
+    public void repeatedSavesAreCoalescedAndWrittenOnClose() throws InterruptedException {
+        final ShipSizeOrTypeEvent event1 = new ShipSizeOrTypeEvent();
+        final SpeedOverGroundEvent event2 = new SpeedOverGroundEvent();
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).beginTransaction();
+            oneOf(session).saveOrUpdate(event1);
+            oneOf(session).saveOrUpdate(event2);
+            exactly(2).of(session).flush();
+            oneOf(session).evict(event1);
+            oneOf(session).evict(event2);
+            allowing(session).getTransaction();
+            oneOf(session).close();
+        }});
+
+        EventWriteBehindQueue queue = new EventWriteBehindQueue(sessionFactory, 60000, 100);
+        queue.enqueueSave(event1);
+        queue.enqueueSave(event2);
+        queue.enqueueSave(event1);
+        queue.enqueueSave(event1);
+
+        assertEquals(2, queue.getNumberOfPendingEvents());
+        Thread.sleep(10);
+        assertTrue(queue.getPersistenceLagMillis() > 0);
+
+        queue.close();
+
+        assertEquals(0, queue.getNumberOfPendingEvents());
+        assertEquals(0, queue.getPersistenceLagMillis());
+        assertEquals(2, queue.getNumberOfEventsWritten());
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void appendToPendingNewEventIsWrittenWithEvent() {
+        final ShipSizeOrTypeEvent event = new ShipSizeOrTypeEvent();
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).beginTransaction();
+            oneOf(session).saveOrUpdate(event);
+            oneOf(session).flush();
+            oneOf(session).evict(event);
+            never(session).save(with(any(TrackingPoint.class)));
+            allowing(session).getTransaction();
+            oneOf(session).close();
+        }});
+
+        EventWriteBehindQueue queue = new EventWriteBehindQueue(sessionFactory, 60000, 100);
+        queue.enqueueSave(event);
+        queue.enqueueAppend(event, new Behaviour(), new TrackingPoint(), false);
+        queue.enqueueEnd(event);
+        queue.close();
+
+        assertEquals(1, queue.getNumberOfEventsWritten());
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void batchIsWrittenWhenFull() {
+        final ShipSizeOrTypeEvent event1 = new ShipSizeOrTypeEvent();
+        final SpeedOverGroundEvent event2 = new SpeedOverGroundEvent();
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).beginTransaction();
+            oneOf(session).saveOrUpdate(event1);
+            oneOf(session).saveOrUpdate(event2);
+            allowing(session).flush();
+            allowing(session).evict(with(any(Object.class)));
+            allowing(session).getTransaction();
+            oneOf(session).close();
+        }});
+
+        EventWriteBehindQueue queue = new EventWriteBehindQueue(sessionFactory, 60000, 2);
+        queue.enqueueSave(event1);
+        queue.enqueueSave(event2);
+
+        long t0 = System.currentTimeMillis();
+        while (queue.getNumberOfEventsWritten() < 2 && System.currentTimeMillis() - t0 < 5000) {
+            Thread.yield();
+        }
+        assertEquals(2, queue.getNumberOfEventsWritten());
+
+        queue.close();
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void enqueueWhileBatchIsWrittenIsWrittenInNextBatch() {
+        final ShipSizeOrTypeEvent event1 = new ShipSizeOrTypeEvent();
+        final SpeedOverGroundEvent event2 = new SpeedOverGroundEvent();
+        final EventWriteBehindQueue[] queue = new EventWriteBehindQueue[1];
+
+        context.checking(new Expectations() {{
+            exactly(2).of(sessionFactory).openSession(); will(returnValue(session));
+            exactly(2).of(session).beginTransaction();
+            exactly(2).of(session).saveOrUpdate(event1); will(onConsecutiveCalls(
+                new CustomAction("enqueue while writing") {
+                    @Override
+                    public Object invoke(Invocation invocation) {
+                        queue[0].enqueueSave(event1);
+                        queue[0].enqueueSave(event2);
+                        return null;
+                    }
+                },
+                new VoidAction()
+            ));
+            oneOf(session).saveOrUpdate(event2);
+            allowing(session).flush();
+            allowing(session).evict(with(any(Object.class)));
+            allowing(session).getTransaction();
+            exactly(2).of(session).close();
+        }});
+
+        queue[0] = new EventWriteBehindQueue(sessionFactory, 60000, 1);
+        queue[0].enqueueSave(event1);
+
+        long t0 = System.currentTimeMillis();
+        while (queue[0].getNumberOfEventsWritten() < 1 && System.currentTimeMillis() - t0 < 5000) {
+            Thread.yield();
+        }
+        queue[0].close();
+
+        assertEquals(3, queue[0].getNumberOfEventsWritten());
+        assertEquals(0, queue[0].getNumberOfPendingEvents());
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void failedWriteIsRetriedWithGeneratedIdCleared() {
+        final ShipSizeOrTypeEvent event1 = new ShipSizeOrTypeEvent();
+        final SpeedOverGroundEvent event2 = new SpeedOverGroundEvent();
+        final long[] idsWhenSaved = new long[3];
+
+        context.checking(new Expectations() {{
+            allowing(sessionFactory).openSession(); will(returnValue(session));
+            allowing(session).beginTransaction();
+            exactly(3).of(session).saveOrUpdate(event1); will(new CustomAction("generate id; fail twice") {
+                int calls;
+                @Override
+                public Object invoke(Invocation invocation) {
+                    idsWhenSaved[calls] = event1.getId();
+                    event1.setId(42);
+                    if (++calls < 3) {
+                        throw new HibernateException("Connection lost");
+                    }
+                    return null;
+                }
+            });
+            oneOf(session).saveOrUpdate(event2);
+            allowing(session).flush();
+            allowing(session).evict(with(any(Object.class)));
+            allowing(session).getTransaction();
+            allowing(session).close();
+        }});
+
+        EventWriteBehindQueue queue = new EventWriteBehindQueue(sessionFactory, 60000, 100, 1);
+        queue.enqueueSave(event1);
+        queue.enqueueSave(event2);
+        queue.close();
+
+        assertEquals(2, queue.getNumberOfEventsWritten());
+        assertEquals(1, queue.getNumberOfEventsRetried());
+        assertEquals(0, queue.getNumberOfEventsFailed());
+        assertEquals(0, idsWhenSaved[1]);
+        assertEquals(0, idsWhenSaved[2]);
+        assertEquals(42, event1.getId());
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void writeIsGivenUpAfterMaxAttempts() {
+        final ShipSizeOrTypeEvent event = new ShipSizeOrTypeEvent();
+
+        context.checking(new Expectations() {{
+            allowing(sessionFactory).openSession(); will(returnValue(session));
+            allowing(session).beginTransaction();
+            exactly(EventWriteBehindQueue.MAX_WRITE_ATTEMPTS).of(session).saveOrUpdate(event); will(throwException(new HibernateException("Constraint violated")));
+            allowing(session).getTransaction();
+            allowing(session).close();
+        }});
+
+        EventWriteBehindQueue queue = new EventWriteBehindQueue(sessionFactory, 60000, 100, 1);
+        queue.enqueueSave(event);
+        queue.close();
+
+        assertEquals(0, queue.getNumberOfEventsWritten());
+        assertEquals(1, queue.getNumberOfEventsFailed());
+        assertEquals(0, queue.getNumberOfPendingEvents());
+        context.assertIsSatisfied();
+    }
+}
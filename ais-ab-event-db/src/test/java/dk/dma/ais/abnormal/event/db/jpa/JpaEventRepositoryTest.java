@@ -16,22 +16,48 @@
 
 package dk.dma.ais.abnormal.event.db.jpa;
 
+import dk.dma.ais.abnormal.event.db.domain.Behaviour;
 import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.EventLocation;
+import dk.dma.ais.abnormal.event.db.domain.EventSummary;
 import dk.dma.ais.abnormal.event.db.domain.ShipSizeOrTypeEvent;
+import dk.dma.ais.abnormal.event.db.domain.SpeedOverGroundEvent;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import dk.dma.ais.abnormal.event.db.domain.Vessel;
 import dk.dma.ais.test.helpers.ArgumentCaptor;
+import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
 import org.jmock.Expectations;
+import org.jmock.api.Invocation;
 import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.reflect.Field;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class JpaEventRepositoryTest {
 
@@ -95,6 +121,7 @@ public class JpaEventRepositoryTest {
 
         context.checking(new Expectations() {{
             oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).setDefaultReadOnly(true);
             oneOf(session).createQuery(with(queryString.getMatcher())); will(returnValue(query));
             allowing(query).setCacheable(with(any(Boolean.class)));
             allowing(query).setParameter(with(aNonNull(String.class)), with(aNonNull(Object.class)));
@@ -104,6 +131,7 @@ public class JpaEventRepositoryTest {
             oneOf(session).close();
         }});
 
+        eventRepository = new JpaEventRepository(sessionFactory, true);
         eventRepository.findOngoingEventByVessel(219886000, ShipSizeOrTypeEvent.class);
 
         assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*TYPE[(]e[)] = [:]clazz.*"));
@@ -112,6 +140,295 @@ public class JpaEventRepositoryTest {
         context.assertIsSatisfied();
     }
 
+    @Test
+    public void testFindOngoingEventByVesselLoadsIndexOnce() {
+        final ShipSizeOrTypeEvent event = createEvent(219886000, 211235221);
+
+        final ArgumentCaptor<String> queryString = ArgumentCaptor.forClass(String.class);
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).createQuery(with(queryString.getMatcher())); will(returnValue(query));
+            allowing(query).setString(with(aNonNull(String.class)), with(aNonNull(String.class)));
+            oneOf(query).list(); will(returnValue(Arrays.asList(event)));
+            oneOf(session).close();
+        }});
+
+        assertSame(event, eventRepository.findOngoingEventByVessel(219886000, ShipSizeOrTypeEvent.class));
+        assertSame(event, eventRepository.findOngoingEventByVessel(211235221, ShipSizeOrTypeEvent.class));
+        assertNull(eventRepository.findOngoingEventByVessel(219886000, SpeedOverGroundEvent.class));
+        assertNull(eventRepository.findOngoingEventByVessel(123456789, ShipSizeOrTypeEvent.class));
+
+        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*e.state = :state.*"));
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void testSaveMaintainsOngoingEventIndex() {
+        final ShipSizeOrTypeEvent event = createEvent(219886000);
+
+        context.checking(new Expectations() {{
+            exactly(3).of(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).createQuery(with(any(String.class))); will(returnValue(query));
+            allowing(query).setString(with(aNonNull(String.class)), with(aNonNull(String.class)));
+            oneOf(query).list(); will(returnValue(Arrays.asList()));
+            allowing(session).beginTransaction();
+            allowing(session).getTransaction();
+            exactly(2).of(session).saveOrUpdate(event);
+            exactly(3).of(session).close();
+        }});
+
+        assertNull(eventRepository.findOngoingEventByVessel(219886000, ShipSizeOrTypeEvent.class));
+
+        eventRepository.save(event);
+        assertSame(event, eventRepository.findOngoingEventByVessel(219886000, ShipSizeOrTypeEvent.class));
+
+        event.setState(Event.State.PAST);
+        eventRepository.save(event);
+        assertNull(eventRepository.findOngoingEventByVessel(219886000, ShipSizeOrTypeEvent.class));
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void appendTrackingPointInsertsOnlyNewTrackingPoint() throws Exception {
+        final ShipSizeOrTypeEvent event = createEvent(219886000);
+        setId(event, 17L);
+        setId(event.getBehaviour(219886000), 42L);
+
+        final TrackingPoint trackingPoint = new TrackingPoint();
+        final SQLQuery sqlQuery = context.mock(SQLQuery.class);
+        final ArgumentCaptor<String> queryString = ArgumentCaptor.forClass(String.class);
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).beginTransaction();
+            oneOf(session).save(trackingPoint);
+            oneOf(session).flush();
+            oneOf(session).createSQLQuery(with(queryString.getMatcher())); will(returnValue(sqlQuery));
+            oneOf(sqlQuery).setLong("behaviourId", 42L); will(returnValue(sqlQuery));
+            oneOf(sqlQuery).setLong(with(equal("trackingPointId")), with(any(Long.class))); will(returnValue(sqlQuery));
+            oneOf(sqlQuery).executeUpdate(); will(returnValue(1));
+            oneOf(session).evict(trackingPoint);
+            allowing(session).getTransaction();
+            never(session).saveOrUpdate(with(any(Object.class)));
+            oneOf(session).close();
+        }});
+
+        eventRepository.appendTrackingPoint(event, 219886000, trackingPoint);
+
+        assertEquals(1, event.getBehaviour(219886000).getTrackingPoints().size());
+        assertTrue(queryString.getCapturedObject().toString().matches("INSERT INTO Behaviour_TrackingPoint .*"));
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void appendTrackingPointOutsideBoundingBoxUpdatesBoundingBox() throws Exception {
+        final ShipSizeOrTypeEvent event = createEvent(219886000);
+        setId(event, 17L);
+        setId(event.getBehaviour(219886000), 42L);
+
+        final TrackingPoint trackingPoint = new TrackingPoint();
+        trackingPoint.setLatitude(56.0);
+        trackingPoint.setLongitude(12.0);
+        final SQLQuery sqlQuery = context.mock(SQLQuery.class);
+        final ArgumentCaptor<String> queryString = ArgumentCaptor.forClass(String.class);
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).beginTransaction();
+            oneOf(session).save(trackingPoint);
+            oneOf(session).flush();
+            oneOf(session).createSQLQuery(with(any(String.class))); will(returnValue(sqlQuery));
+            allowing(sqlQuery).setLong(with(any(String.class)), with(any(Long.class))); will(returnValue(sqlQuery));
+            oneOf(sqlQuery).executeUpdate(); will(returnValue(1));
+            oneOf(session).evict(trackingPoint);
+            oneOf(session).createQuery(with(queryString.getMatcher())); will(returnValue(query));
+            oneOf(query).setParameter("north", 56.0); will(returnValue(query));
+            oneOf(query).setParameter("east", 12.0); will(returnValue(query));
+            oneOf(query).setParameter("south", 56.0); will(returnValue(query));
+            oneOf(query).setParameter("west", 12.0); will(returnValue(query));
+            oneOf(query).setLong("id", 17L); will(returnValue(query));
+            oneOf(query).executeUpdate(); will(returnValue(1));
+            allowing(session).getTransaction();
+            oneOf(session).close();
+        }});
+
+        eventRepository.appendTrackingPoint(event, 219886000, trackingPoint);
+
+        assertEquals(56.0, event.getBoundingBoxNorth(), 1e-9);
+        assertEquals(12.0, event.getBoundingBoxWest(), 1e-9);
+        assertTrue(queryString.getCapturedObject().toString().matches("UPDATE Event e SET e.boundingBoxNorth = :north, .* WHERE e.id = :id"));
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void endEventUpdatesOnlyStateAndEndTime() throws Exception {
+        final ShipSizeOrTypeEvent event = createEvent(219886000);
+        setId(event, 17L);
+        final LocalDateTime endTime = LocalDateTime.of(2014, 4, 27, 14, 12, 10);
+
+        final ArgumentCaptor<String> queryString = ArgumentCaptor.forClass(String.class);
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).beginTransaction();
+            oneOf(session).createQuery(with(queryString.getMatcher())); will(returnValue(query));
+            oneOf(query).setParameter("state", Event.State.PAST); will(returnValue(query));
+            oneOf(query).setParameter("endTime", endTime); will(returnValue(query));
+            oneOf(query).setLong("id", 17L); will(returnValue(query));
+            oneOf(query).executeUpdate(); will(returnValue(1));
+            allowing(session).getTransaction();
+            never(session).saveOrUpdate(with(any(Object.class)));
+            oneOf(session).close();
+        }});
+
+        eventRepository.endEvent(event, endTime);
+
+        assertEquals(Event.State.PAST, event.getState());
+        assertEquals(endTime, event.getEndTime());
+        assertTrue(queryString.getCapturedObject().toString().matches("UPDATE Event e SET e.state = :state, e.endTime = :endTime WHERE e.id = :id"));
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void writesInUnitOfWorkShareOneSessionAndTransaction() throws Exception {
+        final ShipSizeOrTypeEvent event1 = createEvent(219886000);
+        final ShipSizeOrTypeEvent event2 = createEvent(219886001);
+        setId(event1, 17L);
+        setId(event2, 18L);
+        final LocalDateTime endTime = LocalDateTime.of(2014, 4, 27, 14, 12, 10);
+
+        context.checking(new Expectations() {{
+            // One session to load the ongoing events; one for the writes
+            exactly(2).of(sessionFactory).openSession(); will(returnValue(session));
+            allowing(session).createQuery(with(any(String.class))); will(returnValue(query));
+            allowing(query).setString(with(aNonNull(String.class)), with(aNonNull(String.class)));
+            oneOf(query).list(); will(returnValue(Arrays.asList()));
+            allowing(query).setParameter(with(any(String.class)), with(any(Object.class))); will(returnValue(query));
+            allowing(query).setLong(with(any(String.class)), with(any(Long.class))); will(returnValue(query));
+            exactly(2).of(query).executeUpdate(); will(returnValue(1));
+            oneOf(session).beginTransaction();
+            allowing(session).getTransaction();
+            exactly(2).of(session).flush();
+            exactly(2).of(session).clear();
+            exactly(2).of(session).close();
+        }});
+
+        eventRepository.runInUnitOfWork(() -> {
+            eventRepository.endEvent(event1, endTime);
+            eventRepository.endEvent(event2, endTime);
+        });
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void failedWriteRollsBackUnitOfWorkAndLaterWritesUseSessionsOfTheirOwn() throws Exception {
+        final ShipSizeOrTypeEvent savedEvent = createEvent(219886000);
+        final ShipSizeOrTypeEvent endedEvent = createEvent(211235221);
+        final ShipSizeOrTypeEvent failingEvent = createEvent(219886001);
+        final ShipSizeOrTypeEvent laterEvent = createEvent(219886002);
+        setId(endedEvent, 17L);
+        setId(failingEvent, 18L);
+        setId(laterEvent, 19L);
+        final LocalDateTime endTime = LocalDateTime.of(2014, 4, 27, 14, 12, 10);
+        final Transaction transaction = context.mock(Transaction.class);
+
+        context.checking(new Expectations() {{
+            // Sessions to load the ongoing events; for the unit of work; and for the write after the failure
+            exactly(3).of(sessionFactory).openSession(); will(returnValue(session));
+            allowing(session).createQuery(with(any(String.class))); will(returnValue(query));
+            allowing(query).setString(with(aNonNull(String.class)), with(aNonNull(String.class)));
+            oneOf(query).list(); will(returnValue(Arrays.asList(endedEvent)));
+            allowing(query).setParameter(with(any(String.class)), with(any(Object.class))); will(returnValue(query));
+            allowing(query).setLong(with(any(String.class)), with(any(Long.class))); will(returnValue(query));
+            oneOf(session).saveOrUpdate(savedEvent); will(new CustomAction("generate ids") {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable {
+                    setId(savedEvent, 20L);
+                    setId(savedEvent.getBehaviour(219886000), 21L);
+                    setId(savedEvent.getBehaviour(219886000).getVessel(), 22L);
+                    return null;
+                }
+            });
+            exactly(3).of(query).executeUpdate(); will(onConsecutiveCalls(returnValue(1), throwException(new HibernateException("Transaction aborted")), returnValue(1)));
+            exactly(2).of(session).beginTransaction();
+            allowing(session).getTransaction(); will(returnValue(transaction));
+            oneOf(transaction).rollback();
+            oneOf(transaction).commit();
+            exactly(2).of(session).flush();
+            exactly(2).of(session).clear();
+            exactly(3).of(session).close();
+        }});
+
+        eventRepository.runInUnitOfWork(() -> {
+            eventRepository.save(savedEvent);
+            eventRepository.endEvent(endedEvent, endTime);
+            // Exceptions of analyses are swallowed by the event bus
+            try {
+                eventRepository.endEvent(failingEvent, endTime);
+                fail();
+            } catch (HibernateException e) {
+            }
+            eventRepository.endEvent(laterEvent, endTime);
+        });
+
+        // Writes rolled back; so the saved event is inserted again when next written
+        assertEquals(0, savedEvent.getId());
+        assertEquals(0, savedEvent.getBehaviour(219886000).getId());
+        assertEquals(0, savedEvent.getBehaviour(219886000).getVessel().getId());
+
+        // Index of ongoing events as before the unit of work
+        assertNull(eventRepository.findOngoingEventByVessel(219886000, ShipSizeOrTypeEvent.class));
+        assertSame(endedEvent, eventRepository.findOngoingEventByVessel(211235221, ShipSizeOrTypeEvent.class));
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void unitOfWorkWithoutWritesOpensNoSessionForWrites() {
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).createQuery(with(any(String.class))); will(returnValue(query));
+            allowing(query).setString(with(aNonNull(String.class)), with(aNonNull(String.class)));
+            oneOf(query).list(); will(returnValue(Arrays.asList()));
+            oneOf(session).close();
+            never(session).beginTransaction();
+        }});
+
+        eventRepository.runInUnitOfWork(() -> assertNull(eventRepository.findOngoingEventByVessel(219886000, ShipSizeOrTypeEvent.class)));
+
+        context.assertIsSatisfied();
+    }
+
+    private static void setId(Object entity, long id) throws Exception {
+        Class<?> clazz = entity.getClass();
+        while (clazz.getSuperclass() != Object.class) {
+            clazz = clazz.getSuperclass();
+        }
+        Field field = clazz.getDeclaredField("id");
+        field.setAccessible(true);
+        field.set(entity, id);
+    }
+
+    private static ShipSizeOrTypeEvent createEvent(int... mmsis) {
+        ShipSizeOrTypeEvent event = new ShipSizeOrTypeEvent();
+        event.setState(Event.State.ONGOING);
+        for (int mmsi : mmsis) {
+            Vessel vessel = new Vessel();
+            vessel.setMmsi(mmsi);
+            Behaviour behaviour = new Behaviour();
+            behaviour.setVessel(vessel);
+            event.addBehaviour(behaviour);
+        }
+        return event;
+    }
+
     @Test
     public void testFindEventsByFromAndTo() {
         final ArgumentCaptor<String> queryString = ArgumentCaptor.forClass(String.class);
@@ -138,7 +455,7 @@ public class JpaEventRepositoryTest {
 
         eventRepository.findEventsByFromAndTo(from, to);
 
-        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*(e.startTime >= :from AND e.startTime <= :to).*"));
+        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE e.suppressed=false AND e.startTime <= :to AND [(]e.startTime >= :from OR [(]e.endTime >= :from AND e.endTime <= :to[)][)].*"));
         assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*(e.endTime >= :from AND e.endTime <= :to).*"));
 
         context.assertIsSatisfied();
@@ -154,6 +471,7 @@ public class JpaEventRepositoryTest {
             oneOf(session).createQuery(with(queryString.getMatcher())); will(returnValue(query));
             allowing(query).setCacheable(with(any(Boolean.class)));
             allowing(query).setParameter(with(aNonNull(String.class)), with(aNonNull(Object.class)));
+            allowing(query).setParameterList(with(aNonNull(String.class)), with(aNonNull(Collection.class)));
             allowing(query).setString(with(aNonNull(String.class)), with(aNonNull(String.class)));
             allowing(query).setInteger(with(aNonNull(String.class)), with(aNonNull(Integer.class)));
             oneOf(query).list();
@@ -171,13 +489,161 @@ public class JpaEventRepositoryTest {
         eventRepository.findEventsByFromAndToAndTypeAndVesselAndArea(from, to, "SpeedOverGroundEvent", "vessel", 56.1, 12.1, 56.0, 12.0);
 
         assertTrue(queryString.getCapturedObject().toString().matches(".*suppressed=false.*"));
-        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*latitude<:north.*"));
-        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*latitude>:south.*"));
-        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*longitude<:east.*"));
-        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*longitude>:west.*"));
-        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*[(]e.startTime >= :from OR e.endTime >= :from[)] AND [(]e.startTime <= :to OR e.endTime <= :to[)].*"));
+        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*e.boundingBoxSouth<:north.*"));
+        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*e.boundingBoxNorth>:south.*"));
+        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*e.boundingBoxWest<:east.*"));
+        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*e.boundingBoxEast>:west.*"));
+        assertFalse(queryString.getCapturedObject().toString().contains("trackingPoints"));
+        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*[(]e.startTime >= :from OR e.endTime >= :from[)] AND e.startTime <= :to AND .*"));
         assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*TYPE[(]e[)] IN [(].*[)].*"));
-        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*b.vessel.callsign LIKE :vessel OR b.vessel.name LIKE :vessel.*"));
+        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*b.vessel.id IN [(]SELECT t.vesselId FROM VesselSearchTrigram t WHERE t.trigram IN [(]:vesselTrigrams[)].*"));
+        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*UPPER[(]b.vessel.callsign[)] LIKE :vessel OR UPPER[(]b.vessel.name[)] LIKE :vessel.*"));
+        assertEquals(1, queryString.getCapturedObject().toString().split("JOIN e.behaviours").length - 1);
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void testFindEventsByVesselNumberUsesExactMatch() {
+        final ArgumentCaptor<String> queryString = ArgumentCaptor.forClass(String.class);
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).createQuery(with(queryString.getMatcher())); will(returnValue(query));
+            oneOf(query).setParameter("vesselNumber", 219886000); will(returnValue(query));
+            oneOf(query).list();
+            oneOf(session).close();
+        }});
+
+        eventRepository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, "219886000", null, null, null, null);
+
+        assertTrue(queryString.getCapturedObject().toString().matches(".*WHERE.*[(]b.vessel.mmsi = :vesselNumber OR b.vessel.imo = :vesselNumber[)].*"));
+        assertFalse(queryString.getCapturedObject().toString().contains("LIKE"));
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void testFindEventsByVesselWithWildcardsUsesTrigramsOfLiteralParts() {
+        final ArgumentCaptor<String> queryString = ArgumentCaptor.forClass(String.class);
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).createQuery(with(queryString.getMatcher())); will(returnValue(query));
+            oneOf(query).setParameterList("vesselTrigrams", new LinkedHashSet<>(Arrays.asList("MAE", "LIN", "INE"))); will(returnValue(query));
+            oneOf(query).setParameter("vesselTrigramCount", 3L); will(returnValue(query));
+            oneOf(query).setParameter("vessel", "%MAE%RS_LINE%"); will(returnValue(query));
+            oneOf(query).list();
+            oneOf(session).close();
+        }});
+
+        eventRepository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, "Mae%rs_line", null, null, null, null);
+
+        assertTrue(queryString.getCapturedObject().toString().matches(".*HAVING COUNT[(]DISTINCT t.trigram[)] = :vesselTrigramCount.*"));
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void testFindEventsStreamsEventsInIdOrder() {
+        final ArgumentCaptor<String> queryString = ArgumentCaptor.forClass(String.class);
+        final ScrollableResults results = context.mock(ScrollableResults.class);
+        final Event event1 = new ShipSizeOrTypeEvent();
+        final Event event2 = new SpeedOverGroundEvent();
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).beginTransaction();
+            oneOf(session).createQuery(with(queryString.getMatcher())); will(returnValue(query));
+            allowing(query).setParameter(with(aNonNull(String.class)), with(aNonNull(Object.class)));
+            oneOf(query).setReadOnly(true);
+            oneOf(query).setFetchSize(with(any(Integer.class)));
+            oneOf(query).setMaxResults(10);
+            oneOf(query).scroll(ScrollMode.FORWARD_ONLY); will(returnValue(results));
+            exactly(3).of(results).next(); will(onConsecutiveCalls(returnValue(true), returnValue(true), returnValue(false)));
+            exactly(2).of(results).get(0); will(onConsecutiveCalls(returnValue(event1), returnValue(event2)));
+            oneOf(results).close();
+            allowing(session).getTransaction();
+            oneOf(session).close();
+        }});
+
+        final List<Event> events = new ArrayList<>();
+        long n = eventRepository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, null, null, null, null, null, 42L, 10, events::add);
+
+        assertEquals(2, n);
+        assertSame(event1, events.get(0));
+        assertSame(event2, events.get(1));
+        assertTrue(queryString.getCapturedObject().toString().matches("SELECT DISTINCT e FROM Event e WHERE .*e.id > :afterId.* ORDER BY e.id"));
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void testFindEventSummariesStreamsRowsInIdOrder() {
+        final ArgumentCaptor<String> queryString = ArgumentCaptor.forClass(String.class);
+        final ScrollableResults results = context.mock(ScrollableResults.class);
+        final LocalDateTime startTime = LocalDateTime.of(2014, 4, 27, 14, 12, 10);
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).beginTransaction();
+            oneOf(session).createQuery(with(queryString.getMatcher())); will(returnValue(query));
+            allowing(query).setParameter(with(aNonNull(String.class)), with(aNonNull(Object.class)));
+            oneOf(query).setReadOnly(true);
+            oneOf(query).setFetchSize(with(any(Integer.class)));
+            oneOf(query).setMaxResults(10);
+            oneOf(query).scroll(ScrollMode.FORWARD_ONLY); will(returnValue(results));
+            exactly(2).of(results).next(); will(onConsecutiveCalls(returnValue(true), returnValue(false)));
+            oneOf(results).get(); will(returnValue(new Object[] {43L, "SpeedOverGroundEvent", Event.State.PAST, startTime, null, "Title", "Description"}));
+            oneOf(results).close();
+            allowing(session).getTransaction();
+            oneOf(session).close();
+        }});
+
+        final List<EventSummary> summaries = new ArrayList<>();
+        long n = eventRepository.findEventSummariesByFromAndToAndTypeAndVesselAndArea(null, null, "SpeedOverGroundEvent", null, null, null, null, null, 42L, 10, summaries::add);
+
+        assertEquals(1, n);
+        assertEquals(43L, summaries.get(0).getId());
+        assertEquals("SpeedOverGroundEvent", summaries.get(0).getEventType());
+        assertEquals(startTime, summaries.get(0).getStartTime());
+        assertTrue(queryString.getCapturedObject().toString().matches("SELECT DISTINCT e.id, e.class, .* FROM Event e WHERE .*e.id > :afterId.* ORDER BY e.id"));
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void testFindEventLocationsReadsOnlyIdTypeStartTimeAndBoundingBox() {
+        final ArgumentCaptor<String> queryString = ArgumentCaptor.forClass(String.class);
+        final ScrollableResults results = context.mock(ScrollableResults.class);
+        final LocalDateTime startTime = LocalDateTime.of(2014, 4, 27, 14, 12, 10);
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).beginTransaction();
+            oneOf(session).createQuery(with(queryString.getMatcher())); will(returnValue(query));
+            oneOf(query).setParameter("afterId", 42L); will(returnValue(query));
+            oneOf(query).setReadOnly(true);
+            oneOf(query).setFetchSize(with(any(Integer.class)));
+            oneOf(query).scroll(ScrollMode.FORWARD_ONLY); will(returnValue(results));
+            exactly(3).of(results).next(); will(onConsecutiveCalls(returnValue(true), returnValue(true), returnValue(false)));
+            exactly(2).of(results).get(); will(onConsecutiveCalls(
+                returnValue(new Object[] {43L, "DriftEvent", startTime, 56.2, 12.2, 56.0, 12.0}),
+                returnValue(new Object[] {44L, "DriftEvent", startTime, null, null, null, null})
+            ));
+            oneOf(results).close();
+            allowing(session).getTransaction();
+            oneOf(session).close();
+        }});
+
+        final List<EventLocation> locations = new ArrayList<>();
+        assertEquals(2, eventRepository.findEventLocations(42L, locations::add));
+
+        assertEquals(43L, locations.get(0).getId());
+        assertEquals(56.1, locations.get(0).getLatitude(), 1e-9);
+        assertEquals(12.1, locations.get(0).getLongitude(), 1e-9);
+        assertFalse(locations.get(1).hasPosition());
+        assertTrue(queryString.getCapturedObject().toString().matches("SELECT e.id, e.class, e.startTime, e.boundingBoxNorth, e.boundingBoxEast, e.boundingBoxSouth, e.boundingBoxWest FROM Event e WHERE e.suppressed=false AND e.id > :afterId ORDER BY e.id"));
 
         context.assertIsSatisfied();
     }
@@ -208,7 +674,7 @@ public class JpaEventRepositoryTest {
         context.checking(new Expectations() {{
             oneOf(sessionFactory).openSession(); will(returnValue(session));
             oneOf(session).createQuery(with(queryString.getMatcher())); will(returnValue(query));
-            oneOf(query).list();
+            oneOf(query).list(); will(returnValue(Arrays.asList("CourseOverGroundEvent")));
             oneOf(session).close();
         }});
 
@@ -218,4 +684,124 @@ public class JpaEventRepositoryTest {
 
         context.assertIsSatisfied();
     }
+
+    @Test
+    public void testGetEventTypesIsCachedAndIncludesSavedEvents() {
+        final ShipSizeOrTypeEvent event = createEvent(219886000);
+        event.setState(Event.State.PAST);
+
+        context.checking(new Expectations() {{
+            exactly(2).of(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).createQuery(with(any(String.class))); will(returnValue(query));
+            oneOf(query).list(); will(returnValue(Arrays.asList("CourseOverGroundEvent")));
+            allowing(session).beginTransaction();
+            allowing(session).getTransaction();
+            oneOf(session).saveOrUpdate(event);
+            exactly(2).of(session).close();
+        }});
+
+        assertEquals(Arrays.asList("CourseOverGroundEvent"), eventRepository.getEventTypes());
+        eventRepository.save(event);
+        assertEquals(Arrays.asList("CourseOverGroundEvent", "ShipSizeOrTypeEvent"), eventRepository.getEventTypes());
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void forEachEventStartedInStreamsPastEventsOfMonthInIdOrder() {
+        final ArgumentCaptor<String> queryString = ArgumentCaptor.forClass(String.class);
+        final ScrollableResults results = context.mock(ScrollableResults.class);
+        final Event event1 = new ShipSizeOrTypeEvent();
+        final Event event2 = new SpeedOverGroundEvent();
+        final LocalDateTime endedBefore = LocalDateTime.of(2014, 6, 1, 0, 0);
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).beginTransaction();
+            oneOf(session).createQuery(with(queryString.getMatcher())); will(returnValue(query));
+            oneOf(query).setParameter("from", LocalDateTime.of(2014, 4, 1, 0, 0)); will(returnValue(query));
+            oneOf(query).setParameter("to", LocalDateTime.of(2014, 5, 1, 0, 0)); will(returnValue(query));
+            oneOf(query).setParameter("state", Event.State.PAST); will(returnValue(query));
+            oneOf(query).setParameter("endedBefore", endedBefore); will(returnValue(query));
+            oneOf(query).setReadOnly(true);
+            oneOf(query).setFetchSize(with(any(Integer.class)));
+            oneOf(query).scroll(ScrollMode.FORWARD_ONLY); will(returnValue(results));
+            exactly(3).of(results).next(); will(onConsecutiveCalls(returnValue(true), returnValue(true), returnValue(false)));
+            exactly(2).of(results).get(0); will(onConsecutiveCalls(returnValue(event1), returnValue(event2)));
+            oneOf(results).close();
+            allowing(session).getTransaction();
+            oneOf(session).close();
+        }});
+
+        final List<Event> events = new ArrayList<>();
+        long n = eventRepository.forEachEventStartedIn(YearMonth.of(2014, 4), endedBefore, events::add);
+
+        assertEquals(2, n);
+        assertEquals(Arrays.asList(event1, event2), events);
+        assertTrue(queryString.getCapturedObject().toString().matches("SELECT e FROM Event e WHERE e.startTime >= :from AND e.startTime < :to AND e.state = :state AND e.endTime < :endedBefore ORDER BY e.id"));
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void deleteEventsDeletesTheGivenEventsAndTheirSearchTrigrams() {
+        final ShipSizeOrTypeEvent event1 = createEvent(219886000);
+        final ShipSizeOrTypeEvent event2 = createEvent(211235221);
+        event1.getBehaviour(219886000).getVessel().setId(5L);
+        event2.getBehaviour(211235221).getVessel().setId(6L);
+
+        final Query deleteQuery = context.mock(Query.class, "deleteQuery");
+        final ArgumentCaptor<String> deleteQueryString = ArgumentCaptor.forClass(String.class);
+
+        context.checking(new Expectations() {{
+            oneOf(sessionFactory).openSession(); will(returnValue(session));
+            oneOf(session).beginTransaction();
+            oneOf(session).createQuery("SELECT e FROM Event e WHERE e.id IN (:ids)"); will(returnValue(query));
+            oneOf(query).setParameterList("ids", Arrays.asList(17L, 18L)); will(returnValue(query));
+            oneOf(query).list(); will(returnValue(Arrays.asList(event1, event2)));
+            oneOf(session).createQuery(with(deleteQueryString.getMatcher())); will(returnValue(deleteQuery));
+            oneOf(deleteQuery).setParameterList("vesselIds", Arrays.asList(5L, 6L)); will(returnValue(deleteQuery));
+            oneOf(deleteQuery).executeUpdate(); will(returnValue(6));
+            oneOf(session).delete(event1);
+            oneOf(session).delete(event2);
+            allowing(session).getTransaction();
+            oneOf(session).clear();
+            oneOf(session).close();
+        }});
+
+        assertEquals(2, eventRepository.deleteEvents(Arrays.asList(17L, 18L)));
+        assertTrue(deleteQueryString.getCapturedObject().toString().matches("DELETE FROM VesselSearchTrigram t WHERE t.vesselId IN [(]:vesselIds[)]"));
+
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void deleteEventsInvalidatesCachedEventTypes() {
+        final ShipSizeOrTypeEvent event = createEvent(219886000);
+        event.getBehaviour(219886000).getVessel().setId(5L);
+
+        context.checking(new Expectations() {{
+            exactly(3).of(sessionFactory).openSession(); will(returnValue(session));
+            allowing(session).createQuery(with(any(String.class))); will(returnValue(query));
+            allowing(query).setParameterList(with(any(String.class)), with(any(Collection.class))); will(returnValue(query));
+            exactly(3).of(query).list(); will(onConsecutiveCalls(
+                returnValue(Arrays.asList("ShipSizeOrTypeEvent")),
+                returnValue(Arrays.asList(event)),
+                returnValue(Arrays.asList())
+            ));
+            oneOf(query).executeUpdate(); will(returnValue(1));
+            allowing(session).beginTransaction();
+            allowing(session).getTransaction();
+            oneOf(session).delete(event);
+            oneOf(session).clear();
+            exactly(3).of(session).close();
+        }});
+
+        assertEquals(Arrays.asList("ShipSizeOrTypeEvent"), eventRepository.getEventTypes());
+        assertEquals(Arrays.asList("ShipSizeOrTypeEvent"), eventRepository.getEventTypes());
+        assertEquals(1, eventRepository.deleteEvents(Arrays.asList(17L)));
+        assertEquals(Arrays.asList(), eventRepository.getEventTypes());
+
+        context.assertIsSatisfied();
+    }
 }
@@ -0,0 +1,155 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.live;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventNotificationServerTest {
+
+    private EventNotificationServer server;
+    private EventNotificationClient client;
+
+    private final BlockingQueue<EventNotification> received = new LinkedBlockingQueue<>();
+    private final Semaphore resyncs = new Semaphore(0);
+
+    @Before
+    public void setUp() throws IOException {
+        server = new EventNotificationServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 100);
+        client = new EventNotificationClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()), received::add, resyncs::release);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void notificationCanBeWrittenAndRead() throws IOException {
+        EventNotification notification = new EventNotification(EventNotification.Kind.MAINTAINED, 42L, "SpeedOverGroundEvent", 219000001, 1398607930000L, 56.1, 12.2, "Title");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        notification.writeTo(new DataOutputStream(bytes));
+        EventNotification copy = EventNotification.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(EventNotification.Kind.MAINTAINED, copy.getKind());
+        assertEquals(42L, copy.getEventId());
+        assertEquals("SpeedOverGroundEvent", copy.getEventType());
+        assertEquals(219000001, copy.getMmsi());
+        assertEquals(1398607930000L, copy.getTimestamp());
+        assertEquals(56.1, copy.getLatitude(), 1e-9);
+        assertEquals(12.2, copy.getLongitude(), 1e-9);
+        assertEquals("Title", copy.getTitle());
+    }
+
+    @Test
+    public void notificationWithoutPositionCanBeWrittenAndRead() throws IOException {
+        EventNotification notification = new EventNotification(EventNotification.Kind.LOWERED, 43L, "DriftEvent", 219000002, 1398607930000L, null, null, null);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        notification.writeTo(new DataOutputStream(bytes));
+        EventNotification copy = EventNotification.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(EventNotification.Kind.LOWERED, copy.getKind());
+        assertNull(copy.getLatitude());
+        assertNull(copy.getLongitude());
+        assertEquals("", copy.getTitle());
+    }
+
+    @Test
+    public void subscriberReceivesPublishedNotificationsInOrder() throws Exception {
+        client.start();
+        assertTrue("Client did not connect", resyncs.tryAcquire(5, TimeUnit.SECONDS));
+        awaitSubscribers(1);
+
+        for (int i = 1; i <= 10; i++) {
+            server.accept(new EventNotification(EventNotification.Kind.RAISED, i, "DriftEvent", 219000000 + i, 1398607930000L + i, null, null, "Event " + i));
+        }
+
+        for (int i = 1; i <= 10; i++) {
+            EventNotification notification = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(notification);
+            assertEquals(i, notification.getEventId());
+            assertEquals("Event " + i, notification.getTitle());
+        }
+    }
+
+    @Test
+    public void publishingWithoutSubscribersDoesNothing() {
+        assertEquals(0, server.getNumberOfSubscribers());
+        server.accept(new EventNotification(EventNotification.Kind.RAISED, 1, "DriftEvent", 219000001, 0, null, null, null));
+    }
+
+    @Test
+    public void clientReconnectsAfterServerRestart() throws Exception {
+        client.start();
+        assertTrue("Client did not connect", resyncs.tryAcquire(5, TimeUnit.SECONDS));
+
+        final int port = server.getPort();
+        server.close();
+        server = restartServer(port);
+
+        assertTrue("Client did not reconnect", resyncs.tryAcquire(EventNotificationClient.RECONNECT_DELAY_MILLIS + 5000, TimeUnit.MILLISECONDS));
+        awaitSubscribers(1);
+
+        server.accept(new EventNotification(EventNotification.Kind.LOWERED, 7, "DriftEvent", 219000007, 0, null, null, null));
+        EventNotification notification = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(notification);
+        assertEquals(7, notification.getEventId());
+    }
+
+    /** The port may be in use until the old connections are fully closed */
+    private static EventNotificationServer restartServer(int port) throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                return new EventNotificationServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 100);
+            } catch (BindException e) {
+                if (i >= 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private void awaitSubscribers(int n) throws InterruptedException {
+        for (int i = 0; i < 500 && server.getNumberOfSubscribers() < n; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(n, server.getNumberOfSubscribers());
+    }
+}
@@ -0,0 +1,152 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.live;
+
+import dk.dma.ais.abnormal.event.db.EventRepository;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.ShipSizeOrTypeEvent;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PublishingEventRepositoryTest {
+
+    private static final LocalDateTime END_TIME = LocalDateTime.of(2014, 4, 27, 14, 12, 10);
+
+    private JUnit4Mockery context;
+    private EventRepository eventRepository;
+    private List<EventNotification> published;
+    private PublishingEventRepository publishingEventRepository;
+
+    @Before
+    public void init() {
+        context = new JUnit4Mockery();
+        eventRepository = context.mock(EventRepository.class);
+        published = new ArrayList<>();
+        publishingEventRepository = new PublishingEventRepository(eventRepository, published::add);
+    }
+
+    @Test
+    public void notificationOutsideUnitOfWorkIsPublishedAtOnce() {
+        final Event event = new ShipSizeOrTypeEvent();
+
+        context.checking(new Expectations() {{
+            oneOf(eventRepository).save(event);
+        }});
+
+        publishingEventRepository.save(event);
+
+        assertEquals(1, published.size());
+        assertEquals(EventNotification.Kind.RAISED, published.get(0).getKind());
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void notificationsOfUnitOfWorkArePublishedWhenItCompletes() {
+        final Event event1 = new ShipSizeOrTypeEvent();
+        final Event event2 = new ShipSizeOrTypeEvent();
+
+        context.checking(new Expectations() {{
+            oneOf(eventRepository).runInUnitOfWork(with(any(Runnable.class))); will(runWork());
+            oneOf(eventRepository).save(event1);
+            oneOf(eventRepository).endEvent(event2, END_TIME);
+        }});
+
+        publishingEventRepository.runInUnitOfWork(() -> {
+            publishingEventRepository.save(event1);
+            publishingEventRepository.endEvent(event2, END_TIME);
+            assertTrue(published.isEmpty());
+        });
+
+        assertEquals(2, published.size());
+        assertEquals(EventNotification.Kind.RAISED, published.get(0).getKind());
+        assertEquals(EventNotification.Kind.LOWERED, published.get(1).getKind());
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void notificationsOfFailedUnitOfWorkAreDiscarded() {
+        final Event event = new ShipSizeOrTypeEvent();
+
+        context.checking(new Expectations() {{
+            oneOf(eventRepository).runInUnitOfWork(with(any(Runnable.class))); will(runWork());
+            oneOf(eventRepository).save(event);
+        }});
+
+        try {
+            publishingEventRepository.runInUnitOfWork(() -> {
+                publishingEventRepository.save(event);
+                throw new IllegalStateException();
+            });
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        assertTrue(published.isEmpty());
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void failedWriteDiscardsNotificationsOfRolledBackWrites() {
+        final Event event1 = new ShipSizeOrTypeEvent();
+        final Event event2 = new ShipSizeOrTypeEvent();
+        final Event event3 = new ShipSizeOrTypeEvent();
+
+        context.checking(new Expectations() {{
+            oneOf(eventRepository).runInUnitOfWork(with(any(Runnable.class))); will(runWork());
+            oneOf(eventRepository).save(event1);
+            oneOf(eventRepository).endEvent(event2, END_TIME); will(throwException(new IllegalStateException("Transaction aborted")));
+            oneOf(eventRepository).endEvent(event3, END_TIME);
+        }});
+
+        publishingEventRepository.runInUnitOfWork(() -> {
+            publishingEventRepository.save(event1);
+            // Exceptions of analyses are swallowed by the event bus
+            try {
+                publishingEventRepository.endEvent(event2, END_TIME);
+                fail();
+            } catch (IllegalStateException e) {
+            }
+            publishingEventRepository.endEvent(event3, END_TIME);
+        });
+
+        assertEquals(1, published.size());
+        assertEquals(EventNotification.Kind.LOWERED, published.get(0).getKind());
+        context.assertIsSatisfied();
+    }
+
+    private static CustomAction runWork() {
+        return new CustomAction("run work") {
+            @Override
+            public Object invoke(Invocation invocation) {
+                ((Runnable) invocation.getParameter(0)).run();
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,233 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.log;
+
+import dk.dma.ais.abnormal.event.db.EventRepository;
+import dk.dma.ais.abnormal.event.db.domain.Behaviour;
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.SuddenSpeedChangeEvent;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import dk.dma.ais.abnormal.event.db.domain.Vessel;
+import dk.dma.ais.abnormal.event.db.jpa.JpaEventRepository;
+import dk.dma.ais.abnormal.event.db.jpa.JpaSessionFactoryFactory;
+import org.hibernate.SessionFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the log based event repository with the H2 based one. The same generated events are written to
+ * both; then each repository is reopened, and its startup time, the heap it retains and the latency of a
+ * mix of queries are printed. The queries must return the same no. of events from both repositories.
+ *
+ * Run with: mvn -Dtest=LogEventRepositoryComparisonIT -Dcomparison.events=100000 test
+ */
+public class LogEventRepositoryComparisonIT {
+
+    static final int EVENTS = Integer.getInteger("comparison.events", 100000);
+    static final int QUERIES = Integer.getInteger("comparison.queries", 200);
+    static final int TRACKING_POINTS_PER_EVENT = 10;
+
+    static final LocalDateTime T0 = LocalDateTime.of(2017, 1, 1, 0, 0, 0);
+
+    @Test
+    public void compareWithH2() throws IOException {
+        Path dir = Files.createTempDirectory("events");
+        Path logFile = dir.resolve("events.log");
+        File h2File = dir.resolve("events").toFile();
+
+        try {
+            long[] logIds = populateLog(logFile);
+            long[] h2Ids = populateH2(h2File);
+
+            long[] logCounts = measure("log", logIds, () -> {
+                try {
+                    return new LogEventRepository(logFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            SessionFactory[] h2SessionFactory = new SessionFactory[1];
+            long[] h2Counts = measure("h2", h2Ids, () -> {
+                h2SessionFactory[0] = JpaSessionFactoryFactory.newH2SessionFactory(h2File);
+                return new JpaEventRepository(h2SessionFactory[0], true);
+            });
+            h2SessionFactory[0].close();
+
+            assertEquals(Arrays.toString(h2Counts), Arrays.toString(logCounts));
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                files.forEach(file -> file.toFile().delete());
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /**
+     * @return the ids of the saved events.
+     */
+    private static long[] populateLog(Path logFile) throws IOException {
+        LogEventRepository repository = new LogEventRepository(logFile);
+        Event[] events = populate(repository);
+        repository.close();
+        return idsOf(events);
+    }
+
+    /**
+     * @return the ids of the saved events.
+     */
+    private static long[] populateH2(File h2File) {
+        SessionFactory sessionFactory = JpaSessionFactoryFactory.newH2SessionFactory(h2File);
+        JpaEventRepository repository = new JpaEventRepository(sessionFactory, 1000, 1000);
+        Event[] events = populate(repository);
+        repository.close();
+        sessionFactory.close();
+        return idsOf(events);
+    }
+
+    /**
+     * Open a repository and print its startup time, retained heap and query latencies.
+     *
+     * @param ids the ids of the saved events.
+     * @return the no. of events found by each kind of query.
+     */
+    private static long[] measure(String name, long[] ids, Supplier<EventRepository> opener) throws IOException {
+        long heapBefore = usedHeap();
+        long t0 = System.nanoTime();
+        EventRepository repository = opener.get();
+        long startupMillis = (System.nanoTime() - t0) / 1000000;
+        long heapAfter = usedHeap();
+
+        String[] queries = { "getEvent", "from/to (1 day)", "area (1x1 deg)", "vessel MMSI", "vessel name", "recent (100)" };
+        long[][] nanos = new long[queries.length][QUERIES];
+        long[] counts = new long[queries.length];
+
+        Random random = new Random(42);
+        for (int i = 0; i < QUERIES; i++) {
+            Date from = toDate(T0.plusMinutes(random.nextInt(EVENTS)));
+            Date to = new Date(from.getTime() + 24 * 3600 * 1000L);
+            double south = 54 + random.nextInt(4), west = 8 + random.nextInt(6);
+            int mmsi = 219000000 + random.nextInt(EVENTS / 10 + 1);
+            long id = ids[random.nextInt(EVENTS)];
+
+            counts[0] += time(nanos[0], i, () -> repository.getEvent(id) == null ? 0 : 1);
+            counts[1] += time(nanos[1], i, () -> repository.findEventsByFromAndTo(from, to).size());
+            counts[2] += time(nanos[2], i, () -> repository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, null, south + 1, west + 1, south, west, null, 100).size());
+            counts[3] += time(nanos[3], i, () -> repository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, String.valueOf(mmsi), null, null, null, null).size());
+            counts[4] += time(nanos[4], i, () -> repository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, "VESSEL " + mmsi % 1000, null, null, null, null, null, 100).size());
+            counts[5] += time(nanos[5], i, () -> repository.findRecentEvents(100).size());
+        }
+
+        System.out.println(String.format("%s: %d events; startup %d msecs; heap retained %d MB", name, EVENTS, startupMillis, Math.max(0, heapAfter - heapBefore) / (1024 * 1024)));
+        for (int q = 0; q < queries.length; q++) {
+            Arrays.sort(nanos[q]);
+            System.out.println(String.format("     %-20s p50 %8.2f  p99 %8.2f  max %8.2f msecs; %d events found", queries[q], nanos[q][QUERIES / 2] / 1e6, nanos[q][QUERIES * 99 / 100] / 1e6, nanos[q][QUERIES - 1] / 1e6, counts[q]));
+        }
+
+        if (repository instanceof LogEventRepository) {
+            ((LogEventRepository) repository).close();
+        }
+        return counts;
+    }
+
+    private static long time(long[] nanos, int i, Supplier<Integer> query) {
+        long t0 = System.nanoTime();
+        int n = query.get();
+        nanos[i] = System.nanoTime() - t0;
+        return n;
+    }
+
+    /**
+     * Save EVENTS events; each with one vessel and TRACKING_POINTS_PER_EVENT tracking points in Danish waters.
+     * One event starts every minute, and there are EVENTS / 10 distinct vessels.
+     *
+     * @return the events; which have their ids once written by the repository.
+     */
+    private static Event[] populate(EventRepository repository) {
+        Event[] events = new Event[EVENTS];
+        Random random = new Random(7);
+        for (int i = 0; i < EVENTS; i++) {
+            int mmsi = 219000000 + random.nextInt(EVENTS / 10 + 1);
+
+            Vessel vessel = new Vessel();
+            vessel.setMmsi(mmsi);
+            vessel.setName("VESSEL " + mmsi % 1000);
+            vessel.setCallsign("OW" + mmsi % 10000);
+
+            Behaviour behaviour = new Behaviour();
+            behaviour.setPrimary(true);
+            behaviour.setVessel(vessel);
+
+            LocalDateTime startTime = T0.plusMinutes(i);
+            double latitude = 54 + 4 * random.nextDouble(), longitude = 8 + 6 * random.nextDouble();
+            for (int j = 0; j < TRACKING_POINTS_PER_EVENT; j++) {
+                TrackingPoint trackingPoint = new TrackingPoint();
+                trackingPoint.setTimestamp(startTime.plusSeconds(10 * j));
+                trackingPoint.setLatitude(latitude + 0.001 * j);
+                trackingPoint.setLongitude(longitude + 0.001 * j);
+                trackingPoint.setSpeedOverGround(12.5f);
+                trackingPoint.setCourseOverGround(45f);
+                trackingPoint.setTrueHeading(46f);
+                trackingPoint.setPositionInterpolated(false);
+                trackingPoint.setEventCertainty(TrackingPoint.EventCertainty.RAISED);
+                behaviour.addTrackingPoint(trackingPoint);
+            }
+
+            Event event = new SuddenSpeedChangeEvent();
+            event.setState(Event.State.PAST);
+            event.setStartTime(startTime);
+            event.setEndTime(startTime.plusMinutes(2));
+            event.setTitle("Sudden speed change of " + vessel.getName());
+            event.setDescription("Generated");
+            event.addBehaviour(behaviour);
+            repository.save(event);
+            events[i] = event;
+        }
+        return events;
+    }
+
+    private static long[] idsOf(Event[] events) {
+        return Arrays.stream(events).mapToLong(Event::getId).toArray();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Date toDate(LocalDateTime time) {
+        return Date.from(time.toInstant(ZoneOffset.UTC));
+    }
+
+}
@@ -0,0 +1,180 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.event.db.log;
+
+import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.SuddenSpeedChangeEvent;
+import dk.dma.ais.abnormal.event.db.domain.TrackingPoint;
+import dk.dma.ais.abnormal.event.db.domain.builders.SuddenSpeedChangeEventBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LogEventRepositoryTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2017, 1, 22, 10, 0, 0);
+
+    private Path file;
+    private LogEventRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("events", ".log");
+        repository = new LogEventRepository(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        repository.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void saveAssignsIdsAndEventsCanBeReadBack() {
+        Event event1 = createEvent(123456789, "Pilot Vessel", T0);
+        Event event2 = createEvent(987654321, "Ferry", T0.plusHours(1));
+        repository.save(event1);
+        repository.save(event2);
+
+        assertEquals(1L, event1.getId());
+        assertEquals(2L, event2.getId());
+
+        Event copy = repository.getEvent(2L);
+        assertTrue(copy instanceof SuddenSpeedChangeEvent);
+        assertEquals(2L, copy.getId());
+        assertEquals("Ferry", copy.primaryBehaviour().getVessel().getName());
+        assertNull(repository.getEvent(3L));
+    }
+
+    @Test
+    public void appendedTrackingPointsAndEndSurviveReopen() throws IOException {
+        Event event = createEvent(123456789, "Pilot Vessel", T0);
+        repository.save(event);
+        repository.appendTrackingPoint(event, 123456789, createTrackingPoint(T0.plusSeconds(10), 57.0, 13.0));
+        assertSame(event, repository.findOngoingEventByVessel(123456789, SuddenSpeedChangeEvent.class));
+        repository.endEvent(event, T0.plusMinutes(5));
+        assertNull(repository.findOngoingEventByVessel(123456789, SuddenSpeedChangeEvent.class));
+
+        repository.close();
+        repository = new LogEventRepository(file);
+
+        Event copy = repository.getEvent(event.getId());
+        assertEquals(Event.State.PAST, copy.getState());
+        assertEquals(T0.plusMinutes(5), copy.getEndTime());
+        assertEquals(2, copy.primaryBehaviour().getTrackingPoints().size());
+        assertEquals(57.0, copy.getBoundingBoxNorth(), 1e-9);
+
+        List<Event> found = repository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, null, 57.5, 13.5, 56.5, 12.5);
+        assertEquals(1, found.size());
+
+        repository.save(createEvent(987654321, "Ferry", T0.plusHours(1)));
+        assertEquals(event.getId() + 1, repository.findRecentEvents(1).get(0).getId());
+    }
+
+    @Test
+    public void ongoingEventsAreLoadedOnReopen() throws IOException {
+        repository.save(createEvent(123456789, "Pilot Vessel", T0));
+        repository.close();
+        repository = new LogEventRepository(file);
+
+        assertNotNull(repository.findOngoingEventByVessel(123456789, SuddenSpeedChangeEvent.class));
+    }
+
+    @Test
+    public void incompleteRecordIsTruncatedOnReopen() throws IOException {
+        repository.save(createEvent(123456789, "Pilot Vessel", T0));
+        repository.close();
+
+        long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0, 0, 1, 0, 1, 2}));
+        }
+
+        repository = new LogEventRepository(file);
+        assertEquals(size, Files.size(file));
+        assertNotNull(repository.getEvent(1L));
+    }
+
+    @Test
+    public void findByVesselAndTimeAndType() {
+        repository.save(createEvent(123456789, "Pilot Vessel", T0));
+        repository.save(createEvent(987654321, "Ferry", T0.plusDays(1)));
+
+        assertEquals(1, repository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, "123456789", null, null, null, null).size());
+        assertEquals(1, repository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, "pilot", null, null, null, null).size());
+        assertEquals(0, repository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, "12345", null, null, null, null).size());
+        assertEquals(2, repository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, "SuddenSpeedChangeEvent", null, null, null, null, null).size());
+        assertEquals(0, repository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, "CourseOverGroundEvent", null, null, null, null, null).size());
+
+        Date from = Date.from(T0.plusHours(12).toInstant(ZoneOffset.UTC));
+        List<Event> found = repository.findEventsByFromAndToAndTypeAndVesselAndArea(from, null, null, null, null, null, null, null);
+        assertEquals(1, found.size());
+        assertEquals(2L, found.get(0).getId());
+
+        assertEquals(1, repository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, null, null, null, null, null, 1L, 0).size());
+        assertEquals(1, repository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, null, null, null, null, null, null, null, 1).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findByUnknownTypeIsRejected() {
+        repository.findEventsByFromAndToAndTypeAndVesselAndArea(null, null, "NoSuchEvent", null, null, null, null, null);
+    }
+
+    private static Event createEvent(int mmsi, String name, LocalDateTime startTime) {
+        return SuddenSpeedChangeEventBuilder.SuddenSpeedChangeEvent()
+            .title("title")
+            .description("description")
+            .state(Event.State.ONGOING)
+            .startTime(startTime)
+            .behaviour()
+                .isPrimary(true)
+                .vessel()
+                    .mmsi(mmsi)
+                    .name(name)
+                .trackingPoint()
+                    .timestamp(startTime)
+                    .latitude(56.0)
+                    .longitude(12.0)
+            .getEvent();
+    }
+
+    private static TrackingPoint createTrackingPoint(LocalDateTime timestamp, double latitude, double longitude) {
+        TrackingPoint trackingPoint = new TrackingPoint();
+        trackingPoint.setTimestamp(timestamp);
+        trackingPoint.setLatitude(latitude);
+        trackingPoint.setLongitude(longitude);
+        return trackingPoint;
+    }
+
+}
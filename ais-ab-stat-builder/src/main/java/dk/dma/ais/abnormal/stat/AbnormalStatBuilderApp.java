@@ -23,6 +23,7 @@ import com.google.inject.Injector;
 import dk.dma.ais.abnormal.application.ApplicationSupport;
 import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
 import dk.dma.ais.abnormal.stat.db.data.DatasetMetaData;
+import dk.dma.ais.abnormal.stat.telemetry.TelemetryExporter;
 import dk.dma.ais.concurrency.stripedexecutor.StripedExecutorService;
 import dk.dma.ais.reader.AisReader;
 import dk.dma.commons.app.AbstractDaemon;
@@ -70,6 +71,9 @@ public final class AbnormalStatBuilderApp extends AbstractDaemon {
     @Inject
     private StripedExecutorService executorService;
 
+    @Inject
+    private TelemetryExporter telemetryExporter;
+
     static UserArguments userArguments;
 
     @Override
@@ -85,6 +89,7 @@ public final class AbnormalStatBuilderApp extends AbstractDaemon {
         statisticsRepository.putMetaData(metadata);
         statisticsService.start();
         progressIndicator.start();
+        telemetryExporter.start();
 
         reader.registerPacketHandler(packetHandler);
         reader.start();
@@ -98,6 +103,7 @@ public final class AbnormalStatBuilderApp extends AbstractDaemon {
             shutdown = executorService.awaitTermination(1, TimeUnit.MINUTES);
         } while(!shutdown);
         LOG.info("All worker tasks completed.");
+        telemetryExporter.shutdown();
 
         statisticsService.dumpStatistics();
 
@@ -161,7 +167,7 @@ public final class AbnormalStatBuilderApp extends AbstractDaemon {
             jCommander.setProgramName("AbnormalStatBuilderApp");
             jCommander.usage();
         } else {
-            Injector injector = Guice.createInjector(new AbnormalStatBuilderAppModule(userArguments.getOutputFilename(), userArguments.getInputDirectory(), userArguments.getInputFilenamePattern(), userArguments.isRecursive(), userArguments.getGridSize(), userArguments.getDownSampling()));
+            Injector injector = Guice.createInjector(new AbnormalStatBuilderAppModule(userArguments.getOutputFilename(), userArguments.getInputDirectory(), userArguments.getInputFilenamePattern(), userArguments.isRecursive(), userArguments.getGridSize(), userArguments.getDownSampling(), userArguments.getNumberOfThreads(), userArguments.getNumberOfStripes(), userArguments.isAutoTune(), userArguments.getTelemetryFilename(), userArguments.getTelemetryInterval(), userArguments.getCheckpointPeriod(), userArguments.isResume()));
             AbnormalStatBuilderApp.setInjector(injector);
             AbnormalStatBuilderApp app = injector.getInstance(AbnormalStatBuilderApp.class);
             app.execute(new String[]{} /* no cmd args - we handled them already */ );
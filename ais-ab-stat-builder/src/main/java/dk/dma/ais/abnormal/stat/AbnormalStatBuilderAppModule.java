@@ -24,6 +24,8 @@ import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
 import dk.dma.ais.abnormal.stat.db.mapdb.StatisticDataRepositoryMapDB;
 import dk.dma.ais.abnormal.stat.statistics.CourseOverGroundStatistic;
 import dk.dma.ais.abnormal.stat.statistics.ShipTypeAndSizeStatistic;
+import dk.dma.ais.abnormal.stat.telemetry.BuildTelemetry;
+import dk.dma.ais.abnormal.stat.telemetry.TelemetryExporter;
 import dk.dma.ais.concurrency.stripedexecutor.StripedExecutorService;
 import dk.dma.ais.filter.ReplayDownSampleFilter;
 import dk.dma.ais.reader.AisReader;
@@ -52,14 +54,30 @@ public final class AbnormalStatBuilderAppModule extends AbstractModule {
     private final boolean inputRecursive;
     private final Integer gridSize;
     private final Integer downSampling;
+    private final Integer numberOfThreads;
+    private final Integer numberOfStripes;
+    private final boolean autoTune;
+    private final String telemetryFilename;
+    private final Integer telemetryInterval;
+    private final Integer checkpointPeriod;
+    private final boolean resume;
 
-    public AbnormalStatBuilderAppModule(String outputFilename, String inputDirectory, String inputFilenamePattern, boolean inputRecursive, Integer gridSize, Integer downSampling) {
+    private BuildCheckpoint resumeFrom;
+
+    public AbnormalStatBuilderAppModule(String outputFilename, String inputDirectory, String inputFilenamePattern, boolean inputRecursive, Integer gridSize, Integer downSampling, Integer numberOfThreads, Integer numberOfStripes, boolean autoTune, String telemetryFilename, Integer telemetryInterval, Integer checkpointPeriod, boolean resume) {
         this.outputFilename = outputFilename;
         this.inputDirectory = inputDirectory;
         this.inputFilenamePattern = inputFilenamePattern;
         this.inputRecursive = inputRecursive;
         this.gridSize = gridSize;
         this.downSampling = downSampling;
+        this.numberOfThreads = numberOfThreads;
+        this.numberOfStripes = numberOfStripes;
+        this.autoTune = autoTune;
+        this.telemetryFilename = telemetryFilename;
+        this.telemetryInterval = telemetryInterval;
+        this.checkpointPeriod = checkpointPeriod;
+        this.resume = resume;
     }
 
     @Override
@@ -68,9 +86,9 @@ public final class AbnormalStatBuilderAppModule extends AbstractModule {
                 .implement(PacketHandler.class, PacketHandlerImpl.class)
                 .build(PacketHandlerFactory.class));
 
-        bind(StripedExecutorService.class).in(Singleton.class);
         bind(AbnormalStatBuilderApp.class).in(Singleton.class);
         bind(ProgressIndicator.class).in(Singleton.class);
+        bind(BuildTelemetry.class).in(Singleton.class);
         bind(AppStatisticsService.class).to(AppStatisticsServiceImpl.class).in(Singleton.class);
         bind(dk.dma.ais.abnormal.application.statistics.AppStatisticsService.class).to(AppStatisticsServiceImpl.class).in(Singleton.class);
         bind(ShipTypeAndSizeStatistic.class);
@@ -129,7 +147,11 @@ public final class AbnormalStatBuilderAppModule extends AbstractModule {
         StatisticDataRepository statisticsRepository = null;
         try {
             statisticsRepository = new StatisticDataRepositoryMapDB(outputFilename);
-            statisticsRepository.openForWrite(true);
+            if (resume) {
+                resumeFrom = (BuildCheckpoint) statisticsRepository.openForResume();
+            } else {
+                statisticsRepository.openForWrite(true);
+            }
             LOG.info("Opened statistic set database with filename '" + outputFilename + "'.");
         } catch (Exception e) {
             LOG.error("Failed to create StatisticDataRepository object", e);
@@ -137,6 +159,31 @@ public final class AbnormalStatBuilderAppModule extends AbstractModule {
         return statisticsRepository;
     }
 
+    @Provides
+    @Singleton
+    StripedExecutorService provideStripedExecutorService() {
+        LOG.info("Creating executor service with " + numberOfThreads + " worker threads.");
+        return new StripedExecutorService(numberOfThreads);
+    }
+
+    @Provides
+    @Singleton
+    StripeTuner provideStripeTuner() {
+        return new StripeTuner(numberOfThreads, numberOfStripes, autoTune);
+    }
+
+    @Provides
+    @Singleton
+    TelemetryExporter provideTelemetryExporter(BuildTelemetry telemetry, StripedExecutorService executorService) {
+        return new TelemetryExporter(telemetry, executorService, telemetryFilename, telemetryInterval);
+    }
+
+    @Provides
+    @Singleton
+    Checkpointer provideCheckpointer(StatisticDataRepository statisticsRepository) {
+        return new Checkpointer(statisticsRepository, checkpointPeriod, resumeFrom, inputDirectory, inputFilenamePattern);
+    }
+
     @Provides
     @Singleton
     AisReader provideAisReader() {
@@ -17,10 +17,12 @@ package dk.dma.ais.abnormal.stat;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import dk.dma.ais.abnormal.stat.telemetry.BuildTelemetry;
 import dk.dma.ais.concurrency.stripedexecutor.StripedExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -37,6 +39,12 @@ public final class AppStatisticsServiceImpl extends dk.dma.ais.abnormal.applicat
     @Inject
     private StripedExecutorService executorService;
 
+    @Inject
+    private StripeTuner stripeTuner;
+
+    @Inject
+    private BuildTelemetry telemetry;
+
     private Map<String, HashMap<String, Long>> allStatisticStatistics = new ConcurrentHashMap<>();
 
     public AppStatisticsServiceImpl() {
@@ -79,6 +87,18 @@ public final class AppStatisticsServiceImpl extends dk.dma.ais.abnormal.applicat
         LOG.info(String.format("%-30s %s", "Executor isShutdown", executorService.isShutdown()));
         LOG.info(String.format("%-30s %s", "Executor isTerminated", executorService.isTerminated()));
         LOG.info(String.format("%-30s %9d", "Executor no. of threads", executorService.numberOfExecutors()));
+        LOG.info(String.format("%-30s %9d", "Worker threads", stripeTuner.getNumberOfThreads()));
+        LOG.info(String.format("%-30s %9d", "Stripes", stripeTuner.getNumberOfStripes()));
+        LOG.info(String.format("%-30s %s", "Stripes auto-tuning", stripeTuner.isTuning() ? "in progress" : "no"));
+        for (String trialResult : stripeTuner.getTrialResults()) {
+            LOG.info(String.format("%-30s %s", "Stripes trial", trialResult));
+        }
+        long[] completedTasksPerStripe = stripeTuner.getCompletedTasksPerStripe();
+        for (int i = 0; i < completedTasksPerStripe.length; i++) {
+            if (completedTasksPerStripe[i] > 0) {
+                LOG.info(String.format("%-30s %9d", "Tasks completed, stripe " + i, completedTasksPerStripe[i]));
+            }
+        }
         Map<String,Integer> queueSizes = executorService.serialExecutorQueueSizes();
         for (Map.Entry<String,Integer> queueSize : queueSizes.entrySet()) {
             LOG.info(String.format("%-30s %9d", "Queue size, thread " + queueSize.getKey(), queueSize.getValue()));
@@ -98,5 +118,9 @@ public final class AppStatisticsServiceImpl extends dk.dma.ais.abnormal.applicat
 
         }
         LOG.info("==== Stat builder statistic statistics ====");
+
+        LOG.info("==== Stat builder telemetry ====");
+        telemetry.snapshot(Collections.emptyMap()).forEach((name, value) -> LOG.info(String.format("%-50s %s", name, value)));
+        LOG.info("==== Stat builder telemetry ====");
     }
 }
@@ -0,0 +1,80 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.ais.abnormal.stat;
+
+import net.jcip.annotations.Immutable;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * The state of a statistics build at the time of a checkpoint. It is stored
+ * together with the statistic data snapshot and used to resume the build.
+ */
+@Immutable
+public final class BuildCheckpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** No. of packets received from the reader when the checkpoint was taken */
+    private final long packetCount;
+
+    /** Timestamp of the last packet processed before the checkpoint was taken */
+    private final long lastPacketTimestamp;
+
+    private final String inputDirectory;
+    private final String inputFilenamePattern;
+    private final long created;
+
+    public BuildCheckpoint(long packetCount, long lastPacketTimestamp, String inputDirectory, String inputFilenamePattern) {
+        this.packetCount = packetCount;
+        this.lastPacketTimestamp = lastPacketTimestamp;
+        this.inputDirectory = inputDirectory;
+        this.inputFilenamePattern = inputFilenamePattern;
+        this.created = System.currentTimeMillis();
+    }
+
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    public long getLastPacketTimestamp() {
+        return lastPacketTimestamp;
+    }
+
+    public String getInputDirectory() {
+        return inputDirectory;
+    }
+
+    public String getInputFilenamePattern() {
+        return inputFilenamePattern;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    @Override
+    public String toString() {
+        return "BuildCheckpoint{" +
+                "packetCount=" + packetCount +
+                ", lastPacketTimestamp=" + new Date(lastPacketTimestamp) +
+                ", inputDirectory='" + inputDirectory + '\'' +
+                ", inputFilenamePattern='" + inputFilenamePattern + '\'' +
+                ", created=" + new Date(created) +
+                '}';
+    }
+}
@@ -0,0 +1,121 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.ais.abnormal.stat;
+
+import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
+import net.jcip.annotations.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Checkpointer decides when to write checkpoints of a running statistics build, and
+ * where in the input a resumed build shall continue.
+ *
+ * The position in the input is recorded as the number of packets received from the reader.
+ * A resumed build skips that many packets; except those received within WARM_UP_PERIOD_MINUTES
+ * before the checkpoint, which are replayed through the tracker (but not the statistics) to rebuild
+ * the tracker state.
+ *
+ * Intended to be called from the reader thread only.
+ */
+@NotThreadSafe
+public class Checkpointer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Checkpointer.class);
+
+    static final int WARM_UP_PERIOD_MINUTES = 30;
+
+    private final StatisticDataRepository statisticsRepository;
+    private final long checkpointPeriodMillis;
+    private final BuildCheckpoint resumeFrom;
+    private final String inputDirectory;
+    private final String inputFilenamePattern;
+
+    private long nextCheckpoint;
+
+    /**
+     * @param statisticsRepository the repository to checkpoint.
+     * @param checkpointPeriodMinutes minutes between checkpoints; 0 to disable checkpoints.
+     * @param resumeFrom the checkpoint from which the build is resumed; or null if not resumed.
+     * @param inputDirectory input directory of this build.
+     * @param inputFilenamePattern input file pattern of this build.
+     */
+    public Checkpointer(StatisticDataRepository statisticsRepository, int checkpointPeriodMinutes, BuildCheckpoint resumeFrom, String inputDirectory, String inputFilenamePattern) {
+        this.statisticsRepository = statisticsRepository;
+        this.checkpointPeriodMillis = TimeUnit.MINUTES.toMillis(checkpointPeriodMinutes);
+        this.resumeFrom = resumeFrom;
+        this.inputDirectory = inputDirectory;
+        this.inputFilenamePattern = inputFilenamePattern;
+        this.nextCheckpoint = System.currentTimeMillis() + checkpointPeriodMillis;
+
+        if (checkpointPeriodMillis > 0) {
+            LOG.info("Checkpoints will be written every " + checkpointPeriodMinutes + " minutes.");
+        } else {
+            LOG.info("Checkpoints are disabled.");
+        }
+
+        if (resumeFrom != null) {
+            LOG.info("Resuming build from " + resumeFrom + ".");
+            if (! Objects.equals(inputDirectory, resumeFrom.getInputDirectory()) || ! Objects.equals(inputFilenamePattern, resumeFrom.getInputFilenamePattern())) {
+                LOG.warn("Input of resumed build (" + inputDirectory + ", " + inputFilenamePattern + ") differs from input at checkpoint. Statistics may be wrong.");
+            }
+        }
+    }
+
+    /**
+     * Return the checkpoint from which this build is resumed; or null if not resumed.
+     */
+    public BuildCheckpoint getResumeFrom() {
+        return resumeFrom;
+    }
+
+    /**
+     * Return true if the packet with the given (1-based) sequence no. was processed before the checkpoint
+     * from which this build is resumed.
+     */
+    public boolean isBeforeResumePosition(long packetNo) {
+        return resumeFrom != null && packetNo <= resumeFrom.getPacketCount();
+    }
+
+    /**
+     * Return true if a packet with the given timestamp is in the period before the resume position
+     * used to warm up the tracker.
+     */
+    public boolean isInWarmUpPeriod(long packetTimestamp) {
+        return resumeFrom != null && packetTimestamp >= resumeFrom.getLastPacketTimestamp() - TimeUnit.MINUTES.toMillis(WARM_UP_PERIOD_MINUTES);
+    }
+
+    public boolean isCheckpointDue() {
+        return checkpointPeriodMillis > 0 && System.currentTimeMillis() >= nextCheckpoint;
+    }
+
+    /**
+     * Write a checkpoint. The caller must ensure that all packets up to and including packetCount
+     * have been fully processed, and that no statistics are updated while the checkpoint is written.
+     *
+     * @param packetCount the number of packets received from the reader so far.
+     * @param lastPacketTimestamp timestamp of the last received packet.
+     */
+    public void checkpoint(long packetCount, long lastPacketTimestamp) {
+        LOG.info("Writing checkpoint after " + packetCount + " packets.");
+        statisticsRepository.writeCheckpoint(new BuildCheckpoint(packetCount, lastPacketTimestamp, inputDirectory, inputFilenamePattern));
+        nextCheckpoint = System.currentTimeMillis() + checkpointPeriodMillis;
+    }
+
+}
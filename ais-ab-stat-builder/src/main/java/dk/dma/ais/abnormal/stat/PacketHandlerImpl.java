@@ -23,6 +23,8 @@ import dk.dma.ais.abnormal.stat.statistics.CourseOverGroundStatistic;
 import dk.dma.ais.abnormal.stat.statistics.ShipTypeAndSizeStatistic;
 import dk.dma.ais.abnormal.stat.statistics.SpeedOverGroundStatistic;
 import dk.dma.ais.abnormal.stat.statistics.TrackingEventListener;
+import dk.dma.ais.abnormal.stat.telemetry.BuildTelemetry;
+import dk.dma.ais.abnormal.stat.telemetry.BuildTelemetry.Stage;
 import dk.dma.ais.concurrency.stripedexecutor.StripedExecutorService;
 import dk.dma.ais.filter.ReplayDownSampleFilter;
 import dk.dma.ais.message.AisMessage;
@@ -37,6 +39,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Handler for read AIS packets
@@ -49,16 +52,29 @@ public class PacketHandlerImpl implements PacketHandler {
     private EventEmittingTracker trackingService;
     private ReplayDownSampleFilter downSampleFilter;
     private StripedExecutorService workerThreads;
+    private Checkpointer checkpointer;
+    private StripeTuner stripeTuner;
+    private BuildTelemetry telemetry;
     private final boolean multiThreaded;
 
+    /** The stripe objects tasks are assigned to. Only accessed by the reader thread. */
+    private Object[] stripes;
+    private long submittedTasks;
+
+    private static final int TUNING_SAMPLE_INTERVAL = 10000;
+
     private volatile boolean cancel;
 
+    /** No. of packets received from the reader. Only accessed by the reader thread. */
+    private long packetCount;
+    private long lastPacketTimestamp;
+
     private Set<TrackingEventListener> statistics;
 
     private static final int NUMBER_OF_CORES = Runtime.getRuntime().availableProcessors();
 
     @Inject
-    public PacketHandlerImpl(AppStatisticsService statisticsService, EventEmittingTracker trackingService, ReplayDownSampleFilter downSampleFilter, StripedExecutorService executorService, @Assisted boolean multiThreaded) {
+    public PacketHandlerImpl(AppStatisticsService statisticsService, EventEmittingTracker trackingService, ReplayDownSampleFilter downSampleFilter, StripedExecutorService executorService, Checkpointer checkpointer, StripeTuner stripeTuner, BuildTelemetry telemetry, @Assisted boolean multiThreaded) {
         LOG.debug("Detected " + NUMBER_OF_CORES + " CPU cores.");
         LOG.info("Creating " + (multiThreaded ? "multi threaded ":"single threaded ")+ "AIS packet handler.");
 
@@ -66,9 +82,17 @@ public class PacketHandlerImpl implements PacketHandler {
         this.trackingService = trackingService;
         this.downSampleFilter = downSampleFilter;
         this.workerThreads = executorService;
+        this.checkpointer = checkpointer;
+        this.stripeTuner = stripeTuner;
+        this.telemetry = telemetry;
         this.multiThreaded = multiThreaded;
+        this.stripes = createStripes(stripeTuner.getNumberOfStripes());
 
-        initStatistics();
+        if (checkpointer.getResumeFrom() == null) {
+            initStatistics();
+        } else {
+            LOG.info("Statistics will be started when resume position is reached.");
+        }
     }
 
     @Override
@@ -81,11 +105,29 @@ public class PacketHandlerImpl implements PacketHandler {
             return;
         }
 
+        final long packetNo = ++packetCount;
+        if (checkpointer.isBeforeResumePosition(packetNo)) {
+            warmUp(packet);
+            return;
+        } else if (statistics == null) {
+            LOG.info("Resume position reached after " + (packetNo - 1) + " packets.");
+            awaitWorkerThreads();
+            initStatistics();
+        }
+
+        if (checkpointer.isCheckpointDue()) {
+            awaitWorkerThreads();
+            checkpointer.checkpoint(packetNo - 1, lastPacketTimestamp);
+        }
+
         statisticsService.incUnfilteredPacketCount();
+        telemetry.count(Stage.READ);
         if (downSampleFilter.rejectedByFilter(packet)) {
             return;
         }
         statisticsService.incFilteredPacketCount();
+        telemetry.count(Stage.FILTER);
+        lastPacketTimestamp = packet.getBestTimestamp();
 
         long n = statisticsService.getFilteredPacketCount();
         if (n % 100000L == 0) {
@@ -98,6 +140,7 @@ public class PacketHandlerImpl implements PacketHandler {
             return;
         }
         statisticsService.incMessageCount();
+        telemetry.count(Stage.DECODE);
 
         if (message instanceof IPositionMessage) {
             statisticsService.incPosMsgCount();
@@ -106,13 +149,93 @@ public class PacketHandlerImpl implements PacketHandler {
         }
 
         if (multiThreaded) {
-            Object stripe = assignStripe(message);
-            workerThreads.submit(new Task(packet, stripe));
+            submit(packet, message);
         } else {
             doWork(packet);
         }
     }
 
+    private void submit(AisPacket packet, AisMessage message) {
+        final int stripe = assignStripe(message);
+        workerThreads.submit(new Task(packet, stripe, stripes[stripe]));
+
+        if (stripeTuner.isTuning() && ++submittedTasks % TUNING_SAMPLE_INTERVAL == 0) {
+            if (stripeTuner.update(System.currentTimeMillis(), workerThreads.numberOfQueuedTasks())) {
+                // Tasks for the same vessel must not run concurrently in old and new stripes
+                awaitWorkerThreads();
+                stripes = createStripes(stripeTuner.getNumberOfStripes());
+            }
+        }
+    }
+
+    /**
+     * Create the objects identifying each stripe. The StripedExecutorService distinguishes stripes by
+     * object identity, so each stripe must be represented by exactly one object.
+     */
+    private static Object[] createStripes(int numberOfStripes) {
+        Object[] stripes = new Object[numberOfStripes];
+        for (int i = 0; i < numberOfStripes; i++) {
+            stripes[i] = new String("stripe-" + i);
+        }
+        return stripes;
+    }
+
+    /**
+     * Handle a packet which was already processed before the checkpoint from which the build is resumed.
+     * Packets close to the checkpoint are fed to the tracker to rebuild its state; statistics are not
+     * started yet, so they are not counted again.
+     */
+    private void warmUp(AisPacket packet) {
+        final long timestamp = packet.getBestTimestamp();
+        if (!checkpointer.isInWarmUpPeriod(timestamp) || downSampleFilter.rejectedByFilter(packet)) {
+            return;
+        }
+        lastPacketTimestamp = timestamp;
+
+        AisMessage message = packet.tryGetAisMessage();
+        if (message == null) {
+            return;
+        }
+
+        if (multiThreaded) {
+            submit(packet, message);
+        } else {
+            doWork(packet);
+        }
+    }
+
+    /**
+     * Block until all tasks submitted to the worker threads so far have completed. This works by submitting
+     * a barrier task to each stripe, and waiting for all of them to execute.
+     */
+    private void awaitWorkerThreads() {
+        if (!multiThreaded) {
+            return;
+        }
+
+        final CountDownLatch barrier = new CountDownLatch(stripes.length);
+        for (final Object stripe : stripes) {
+            workerThreads.submit(new StripedRunnable() {
+                @Override
+                public void run() {
+                    barrier.countDown();
+                }
+
+                @Override
+                public Object getStripe() {
+                    return stripe;
+                }
+            });
+        }
+
+        try {
+            barrier.await();
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for worker threads.", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private static int hash(int a) {
         // https://gist.github.com/badboy/6267743
         a = ~a + (a << 15); // key = (key << 15) - key - 1;
@@ -124,12 +247,13 @@ public class PacketHandlerImpl implements PacketHandler {
         return a;
     }
 
-    private static Object assignStripe(AisMessage message) {
-        return Integer.valueOf(Math.abs(hash(message.getUserId())) % NUMBER_OF_CORES);
+    private int assignStripe(AisMessage message) {
+        return Math.floorMod(hash(message.getUserId()), stripes.length);
     }
 
     private void doWork(AisPacket p) {
         trackingService.update(p);
+        telemetry.count(Stage.TRACK);
         if (trackingService instanceof EventEmittingTrackerImpl) {
             statisticsService.setTrackCount(((EventEmittingTrackerImpl) trackingService).getNumberOfTracks());
         }
@@ -163,10 +287,12 @@ public class PacketHandlerImpl implements PacketHandler {
 
     private final class Task implements StripedRunnable {
         final AisPacket packet;
+        final int stripeIndex;
         final Object stripe;
 
-        public Task(AisPacket packet, Object stripe) {
+        public Task(AisPacket packet, int stripeIndex, Object stripe) {
             this.packet = packet;
+            this.stripeIndex = stripeIndex;
             this.stripe = stripe;
         }
 
@@ -176,6 +302,8 @@ public class PacketHandlerImpl implements PacketHandler {
                 doWork(packet);
             } catch(Throwable t) {
                 LOG.error(t.getMessage(), t);
+            } finally {
+                stripeTuner.taskCompleted(stripeIndex);
             }
         }
 
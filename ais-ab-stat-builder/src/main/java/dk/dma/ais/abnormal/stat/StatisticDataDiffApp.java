@@ -0,0 +1,188 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import dk.dma.ais.abnormal.stat.db.StatisticDataDiff;
+import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
+import dk.dma.ais.abnormal.stat.db.mapdb.StatisticDataRepositoryMapDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Command line tool to compare two statistic data sets; e.g. to validate a statistics build against
+ * the previous build before it is put into production.
+ *
+ * For each statistic a summary of the added, removed, and changed cells, the change of the total ship count,
+ * and the cells with the largest shift of distribution are printed. The exit status is 1 if the
+ * differences exceed the given thresholds; so the tool can be used as a post-build check in scripts.
+ */
+public final class StatisticDataDiffApp {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StatisticDataDiffApp.class);
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_THRESHOLD_EXCEEDED = 1;
+    static final int EXIT_USAGE = 2;
+
+    private final Arguments arguments;
+    private final PrintStream out;
+
+    StatisticDataDiffApp(Arguments arguments, PrintStream out) {
+        this.arguments = arguments;
+        this.out = out;
+    }
+
+    /**
+     * Compare the statistic data in the two repositories and print the report.
+     * @return true if all differences are within the thresholds.
+     */
+    boolean compare(StatisticDataRepository before, StatisticDataRepository after) {
+        Set<String> statisticNames = new TreeSet<>(before.getStatisticNames());
+        statisticNames.addAll(after.getStatisticNames());
+
+        boolean withinThresholds = true;
+        for (String statisticName : statisticNames) {
+            PriorityQueue<StatisticDataDiff.CellDiff> top = new PriorityQueue<>(Math.max(1, arguments.top + 1), Comparator.comparingDouble(StatisticDataDiff.CellDiff::getDivergence));
+            StatisticDataDiff.Summary summary = StatisticDataDiff.diff(before, after, statisticName, diff -> {
+                if (arguments.top > 0 && ! Double.isNaN(diff.getDivergence())) {
+                    top.add(diff);
+                    if (top.size() > arguments.top) {
+                        top.poll();
+                    }
+                }
+            });
+
+            withinThresholds &= report(summary, top);
+        }
+
+        out.println(withinThresholds ? "Differences are within thresholds." : "Differences exceed thresholds.");
+        return withinThresholds;
+    }
+
+    private boolean report(StatisticDataDiff.Summary summary, PriorityQueue<StatisticDataDiff.CellDiff> top) {
+        final double cellChange = relativeChange(summary.getCellsAdded() + summary.getCellsRemoved() + summary.getCellsChanged(), summary.getCellsBefore());
+        final double totalChange = relativeChange(Math.abs(summary.getTotalAfter() - summary.getTotalBefore()), summary.getTotalBefore());
+
+        out.println(summary.getStatisticName());
+        out.println(String.format("  cells:      %d -> %d (%d added, %d removed, %d changed, %d unchanged)", summary.getCellsBefore(), summary.getCellsAfter(), summary.getCellsAdded(), summary.getCellsRemoved(), summary.getCellsChanged(), summary.getCellsUnchanged()));
+        out.println(String.format("  total:      %d -> %d (%+.2f%%)", summary.getTotalBefore(), summary.getTotalAfter(), 100.0 * signedRelativeChange(summary.getTotalAfter() - summary.getTotalBefore(), summary.getTotalBefore())));
+        out.println(String.format("  divergence: mean %.4f bits, max %.4f bits (cell %d)", summary.getMeanDivergence(), summary.getMaxDivergence(), summary.getMaxDivergenceCellId()));
+
+        List<StatisticDataDiff.CellDiff> cells = new ArrayList<>(top);
+        cells.sort(Comparator.comparingDouble(StatisticDataDiff.CellDiff::getDivergence).reversed());
+        for (StatisticDataDiff.CellDiff cell : cells) {
+            out.println(String.format("    cell %d: %d -> %d ships, divergence %.4f bits", cell.getCellId(), cell.getCountBefore(), cell.getCountAfter(), cell.getDivergence()));
+        }
+
+        boolean withinThresholds = true;
+        if (cellChange > arguments.maxCellChange) {
+            out.println(String.format("  Changed cells %.2f%% exceed %.2f%%.", 100.0 * cellChange, 100.0 * arguments.maxCellChange));
+            withinThresholds = false;
+        }
+        if (totalChange > arguments.maxTotalChange) {
+            out.println(String.format("  Change of total %.2f%% exceeds %.2f%%.", 100.0 * totalChange, 100.0 * arguments.maxTotalChange));
+            withinThresholds = false;
+        }
+        if (summary.getMeanDivergence() > arguments.maxMeanDivergence) {
+            out.println(String.format("  Mean divergence %.4f exceeds %.4f bits.", summary.getMeanDivergence(), arguments.maxMeanDivergence));
+            withinThresholds = false;
+        }
+        return withinThresholds;
+    }
+
+    private static double relativeChange(long change, long base) {
+        return Math.abs(signedRelativeChange(change, base));
+    }
+
+    private static double signedRelativeChange(long change, long base) {
+        if (base == 0) {
+            return change == 0 ? 0.0 : Double.POSITIVE_INFINITY * Long.signum(change);
+        }
+        return (double) change / base;
+    }
+
+    public static void main(String[] args) {
+        Arguments arguments = new Arguments();
+        JCommander jCommander = new JCommander(arguments);
+        jCommander.setProgramName(StatisticDataDiffApp.class.getSimpleName());
+
+        try {
+            jCommander.parse(args);
+        } catch (ParameterException e) {
+            System.out.println(e.getMessage());
+            arguments.help = true;
+        }
+
+        if (arguments.help) {
+            jCommander.usage();
+            System.exit(EXIT_USAGE);
+        }
+
+        StatisticDataRepository before = new StatisticDataRepositoryMapDB(arguments.before);
+        StatisticDataRepository after = new StatisticDataRepositoryMapDB(arguments.after);
+        before.openForRead();
+        after.openForRead();
+
+        boolean withinThresholds;
+        try {
+            LOG.info("Comparing " + arguments.before + " with " + arguments.after + ".");
+            withinThresholds = new StatisticDataDiffApp(arguments, System.out).compare(before, after);
+        } finally {
+            before.close();
+            after.close();
+        }
+
+        System.exit(withinThresholds ? EXIT_OK : EXIT_THRESHOLD_EXCEEDED);
+    }
+
+    @SuppressWarnings("FieldCanBeLocal")
+    static final class Arguments {
+
+        @Parameter(names = "-help", help = true, description = "Print this help.", hidden = true)
+        boolean help;
+
+        @Parameter(names = "-before", description = "Filename of the statistic data to compare from (e.g. the current production data).", required = true)
+        String before;
+
+        @Parameter(names = "-after", description = "Filename of the statistic data to compare to (e.g. a new build).", required = true)
+        String after;
+
+        @Parameter(names = "-top", description = "No. of cells with the largest shift of distribution to print per statistic.")
+        int top = 10;
+
+        @Parameter(names = "-maxCellChange", description = "Max. fraction of cells which may be added, removed, or changed.")
+        double maxCellChange = 1.0;
+
+        @Parameter(names = "-maxTotalChange", description = "Max. relative change of the total ship count of a statistic.")
+        double maxTotalChange = 0.10;
+
+        @Parameter(names = "-maxMeanDivergence", description = "Max. mean Kullback-Leibler divergence (in bits) of the cells present in both data sets.")
+        double maxMeanDivergence = 0.5;
+    }
+
+}
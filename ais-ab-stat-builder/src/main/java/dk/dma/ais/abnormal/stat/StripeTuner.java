@@ -0,0 +1,240 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.ais.abnormal.stat;
+
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The StripeTuner holds the number of worker threads and stripes (partitions) used by the
+ * multi-threaded packet handler.
+ *
+ * In auto-tuning mode a number of candidate stripe counts are tried in turn for a trial period
+ * each. For each candidate the task throughput and the average queue depth are measured. When all
+ * candidates have been tried, the one with the best throughput is kept for the rest of the build.
+ * Candidates within 5% of the best throughput are considered equal; then the one with the lowest
+ * queue depth wins.
+ */
+@ThreadSafe
+public class StripeTuner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StripeTuner.class);
+
+    static final int DEFAULT_TRIAL_PERIOD_SECONDS = 60;
+
+    private final int numberOfThreads;
+    private final long trialPeriodMillis;
+    private final List<Integer> candidates;
+
+    /** Completed tasks per stripe; sized for the largest candidate */
+    private final AtomicLongArray completedTasks;
+
+    private final Map<Integer, Trial> trials = new LinkedHashMap<>();
+
+    private volatile int numberOfStripes;
+    private volatile boolean tuning;
+
+    private Trial currentTrial;
+
+    /**
+     * @param numberOfThreads the number of worker threads.
+     * @param numberOfStripes the number of stripes; used as is if autoTune is false.
+     * @param autoTune true to find the best number of stripes by measurement.
+     */
+    public StripeTuner(int numberOfThreads, int numberOfStripes, boolean autoTune) {
+        this(numberOfThreads, numberOfStripes, autoTune, DEFAULT_TRIAL_PERIOD_SECONDS);
+    }
+
+    StripeTuner(int numberOfThreads, int numberOfStripes, boolean autoTune, int trialPeriodSeconds) {
+        if (numberOfThreads <= 0) {
+            throw new IllegalArgumentException("numberOfThreads must be positive; not " + numberOfThreads + ".");
+        }
+        if (numberOfStripes <= 0) {
+            throw new IllegalArgumentException("numberOfStripes must be positive; not " + numberOfStripes + ".");
+        }
+
+        this.numberOfThreads = numberOfThreads;
+        this.trialPeriodMillis = TimeUnit.SECONDS.toMillis(trialPeriodSeconds);
+        this.tuning = autoTune;
+
+        if (autoTune) {
+            TreeSet<Integer> c = new TreeSet<>();
+            c.add(Math.max(1, numberOfThreads / 2));
+            c.add(numberOfThreads);
+            c.add(numberOfThreads * 2);
+            c.add(numberOfThreads * 4);
+            this.candidates = Collections.unmodifiableList(new ArrayList<>(c));
+            this.numberOfStripes = candidates.get(0);
+            LOG.info("Auto-tuning no. of stripes for " + numberOfThreads + " worker threads; candidates " + candidates + ".");
+        } else {
+            this.candidates = Collections.singletonList(numberOfStripes);
+            this.numberOfStripes = numberOfStripes;
+            LOG.info("Using " + numberOfStripes + " stripes on " + numberOfThreads + " worker threads.");
+        }
+
+        this.completedTasks = new AtomicLongArray(Collections.max(candidates));
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    public int getNumberOfStripes() {
+        return numberOfStripes;
+    }
+
+    public boolean isTuning() {
+        return tuning;
+    }
+
+    /**
+     * Register that a task has been completed by a stripe.
+     * @param stripe the index of the stripe; 0 &lt;= stripe &lt; getNumberOfStripes()
+     */
+    public void taskCompleted(int stripe) {
+        completedTasks.incrementAndGet(stripe);
+    }
+
+    public long getCompletedTasks() {
+        long sum = 0;
+        for (int i = 0; i < completedTasks.length(); i++) {
+            sum += completedTasks.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Get the no. of tasks completed by each stripe.
+     */
+    public long[] getCompletedTasksPerStripe() {
+        long[] result = new long[completedTasks.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = completedTasks.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Feed a measurement to the tuner. Must be called regularly while tuning.
+     *
+     * @param now current time in msecs.
+     * @param queueDepth the current total number of tasks waiting in the stripe queues.
+     * @return true if the number of stripes has changed. The caller must then drain all stripes before
+     *         submitting tasks with the new number of stripes.
+     */
+    public synchronized boolean update(long now, int queueDepth) {
+        if (!tuning) {
+            return false;
+        }
+
+        final long completed = getCompletedTasks();
+
+        if (currentTrial == null) {
+            currentTrial = new Trial(numberOfStripes, now, completed);
+            return false;
+        }
+
+        currentTrial.queueDepthSamples++;
+        currentTrial.queueDepthSum += queueDepth;
+
+        if (now - currentTrial.start < trialPeriodMillis) {
+            return false;
+        }
+
+        currentTrial.end(now, completed);
+        trials.put(currentTrial.numberOfStripes, currentTrial);
+        LOG.info("Stripe trial completed: " + currentTrial + ".");
+
+        int i = candidates.indexOf(currentTrial.numberOfStripes);
+        if (i + 1 < candidates.size()) {
+            numberOfStripes = candidates.get(i + 1);
+            currentTrial = new Trial(numberOfStripes, now, completed);
+        } else {
+            numberOfStripes = selectBestTrial().numberOfStripes;
+            currentTrial = null;
+            tuning = false;
+            LOG.info("Auto-tuning completed. Using " + numberOfStripes + " stripes.");
+        }
+
+        return true;
+    }
+
+    private Trial selectBestTrial() {
+        double bestThroughput = 0.0;
+        for (Trial trial : trials.values()) {
+            bestThroughput = Math.max(bestThroughput, trial.throughput);
+        }
+
+        Trial best = null;
+        for (Trial trial : trials.values()) {
+            if (trial.throughput >= 0.95 * bestThroughput) {
+                if (best == null || trial.averageQueueDepth() < best.averageQueueDepth()) {
+                    best = trial;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return a description of the measured trials.
+     */
+    public synchronized List<String> getTrialResults() {
+        List<String> results = new ArrayList<>(trials.size());
+        trials.values().forEach(trial -> results.add(trial.toString()));
+        return results;
+    }
+
+    private static final class Trial {
+        final int numberOfStripes;
+        final long start;
+        final long completedAtStart;
+
+        long queueDepthSamples;
+        long queueDepthSum;
+        double throughput;
+
+        Trial(int numberOfStripes, long start, long completedAtStart) {
+            this.numberOfStripes = numberOfStripes;
+            this.start = start;
+            this.completedAtStart = completedAtStart;
+        }
+
+        void end(long end, long completedAtEnd) {
+            double secs = Math.max(1L, end - start) / 1000.0;
+            throughput = (completedAtEnd - completedAtStart) / secs;
+        }
+
+        double averageQueueDepth() {
+            return queueDepthSamples == 0 ? 0.0 : (double) queueDepthSum / queueDepthSamples;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d stripes: %.0f tasks/sec, avg. queue depth %.1f", numberOfStripes, throughput, averageQueueDepth());
+        }
+    }
+}
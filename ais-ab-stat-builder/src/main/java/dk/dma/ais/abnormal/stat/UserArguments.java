@@ -45,6 +45,27 @@ public class UserArguments {
     @Parameter(names = "-downsampling", description = "Downsampling period (in secs).")
     private Integer downSampling = 60;
 
+    @Parameter(names = "-threads", description = "No. of worker threads when running multi-threaded. Defaults to no. of CPU cores.")
+    private Integer numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = "-stripes", description = "No. of stripes (partitions of vessels) when running multi-threaded. Defaults to no. of CPU cores.")
+    private Integer numberOfStripes = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = "-autotune", description = "Measure throughput during the first minutes of the build, and choose the best no. of stripes.")
+    private boolean autoTune;
+
+    @Parameter(names = "-telemetry", description = "Name of file to write build telemetry to. Written as CSV if name ends with '.csv'; otherwise as JSON.")
+    private String telemetryFilename;
+
+    @Parameter(names = "-telemetryInterval", description = "Period between telemetry snapshots (in secs).")
+    private Integer telemetryInterval = 60;
+
+    @Parameter(names = "-checkpoint", description = "Period between checkpoints of the build (in minutes). 0 disables checkpoints.")
+    private Integer checkpointPeriod = 60;
+
+    @Parameter(names = "-resume", description = "Resume build from last checkpoint of output file.")
+    private boolean resume;
+
     public void setHelp(boolean help) {
         this.help = help;
     }
@@ -80,4 +101,32 @@ public class UserArguments {
     public Integer getDownSampling() {
         return downSampling;
     }
+
+    public Integer getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    public Integer getNumberOfStripes() {
+        return numberOfStripes;
+    }
+
+    public boolean isAutoTune() {
+        return autoTune;
+    }
+
+    public String getTelemetryFilename() {
+        return telemetryFilename;
+    }
+
+    public Integer getTelemetryInterval() {
+        return telemetryInterval;
+    }
+
+    public Integer getCheckpointPeriod() {
+        return checkpointPeriod;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
 }
@@ -24,6 +24,7 @@ import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
 import dk.dma.ais.abnormal.stat.db.data.CourseOverGroundStatisticData;
 import dk.dma.ais.abnormal.stat.db.data.ShipTypeAndSizeStatisticData;
 import dk.dma.ais.abnormal.stat.db.data.StatisticData;
+import dk.dma.ais.abnormal.stat.telemetry.BuildTelemetry;
 import dk.dma.ais.abnormal.util.Categorizer;
 import dk.dma.ais.tracker.eventEmittingTracker.EventEmittingTracker;
 import dk.dma.ais.tracker.eventEmittingTracker.Track;
@@ -43,16 +44,18 @@ public class CourseOverGroundStatistic implements TrackingEventListener {
     private final transient AppStatisticsService appStatisticsService;
     private final transient StatisticDataRepository statisticsRepository;
     private final transient EventEmittingTracker trackingService;
+    private final transient BuildTelemetry telemetry;
 
     private final transient AtomicBoolean started = new AtomicBoolean(false);
 
     static final String STATISTIC_NAME = CourseOverGroundStatistic.class.getSimpleName();
 
     @Inject
-    public CourseOverGroundStatistic(AppStatisticsService appStatisticsService, EventEmittingTracker trackingService, StatisticDataRepository statisticsRepository) {
+    public CourseOverGroundStatistic(AppStatisticsService appStatisticsService, EventEmittingTracker trackingService, StatisticDataRepository statisticsRepository, BuildTelemetry telemetry) {
         this.appStatisticsService = appStatisticsService;
         this.trackingService = trackingService;
         this.statisticsRepository = statisticsRepository;
+        this.telemetry = telemetry;
     }
 
     /**
@@ -71,6 +74,15 @@ public class CourseOverGroundStatistic implements TrackingEventListener {
     @AllowConcurrentEvents
     @Subscribe
     public void onCellIdChanged(CellChangedEvent event) {
+        final long t0 = System.nanoTime();
+        try {
+            handleCellIdChanged(event);
+        } finally {
+            telemetry.listenerCompleted(STATISTIC_NAME, System.nanoTime() - t0);
+        }
+    }
+
+    private void handleCellIdChanged(CellChangedEvent event) {
         appStatisticsService.incStatisticStatistics(STATISTIC_NAME, "Events processed");
 
         Track track = event.getTrack();
@@ -132,7 +144,9 @@ public class CourseOverGroundStatistic implements TrackingEventListener {
         statistics.incrementValue(shipTypeBucket-1, shipSizeBucket-1, cogBucket-1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT);
 
         LOG.debug("Storing statistic data for cellId " + cellId + ", statisticName " + STATISTIC_NAME);
+        final long t0 = System.nanoTime();
         statisticsRepository.putStatisticData(STATISTIC_NAME, cellId, statistics);
+        telemetry.repositoryPutCompleted(System.nanoTime() - t0);
         LOG.debug("TrackingEventListener data for cellId " + cellId + ", statisticName " + STATISTIC_NAME + " stored.");
     }
 
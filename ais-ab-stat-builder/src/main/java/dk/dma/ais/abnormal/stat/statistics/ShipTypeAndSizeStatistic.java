@@ -23,6 +23,7 @@ import dk.dma.ais.abnormal.stat.AppStatisticsService;
 import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
 import dk.dma.ais.abnormal.stat.db.data.ShipTypeAndSizeStatisticData;
 import dk.dma.ais.abnormal.stat.db.data.StatisticData;
+import dk.dma.ais.abnormal.stat.telemetry.BuildTelemetry;
 import dk.dma.ais.abnormal.util.Categorizer;
 import dk.dma.ais.tracker.eventEmittingTracker.EventEmittingTracker;
 import dk.dma.ais.tracker.eventEmittingTracker.Track;
@@ -38,16 +39,18 @@ public class ShipTypeAndSizeStatistic implements TrackingEventListener {
     private final transient AppStatisticsService appStatisticsService;
     private final transient StatisticDataRepository statisticsRepository;
     private final transient EventEmittingTracker trackingService;
+    private final transient BuildTelemetry telemetry;
 
     private transient boolean started;
 
     static final String STATISTIC_NAME = ShipTypeAndSizeStatistic.class.getSimpleName();
 
     @Inject
-    public ShipTypeAndSizeStatistic(AppStatisticsService appStatisticsService, EventEmittingTracker trackingService, StatisticDataRepository statisticsRepository) {
+    public ShipTypeAndSizeStatistic(AppStatisticsService appStatisticsService, EventEmittingTracker trackingService, StatisticDataRepository statisticsRepository, BuildTelemetry telemetry) {
         this.appStatisticsService = appStatisticsService;
         this.trackingService = trackingService;
         this.statisticsRepository = statisticsRepository;
+        this.telemetry = telemetry;
     }
 
     /**
@@ -66,6 +69,15 @@ public class ShipTypeAndSizeStatistic implements TrackingEventListener {
     @AllowConcurrentEvents
     @Subscribe
     public void onCellIdChanged(CellChangedEvent event) {
+        final long t0 = System.nanoTime();
+        try {
+            handleCellIdChanged(event);
+        } finally {
+            telemetry.listenerCompleted(STATISTIC_NAME, System.nanoTime() - t0);
+        }
+    }
+
+    private void handleCellIdChanged(CellChangedEvent event) {
         appStatisticsService.incStatisticStatistics(this.getClass().getSimpleName(), "Events processed");
 
         LOG.debug("Received " + event.toString());
@@ -112,7 +124,9 @@ public class ShipTypeAndSizeStatistic implements TrackingEventListener {
         statistics.incrementValue(shipTypeBucket-1, shipSizeBucket-1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT);
 
         LOG.debug("Storing statistic data for cellId " + cellId + ", statisticName " + STATISTIC_NAME);
+        final long t0 = System.nanoTime();
         statisticsRepository.putStatisticData(STATISTIC_NAME, cellId, statistics);
+        telemetry.repositoryPutCompleted(System.nanoTime() - t0);
         LOG.debug("TrackingEventListener data for cellId " + cellId + ", statisticName " + STATISTIC_NAME + " stored.");
 
         // TODO expensive: appStatisticsService.setStatisticStatistics(this.getClass().getSimpleName(), "Cell count", statisticsRepository.getNumberOfCells(STATISTIC_NAME));
@@ -0,0 +1,146 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.ais.abnormal.stat.telemetry;
+
+import dk.dma.ais.abnormal.util.LatencyHistogram;
+import net.jcip.annotations.ThreadSafe;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects throughput and latency measurements of a statistics build. The measurements are
+ * cheap to record from any thread, and are read as a flat set of named metrics by snapshot().
+ */
+@ThreadSafe
+public class BuildTelemetry {
+
+    /**
+     * The stages an AIS packet passes through in the stat builder.
+     */
+    public enum Stage {
+        /** Packet received from the reader */
+        READ,
+        /** Packet passed the down sampling filter */
+        FILTER,
+        /** AIS message decoded from packet */
+        DECODE,
+        /** Message applied to the tracker */
+        TRACK,
+        /** Tracking event handled by a statistic */
+        STATISTIC
+    }
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final LongAdder[] stageCounts = new LongAdder[Stage.values().length];
+    private final ConcurrentMap<String, LatencyHistogram> listenerLatencies = new ConcurrentSkipListMap<>();
+    private final LatencyHistogram repositoryPutLatency = new LatencyHistogram();
+
+    public BuildTelemetry() {
+        for (int i = 0; i < stageCounts.length; i++) {
+            stageCounts[i] = new LongAdder();
+        }
+    }
+
+    public void count(Stage stage) {
+        stageCounts[stage.ordinal()].increment();
+    }
+
+    public long getCount(Stage stage) {
+        return stageCounts[stage.ordinal()].sum();
+    }
+
+    /**
+     * Record that a statistic has handled a tracking event.
+     * @param listenerName the name of the statistic.
+     * @param nanos the time spent handling the event.
+     */
+    public void listenerCompleted(String listenerName, long nanos) {
+        count(Stage.STATISTIC);
+        LatencyHistogram histogram = listenerLatencies.get(listenerName);
+        if (histogram == null) {
+            listenerLatencies.putIfAbsent(listenerName, new LatencyHistogram());
+            histogram = listenerLatencies.get(listenerName);
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Record the time spent storing statistic data in the repository.
+     */
+    public void repositoryPutCompleted(long nanos) {
+        repositoryPutLatency.record(nanos);
+    }
+
+    /**
+     * Take a snapshot of all metrics.
+     *
+     * @param queueSizes the current no. of queued tasks per stripe; may be empty.
+     * @return the metrics as name/value pairs in a stable order.
+     */
+    public Map<String, Number> snapshot(Map<String, Integer> queueSizes) {
+        final long now = System.currentTimeMillis();
+        final double secs = Math.max(1L, now - startTime) / 1000.0;
+
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("elapsed.secs", (now - startTime) / 1000L);
+
+        for (Stage stage : Stage.values()) {
+            final String prefix = "stage." + stage.name().toLowerCase(Locale.ENGLISH);
+            final long n = getCount(stage);
+            metrics.put(prefix + ".count", n);
+            metrics.put(prefix + ".meanRate", n / secs);
+        }
+
+        listenerLatencies.forEach((name, histogram) -> putHistogram(metrics, "listener." + name, histogram));
+        putHistogram(metrics, "repository.put", repositoryPutLatency);
+
+        queueSizes.forEach((stripe, size) -> metrics.put("queue." + stripe, size));
+
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        putMemoryUsage(metrics, "memory.heap", memoryBean.getHeapMemoryUsage());
+        putMemoryUsage(metrics, "memory.nonHeap", memoryBean.getNonHeapMemoryUsage());
+        for (BufferPoolMXBean bufferPool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            metrics.put("memory.buffers." + bufferPool.getName() + ".used", bufferPool.getMemoryUsed());
+            metrics.put("memory.buffers." + bufferPool.getName() + ".capacity", bufferPool.getTotalCapacity());
+        }
+
+        return metrics;
+    }
+
+    private static void putHistogram(Map<String, Number> metrics, String prefix, LatencyHistogram histogram) {
+        metrics.put(prefix + ".count", histogram.getCount());
+        metrics.put(prefix + ".meanMicros", histogram.getMeanMicros());
+        metrics.put(prefix + ".p50Micros", histogram.getPercentileMicros(0.50));
+        metrics.put(prefix + ".p99Micros", histogram.getPercentileMicros(0.99));
+        metrics.put(prefix + ".maxMicros", histogram.getMaxMicros());
+    }
+
+    private static void putMemoryUsage(Map<String, Number> metrics, String prefix, MemoryUsage usage) {
+        metrics.put(prefix + ".used", usage.getUsed());
+        metrics.put(prefix + ".committed", usage.getCommitted());
+        metrics.put(prefix + ".max", usage.getMax());
+    }
+}
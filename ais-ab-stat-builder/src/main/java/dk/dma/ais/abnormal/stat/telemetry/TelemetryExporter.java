@@ -0,0 +1,151 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.ais.abnormal.stat.telemetry;
+
+import dk.dma.ais.abnormal.stat.telemetry.BuildTelemetry.Stage;
+import dk.dma.ais.concurrency.stripedexecutor.StripedExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically appends snapshots of the build telemetry to a file, so that builds can be compared
+ * across code versions.
+ *
+ * If the file name ends with ".csv" the snapshots are written as rows of "timestamp,metric,value".
+ * Otherwise each snapshot is written as one JSON object per line.
+ *
+ * In addition to the metrics of BuildTelemetry, each snapshot holds "stage.*.rate": the rate of each
+ * stage in msg/sec since the previous snapshot.
+ */
+public class TelemetryExporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TelemetryExporter.class);
+
+    private final BuildTelemetry telemetry;
+    private final StripedExecutorService executorService;
+    private final File file;
+    private final boolean csv;
+    private final int intervalSeconds;
+
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
+
+    private final long[] lastStageCounts = new long[Stage.values().length];
+    private long lastSnapshotTime = System.currentTimeMillis();
+
+    /**
+     * @param telemetry the telemetry to export.
+     * @param executorService the executor whose queues are reported.
+     * @param filename the file to write to; or null to not export telemetry.
+     * @param intervalSeconds secs between snapshots.
+     */
+    public TelemetryExporter(BuildTelemetry telemetry, StripedExecutorService executorService, String filename, int intervalSeconds) {
+        this.telemetry = telemetry;
+        this.executorService = executorService;
+        this.file = filename == null ? null : new File(filename);
+        this.csv = filename != null && filename.toLowerCase(Locale.ENGLISH).endsWith(".csv");
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    public void start() {
+        if (file == null) {
+            LOG.debug("No telemetry file. Telemetry will not be exported.");
+            return;
+        }
+        LOG.info("Exporting telemetry to " + file.getAbsolutePath() + " every " + intervalSeconds + " secs.");
+        scheduledExecutorService.scheduleAtFixedRate(this::export, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop periodic export and write a final snapshot.
+     */
+    public void shutdown() {
+        scheduledExecutorService.shutdown();
+        try {
+            scheduledExecutorService.awaitTermination(intervalSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            LOG.error(e.getMessage(), e);
+        }
+        if (file != null) {
+            export();
+        }
+    }
+
+    synchronized void export() {
+        final long now = System.currentTimeMillis();
+        Map<String, Number> metrics = telemetry.snapshot(executorService.serialExecutorQueueSizes());
+
+        final double secs = Math.max(1L, now - lastSnapshotTime) / 1000.0;
+        for (Stage stage : Stage.values()) {
+            final long n = telemetry.getCount(stage);
+            metrics.put("stage." + stage.name().toLowerCase(Locale.ENGLISH) + ".rate", (n - lastStageCounts[stage.ordinal()]) / secs);
+            lastStageCounts[stage.ordinal()] = n;
+        }
+        lastSnapshotTime = now;
+
+        final boolean writeHeader = csv && file.length() == 0;
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
+            if (csv) {
+                writeCsv(out, now, metrics, writeHeader);
+            } else {
+                writeJson(out, now, metrics);
+            }
+        } catch (IOException e) {
+            LOG.error("Failed to write telemetry to " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    static void writeCsv(PrintWriter out, long timestamp, Map<String, Number> metrics, boolean writeHeader) {
+        if (writeHeader) {
+            out.println("timestamp,metric,value");
+        }
+        metrics.forEach((name, value) -> out.println(timestamp + "," + name + "," + value));
+    }
+
+    static void writeJson(PrintWriter out, long timestamp, Map<String, Number> metrics) {
+        StringBuilder json = new StringBuilder(4096);
+        json.append("{\"timestamp\":").append(timestamp).append(",\"metrics\":{");
+        boolean first = true;
+        for (Map.Entry<String, Number> metric : metrics.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            json.append('"').append(metric.getKey().replace("\\", "\\\\").replace("\"", "\\\"")).append("\":").append(jsonValueOf(metric.getValue()));
+            first = false;
+        }
+        json.append("}}");
+        out.println(json);
+    }
+
+    /** JSON has no NaN or Infinity; such values (e.g. percentiles of empty histograms) are written as null. */
+    private static Object jsonValueOf(Number value) {
+        if (value == null || ((value instanceof Double || value instanceof Float) && !Double.isFinite(value.doubleValue()))) {
+            return "null";
+        }
+        return value;
+    }
+}
@@ -430,20 +430,43 @@ public class StripedExecutorService extends AbstractExecutorService {
     }
 
     /**
-     * Get number of executors.
+     * Get number of tasks waiting in the queue of each serial executor.
      */
     public Map<String, Integer> serialExecutorQueueSizes() {
         TreeMap<String, Integer> map = new TreeMap<>();
 
-        for (Map.Entry<Object, SerialExecutor> e : executors.entrySet()) {
-            String key = e.getKey().toString();
-            int value = e.getValue().tasks.size();
-            map.put(key, value);
+        lock.lock();
+        try {
+            for (Map.Entry<Object, SerialExecutor> e : executors.entrySet()) {
+                String key = e.getKey().toString();
+                int value = e.getValue().tasks.size();
+                map.put(key, value);
+            }
+        } finally {
+            lock.unlock();
         }
 
         return map;
     }
 
+    /**
+     * Get total number of tasks waiting in the queues of all serial executors.
+     */
+    public int numberOfQueuedTasks() {
+        int n = 0;
+
+        lock.lock();
+        try {
+            for (SerialExecutor serialExecutor : executors.values()) {
+                n += serialExecutor.tasks.size();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return n;
+    }
+
     /**
      * This field is used for conditional compilation.  If it is
      * false, then the finalize method is an empty method, in
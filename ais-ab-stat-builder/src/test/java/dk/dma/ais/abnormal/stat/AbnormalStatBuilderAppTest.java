@@ -95,7 +95,7 @@ public class AbnormalStatBuilderAppTest {
         assertNotNull(statisticsRepository.getMetaData());
         assertEquals((Double) 0.0017966313162819712 /* res 200.0 */, statisticsRepository.getMetaData().getGridResolution(), 1e-10);
         assertEquals((Integer) 60, statisticsRepository.getMetaData().getDownsampling());
-        assertEquals((Short) (short) 1, statisticsRepository.getMetaData().getFormatVersion());
+        assertEquals((Short) (short) 2, statisticsRepository.getMetaData().getFormatVersion());
     }
 
     private static UserArguments parseUserArguments(String[] args) {
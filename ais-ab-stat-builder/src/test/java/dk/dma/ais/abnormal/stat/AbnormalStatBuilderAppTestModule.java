@@ -23,6 +23,8 @@ import com.google.inject.assistedinject.FactoryModuleBuilder;
 import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
 import dk.dma.ais.abnormal.stat.db.mapdb.StatisticDataRepositoryMapDB;
 import dk.dma.ais.abnormal.stat.statistics.ShipTypeAndSizeStatistic;
+import dk.dma.ais.abnormal.stat.telemetry.BuildTelemetry;
+import dk.dma.ais.abnormal.stat.telemetry.TelemetryExporter;
 import dk.dma.ais.concurrency.stripedexecutor.StripedExecutorService;
 import dk.dma.ais.reader.AisReader;
 import dk.dma.ais.reader.AisReaders;
@@ -63,6 +65,7 @@ public class AbnormalStatBuilderAppTestModule extends AbstractModule {
         bind(AppStatisticsService.class).to(AppStatisticsServiceImpl.class).in(Singleton.class);
         bind(dk.dma.ais.abnormal.application.statistics.AppStatisticsService.class).to(AppStatisticsServiceImpl.class).in(Singleton.class);
         bind(ShipTypeAndSizeStatistic.class);
+        bind(BuildTelemetry.class).in(Singleton.class);
 
         // Test stubs
         // bind(StatisticDataRepository.class).to(StatisticDataRepositoryTestStub);
@@ -106,6 +109,25 @@ public class AbnormalStatBuilderAppTestModule extends AbstractModule {
         return statisticsRepository;
     }
 
+    @Provides
+    @Singleton
+    StripeTuner provideStripeTuner() {
+        int numberOfCores = Runtime.getRuntime().availableProcessors();
+        return new StripeTuner(numberOfCores, numberOfCores, false);
+    }
+
+    @Provides
+    @Singleton
+    TelemetryExporter provideTelemetryExporter(BuildTelemetry telemetry, StripedExecutorService executorService) {
+        return new TelemetryExporter(telemetry, executorService, null, 60);
+    }
+
+    @Provides
+    @Singleton
+    Checkpointer provideCheckpointer(StatisticDataRepository statisticsRepository) {
+        return new Checkpointer(statisticsRepository, 0, null, inputDirectory, inputFilenamePattern);
+    }
+
     @Provides
     AisReader provideAisReader() {
         AisReader aisReader = null;
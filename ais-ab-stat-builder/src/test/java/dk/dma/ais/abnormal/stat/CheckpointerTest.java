@@ -0,0 +1,80 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.ais.abnormal.stat;
+
+import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
+import dk.dma.ais.test.helpers.ArgumentCaptor;
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointerTest {
+    final JUnit4Mockery context = new JUnit4Mockery();
+
+    StatisticDataRepository statisticsRepository;
+
+    @Before
+    public void setup() {
+        statisticsRepository = context.mock(StatisticDataRepository.class);
+    }
+
+    @Test
+    public void nothingIsSkippedWhenNotResumed() {
+        Checkpointer checkpointer = new Checkpointer(statisticsRepository, 60, null, "dir", "*.gz");
+
+        assertFalse(checkpointer.isBeforeResumePosition(1));
+        assertFalse(checkpointer.isInWarmUpPeriod(System.currentTimeMillis()));
+        assertFalse(checkpointer.isCheckpointDue());
+    }
+
+    @Test
+    public void packetsBeforeResumePositionAreSkipped() {
+        final long t = 1400000000000L;
+        Checkpointer checkpointer = new Checkpointer(statisticsRepository, 60, new BuildCheckpoint(1000, t, "dir", "*.gz"), "dir", "*.gz");
+
+        assertTrue(checkpointer.isBeforeResumePosition(1));
+        assertTrue(checkpointer.isBeforeResumePosition(1000));
+        assertFalse(checkpointer.isBeforeResumePosition(1001));
+
+        assertFalse(checkpointer.isInWarmUpPeriod(t - TimeUnit.MINUTES.toMillis(Checkpointer.WARM_UP_PERIOD_MINUTES) - 1));
+        assertTrue(checkpointer.isInWarmUpPeriod(t - TimeUnit.MINUTES.toMillis(Checkpointer.WARM_UP_PERIOD_MINUTES)));
+        assertTrue(checkpointer.isInWarmUpPeriod(t));
+    }
+
+    @Test
+    public void checkpointIsWrittenToRepository() {
+        final ArgumentCaptor<BuildCheckpoint> checkpointCaptor = ArgumentCaptor.forClass(BuildCheckpoint.class);
+        context.checking(new Expectations() {{
+            oneOf(statisticsRepository).writeCheckpoint(with(checkpointCaptor.getMatcher()));
+        }});
+
+        Checkpointer checkpointer = new Checkpointer(statisticsRepository, 0, null, "dir", "*.gz");
+        checkpointer.checkpoint(4711, 1400000000000L);
+
+        BuildCheckpoint checkpoint = checkpointCaptor.getCapturedObject();
+        assertEquals(4711, checkpoint.getPacketCount());
+        assertEquals(1400000000000L, checkpoint.getLastPacketTimestamp());
+        assertEquals("dir", checkpoint.getInputDirectory());
+        assertEquals("*.gz", checkpoint.getInputFilenamePattern());
+    }
+}
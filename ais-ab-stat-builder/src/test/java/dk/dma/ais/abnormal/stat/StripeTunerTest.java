@@ -0,0 +1,80 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.ais.abnormal.stat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StripeTunerTest {
+
+    @Test
+    public void fixedNumberOfStripesIsNotTuned() {
+        StripeTuner tuner = new StripeTuner(4, 7, false);
+
+        assertFalse(tuner.isTuning());
+        assertEquals(4, tuner.getNumberOfThreads());
+        assertEquals(7, tuner.getNumberOfStripes());
+        assertFalse(tuner.update(System.currentTimeMillis(), 0));
+        assertEquals(7, tuner.getNumberOfStripes());
+    }
+
+    @Test
+    public void completedTasksAreCountedPerStripe() {
+        StripeTuner tuner = new StripeTuner(2, 3, false);
+
+        tuner.taskCompleted(0);
+        tuner.taskCompleted(2);
+        tuner.taskCompleted(2);
+
+        assertEquals(3, tuner.getCompletedTasks());
+        assertEquals(1, tuner.getCompletedTasksPerStripe()[0]);
+        assertEquals(0, tuner.getCompletedTasksPerStripe()[1]);
+        assertEquals(2, tuner.getCompletedTasksPerStripe()[2]);
+    }
+
+    @Test
+    public void autoTuneSelectsCandidateWithBestThroughput() {
+        StripeTuner tuner = new StripeTuner(4, 4, true, 1);
+        assertTrue(tuner.isTuning());
+
+        // Candidates are 2, 4, 8 and 16 stripes; 8 stripes gives the best throughput
+        final int[] tasksPerTrial = {1000, 2000, 4000, 3000};
+        final int[] expectedStripes = {2, 4, 8, 16};
+
+        long now = 0;
+        tuner.update(now, 0);
+        for (int trial = 0; trial < tasksPerTrial.length; trial++) {
+            assertEquals(expectedStripes[trial], tuner.getNumberOfStripes());
+            for (int i = 0; i < tasksPerTrial[trial]; i++) {
+                tuner.taskCompleted(i % tuner.getNumberOfStripes());
+            }
+            now += 1000;
+            assertTrue(tuner.update(now, 10));
+        }
+
+        assertFalse(tuner.isTuning());
+        assertEquals(8, tuner.getNumberOfStripes());
+        assertEquals(4, tuner.getTrialResults().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroStripesIsRejected() {
+        new StripeTuner(4, 0, false);
+    }
+}
@@ -20,6 +20,7 @@ import dk.dma.ais.abnormal.stat.AppStatisticsService;
 import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
 import dk.dma.ais.abnormal.stat.db.data.CourseOverGroundStatisticData;
 import dk.dma.ais.abnormal.stat.db.data.StatisticData;
+import dk.dma.ais.abnormal.stat.telemetry.BuildTelemetry;
 import dk.dma.ais.abnormal.util.Categorizer;
 import dk.dma.ais.packet.AisPacket;
 import dk.dma.ais.test.helpers.ArgumentCaptor;
@@ -78,7 +79,7 @@ public class CourseOverGroundStatisticTest {
 
         event = new CellChangedEvent(track, null);
 
-        statistic = new CourseOverGroundStatistic(statisticsService, trackingService, statisticsRepository);
+        statistic = new CourseOverGroundStatistic(statisticsService, trackingService, statisticsRepository, new BuildTelemetry());
 
         assertEquals(3, Categorizer.mapShipTypeToCategory(track.getShipType()));
         assertEquals(7, Categorizer.mapCourseOverGroundToCategory(track.getCourseOverGround()));
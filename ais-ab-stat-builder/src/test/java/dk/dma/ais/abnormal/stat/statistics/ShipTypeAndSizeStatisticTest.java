@@ -20,6 +20,7 @@ import dk.dma.ais.abnormal.stat.AppStatisticsService;
 import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
 import dk.dma.ais.abnormal.stat.db.data.ShipTypeAndSizeStatisticData;
 import dk.dma.ais.abnormal.stat.db.data.StatisticData;
+import dk.dma.ais.abnormal.stat.telemetry.BuildTelemetry;
 import dk.dma.ais.packet.AisPacket;
 import dk.dma.ais.test.helpers.ArgumentCaptor;
 import dk.dma.ais.tracker.eventEmittingTracker.EventEmittingTracker;
@@ -76,7 +77,7 @@ public class ShipTypeAndSizeStatisticTest {
         track.update(packets[1]);
         track.setProperty(Track.CELL_ID, 5674365784L);
 
-        statistic = new ShipTypeAndSizeStatistic(statisticsService, trackingService, statisticsRepository);
+        statistic = new ShipTypeAndSizeStatistic(statisticsService, trackingService, statisticsRepository, new BuildTelemetry());
     }
 
     @Test
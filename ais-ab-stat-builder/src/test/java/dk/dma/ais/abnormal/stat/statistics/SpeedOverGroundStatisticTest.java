@@ -20,6 +20,7 @@ import dk.dma.ais.abnormal.stat.AppStatisticsService;
 import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
 import dk.dma.ais.abnormal.stat.db.data.SpeedOverGroundStatisticData;
 import dk.dma.ais.abnormal.stat.db.data.StatisticData;
+import dk.dma.ais.abnormal.stat.telemetry.BuildTelemetry;
 import dk.dma.ais.abnormal.util.Categorizer;
 import dk.dma.ais.packet.AisPacket;
 import dk.dma.ais.test.helpers.ArgumentCaptor;
@@ -78,7 +79,7 @@ public class SpeedOverGroundStatisticTest {
 
         event = new CellChangedEvent(track, null);
 
-        statistic = new SpeedOverGroundStatistic(statisticsService, trackingService, statisticsRepository);
+        statistic = new SpeedOverGroundStatistic(statisticsService, trackingService, statisticsRepository, new BuildTelemetry());
 
         assertEquals(3, Categorizer.mapShipTypeToCategory(track.getShipType()));
         assertEquals(4, Categorizer.mapSpeedOverGroundToCategory(track.getSpeedOverGround()));
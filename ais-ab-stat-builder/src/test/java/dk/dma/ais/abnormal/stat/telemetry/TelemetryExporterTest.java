@@ -0,0 +1,83 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.ais.abnormal.stat.telemetry;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetryExporterTest {
+
+    @Test
+    public void writeJson() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("stage.read.count", 42L);
+        metrics.put("stage.read.rate", 1.5);
+
+        StringWriter s = new StringWriter();
+        TelemetryExporter.writeJson(new PrintWriter(s, true), 1000L, metrics);
+
+        assertEquals("{\"timestamp\":1000,\"metrics\":{\"stage.read.count\":42,\"stage.read.rate\":1.5}}", s.toString().trim());
+    }
+
+    @Test
+    public void writeJsonWritesNonFiniteValuesAsNull() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("stage.read.rate", Double.NaN);
+        metrics.put("listener.TestStatistic.p99", Double.POSITIVE_INFINITY);
+        metrics.put("listener.TestStatistic.mean", Float.NaN);
+
+        StringWriter s = new StringWriter();
+        TelemetryExporter.writeJson(new PrintWriter(s, true), 1000L, metrics);
+
+        assertEquals("{\"timestamp\":1000,\"metrics\":{\"stage.read.rate\":null,\"listener.TestStatistic.p99\":null,\"listener.TestStatistic.mean\":null}}", s.toString().trim());
+    }
+
+    @Test
+    public void writeCsv() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("stage.read.count", 42L);
+
+        StringWriter s = new StringWriter();
+        TelemetryExporter.writeCsv(new PrintWriter(s, true), 1000L, metrics, true);
+
+        String[] lines = s.toString().split("\\R");
+        assertEquals("timestamp,metric,value", lines[0]);
+        assertEquals("1000,stage.read.count,42", lines[1]);
+    }
+
+    @Test
+    public void snapshotContainsStagesListenersAndMemory() {
+        BuildTelemetry telemetry = new BuildTelemetry();
+        telemetry.count(BuildTelemetry.Stage.READ);
+        telemetry.listenerCompleted("TestStatistic", 5000);
+        telemetry.repositoryPutCompleted(2000);
+
+        Map<String, Number> metrics = telemetry.snapshot(new LinkedHashMap<>());
+
+        assertEquals(1L, metrics.get("stage.read.count"));
+        assertEquals(1L, metrics.get("stage.statistic.count"));
+        assertEquals(1L, metrics.get("listener.TestStatistic.count"));
+        assertEquals(1L, metrics.get("repository.put.count"));
+        assertTrue(metrics.get("memory.heap.used").longValue() > 0);
+    }
+}
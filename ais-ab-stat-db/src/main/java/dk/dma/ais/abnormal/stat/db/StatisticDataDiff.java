@@ -0,0 +1,353 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat.db;
+
+import dk.dma.ais.abnormal.stat.db.data.StatisticData;
+import dk.dma.ais.abnormal.stat.db.data.StatisticDataDistribution;
+import net.jcip.annotations.Immutable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Comparison of the statistic data of two datasets; e.g. a dataset and its rebuild.
+ *
+ * The cells of a statistic are compared in a single merge scan over the cells of both repositories
+ * in ascending order of cell id; so neither dataset is held in memory. For each cell present in both
+ * datasets the change of the total ship count and the shift of the distribution (Kullback-Leibler
+ * divergence, see StatisticDataDistribution) are computed.
+ */
+public final class StatisticDataDiff {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StatisticDataDiff.class);
+
+    public enum Kind {
+        /** The cell has data only in the dataset after */
+        ADDED,
+        /** The cell has data only in the dataset before */
+        REMOVED,
+        /** The cell has different data in the two datasets */
+        CHANGED
+    }
+
+    private StatisticDataDiff() {
+    }
+
+    /**
+     * Compare the statistic data of the given statistic in two repositories.
+     *
+     * @param before the repository to compare from.
+     * @param after the repository to compare to.
+     * @param statisticName the name of the statistic to compare.
+     * @param consumer receives a CellDiff for each added, removed, or changed cell in ascending order of cell id.
+     * @return a summary of the differences.
+     */
+    public static Summary diff(StatisticDataRepository before, StatisticDataRepository after, String statisticName, Consumer<CellDiff> consumer) {
+        final long startTime = System.currentTimeMillis();
+
+        final Iterator<Map.Entry<Long, StatisticData>> b = before.getStatisticDataIterator(statisticName);
+        final Iterator<Map.Entry<Long, StatisticData>> a = after.getStatisticDataIterator(statisticName);
+
+        final Summary.Builder summary = new Summary.Builder(statisticName);
+
+        Map.Entry<Long, StatisticData> nextBefore = b.hasNext() ? b.next() : null;
+        Map.Entry<Long, StatisticData> nextAfter = a.hasNext() ? a.next() : null;
+
+        while (nextBefore != null || nextAfter != null) {
+            final int order;
+            if (nextBefore == null) {
+                order = 1;
+            } else if (nextAfter == null) {
+                order = -1;
+            } else {
+                order = Long.compare(nextBefore.getKey(), nextAfter.getKey());
+            }
+
+            if (order < 0) {
+                long count = StatisticDataDistribution.total(nextBefore.getValue());
+                summary.removed(count);
+                consumer.accept(new CellDiff(statisticName, nextBefore.getKey(), Kind.REMOVED, count, 0, Double.NaN));
+                nextBefore = b.hasNext() ? b.next() : null;
+            } else if (order > 0) {
+                long count = StatisticDataDistribution.total(nextAfter.getValue());
+                summary.added(count);
+                consumer.accept(new CellDiff(statisticName, nextAfter.getKey(), Kind.ADDED, 0, count, Double.NaN));
+                nextAfter = a.hasNext() ? a.next() : null;
+            } else {
+                compare(statisticName, nextBefore.getKey(), nextBefore.getValue(), nextAfter.getValue(), summary, consumer);
+                nextBefore = b.hasNext() ? b.next() : null;
+                nextAfter = a.hasNext() ? a.next() : null;
+            }
+        }
+
+        Summary result = summary.build();
+        LOG.debug("Compared " + statisticName + " in " + (System.currentTimeMillis() - startTime) + " msecs: " + result + ".");
+        return result;
+    }
+
+    private static void compare(String statisticName, long cellId, StatisticData before, StatisticData after, Summary.Builder summary, Consumer<CellDiff> consumer) {
+        final int[] p = StatisticDataDistribution.distribution(before);
+        final int[] q = StatisticDataDistribution.distribution(after);
+        final long countBefore = sum(p);
+        final long countAfter = sum(q);
+
+        if (Arrays.equals(p, q)) {
+            summary.unchanged(countBefore);
+        } else {
+            final double divergence = p.length == q.length ? StatisticDataDistribution.klDivergence(p, q) : Double.NaN;
+            summary.changed(cellId, countBefore, countAfter, divergence);
+            consumer.accept(new CellDiff(statisticName, cellId, Kind.CHANGED, countBefore, countAfter, divergence));
+        }
+    }
+
+    private static long sum(int[] values) {
+        long sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    /**
+     * The difference of the statistic data of a single cell.
+     */
+    @Immutable
+    public static final class CellDiff {
+        private final String statisticName;
+        private final long cellId;
+        private final Kind kind;
+        private final long countBefore;
+        private final long countAfter;
+        private final double divergence;
+
+        CellDiff(String statisticName, long cellId, Kind kind, long countBefore, long countAfter, double divergence) {
+            this.statisticName = statisticName;
+            this.cellId = cellId;
+            this.kind = kind;
+            this.countBefore = countBefore;
+            this.countAfter = countAfter;
+            this.divergence = divergence;
+        }
+
+        public String getStatisticName() {
+            return statisticName;
+        }
+
+        public long getCellId() {
+            return cellId;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public long getCountBefore() {
+            return countBefore;
+        }
+
+        public long getCountAfter() {
+            return countAfter;
+        }
+
+        /**
+         * Return the Kullback-Leibler divergence in bits of the distribution after from the distribution before;
+         * or NaN if the cell was added or removed.
+         */
+        public double getDivergence() {
+            return divergence;
+        }
+
+        @Override
+        public String toString() {
+            return "CellDiff{" +
+                    "statisticName='" + statisticName + '\'' +
+                    ", cellId=" + cellId +
+                    ", kind=" + kind +
+                    ", countBefore=" + countBefore +
+                    ", countAfter=" + countAfter +
+                    ", divergence=" + divergence +
+                    '}';
+        }
+    }
+
+    /**
+     * Summary of the differences of the statistic data of a statistic.
+     */
+    @Immutable
+    public static final class Summary {
+        private final String statisticName;
+        private final long cellsAdded;
+        private final long cellsRemoved;
+        private final long cellsChanged;
+        private final long cellsUnchanged;
+        private final long totalBefore;
+        private final long totalAfter;
+        private final double meanDivergence;
+        private final double maxDivergence;
+        private final long maxDivergenceCellId;
+
+        private Summary(Builder builder) {
+            this.statisticName = builder.statisticName;
+            this.cellsAdded = builder.cellsAdded;
+            this.cellsRemoved = builder.cellsRemoved;
+            this.cellsChanged = builder.cellsChanged;
+            this.cellsUnchanged = builder.cellsUnchanged;
+            this.totalBefore = builder.totalBefore;
+            this.totalAfter = builder.totalAfter;
+            this.meanDivergence = builder.cellsCompared == 0 ? 0.0 : builder.sumDivergence / builder.cellsCompared;
+            this.maxDivergence = builder.maxDivergence;
+            this.maxDivergenceCellId = builder.maxDivergenceCellId;
+        }
+
+        public String getStatisticName() {
+            return statisticName;
+        }
+
+        public long getCellsBefore() {
+            return cellsRemoved + cellsChanged + cellsUnchanged;
+        }
+
+        public long getCellsAfter() {
+            return cellsAdded + cellsChanged + cellsUnchanged;
+        }
+
+        public long getCellsAdded() {
+            return cellsAdded;
+        }
+
+        public long getCellsRemoved() {
+            return cellsRemoved;
+        }
+
+        public long getCellsChanged() {
+            return cellsChanged;
+        }
+
+        public long getCellsUnchanged() {
+            return cellsUnchanged;
+        }
+
+        public long getTotalBefore() {
+            return totalBefore;
+        }
+
+        public long getTotalAfter() {
+            return totalAfter;
+        }
+
+        /**
+         * Return the mean divergence of the cells present in both datasets; unchanged cells count as 0.
+         */
+        public double getMeanDivergence() {
+            return meanDivergence;
+        }
+
+        public double getMaxDivergence() {
+            return maxDivergence;
+        }
+
+        /**
+         * Return the id of the cell with the largest divergence; or -1 if no cell has changed.
+         */
+        public long getMaxDivergenceCellId() {
+            return maxDivergenceCellId;
+        }
+
+        /**
+         * Return true if the two datasets contain the same statistic data.
+         */
+        public boolean isIdentical() {
+            return cellsAdded == 0 && cellsRemoved == 0 && cellsChanged == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary{" +
+                    "statisticName='" + statisticName + '\'' +
+                    ", cellsBefore=" + getCellsBefore() +
+                    ", cellsAfter=" + getCellsAfter() +
+                    ", cellsAdded=" + cellsAdded +
+                    ", cellsRemoved=" + cellsRemoved +
+                    ", cellsChanged=" + cellsChanged +
+                    ", cellsUnchanged=" + cellsUnchanged +
+                    ", totalBefore=" + totalBefore +
+                    ", totalAfter=" + totalAfter +
+                    ", meanDivergence=" + meanDivergence +
+                    ", maxDivergence=" + maxDivergence +
+                    ", maxDivergenceCellId=" + maxDivergenceCellId +
+                    '}';
+        }
+
+        private static final class Builder {
+            private final String statisticName;
+            private long cellsAdded;
+            private long cellsRemoved;
+            private long cellsChanged;
+            private long cellsUnchanged;
+            private long cellsCompared;
+            private long totalBefore;
+            private long totalAfter;
+            private double sumDivergence;
+            private double maxDivergence;
+            private long maxDivergenceCellId = -1;
+
+            Builder(String statisticName) {
+                this.statisticName = statisticName;
+            }
+
+            void added(long count) {
+                cellsAdded++;
+                totalAfter += count;
+            }
+
+            void removed(long count) {
+                cellsRemoved++;
+                totalBefore += count;
+            }
+
+            void unchanged(long count) {
+                cellsUnchanged++;
+                cellsCompared++;
+                totalBefore += count;
+                totalAfter += count;
+            }
+
+            void changed(long cellId, long countBefore, long countAfter, double divergence) {
+                cellsChanged++;
+                totalBefore += countBefore;
+                totalAfter += countAfter;
+                if (!Double.isNaN(divergence)) {
+                    cellsCompared++;
+                    sumDivergence += divergence;
+                    if (maxDivergenceCellId < 0 || divergence > maxDivergence) {
+                        maxDivergence = divergence;
+                        maxDivergenceCellId = cellId;
+                    }
+                }
+            }
+
+            Summary build() {
+                return new Summary(this);
+            }
+        }
+    }
+
+}
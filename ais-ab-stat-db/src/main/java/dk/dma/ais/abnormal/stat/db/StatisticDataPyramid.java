@@ -0,0 +1,183 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat.db;
+
+import dk.dma.ais.abnormal.stat.db.data.StatisticData;
+import dk.dma.ais.abnormal.stat.db.data.StatisticDataAggregation;
+import dk.dma.enav.model.geometry.BoundingBox;
+import dk.dma.enav.model.geometry.grid.Cell;
+import dk.dma.enav.model.geometry.grid.Grid;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A multi-resolution pyramid of the statistic data in a StatisticDataRepository.
+ *
+ * Level 0 is the grid of the repository itself. Each following level uses a grid with twice the
+ * resolution (in degrees) of the level below, so a super-cell covers approx. 4 cells of the level below;
+ * its statistic data are the sum of the statistic data of the cells whose centre falls inside it.
+ *
+ * Levels above 0 are built in memory by buildLevels(), or lazily when first requested; each level is built
+ * from the level below it, so the repository is only scanned once. Built levels are read without locking.
+ */
+@ThreadSafe
+public class StatisticDataPyramid {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StatisticDataPyramid.class);
+
+    public static final int MAX_LEVEL = 10;
+
+    private final StatisticDataRepository statisticsRepository;
+    private final Grid[] grids = new Grid[MAX_LEVEL + 1];
+
+    /** Level -> statistic name -> super-cell id -> statistic data; index 0 is unused */
+    private final AtomicReferenceArray<Map<String, TLongObjectHashMap<StatisticData>>> levels;
+
+    public StatisticDataPyramid(StatisticDataRepository statisticsRepository) {
+        this.statisticsRepository = statisticsRepository;
+
+        final double resolution = statisticsRepository.getMetaData().getGridResolution();
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            grids[level] = Grid.create(resolution * (1 << level));
+        }
+        this.levels = new AtomicReferenceArray<>(MAX_LEVEL + 1);
+    }
+
+    public Grid getGrid(int level) {
+        checkLevel(level);
+        return grids[level];
+    }
+
+    /**
+     * Find the lowest level at which an area of the given size is covered by at most maxCells cells.
+     *
+     * @param latitudeSpan the north-south extent of the area in degrees.
+     * @param longitudeSpan the east-west extent of the area in degrees.
+     * @param maxCells the max. no. of cells wanted.
+     * @return the lowest level satisfying maxCells; or MAX_LEVEL if no level does.
+     */
+    public int getLevelFor(double latitudeSpan, double longitudeSpan, int maxCells) {
+        for (int level = 0; level < MAX_LEVEL; level++) {
+            final double resolution = grids[level].getResolution();
+            final double cells = (Math.ceil(latitudeSpan / resolution) + 1) * (Math.ceil(longitudeSpan / resolution) + 1);
+            if (cells <= maxCells) {
+                return level;
+            }
+        }
+        return MAX_LEVEL;
+    }
+
+    /**
+     * Get the statistic data of a (super-)cell.
+     *
+     * @param level the level of the pyramid.
+     * @param statisticName the name of the statistic.
+     * @param cellId the id of the cell in the grid of the level.
+     * @return the statistic data; or null if the cell has no data.
+     */
+    public StatisticData getStatisticData(int level, String statisticName, long cellId) {
+        checkLevel(level);
+        if (level == 0) {
+            return statisticsRepository.getStatisticData(statisticName, cellId);
+        }
+        TLongObjectHashMap<StatisticData> cells = getLevel(level).get(statisticName);
+        return cells == null ? null : cells.get(cellId);
+    }
+
+    /**
+     * Build all levels of the pyramid which are not built yet.
+     */
+    public void buildLevels() {
+        getLevel(MAX_LEVEL);
+    }
+
+    private Map<String, TLongObjectHashMap<StatisticData>> getLevel(int level) {
+        Map<String, TLongObjectHashMap<StatisticData>> superCells = levels.get(level);
+        if (superCells == null) {
+            superCells = buildLevels(level);
+        }
+        return superCells;
+    }
+
+    private synchronized Map<String, TLongObjectHashMap<StatisticData>> buildLevels(int level) {
+        for (int l = 1; l <= level; l++) {
+            if (levels.get(l) == null) {
+                levels.set(l, buildLevel(l));
+            }
+        }
+        return levels.get(level);
+    }
+
+    private Map<String, TLongObjectHashMap<StatisticData>> buildLevel(int level) {
+        final long start = System.currentTimeMillis();
+        final Grid lowerGrid = grids[level - 1];
+        final Grid grid = grids[level];
+
+        final Map<String, TLongObjectHashMap<StatisticData>> superCells = new HashMap<>();
+        final Set<String> statisticNames = statisticsRepository.getStatisticNames();
+        int n = 0;
+        for (String statisticName : statisticNames) {
+            final TLongObjectHashMap<StatisticData> cells = new TLongObjectHashMap<>();
+            if (level == 1) {
+                statisticsRepository.getCellIdsWithData(statisticName).forEach(cellId ->
+                    addToSuperCell(cells, grid, lowerGrid, cellId, statisticsRepository.getStatisticData(statisticName, cellId))
+                );
+            } else {
+                TLongObjectHashMap<StatisticData> lowerCells = levels.get(level - 1).get(statisticName);
+                lowerCells.forEachEntry((cellId, statisticData) -> {
+                    addToSuperCell(cells, grid, lowerGrid, cellId, statisticData);
+                    return true;
+                });
+            }
+            cells.forEachValue(statisticData -> {
+                StatisticDataAggregation.compact(statisticData);
+                return true;
+            });
+            cells.compact();
+            superCells.put(statisticName, cells);
+            n += cells.size();
+        }
+
+        LOG.info("Built statistic data pyramid level " + level + " with " + n + " cells in " + (System.currentTimeMillis() - start) + " msecs.");
+        return superCells;
+    }
+
+    private static void addToSuperCell(TLongObjectHashMap<StatisticData> superCells, Grid grid, Grid lowerGrid, long cellId, StatisticData statisticData) {
+        if (statisticData == null) {
+            return;
+        }
+        BoundingBox bbox = lowerGrid.getBoundingBoxOfCell(new Cell(cellId));
+        final long superCellId = grid.getCell((bbox.getMinLat() + bbox.getMaxLat()) / 2.0, (bbox.getMinLon() + bbox.getMaxLon()) / 2.0).getCellId();
+        StatisticData sum = superCells.get(superCellId);
+        // Copy on first add, so that data of the level below are never modified
+        superCells.put(superCellId, StatisticDataAggregation.add(sum, statisticData));
+    }
+
+    private static void checkLevel(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level must be 0-" + MAX_LEVEL + "; not " + level + ".");
+        }
+    }
+
+}
@@ -18,7 +18,11 @@ package dk.dma.ais.abnormal.stat.db;
 import dk.dma.ais.abnormal.stat.db.data.DatasetMetaData;
 import dk.dma.ais.abnormal.stat.db.data.StatisticData;
 
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.LongStream;
 
 public interface StatisticDataRepository {
 
@@ -31,10 +35,48 @@ public interface StatisticDataRepository {
     Set<String> getStatisticNames();
 
     long getNumberOfCells(String statisticName);
+
+    /**
+     * Return a live view of the ids of cells with data for the given statistic. Cell ids are boxed;
+     * prefer getCellIdsWithData() when iterating over many cells.
+     */
     Set<Long> getCellsWithData(String statisticName);
+
+    /**
+     * Return the ids of the cells with data for the given statistic in ascending order.
+     * @return the cell ids; or an empty stream if the statistic has no data.
+     */
+    LongStream getCellIdsWithData(String statisticName);
+
+    /**
+     * Return an iterator over the cells with data for the given statistic as (cell id, statistic data) pairs
+     * in ascending order of cell id. Data are read as the iterator advances.
+     * @return the iterator; or an empty iterator if the statistic has no data.
+     */
+    Iterator<Map.Entry<Long, StatisticData>> getStatisticDataIterator(String statisticName);
+
     StatisticData getStatisticDataForRandomCell(String statisticName);
 
     void openForRead();
     void openForWrite(boolean cacheInMemoryDumpToDiskOnClose);
+
+    /**
+     * Open the repository for write with in-memory caching and initialise its contents from the most
+     * recent complete checkpoint (if any).
+     *
+     * @return the state object stored together with the checkpoint; or null if no checkpoint was found.
+     */
+    Serializable openForResume();
+
+    /**
+     * Write a snapshot of the repository contents to a checkpoint file. The state object is stored
+     * in the same file, so that the snapshot and the state are always consistent with each other.
+     *
+     * Callers must ensure that no statistic data are put into the repository while the checkpoint is written.
+     *
+     * @param checkpointState state to store with the checkpoint.
+     */
+    void writeCheckpoint(Serializable checkpointState);
+
     void close();
 }
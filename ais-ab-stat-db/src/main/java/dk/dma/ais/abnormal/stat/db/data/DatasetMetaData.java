@@ -20,16 +20,28 @@ import java.io.Serializable;
 
 public final class DatasetMetaData implements Serializable {
 
+    /** Equal to the default serialVersionUID of format version 1, so that old datasets can still be read. */
+    private static final long serialVersionUID = 3859263712300839468L;
+
     // Time of first ais message
     // Time of last ais message
 
     public DatasetMetaData(Double gridResolution, Integer downSampling) {
+        this.formatVersion = FORMAT_VERSION;
         this.gridResolution = gridResolution;
         this.downSampling = downSampling;
     }
 
+    /**
+     * Get the format version of the dataset.
+     *
+     * 1: Statistic data are stored with MapDB's default serializer.
+     * 2: Statistic data are stored with StatisticDataSerializer.
+     *
+     * @return the format version of the dataset these metadata were stored with.
+     */
     public Short getFormatVersion() {
-        return FORMAT_VERSION;
+        return formatVersion == null ? 1 : formatVersion;
     }
 
     public Double getGridResolution() {
@@ -40,7 +52,8 @@ public final class DatasetMetaData implements Serializable {
         return downSampling;
     }
 
-    private static final Short FORMAT_VERSION = 1;
+    private static final Short FORMAT_VERSION = 2;
+    private final Short   formatVersion;  // Not stored by format version 1
     private final Double  gridResolution;
     private final Integer downSampling;
 
@@ -166,6 +166,13 @@ public abstract class FourKeyStatisticData implements StatisticData, FourKeyMap
 
     protected abstract String getNameOfOnlySupportedValueOfKey4();
 
+    /**
+     * Direct access to the underlying map; for use by StatisticDataSerializer.
+     */
+    TShortIntHashMap getRawData() {
+        return data;
+    }
+
     short computeMapKey(int key1, int key2, int key3, String key4) {
         if (key1 > MAX_KEY_1) {
             throw new IllegalArgumentException("key1 must be 0-" + MAX_KEY_1 + " - not " + key1 + ".");
@@ -170,6 +170,13 @@ public class ShipTypeAndSizeStatisticData implements StatisticData, ThreeKeyMap
         return (short) (key2 + key1*d1);
     }
 
+    /**
+     * Direct access to the underlying map; for use by StatisticDataSerializer.
+     */
+    TShortIntHashMap getRawData() {
+        return data;
+    }
+
     int extractStatisticId(short key) {
         return 0;
     }
@@ -0,0 +1,96 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat.db.data;
+
+import gnu.trove.map.hash.TShortIntHashMap;
+
+/**
+ * Summation of the statistic data of several grid cells into the statistic data of one larger cell.
+ */
+public final class StatisticDataAggregation {
+
+    private StatisticDataAggregation() {
+    }
+
+    /**
+     * Add the counts of data to sum. The sum is not compacted; call compact() once it is complete.
+     *
+     * @param sum the statistic data to add to; or null to start a new sum.
+     * @param data the statistic data to add; must be of the same type and dimensions as sum.
+     * @return sum with data added; or a new copy of data if sum was null.
+     * @throws IllegalArgumentException if data cannot be added to sum.
+     */
+    public static StatisticData add(StatisticData sum, StatisticData data) {
+        if (sum == null) {
+            sum = newEmptyLike(data);
+        } else if (sum.getClass() != data.getClass()) {
+            throw new IllegalArgumentException("Cannot add " + data.getClass().getSimpleName() + " to " + sum.getClass().getSimpleName() + ".");
+        }
+
+        if (data instanceof ShipTypeAndSizeStatisticData) {
+            ShipTypeAndSizeStatisticData s = (ShipTypeAndSizeStatisticData) sum, d = (ShipTypeAndSizeStatisticData) data;
+            if (s.MAX_KEY_1 != d.MAX_KEY_1 || s.MAX_KEY_2 != d.MAX_KEY_2) {
+                throw new IllegalArgumentException("Cannot add statistic data of different dimensions.");
+            }
+            addRawData(s.getRawData(), d.getRawData());
+        } else {
+            FourKeyStatisticData s = (FourKeyStatisticData) sum, d = (FourKeyStatisticData) data;
+            if (s.MAX_KEY_1 != d.MAX_KEY_1 || s.MAX_KEY_2 != d.MAX_KEY_2 || s.MAX_KEY_3 != d.MAX_KEY_3) {
+                throw new IllegalArgumentException("Cannot add statistic data of different dimensions.");
+            }
+            addRawData(s.getRawData(), d.getRawData());
+        }
+
+        return sum;
+    }
+
+    /**
+     * Release the spare capacity left in sum by repeated additions.
+     *
+     * @param sum the completed sum.
+     */
+    public static void compact(StatisticData sum) {
+        if (sum instanceof ShipTypeAndSizeStatisticData) {
+            ((ShipTypeAndSizeStatisticData) sum).getRawData().compact();
+        } else if (sum instanceof FourKeyStatisticData) {
+            ((FourKeyStatisticData) sum).getRawData().compact();
+        }
+    }
+
+    private static StatisticData newEmptyLike(StatisticData data) {
+        final Class<?> type = data.getClass();
+        if (type == ShipTypeAndSizeStatisticData.class) {
+            ShipTypeAndSizeStatisticData d = (ShipTypeAndSizeStatisticData) data;
+            return new ShipTypeAndSizeStatisticData(d.MAX_KEY_1, d.MAX_KEY_2, 1);
+        } else if (type == CourseOverGroundStatisticData.class) {
+            CourseOverGroundStatisticData d = (CourseOverGroundStatisticData) data;
+            return new CourseOverGroundStatisticData(d.MAX_KEY_1, d.MAX_KEY_2, d.MAX_KEY_3, 1);
+        } else if (type == SpeedOverGroundStatisticData.class) {
+            SpeedOverGroundStatisticData d = (SpeedOverGroundStatisticData) data;
+            return new SpeedOverGroundStatisticData(d.MAX_KEY_1, d.MAX_KEY_2, d.MAX_KEY_3, 1);
+        }
+        throw new IllegalArgumentException("Aggregation of " + type.getSimpleName() + " is not supported.");
+    }
+
+    private static void addRawData(TShortIntHashMap sum, TShortIntHashMap data) {
+        data.forEachEntry((key, value) -> {
+            sum.adjustOrPutValue(key, value, value);
+            return true;
+        });
+    }
+
+}
@@ -0,0 +1,107 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat.db.data;
+
+import gnu.trove.map.hash.TShortIntHashMap;
+
+/**
+ * Distributions of the ship counts of statistic data; for comparison of the statistic data of the same cell
+ * in two datasets.
+ */
+public final class StatisticDataDistribution {
+
+    /** Pseudo count added to each bin before computing divergences; so that empty bins do not give infinity */
+    static final double PSEUDO_COUNT = 0.5;
+
+    private StatisticDataDistribution() {
+    }
+
+    /**
+     * Return the total ship count of the statistic data.
+     */
+    public static long total(StatisticData data) {
+        final long[] total = {0};
+        rawDataOf(data).forEachValue(value -> {
+            total[0] += value;
+            return true;
+        });
+        return total[0];
+    }
+
+    /**
+     * Return the ship counts of the statistic data distributed over the dimension specific to the statistic.
+     * For course and speed over ground this is the course resp. speed category summed over ship type and size.
+     * For ship type and size it is the combination of ship type and size.
+     */
+    public static int[] distribution(StatisticData data) {
+        if (data instanceof FourKeyStatisticData) {
+            FourKeyStatisticData d = (FourKeyStatisticData) data;
+            int[] bins = new int[d.MAX_KEY_3 + 1];
+            d.getRawData().forEachEntry((key, value) -> {
+                bins[d.extractKey3(key)] += value;
+                return true;
+            });
+            return bins;
+        } else if (data instanceof ShipTypeAndSizeStatisticData) {
+            ShipTypeAndSizeStatisticData d = (ShipTypeAndSizeStatisticData) data;
+            int[] bins = new int[(d.MAX_KEY_1 + 1) * (d.MAX_KEY_2 + 1)];
+            d.getRawData().forEachEntry((key, value) -> {
+                bins[key] += value;
+                return true;
+            });
+            return bins;
+        }
+        throw new IllegalArgumentException("Distribution of " + data.getClass().getSimpleName() + " is not supported.");
+    }
+
+    /**
+     * Return the Kullback-Leibler divergence D(p || q) in bits of the distribution q from the distribution p.
+     * Both distributions are smoothed by adding PSEUDO_COUNT to every bin.
+     *
+     * @param p counts of the reference distribution.
+     * @param q counts of the compared distribution; of the same length as p.
+     */
+    public static double klDivergence(int[] p, int[] q) {
+        if (p.length != q.length) {
+            throw new IllegalArgumentException("Distributions must have the same no. of bins; not " + p.length + " and " + q.length + ".");
+        }
+
+        double sumP = p.length * PSEUDO_COUNT, sumQ = q.length * PSEUDO_COUNT;
+        for (int i = 0; i < p.length; i++) {
+            sumP += p[i];
+            sumQ += q[i];
+        }
+
+        double divergence = 0.0;
+        for (int i = 0; i < p.length; i++) {
+            double pi = (p[i] + PSEUDO_COUNT) / sumP;
+            double qi = (q[i] + PSEUDO_COUNT) / sumQ;
+            divergence += pi * Math.log(pi / qi);
+        }
+        return Math.max(0.0, divergence / Math.log(2));
+    }
+
+    private static TShortIntHashMap rawDataOf(StatisticData data) {
+        if (data instanceof FourKeyStatisticData) {
+            return ((FourKeyStatisticData) data).getRawData();
+        } else if (data instanceof ShipTypeAndSizeStatisticData) {
+            return ((ShipTypeAndSizeStatisticData) data).getRawData();
+        }
+        throw new IllegalArgumentException("Distribution of " + data.getClass().getSimpleName() + " is not supported.");
+    }
+
+}
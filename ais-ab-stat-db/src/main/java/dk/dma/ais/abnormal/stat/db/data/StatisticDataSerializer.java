@@ -0,0 +1,176 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.ais.abnormal.stat.db.data;
+
+import gnu.trove.map.hash.TShortIntHashMap;
+import org.mapdb.Serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A compact MapDB serializer for StatisticData.
+ *
+ * Each record consists of a type tag, the max. key values of the data structure, the number of entries,
+ * and the entries sorted by map key. Each entry is written as the varint encoded difference from the
+ * previous map key, followed by the zig-zag varint encoded value. Typical cells hold a few small counts,
+ * so most records take only a few bytes.
+ *
+ * StatisticData types not known by this serializer are written using Java serialization.
+ */
+public final class StatisticDataSerializer implements Serializer<StatisticData>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final StatisticDataSerializer INSTANCE = new StatisticDataSerializer();
+
+    static final byte TAG_SHIP_TYPE_AND_SIZE = 1;
+    static final byte TAG_COURSE_OVER_GROUND = 2;
+    static final byte TAG_SPEED_OVER_GROUND = 3;
+    static final byte TAG_JAVA_SERIALIZED = 127;
+
+    @Override
+    public void serialize(DataOutput out, StatisticData value) throws IOException {
+        final Class<?> type = value.getClass();
+        if (type == ShipTypeAndSizeStatisticData.class) {
+            ShipTypeAndSizeStatisticData data = (ShipTypeAndSizeStatisticData) value;
+            out.writeByte(TAG_SHIP_TYPE_AND_SIZE);
+            out.writeByte(data.MAX_KEY_1);
+            out.writeByte(data.MAX_KEY_2);
+            writeEntries(out, data.getRawData());
+        } else if (type == CourseOverGroundStatisticData.class || type == SpeedOverGroundStatisticData.class) {
+            FourKeyStatisticData data = (FourKeyStatisticData) value;
+            out.writeByte(type == CourseOverGroundStatisticData.class ? TAG_COURSE_OVER_GROUND : TAG_SPEED_OVER_GROUND);
+            out.writeByte(data.MAX_KEY_1);
+            out.writeByte(data.MAX_KEY_2);
+            out.writeByte(data.MAX_KEY_3);
+            writeEntries(out, data.getRawData());
+        } else {
+            out.writeByte(TAG_JAVA_SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(value);
+            }
+            writeVarInt(out, bytes.size());
+            out.write(bytes.toByteArray());
+        }
+    }
+
+    @Override
+    public StatisticData deserialize(DataInput in, int available) throws IOException {
+        if (available == 0) {
+            return null;
+        }
+
+        final byte tag = in.readByte();
+        switch (tag) {
+            case TAG_SHIP_TYPE_AND_SIZE: {
+                ShipTypeAndSizeStatisticData data = new ShipTypeAndSizeStatisticData(in.readByte(), in.readByte(), 1);
+                readEntries(in, data.getRawData());
+                return data;
+            }
+            case TAG_COURSE_OVER_GROUND: {
+                CourseOverGroundStatisticData data = new CourseOverGroundStatisticData(in.readByte(), in.readByte(), in.readByte(), 1);
+                readEntries(in, data.getRawData());
+                return data;
+            }
+            case TAG_SPEED_OVER_GROUND: {
+                SpeedOverGroundStatisticData data = new SpeedOverGroundStatisticData(in.readByte(), in.readByte(), in.readByte(), 1);
+                readEntries(in, data.getRawData());
+                return data;
+            }
+            case TAG_JAVA_SERIALIZED: {
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return (StatisticData) ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            }
+            default:
+                throw new IOException("Unknown statistic data type tag: " + tag);
+        }
+    }
+
+    @Override
+    public int fixedSize() {
+        return -1;
+    }
+
+    private static void writeEntries(DataOutput out, TShortIntHashMap data) throws IOException {
+        final short[] rawKeys = data.keys();
+        final int[] keys = new int[rawKeys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = rawKeys[i] & 0xffff;
+        }
+        Arrays.sort(keys);
+
+        writeVarInt(out, keys.length);
+        int previousKey = 0;
+        for (int key : keys) {
+            writeVarInt(out, key - previousKey);
+            writeVarInt(out, zigZag(data.get((short) key)));
+            previousKey = key;
+        }
+    }
+
+    private static void readEntries(DataInput in, TShortIntHashMap data) throws IOException {
+        final int n = readVarInt(in);
+        data.ensureCapacity(n);
+        int key = 0;
+        for (int i = 0; i < n; i++) {
+            key += readVarInt(in);
+            data.put((short) key, unZigZag(readVarInt(in)));
+        }
+        data.compact();
+    }
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint.");
+    }
+}
@@ -19,6 +19,7 @@ package dk.dma.ais.abnormal.stat.db.mapdb;
 import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
 import dk.dma.ais.abnormal.stat.db.data.DatasetMetaData;
 import dk.dma.ais.abnormal.stat.db.data.StatisticData;
+import dk.dma.ais.abnormal.stat.db.data.StatisticDataSerializer;
 import org.mapdb.BTreeMap;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
@@ -28,12 +29,19 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 import static java.nio.file.Files.move;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
@@ -53,8 +61,17 @@ public class StatisticDataRepositoryMapDB implements StatisticDataRepository {
     private static final String COLLECTION_METADATA = "metadata";
     private static final String KEY_METADATA = "metadata";
 
+    private static final String COLLECTION_CHECKPOINT = "checkpoint";
+    private static final String KEY_CHECKPOINT = "state";
+
+    private static final String QUALIFIER_BACKUP = "backup";
+    private static final String QUALIFIER_CHECKPOINT = "checkpoint";
+
     private DB db;
 
+    /** The maps of the statistics in db; cached to avoid a catalog lookup in DB on each get and put */
+    private final ConcurrentMap<String, BTreeMap<Long, StatisticData>> statisticMaps = new ConcurrentHashMap<>();
+
     private File dbFile;
     private boolean readOnly;
     private boolean dumpToDiskOnClose;
@@ -121,6 +138,112 @@ public class StatisticDataRepositoryMapDB implements StatisticDataRepository {
         LOG.debug("Database successfully opened for write by MapDB.");
     }
 
+    @Override
+    public Serializable openForResume() {
+        if (this.db != null) {
+            throw new IllegalStateException("Database already opened.");
+        }
+
+        this.readOnly = false;
+        this.dumpToDiskOnClose = true;
+        this.db = openInMemoryOnHeapDatabase();
+
+        Serializable checkpointState = null;
+        for (File checkpointFile : new File[] { checkpointFileFor(dbFile, false), checkpointFileFor(dbFile, true) }) {
+            checkpointState = loadCheckpoint(checkpointFile);
+            if (checkpointState != null) {
+                break;
+            }
+            // Discard whatever was copied before the checkpoint failed to load
+            resetInMemoryDatabase();
+        }
+
+        if (checkpointState == null) {
+            LOG.warn("No complete checkpoint found for " + dbFile.getName() + ". Starting with empty database.");
+        }
+
+        scheduleNextBackupDBToDisk();
+
+        LOG.debug("Database successfully opened for resume by MapDB.");
+        return checkpointState;
+    }
+
+    /**
+     * Copy the contents of the given checkpoint file into this (in-memory) database.
+     * @return the checkpoint state; or null if the checkpoint file does not exist or is incomplete.
+     */
+    private Serializable loadCheckpoint(File checkpointFile) {
+        if (! checkpointFile.exists()) {
+            LOG.debug("Checkpoint file " + checkpointFile.getName() + " does not exist.");
+            return null;
+        }
+
+        Serializable checkpointState = null;
+        try {
+            StatisticDataRepositoryMapDB checkpoint = new StatisticDataRepositoryMapDB(checkpointFile.getPath());
+            checkpoint.openForRead();
+            try {
+                checkpointState = checkpoint.getCheckpointState();
+                if (checkpointState == null) {
+                    LOG.warn("Checkpoint file " + checkpointFile.getName() + " is incomplete; ignoring it.");
+                } else {
+                    LOG.info("Loading checkpoint from " + checkpointFile.getName() + ".");
+                    checkpoint.copyToDatabase(this.db);
+                    LOG.info("Checkpoint loaded: " + checkpointState);
+                }
+            } finally {
+                checkpoint.close();
+            }
+        } catch (Exception | IOError e) {
+            LOG.error("Failed to load checkpoint from " + checkpointFile.getName() + ": " + e.getMessage(), e);
+            checkpointState = null;
+        }
+
+        return checkpointState;
+    }
+
+    private void resetInMemoryDatabase() {
+        statisticMaps.clear();
+        this.db.close();
+        this.db = openInMemoryOnHeapDatabase();
+    }
+
+    private Serializable getCheckpointState() {
+        BTreeMap<String, Serializable> checkpoint = (BTreeMap<String, Serializable>) db.getAll().get(COLLECTION_CHECKPOINT);
+        return checkpoint == null ? null : checkpoint.get(KEY_CHECKPOINT);
+    }
+
+    @Override
+    public void writeCheckpoint(Serializable checkpointState) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Cannot checkpoint read-only database.");
+        }
+
+        this.backupToDiskLock.lock();
+        try {
+            File checkpointFile = prepareRotatedDBFileFor(dbFile, QUALIFIER_CHECKPOINT);
+            if (checkpointFile == null) {
+                LOG.error("Failed to prepare checkpoint file. Cannot write checkpoint.");
+                return;
+            }
+
+            long t0 = System.currentTimeMillis();
+            DB checkpointDB = openDiskDatabase(checkpointFile, false);
+            copyToDatabase(checkpointDB);
+            checkpointDB.commit();
+
+            // Checkpoint state is written last; a checkpoint file without it is incomplete.
+            BTreeMap<String, Serializable> checkpoint = checkpointDB.createTreeMap(COLLECTION_CHECKPOINT).makeOrGet();
+            checkpoint.put(KEY_CHECKPOINT, checkpointState);
+            checkpointDB.commit();
+            checkpointDB.close();
+
+            LOG.info("Checkpoint written to \"" + checkpointFile.getName() + "\" in " + (System.currentTimeMillis() - t0) + " msecs: " + checkpointState);
+        } finally {
+            this.backupToDiskLock.unlock();
+        }
+    }
+
     @Override
     public void close() {
         LOG.info("Attempting to commit statistic data repository.");
@@ -144,6 +267,7 @@ public class StatisticDataRepositoryMapDB implements StatisticDataRepository {
         }
 
         LOG.info("Attempting to close statistic data repository.");
+        statisticMaps.clear();
         db.close();
         LOG.info("Statistic data repository closed.");
     }
@@ -152,7 +276,10 @@ public class StatisticDataRepositoryMapDB implements StatisticDataRepository {
         // Pump.copy(db, onDisk); <-- TODO not working in MapDB v1.0.1: https://github.com/jankotek/MapDB/issues/208
 
         // Copy metadata to other database
-        putMetaData(toDatabase, getMetaData());
+        DatasetMetaData metaData = getMetaData();
+        if (metaData != null) {
+            putMetaData(toDatabase, metaData);
+        }
 
         // Copy statistic data to other database
         Set<String> statisticNames = getStatisticNames();
@@ -162,13 +289,16 @@ public class StatisticDataRepositoryMapDB implements StatisticDataRepository {
         long estimatedTotalNumberOfCellsWithData = -1;
 
         for (String statisticName : statisticNames) {
-            Set<Long> cellsWithData = getCellsWithData(statisticName);
+            BTreeMap<Long, StatisticData> fromMap = getStatisticMap(statisticName);
+            if (fromMap == null) {
+                continue;
+            }
             if (estimatedTotalNumberOfCellsWithData < 0) {
-                estimatedTotalNumberOfCellsWithData = statisticNames.size() * cellsWithData.size();
+                estimatedTotalNumberOfCellsWithData = statisticNames.size() * fromMap.sizeLong();
             }
-            for (Long cellId : cellsWithData) {
-                StatisticData statistics = getStatisticData(statisticName, cellId);
-                putStatisticData(toDatabase, statisticName, cellId, statistics);
+            BTreeMap<Long, StatisticData> toMap = createOrGetStatisticMap(toDatabase, statisticName);
+            for (Map.Entry<Long, StatisticData> cell : fromMap.entrySet()) {
+                toMap.put(cell.getKey(), cell.getValue());
                 progressOutput(i++, estimatedTotalNumberOfCellsWithData);
             }
         }
@@ -192,7 +322,7 @@ public class StatisticDataRepositoryMapDB implements StatisticDataRepository {
 
         this.backupToDiskLock.lock();
         try {
-            File backupDBFile = prepareBackupDBFileFor(dbFile);
+            File backupDBFile = prepareRotatedDBFileFor(dbFile, QUALIFIER_BACKUP);
             if (backupDBFile == null) {
                 LOG.error("Failed to prepare DB backup file. Cannot backup database to disk.");
                 return;
@@ -214,43 +344,63 @@ public class StatisticDataRepositoryMapDB implements StatisticDataRepository {
      * already exist it will be renamed to xxx.backup.previous.statistics.
      * @return  The file that MapDB can use to store its data in.
      */
-     static File prepareBackupDBFileFor(File dbFile) {
-        // Calc name of backup file
+    static File prepareBackupDBFileFor(File dbFile) {
+        return prepareRotatedDBFileFor(dbFile, QUALIFIER_BACKUP);
+    }
+
+    /**
+     * Return the file holding the most recent (or the previous) checkpoint of the database stored in dbFile.
+     */
+    static File checkpointFileFor(File dbFile, boolean previous) {
+        return new File(qualifiedFileName(dbFile, previous ? QUALIFIER_CHECKPOINT + ".previous" : QUALIFIER_CHECKPOINT));
+    }
+
+    private static String qualifiedFileName(File dbFile, String qualifier) {
         StringBuilder tmp = new StringBuilder(dbFile.getPath());
         int n = tmp.lastIndexOf(FILENAME_SUFFIX);
-        tmp.replace(n, n + FILENAME_SUFFIX.length(), ".backup" + FILENAME_SUFFIX);
-        String backupFileName = tmp.toString();
+        tmp.replace(n, n + FILENAME_SUFFIX.length(), "." + qualifier + FILENAME_SUFFIX);
+        return tmp.toString();
+    }
+
+    /**
+     * Prepare a new xxx.qualifier.statistics file that can be used by MapDB to store a copy of the database. If a
+     * xxx.qualifier.statistics already exist it will be renamed to xxx.qualifier.previous.statistics.
+     * @return  The file that MapDB can use to store its data in.
+     */
+    static File prepareRotatedDBFileFor(File dbFile, String qualifier) {
+        // Calc name of backup file
+        String backupFileName = qualifiedFileName(dbFile, qualifier);
         LOG.debug("backupFileName: " + backupFileName);
 
         File backupFile = new File(backupFileName);
         File backupFileP = new File(backupFileName+".p");
         if (backupFile.exists()) {
-            LOG.debug("Previous backup database exists.");
-            String previousBackupFileName = backupFileName.replaceFirst(".backup.", ".backup.previous.");
+            LOG.debug("Previous " + qualifier + " database exists.");
+            String previousBackupFileName = qualifiedFileName(dbFile, qualifier + ".previous");
             File previousBackupFile = new File(previousBackupFileName);
             File previousBackupFileP = new File(previousBackupFileName+".p");
             if (previousBackupFile.exists()) {
-                LOG.debug("Will delete previous backup file.");
+                LOG.debug("Will delete previous " + qualifier + " file.");
                 boolean prevBackupFileDeleted = previousBackupFile.delete();
                 if (!prevBackupFileDeleted) {
-                    LOG.error("Could not delete previous backup file: " + previousBackupFile.getAbsolutePath());
+                    LOG.error("Could not delete previous " + qualifier + " file: " + previousBackupFile.getAbsolutePath());
                     return null;
                 }
                 boolean prevBackupFilePDeleted = previousBackupFileP.delete();
                 if (!prevBackupFilePDeleted) {
-                    LOG.error("Could not delete previous backup .p file: " + previousBackupFileP.getAbsolutePath());
+                    LOG.error("Could not delete previous " + qualifier + " .p file: " + previousBackupFileP.getAbsolutePath());
                     return null;
                 }
             }
-            LOG.debug("Will rename previous backup file from " + backupFile.getName() + " to " + previousBackupFile.getName());
+            LOG.debug("Will rename previous " + qualifier + " file from " + backupFile.getName() + " to " + previousBackupFile.getName());
             boolean backupFileRenamed = backupFile.renameTo(previousBackupFile);
             if (!backupFileRenamed) {
-                LOG.error("Failed to rename backup file from " + backupFile.getName() + " to " + previousBackupFile.getName());
+                LOG.error("Failed to rename " + qualifier + " file from " + backupFile.getName() + " to " + previousBackupFile.getName());
                 return null;
             }
             boolean backupFilePRenamed = backupFileP.renameTo(previousBackupFileP);
             if (!backupFilePRenamed) {
-                LOG.error("Failed to rename backup .p file from " + backupFile.getName() + " to " + previousBackupFileP.getName());
+                LOG.error("Failed to rename " + qualifier + " .p file from " + backupFile.getName() + " to " + previousBackupFileP.getName());
                 return null;
             }
             backupFile = new File(backupFileName);
@@ -267,7 +417,7 @@ public class StatisticDataRepositoryMapDB implements StatisticDataRepository {
         // Filter so only statistics are returned (not metadata etc.)
         Set<String> statisticNames = new LinkedHashSet<>();
         for (String key : allKeys) {
-            if (! key.equals(COLLECTION_METADATA)) {
+            if (! key.equals(COLLECTION_METADATA) && ! key.equals(COLLECTION_CHECKPOINT)) {
                 statisticNames.add(key);
             }
         }
@@ -277,9 +427,36 @@ public class StatisticDataRepositoryMapDB implements StatisticDataRepository {
 
     @Override
     public long getNumberOfCells(String statisticName) {
-        BTreeMap<Object, Object> allCellDataForStatistic = db.createTreeMap(statisticName).makeOrGet();
-        long numberOfCells = allCellDataForStatistic.sizeLong();
-        return numberOfCells;
+        BTreeMap<Long, StatisticData> allCellDataForStatistic = getStatisticMap(statisticName);
+        return allCellDataForStatistic == null ? 0 : allCellDataForStatistic.sizeLong();
+    }
+
+    /**
+     * Return the map holding the data of the given statistic. In read-only mode null is returned
+     * if the statistic does not exist; otherwise it is created.
+     */
+    private BTreeMap<Long, StatisticData> getStatisticMap(String statisticName) {
+        BTreeMap<Long, StatisticData> allCellDataForStatistic = statisticMaps.get(statisticName);
+        if (allCellDataForStatistic == null) {
+            if (readOnly) {
+                allCellDataForStatistic = (BTreeMap<Long, StatisticData>) db.getAll().get(statisticName);
+            } else {
+                allCellDataForStatistic = createOrGetStatisticMap(db, statisticName);
+            }
+            if (allCellDataForStatistic != null) {
+                statisticMaps.putIfAbsent(statisticName, allCellDataForStatistic);
+            }
+        }
+        return allCellDataForStatistic;
+    }
+
+    /**
+     * Return the map holding the data of the given statistic; create it if it does not exist. New maps store
+     * their values with StatisticDataSerializer. Existing maps keep the serializer they were created with,
+     * so datasets of format version 1 can still be read.
+     */
+    private static BTreeMap<Long, StatisticData> createOrGetStatisticMap(DB db, String statisticName) {
+        return db.createTreeMap(statisticName).valueSerializer(StatisticDataSerializer.INSTANCE).makeOrGet();
     }
 
     @Override
@@ -306,19 +483,13 @@ public class StatisticDataRepositoryMapDB implements StatisticDataRepository {
 
     @Override
     public StatisticData getStatisticData(String statisticName, long cellId) {
-        BTreeMap<Object, Object> allCellDataForStatistic;
-
-        if (readOnly) {
-            allCellDataForStatistic = (BTreeMap<Object, Object>) db.getAll().get(statisticName);
-        } else {
-            allCellDataForStatistic = db.createTreeMap(statisticName).makeOrGet();
-        }
+        BTreeMap<Long, StatisticData> allCellDataForStatistic = getStatisticMap(statisticName);
 
         StatisticData statistics = null;
         if (allCellDataForStatistic == null) {
             LOG.error("No data exists for statistic " + statisticName);
         } else {
-            statistics = (StatisticData) allCellDataForStatistic.get(cellId);
+            statistics = allCellDataForStatistic.get(cellId);
         }
 
         return statistics;
@@ -326,7 +497,10 @@ public class StatisticDataRepositoryMapDB implements StatisticDataRepository {
 
     @Override
     public void putStatisticData(String statisticName, long cellId, StatisticData statistics) {
-        putStatisticData(db, statisticName, cellId, statistics);
+        if (readOnly) {
+            throw new UnsupportedOperationException("Cannot write to read-only database.");
+        }
+        getStatisticMap(statisticName).put(cellId, statistics);
 
         // Check if it is time for a memory backup to disk
         if (this.dumpToDiskOnClose && isBackupToDiskScheduled()) {
@@ -342,34 +516,33 @@ public class StatisticDataRepositoryMapDB implements StatisticDataRepository {
         }
     }
 
-    private void putStatisticData(DB db, String statisticName, long cellId, StatisticData statistics) {
-        BTreeMap<Object, Object> allCellDataForStatistic = db.createTreeMap(statisticName).makeOrGet();
-        allCellDataForStatistic.put(cellId, statistics);
-    }
-
     @Override
     public Set<Long> getCellsWithData(String statisticName) {
-        BTreeMap<Long, StatisticData> allCellDataForStatistic;
+        BTreeMap<Long, StatisticData> allCellDataForStatistic = getStatisticMap(statisticName);
+        return allCellDataForStatistic == null ? null : allCellDataForStatistic.keySet();
+    }
 
-        if (readOnly) {
-            allCellDataForStatistic = (BTreeMap<Long, StatisticData>) db.getAll().get(statisticName);
-        } else {
-            allCellDataForStatistic = db.createTreeMap(statisticName).makeOrGet();
+    @Override
+    public LongStream getCellIdsWithData(String statisticName) {
+        BTreeMap<Long, StatisticData> allCellDataForStatistic = getStatisticMap(statisticName);
+        if (allCellDataForStatistic == null) {
+            return LongStream.empty();
         }
-
-        return allCellDataForStatistic.keySet();
+        return StreamSupport.stream(allCellDataForStatistic.keySet().spliterator(), false).mapToLong(Long::longValue);
     }
 
     @Override
-    public StatisticData getStatisticDataForRandomCell(String statisticName) {
-        BTreeMap<Long, StatisticData> allCellDataForStatistic;
-
-        if (readOnly) {
-            allCellDataForStatistic = (BTreeMap<Long, StatisticData>) db.getAll().get(statisticName);
-        } else {
-            allCellDataForStatistic = db.createTreeMap(statisticName).makeOrGet();
+    public Iterator<Map.Entry<Long, StatisticData>> getStatisticDataIterator(String statisticName) {
+        BTreeMap<Long, StatisticData> allCellDataForStatistic = getStatisticMap(statisticName);
+        if (allCellDataForStatistic == null) {
+            return Collections.emptyIterator();
         }
+        return allCellDataForStatistic.entrySet().iterator();
+    }
 
+    @Override
+    public StatisticData getStatisticDataForRandomCell(String statisticName) {
+        BTreeMap<Long, StatisticData> allCellDataForStatistic = getStatisticMap(statisticName);
         return allCellDataForStatistic.get(allCellDataForStatistic.firstKey());
     }
 
@@ -0,0 +1,137 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat.db;
+
+import dk.dma.ais.abnormal.stat.db.data.CourseOverGroundStatisticData;
+import dk.dma.ais.abnormal.stat.db.mapdb.StatisticDataRepositoryMapDB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StatisticDataDiffTest {
+
+    static final String STATISTIC_NAME = "CourseOverGroundStatistic";
+    static final String SHIP_COUNT = CourseOverGroundStatisticData.STAT_SHIP_COUNT;
+
+    private StatisticDataRepository before;
+    private StatisticDataRepository after;
+
+    @Before
+    public void openRepositories() {
+        String tmpDir = System.getProperty("java.io.tmpdir");
+        before = new StatisticDataRepositoryMapDB(tmpDir + File.separator + UUID.randomUUID());
+        before.openForWrite(false);
+        after = new StatisticDataRepositoryMapDB(tmpDir + File.separator + UUID.randomUUID());
+        after.openForWrite(false);
+    }
+
+    @After
+    public void closeRepositories() {
+        before.close();
+        after.close();
+    }
+
+    @Test
+    public void identicalDatasetsHaveNoDifferences() {
+        for (long cellId = 1; cellId <= 5; cellId++) {
+            before.putStatisticData(STATISTIC_NAME, cellId, data(3, (int) cellId));
+            after.putStatisticData(STATISTIC_NAME, cellId, data(3, (int) cellId));
+        }
+
+        List<StatisticDataDiff.CellDiff> diffs = new ArrayList<>();
+        StatisticDataDiff.Summary summary = StatisticDataDiff.diff(before, after, STATISTIC_NAME, diffs::add);
+
+        assertTrue(summary.isIdentical());
+        assertTrue(diffs.isEmpty());
+        assertEquals(5, summary.getCellsUnchanged());
+        assertEquals(15, summary.getTotalBefore());
+        assertEquals(15, summary.getTotalAfter());
+        assertEquals(0.0, summary.getMeanDivergence(), 1e-12);
+        assertEquals(-1, summary.getMaxDivergenceCellId());
+    }
+
+    @Test
+    public void reportsAddedRemovedAndChangedCells() {
+        before.putStatisticData(STATISTIC_NAME, 1, data(3, 10));
+        before.putStatisticData(STATISTIC_NAME, 2, data(3, 10));
+        before.putStatisticData(STATISTIC_NAME, 4, data(3, 10));
+        before.putStatisticData(STATISTIC_NAME, 5, data(3, 10));
+
+        after.putStatisticData(STATISTIC_NAME, 2, data(3, 10));
+        after.putStatisticData(STATISTIC_NAME, 3, data(3, 7));
+        after.putStatisticData(STATISTIC_NAME, 4, data(3, 12));
+        after.putStatisticData(STATISTIC_NAME, 5, data(8, 10));
+
+        List<StatisticDataDiff.CellDiff> diffs = new ArrayList<>();
+        StatisticDataDiff.Summary summary = StatisticDataDiff.diff(before, after, STATISTIC_NAME, diffs::add);
+
+        assertFalse(summary.isIdentical());
+        assertEquals(4, summary.getCellsBefore());
+        assertEquals(4, summary.getCellsAfter());
+        assertEquals(1, summary.getCellsAdded());
+        assertEquals(1, summary.getCellsRemoved());
+        assertEquals(2, summary.getCellsChanged());
+        assertEquals(1, summary.getCellsUnchanged());
+        assertEquals(40, summary.getTotalBefore());
+        assertEquals(39, summary.getTotalAfter());
+
+        assertEquals(4, diffs.size());
+        assertDiff(diffs.get(0), 1, StatisticDataDiff.Kind.REMOVED, 10, 0);
+        assertDiff(diffs.get(1), 3, StatisticDataDiff.Kind.ADDED, 0, 7);
+        assertDiff(diffs.get(2), 4, StatisticDataDiff.Kind.CHANGED, 10, 12);
+        assertDiff(diffs.get(3), 5, StatisticDataDiff.Kind.CHANGED, 10, 10);
+
+        assertTrue(Double.isNaN(diffs.get(0).getDivergence()));
+        assertTrue(Double.isNaN(diffs.get(1).getDivergence()));
+
+        // Same course, more ships: a small shift of the smoothed distribution; moved course: a large shift
+        assertTrue(diffs.get(2).getDivergence() < diffs.get(3).getDivergence());
+        assertEquals(5, summary.getMaxDivergenceCellId());
+        assertEquals(diffs.get(3).getDivergence(), summary.getMaxDivergence(), 1e-12);
+    }
+
+    @Test
+    public void comparesUnknownStatisticAsEmpty() {
+        StatisticDataDiff.Summary summary = StatisticDataDiff.diff(before, after, "unknown", diff -> { throw new AssertionError(); });
+
+        assertTrue(summary.isIdentical());
+        assertEquals(0, summary.getCellsBefore());
+    }
+
+    private static void assertDiff(StatisticDataDiff.CellDiff diff, long cellId, StatisticDataDiff.Kind kind, long countBefore, long countAfter) {
+        assertEquals(cellId, diff.getCellId());
+        assertEquals(kind, diff.getKind());
+        assertEquals(countBefore, diff.getCountBefore());
+        assertEquals(countAfter, diff.getCountAfter());
+    }
+
+    private static CourseOverGroundStatisticData data(int cog, int count) {
+        CourseOverGroundStatisticData data = CourseOverGroundStatisticData.create();
+        data.setValue(2, 3, cog, SHIP_COUNT, count);
+        return data;
+    }
+
+}
@@ -35,7 +35,7 @@ public class DatasetMetaDataTest {
 
     @Test
     public void testGetFormatVersion() throws Exception {
-        assertEquals(1, (short) metaData.getFormatVersion());
+        assertEquals(2, (short) metaData.getFormatVersion());
     }
 
     @Test
@@ -0,0 +1,101 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat.db.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StatisticDataAggregationTest {
+
+    @Test
+    public void addToNullReturnsCopy() {
+        ShipTypeAndSizeStatisticData data = ShipTypeAndSizeStatisticData.create();
+        data.setValue(3, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 42);
+
+        StatisticData sum = StatisticDataAggregation.add(null, data);
+        assertNotSame(data, sum);
+        assertTrue(sum instanceof ShipTypeAndSizeStatisticData);
+        assertEquals((Integer) 42, ((ShipTypeAndSizeStatisticData) sum).getValue(3, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+
+        // The source must not be affected by later additions to the sum
+        StatisticDataAggregation.add(sum, data);
+        assertEquals((Integer) 42, data.getValue(3, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+    }
+
+    @Test
+    public void canAddShipTypeAndSizeStatisticData() {
+        ShipTypeAndSizeStatisticData data1 = ShipTypeAndSizeStatisticData.create();
+        data1.setValue(3, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 42);
+        data1.setValue(2, 2, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 7);
+        ShipTypeAndSizeStatisticData data2 = ShipTypeAndSizeStatisticData.create();
+        data2.setValue(3, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 8);
+        data2.setValue(4, 4, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 1);
+
+        ShipTypeAndSizeStatisticData sum = (ShipTypeAndSizeStatisticData) StatisticDataAggregation.add(StatisticDataAggregation.add(null, data1), data2);
+
+        assertEquals((Integer) 50, sum.getValue(3, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+        assertEquals((Integer) 7, sum.getValue(2, 2, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+        assertEquals((Integer) 1, sum.getValue(4, 4, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+        assertNull(sum.getValue(1, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+        assertEquals(58, sum.getSumFor(ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+    }
+
+    @Test
+    public void canAddCourseOverGroundStatisticData() {
+        CourseOverGroundStatisticData data1 = CourseOverGroundStatisticData.create();
+        data1.setValue(1, 2, 3, CourseOverGroundStatisticData.STAT_SHIP_COUNT, 5);
+        CourseOverGroundStatisticData data2 = CourseOverGroundStatisticData.create();
+        data2.setValue(1, 2, 3, CourseOverGroundStatisticData.STAT_SHIP_COUNT, 6);
+
+        StatisticData sum = StatisticDataAggregation.add(data1, data2);
+
+        assertSame(data1, sum);
+        assertEquals((Integer) 11, data1.getValue(1, 2, 3, CourseOverGroundStatisticData.STAT_SHIP_COUNT));
+    }
+
+    @Test
+    public void compactKeepsSummedCounts() {
+        ShipTypeAndSizeStatisticData data = ShipTypeAndSizeStatisticData.create();
+        StatisticData sum = null;
+        for (int i = 0; i < 10; i++) {
+            data.setValue(i % 5, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 1);
+            sum = StatisticDataAggregation.add(sum, data);
+        }
+        CourseOverGroundStatisticData data2 = CourseOverGroundStatisticData.create();
+        data2.setValue(1, 2, 3, CourseOverGroundStatisticData.STAT_SHIP_COUNT, 5);
+        StatisticData sum2 = StatisticDataAggregation.add(null, data2);
+
+        StatisticDataAggregation.compact(sum);
+        StatisticDataAggregation.compact(sum2);
+
+        assertEquals((Integer) 10, ((ShipTypeAndSizeStatisticData) sum).getValue(0, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+        assertEquals((Integer) 6, ((ShipTypeAndSizeStatisticData) sum).getValue(4, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+        assertEquals(40, ((ShipTypeAndSizeStatisticData) sum).getSumFor(ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+        assertEquals((Integer) 5, ((CourseOverGroundStatisticData) sum2).getValue(1, 2, 3, CourseOverGroundStatisticData.STAT_SHIP_COUNT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotAddDifferentTypes() {
+        StatisticDataAggregation.add(CourseOverGroundStatisticData.create(), SpeedOverGroundStatisticData.create());
+    }
+
+}
@@ -0,0 +1,101 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat.db.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatisticDataDistributionTest {
+
+    @Test
+    public void totalSumsAllCounts() {
+        ShipTypeAndSizeStatisticData data = ShipTypeAndSizeStatisticData.create();
+        data.setValue(3, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 42);
+        data.setValue(2, 2, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 7);
+
+        assertEquals(49, StatisticDataDistribution.total(data));
+        assertEquals(0, StatisticDataDistribution.total(ShipTypeAndSizeStatisticData.create()));
+    }
+
+    @Test
+    public void courseOverGroundIsDistributedOverCourse() {
+        CourseOverGroundStatisticData data = CourseOverGroundStatisticData.create();
+        data.setValue(1, 2, 3, CourseOverGroundStatisticData.STAT_SHIP_COUNT, 10);
+        data.setValue(4, 5, 3, CourseOverGroundStatisticData.STAT_SHIP_COUNT, 5);
+        data.setValue(1, 2, 7, CourseOverGroundStatisticData.STAT_SHIP_COUNT, 2);
+
+        int[] distribution = StatisticDataDistribution.distribution(data);
+
+        assertEquals(data.getMaxKey3() + 1, distribution.length);
+        assertEquals(15, distribution[3]);
+        assertEquals(2, distribution[7]);
+        assertEquals(17, sum(distribution));
+    }
+
+    @Test
+    public void shipTypeAndSizeIsDistributedOverTypeAndSize() {
+        ShipTypeAndSizeStatisticData data = ShipTypeAndSizeStatisticData.create();
+        data.setValue(3, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 42);
+        data.setValue(2, 2, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 7);
+
+        int[] distribution = StatisticDataDistribution.distribution(data);
+
+        assertEquals((data.MAX_KEY_1 + 1) * (data.MAX_KEY_2 + 1), distribution.length);
+        assertEquals(42, distribution[data.computeMapKey(3, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT)]);
+        assertEquals(7, distribution[data.computeMapKey(2, 2, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT)]);
+        assertEquals(49, sum(distribution));
+    }
+
+    @Test
+    public void divergenceOfEqualDistributionsIsZero() {
+        assertEquals(0.0, StatisticDataDistribution.klDivergence(new int[] {1, 5, 0, 7}, new int[] {1, 5, 0, 7}), 1e-12);
+        assertEquals(0.0, StatisticDataDistribution.klDivergence(new int[] {0, 0}, new int[] {0, 0}), 1e-12);
+    }
+
+    @Test
+    public void divergenceIsFiniteForDisjointDistributions() {
+        double divergence = StatisticDataDistribution.klDivergence(new int[] {100, 0}, new int[] {0, 100});
+        assertTrue(divergence > 5.0);
+        assertTrue(! Double.isInfinite(divergence));
+    }
+
+    @Test
+    public void divergenceGrowsWithShift() {
+        int[] p = {50, 50, 0, 0};
+        double small = StatisticDataDistribution.klDivergence(p, new int[] {40, 50, 10, 0});
+        double large = StatisticDataDistribution.klDivergence(p, new int[] {0, 10, 40, 50});
+        assertTrue(small > 0.0);
+        assertTrue(large > small);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void divergenceRequiresSameNumberOfBins() {
+        StatisticDataDistribution.klDivergence(new int[] {1, 2}, new int[] {1, 2, 3});
+    }
+
+    private static int sum(int[] values) {
+        int sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,122 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.ais.abnormal.stat.db.data;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StatisticDataSerializerTest {
+
+    final StatisticDataSerializer serializer = StatisticDataSerializer.INSTANCE;
+
+    @Test
+    public void roundTripShipTypeAndSizeStatisticData() throws IOException {
+        ShipTypeAndSizeStatisticData data = ShipTypeAndSizeStatisticData.create();
+        data.setValue(0, 0, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 1);
+        data.setValue(3, 4, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 300);
+        data.setValue(data.MAX_KEY_1, data.MAX_KEY_2, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, 70000);
+
+        ShipTypeAndSizeStatisticData copy = (ShipTypeAndSizeStatisticData) roundTrip(data);
+
+        assertEquals(data.MAX_KEY_1, copy.MAX_KEY_1);
+        assertEquals(data.MAX_KEY_2, copy.MAX_KEY_2);
+        assertEquals(data.getData(), copy.getData());
+        assertEquals((Integer) 300, copy.getValue(3, 4, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+        assertNull(copy.getValue(1, 1, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+    }
+
+    @Test
+    public void roundTripCourseOverGroundStatisticData() throws IOException {
+        CourseOverGroundStatisticData data = CourseOverGroundStatisticData.create();
+        data.incrementValue(1, 2, 3, CourseOverGroundStatisticData.STAT_SHIP_COUNT);
+        data.incrementValue(1, 2, 3, CourseOverGroundStatisticData.STAT_SHIP_COUNT);
+        data.setValue(7, 5, 11, CourseOverGroundStatisticData.STAT_SHIP_COUNT, 12345);
+
+        StatisticData copy = roundTrip(data);
+
+        assertTrue(copy instanceof CourseOverGroundStatisticData);
+        assertEquals(data.getData(), copy.getData());
+        assertEquals((Integer) 2, ((CourseOverGroundStatisticData) copy).getValue(1, 2, 3, CourseOverGroundStatisticData.STAT_SHIP_COUNT));
+    }
+
+    @Test
+    public void roundTripSpeedOverGroundStatisticData() throws IOException {
+        SpeedOverGroundStatisticData data = SpeedOverGroundStatisticData.create();
+        data.incrementValue(0, 1, 2, SpeedOverGroundStatisticData.STAT_SHIP_COUNT);
+
+        StatisticData copy = roundTrip(data);
+
+        assertTrue(copy instanceof SpeedOverGroundStatisticData);
+        assertEquals(data.getData(), copy.getData());
+    }
+
+    @Test
+    public void roundTripEmptyData() throws IOException {
+        StatisticData copy = roundTrip(ShipTypeAndSizeStatisticData.create());
+        assertTrue(copy.getData() instanceof java.util.Map);
+        assertTrue(((java.util.Map) copy.getData()).isEmpty());
+    }
+
+    @Test
+    public void varInts() throws IOException {
+        final int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        for (int value : values) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            StatisticDataSerializer.writeVarInt(new DataOutputStream(bytes), StatisticDataSerializer.zigZag(value));
+            int copy = StatisticDataSerializer.unZigZag(StatisticDataSerializer.readVarInt(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+            assertEquals(value, copy);
+        }
+    }
+
+    @Test
+    public void compactComparedToJavaSerialization() throws IOException {
+        CourseOverGroundStatisticData data = CourseOverGroundStatisticData.create();
+        data.incrementValue(1, 2, 3, CourseOverGroundStatisticData.STAT_SHIP_COUNT);
+        data.incrementValue(4, 2, 7, CourseOverGroundStatisticData.STAT_SHIP_COUNT);
+        data.incrementValue(6, 1, 0, CourseOverGroundStatisticData.STAT_SHIP_COUNT);
+
+        ByteArrayOutputStream javaSerialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(javaSerialized)) {
+            oos.writeObject(data);
+        }
+        final int compactSize = serialize(data).length;
+
+        System.out.println("Java serialization: " + javaSerialized.size() + " bytes; compact: " + compactSize + " bytes.");
+        assertTrue(compactSize < 16);  // tag, 3 max keys, entry count, 3 x (key delta, value)
+        assertTrue(compactSize * 10 < javaSerialized.size());
+    }
+
+    private StatisticData roundTrip(StatisticData data) throws IOException {
+        byte[] bytes = serialize(data);
+        return serializer.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length);
+    }
+
+    private byte[] serialize(StatisticData data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.serialize(new DataOutputStream(bytes), data);
+        return bytes.toByteArray();
+    }
+}
@@ -23,17 +23,24 @@ import dk.dma.ais.abnormal.stat.db.data.StatisticData;
 import dk.dma.ais.abnormal.util.Categorizer;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class StatisticDataRepositoryMapDBTest {
@@ -215,6 +222,41 @@ public class StatisticDataRepositoryMapDBTest {
         statisticsRepository.close();
     }
 
+    @Test
+    public void testCellIdsWithData() throws Exception {
+        StatisticDataRepository statisticsRepository = new StatisticDataRepositoryMapDB(dbFileName);
+        statisticsRepository.openForRead();
+
+        long[] cellIds = statisticsRepository.getCellIdsWithData(TEST_STATISTIC_NAME).toArray();
+        assertEquals(NUM_CELLS, cellIds.length);
+        for (int i = 0; i < cellIds.length; i++) {
+            assertEquals(i, cellIds[i]);
+        }
+
+        assertEquals(0, statisticsRepository.getCellIdsWithData("noSuchStatistic").count());
+
+        statisticsRepository.close();
+    }
+
+    @Test
+    public void testStatisticDataIterator() throws Exception {
+        StatisticDataRepository statisticsRepository = new StatisticDataRepositoryMapDB(dbFileName);
+        statisticsRepository.openForRead();
+
+        Iterator<Map.Entry<Long, StatisticData>> cells = statisticsRepository.getStatisticDataIterator(TEST_STATISTIC_NAME);
+        long expectedCellId = 0;
+        while (cells.hasNext()) {
+            Map.Entry<Long, StatisticData> cell = cells.next();
+            assertEquals(expectedCellId++, (long) cell.getKey());
+            assertNotNull(cell.getValue());
+        }
+        assertEquals(NUM_CELLS, expectedCellId);
+
+        assertFalse(statisticsRepository.getStatisticDataIterator("noSuchStatistic").hasNext());
+
+        statisticsRepository.close();
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void testRepositoryCannotBeWrittenInReadOnlyMode() throws Exception {
         // We cannot use same db file as for other tests, because this one will not .close() and therefore
@@ -277,6 +319,104 @@ public class StatisticDataRepositoryMapDBTest {
         assertEquals((Integer)((key1 * key2) % 100), statistics.getValue(key1, key2, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
     }
 
+    @Test
+    public void testCheckpointAndResume() throws Exception {
+        String tmpFilePath = getTempFilePath();
+        String dbFileName = tmpFilePath + "/" + UUID.randomUUID() + ".statistics";
+        LOG.debug("testCheckpointAndResume: dbFileName = " + dbFileName);
+
+        StatisticDataRepository statisticsRepository = new StatisticDataRepositoryMapDB(dbFileName);
+        statisticsRepository.openForWrite(true);
+        writeTestDataToRepository(statisticsRepository);
+        statisticsRepository.writeCheckpoint(Long.valueOf(4711));
+        assertTrue(StatisticDataRepositoryMapDB.checkpointFileFor(new File(dbFileName), false).exists());
+
+        // Simulate crash: repository is never closed; resume from checkpoint in a new repository instance
+        StatisticDataRepository resumedRepository = new StatisticDataRepositoryMapDB(dbFileName);
+        assertEquals(Long.valueOf(4711), resumedRepository.openForResume());
+        assertEquals(1, resumedRepository.getStatisticNames().size());
+        assertEquals(NUM_CELLS, resumedRepository.getNumberOfCells(TEST_STATISTIC_NAME));
+        assertNotNull(resumedRepository.getMetaData());
+
+        final long testCellId = (NUM_CELLS / 2) + 7;
+        ShipTypeAndSizeStatisticData statistics = (ShipTypeAndSizeStatisticData) resumedRepository.getStatisticData(TEST_STATISTIC_NAME, testCellId);
+        assertEquals((Integer)((7*4)%100), statistics.getValue(7, 4, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT));
+        resumedRepository.close();
+    }
+
+    @Test
+    public void testResumeFallsBackToPreviousCheckpoint() throws Exception {
+        String tmpFilePath = getTempFilePath();
+        String dbFileName = tmpFilePath + "/" + UUID.randomUUID() + ".statistics";
+
+        StatisticDataRepository statisticsRepository = new StatisticDataRepositoryMapDB(dbFileName);
+        statisticsRepository.openForWrite(true);
+        writeTestDataToRepository(statisticsRepository);
+        statisticsRepository.writeCheckpoint(Long.valueOf(1));
+        statisticsRepository.putStatisticData(TEST_STATISTIC_NAME, NUM_CELLS, ShipTypeAndSizeStatisticData.create());
+        statisticsRepository.writeCheckpoint(Long.valueOf(2));
+        assertTrue(StatisticDataRepositoryMapDB.checkpointFileFor(new File(dbFileName), true).exists());
+
+        // Damage the most recent checkpoint
+        Files.write(StatisticDataRepositoryMapDB.checkpointFileFor(new File(dbFileName), false).toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+        StatisticDataRepository resumedRepository = new StatisticDataRepositoryMapDB(dbFileName);
+        assertEquals(Long.valueOf(1), resumedRepository.openForResume());
+        assertEquals(NUM_CELLS, resumedRepository.getNumberOfCells(TEST_STATISTIC_NAME));
+        assertNull(resumedRepository.getStatisticData(TEST_STATISTIC_NAME, NUM_CELLS));
+        resumedRepository.close();
+    }
+
+    @Test
+    public void testResumeWithoutCheckpoint() throws Exception {
+        String tmpFilePath = getTempFilePath();
+        String dbFileName = tmpFilePath + "/" + UUID.randomUUID() + ".statistics";
+
+        StatisticDataRepository statisticsRepository = new StatisticDataRepositoryMapDB(dbFileName);
+        assertNull(statisticsRepository.openForResume());
+        assertEquals(0, statisticsRepository.getStatisticNames().size());
+        statisticsRepository.close();
+    }
+
+    /**
+     * Compare file size and read throughput of statistic data stored with MapDB's default serializer
+     * (format version 1) with the same data stored by the repository (format version 2).
+     */
+    @Test
+    public void testCompactFormatIsSmallerThanDefaultFormat() throws Exception {
+        String tmpFilePath = getTempFilePath();
+        File defaultFormatFile = new File(tmpFilePath + "/" + UUID.randomUUID() + ".statistics");
+
+        DB db = DBMaker.newFileDB(defaultFormatFile).transactionDisable().make();
+        BTreeMap<Long, StatisticData> defaultFormatMap = db.createTreeMap(TEST_STATISTIC_NAME).makeOrGet();
+        StatisticDataRepository statisticsRepository = new StatisticDataRepositoryMapDB(dbFileName);
+        statisticsRepository.openForRead();
+        statisticsRepository.getCellIdsWithData(TEST_STATISTIC_NAME).forEach(cellId -> defaultFormatMap.put(cellId, statisticsRepository.getStatisticData(TEST_STATISTIC_NAME, cellId)));
+        db.commit();
+        db.close();
+
+        long t0 = System.nanoTime();
+        long n = statisticsRepository.getCellIdsWithData(TEST_STATISTIC_NAME).filter(cellId -> statisticsRepository.getStatisticData(TEST_STATISTIC_NAME, cellId) != null).count();
+        long compactReadNanos = System.nanoTime() - t0;
+        statisticsRepository.close();
+
+        db = DBMaker.newFileDB(defaultFormatFile).transactionDisable().readOnly().make();
+        BTreeMap<Long, StatisticData> map = (BTreeMap<Long, StatisticData>) db.getAll().get(TEST_STATISTIC_NAME);
+        t0 = System.nanoTime();
+        long m = map.values().stream().filter(statistics -> statistics != null).count();
+        long defaultReadNanos = System.nanoTime() - t0;
+        db.close();
+
+        final long compactSize = new File(dbFileName + ".statistics").length() + new File(dbFileName + ".statistics.p").length();
+        final long defaultSize = defaultFormatFile.length() + new File(defaultFormatFile.getPath() + ".p").length();
+        LOG.info("Format version 1: " + defaultSize + " bytes, " + (m * 1000000000L / Math.max(1, defaultReadNanos)) + " cells/sec read.");
+        LOG.info("Format version 2: " + compactSize + " bytes, " + (n * 1000000000L / Math.max(1, compactReadNanos)) + " cells/sec read.");
+
+        assertEquals(NUM_CELLS, n);
+        assertEquals(NUM_CELLS, m);
+        assertTrue(compactSize < defaultSize);
+    }
+
     @Test
     public void testPrepareBackupDBFile() throws IOException {
         // Prepare test data
@@ -19,8 +19,15 @@ package dk.dma.ais.abnormal.event.rest;
 import com.google.inject.Inject;
 import com.google.inject.servlet.RequestScoped;
 import dk.dma.ais.abnormal.event.db.EventRepository;
+import dk.dma.ais.abnormal.event.db.density.EventDensityIndex;
+import dk.dma.ais.abnormal.event.db.density.EventHeatmap;
 import dk.dma.ais.abnormal.event.db.domain.Event;
+import dk.dma.ais.abnormal.event.db.domain.EventSummary;
+import dk.dma.ais.abnormal.event.db.export.KmlEventWriter;
 import dk.dma.ais.abnormal.event.rest.parameters.DateParameter;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,8 +39,17 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 
 @RequestScoped
 @Path("/event")
@@ -46,11 +62,21 @@ public class EventResource {
         LOG.debug(this.getClass().getSimpleName() + " created (" + this + " ).");
     }
 
+    static final String APPLICATION_KML = "application/vnd.google-earth.kml+xml";
+    static final String APPLICATION_KMZ = "application/vnd.google-earth.kmz";
+
+    /** Streamed events and summaries are serialised with the same (Jackson 1) library as the JAX-RS JSON provider uses */
+    private static final ObjectMapper EVENT_MAPPER = new ObjectMapper();
+
+    static final int MAX_HEATMAP_BINS = 256;
+
     private EventRepository eventRepository;
+    private EventDensityIndex eventDensityIndex;
 
     @Inject
-    public EventResource(EventRepository eventRepository) {
+    public EventResource(EventRepository eventRepository, EventDensityIndex eventDensityIndex) {
         this.eventRepository = eventRepository;
+        this.eventDensityIndex = eventDensityIndex;
     }
 
     @GET
@@ -96,6 +122,53 @@ public class EventResource {
         return eventRepository.getEventTypes();
     }
 
+    /**
+     * Get the no. of events in each of rows x columns bins covering an area, counted from the event density
+     * index. Events are counted by the day they started; so 'from' and 'to' are rounded to whole days (UTC).
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/density")
+    public EventHeatmap getDensity(
+        @QueryParam("from") DateParameter from,
+        @QueryParam("to") DateParameter to,
+        @QueryParam("type") String type,
+        @QueryParam("north") Double north,
+        @QueryParam("east") Double east,
+        @QueryParam("south") Double south,
+        @QueryParam("west") Double west,
+        @QueryParam("rows") Integer rows,
+        @QueryParam("columns") Integer columns
+    ) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Must provide from and to.");
+        }
+        if (north == null || east == null || south == null || west == null) {
+            throw new IllegalArgumentException("Must provide all of north, east, south, west.");
+        }
+
+        final int r = rows == null ? 64 : rows;
+        final int c = columns == null ? 64 : columns;
+        if (r <= 0 || c <= 0 || r > MAX_HEATMAP_BINS || c > MAX_HEATMAP_BINS) {
+            throw new IllegalArgumentException("Parameters 'rows' and 'columns' must be between 1 and " + MAX_HEATMAP_BINS + ".");
+        }
+
+        return eventDensityIndex.getHeatmap(toLocalDate(from.value()), toLocalDate(to.value()), type, north, east, south, west, r, c);
+    }
+
+    private static LocalDate toLocalDate(Date date) {
+        return date.toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    /**
+     * Search events.
+     *
+     * By default all matching events are returned with all their behaviours and tracking points. If 'limit'
+     * is given, at most 'limit' events are returned ordered by id; the next page is fetched by passing the id
+     * of the last returned event as 'afterId'. If 'view' is 'summary', only summaries of the events without
+     * behaviours and tracking points are returned. In both views events are streamed to the client as they
+     * are read from the database.
+     */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     public Object get(
@@ -107,26 +180,169 @@ public class EventResource {
         @QueryParam("north") Double north,
         @QueryParam("east") Double east,
         @QueryParam("south") Double south,
-        @QueryParam("west") Double west
+        @QueryParam("west") Double west,
+        @QueryParam("afterId") Long afterId,
+        @QueryParam("limit") Integer limit,
+        @QueryParam("view") String view
     ) {
         // Check validity of parameters and parameter combinations
-        if (north != null || east != null || south != null || west != null ) {
-            if (! (north != null && east != null && south != null && west != null)) {
-                throw new IllegalArgumentException("Most provide all of north, east, south, west.");
-            }
-        }
+        checkArea(north, east, south, west);
 
         if (numberOfRecentEvents != null) {
-            if (from != null || to != null || type != null || vessel != null || north != null) {
+            if (from != null || to != null || type != null || vessel != null || north != null || afterId != null || limit != null || view != null) {
                 throw new IllegalArgumentException("Parameter 'numberOfRecentEvents' cannot be used in combination with other parameters.");
             }
         }
 
+        if (limit != null && limit <= 0) {
+            throw new IllegalArgumentException("Parameter 'limit' must be positive.");
+        }
+
+        if (view != null && ! "summary".equalsIgnoreCase(view) && ! "full".equalsIgnoreCase(view)) {
+            throw new IllegalArgumentException("Parameter 'view' must be 'summary' or 'full'.");
+        }
+
+        final Date fromDate = from == null ? null : from.value();
+        final Date toDate = to == null ? null : to.value();
+        final int maxResults = limit == null ? 0 : limit;
+
         // Figure out which service method to call
         if (numberOfRecentEvents != null) {
             return eventRepository.findRecentEvents(numberOfRecentEvents);
+        } else if ("summary".equalsIgnoreCase(view)) {
+            return (StreamingOutput) output -> {
+                try (JsonGenerator json = EVENT_MAPPER.getJsonFactory().createJsonGenerator(output, JsonEncoding.UTF8)) {
+                    json.writeStartArray();
+                    eventRepository.findEventSummariesByFromAndToAndTypeAndVesselAndArea(fromDate, toDate, type, vessel, north, east, south, west, afterId, maxResults, summary -> {
+                        try {
+                            writeSummary(json, summary);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    json.writeEndArray();
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            };
+        } else {
+            return streamEvents(consumer ->
+                eventRepository.findEventsByFromAndToAndTypeAndVesselAndArea(fromDate, toDate, type, vessel, north, east, south, west, afterId, maxResults, consumer)
+            );
+        }
+    }
+
+    /**
+     * Export the events matching the same search criteria as get() to KML with the tracks of the involved
+     * vessels. Events are written as they are read from the database, and compressed on the fly.
+     */
+    @GET
+    @Produces(APPLICATION_KMZ)
+    @Path("/kmz")
+    public Response exportKmz(
+        @QueryParam("from") DateParameter from,
+        @QueryParam("to") DateParameter to,
+        @QueryParam("type") String type,
+        @QueryParam("vessel") String vessel,
+        @QueryParam("north") Double north,
+        @QueryParam("east") Double east,
+        @QueryParam("south") Double south,
+        @QueryParam("west") Double west
+    ) {
+        return exportKml(true, from, to, type, vessel, north, east, south, west);
+    }
+
+    /**
+     * As exportKmz() but as plain KML.
+     */
+    @GET
+    @Produces(APPLICATION_KML)
+    @Path("/kml")
+    public Response exportKml(
+        @QueryParam("from") DateParameter from,
+        @QueryParam("to") DateParameter to,
+        @QueryParam("type") String type,
+        @QueryParam("vessel") String vessel,
+        @QueryParam("north") Double north,
+        @QueryParam("east") Double east,
+        @QueryParam("south") Double south,
+        @QueryParam("west") Double west
+    ) {
+        return exportKml(false, from, to, type, vessel, north, east, south, west);
+    }
+
+    private Response exportKml(boolean kmz, DateParameter from, DateParameter to, String type, String vessel, Double north, Double east, Double south, Double west) {
+        checkArea(north, east, south, west);
+
+        final Date fromDate = from == null ? null : from.value();
+        final Date toDate = to == null ? null : to.value();
+
+        StreamingOutput kml = output -> {
+            try (KmlEventWriter writer = new KmlEventWriter(output, "Abnormal events", kmz)) {
+                eventRepository.findEventsByFromAndToAndTypeAndVesselAndArea(fromDate, toDate, type, vessel, north, east, south, west, null, 0, event -> {
+                    try {
+                        writer.write(event);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+
+        return Response.ok(kml, kmz ? APPLICATION_KMZ : APPLICATION_KML)
+            .header("Content-Disposition", "attachment; filename=\"events." + (kmz ? "kmz" : "kml") + "\"")
+            .build();
+    }
+
+    private static void checkArea(Double north, Double east, Double south, Double west) {
+        if (north != null || east != null || south != null || west != null ) {
+            if (! (north != null && east != null && south != null && west != null)) {
+                throw new IllegalArgumentException("Most provide all of north, east, south, west.");
+            }
+        }
+    }
+
+    /**
+     * Write the events found by search as a JSON array, each event as soon as it is read from the repository.
+     */
+    private static StreamingOutput streamEvents(Consumer<Consumer<Event>> search) {
+        return output -> {
+            try (JsonGenerator json = EVENT_MAPPER.getJsonFactory().createJsonGenerator(output, JsonEncoding.UTF8)) {
+                json.writeStartArray();
+                search.accept(event -> {
+                    try {
+                        EVENT_MAPPER.writeValue(json, event);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                json.writeEndArray();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    private static void writeSummary(JsonGenerator json, EventSummary summary) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("id", summary.getId());
+        json.writeStringField("eventType", summary.getEventType());
+        json.writeStringField("state", summary.getState() == null ? null : summary.getState().name());
+        writeTimestampField(json, "startTime", summary.getStartTime());
+        writeTimestampField(json, "endTime", summary.getEndTime());
+        json.writeStringField("title", summary.getTitle());
+        json.writeStringField("description", summary.getDescription());
+        json.writeEndObject();
+    }
+
+    /** Write timestamp as msecs since the epoch like other timestamps in the REST API */
+    private static void writeTimestampField(JsonGenerator json, String fieldName, LocalDateTime timestamp) throws IOException {
+        if (timestamp == null) {
+            json.writeNullField(fieldName);
         } else {
-            return eventRepository.findEventsByFromAndToAndTypeAndVesselAndArea(from == null ? null : from.value(), to == null ? null : to.value(), type, vessel, north, east, south, west);
+            json.writeNumberField(fieldName, timestamp.toInstant(ZoneOffset.UTC).toEpochMilli());
         }
     }
 }
@@ -17,6 +17,7 @@ package dk.dma.ais.abnormal.stat.rest;
 
 import com.google.inject.Inject;
 import com.google.inject.servlet.RequestScoped;
+import dk.dma.ais.abnormal.stat.db.StatisticDataPyramid;
 import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
 import dk.dma.ais.abnormal.stat.db.data.ShipTypeAndSizeStatisticData;
 import dk.dma.ais.abnormal.stat.db.data.StatisticData;
@@ -34,7 +35,10 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -54,16 +58,23 @@ public class CellResource {
         LOG.debug(this.getClass().getSimpleName() + " created (" + this + " ).");
     }
 
+    /** The max. no. of cells to return; larger areas are served from a coarser level of the pyramid */
+    static final int MAX_CELLS_PER_RESPONSE = 2500;
+
     private StatisticDataRepository statisticsRepository;
+    private StatisticDataPyramid statisticDataPyramid;
+    private JsonResponseCache responseCache;
 
     @Inject
-    public CellResource(StatisticDataRepository statisticsRepository) {
+    public CellResource(StatisticDataRepository statisticsRepository, StatisticDataPyramid statisticDataPyramid, JsonResponseCache responseCache) {
         this.statisticsRepository = statisticsRepository;
+        this.statisticDataPyramid = statisticDataPyramid;
+        this.responseCache = responseCache;
     }
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public CellsWrapper getCellIdsWithinBoundaries(@QueryParam("north") Double north, @QueryParam("east") Double east, @QueryParam("south") Double south, @QueryParam("west") Double west) {
+    public Response getCellIdsWithinBoundaries(@QueryParam("north") Double north, @QueryParam("east") Double east, @QueryParam("south") Double south, @QueryParam("west") Double west, @Context Request request) {
         // http://localhost:8080/abnormal/statisticdata/cell?north=55&east=11&south=54.91&west=10.91
         LOG.debug("Attempting get id's of cells inside boundary");
 
@@ -92,21 +103,31 @@ public class CellResource {
       //      throw new IllegalArgumentException("'east' and 'west' parameters must be within 0.1. The current difference is " + (east - west));
         }
 
-        Double gridResolution = statisticsRepository.getMetaData().getGridResolution();
-        LOG.debug("Statistic set uses grid resolution of " + gridResolution);
+        int level = statisticDataPyramid.getLevelFor(north - south, east - west, MAX_CELLS_PER_RESPONSE);
+        Grid grid = statisticDataPyramid.getGrid(level);
+        LOG.debug("Using pyramid level " + level + " with grid resolution " + grid.getResolution());
+
+        // Snap the area outwards to the grid, so that requests for nearly the same area share a cached response
+        final double resolution = grid.getResolution();
+        final long n = (long) Math.ceil(north / resolution);
+        final long e = (long) Math.ceil(east / resolution);
+        final long s = (long) Math.floor(south / resolution);
+        final long w = (long) Math.floor(west / resolution);
 
-        Grid grid = Grid.create(gridResolution);
-        LOG.debug("Created grid with resolution " + gridResolution);
+        return responseCache.get("cell/" + level + "/" + n + "/" + e + "/" + s + "/" + w, request, () -> {
+            final double snappedNorth = Math.min(90.0, n * resolution), snappedEast = Math.min(180.0, e * resolution);
+            final double snappedSouth = Math.max(-90.0, s * resolution), snappedWest = Math.max(-180.0, w * resolution);
 
-        LOG.debug("Looking for cells touching area bounded by " + north + " north, " + east + " east, " + south + " south, and " + west + " west.");
-        Position northWest = Position.create(north, west);
-        Position southEast = Position.create(south, east);
-        Area area = BoundingBox.create(northWest, southEast, CoordinateSystem.CARTESIAN);
+            LOG.debug("Looking for cells touching area bounded by " + snappedNorth + " north, " + snappedEast + " east, " + snappedSouth + " south, and " + snappedWest + " west.");
+            Position northWest = Position.create(snappedNorth, snappedWest);
+            Position southEast = Position.create(snappedSouth, snappedEast);
+            Area area = BoundingBox.create(northWest, southEast, CoordinateSystem.CARTESIAN);
 
-        return new CellsWrapper(loadCellsInArea(grid, area));
+            return new CellsWrapper(level, resolution, loadCellsInArea(level, grid, area));
+        });
     }
 
-    private Set<CellWrapper> loadCellsInArea(Grid grid, Area area) {
+    private Set<CellWrapper> loadCellsInArea(int level, Grid grid, Area area) {
         // These are the statistics stored in the data set
         Set<String> statisticNames = statisticsRepository.getStatisticNames();
 
@@ -122,7 +143,7 @@ public class CellResource {
         for (Cell cell : cells) {
             ArrayList<StatisticData> statisticsArray = new ArrayList<>();
             for (String statisticName : statisticNames) {
-                StatisticData statistics = statisticsRepository.getStatisticData(statisticName, cell.getCellId());
+                StatisticData statistics = statisticDataPyramid.getStatisticData(level, statisticName, cell.getCellId());
                 if (statistics != null) {
                     statisticsArray.add(statistics);
                 }
@@ -177,10 +198,26 @@ public class CellResource {
 
     private class Metadata {
         Categories categories = new Categories();
+        final int level;
+        final double gridResolution;
+
+        Metadata(int level, double gridResolution) {
+            this.level = level;
+            this.gridResolution = gridResolution;
+        }
 
         public Categories getCategories() {
             return categories;
         }
+
+        /** The level of the statistic data pyramid the cells were taken from; 0 for the cells of the data set */
+        public int getLevel() {
+            return level;
+        }
+
+        public double getGridResolution() {
+            return gridResolution;
+        }
     }
 
     private class Categories {
@@ -210,10 +247,11 @@ public class CellResource {
      * Wrap some meta information with a set of cells and their statistic data
      */
     private class CellsWrapper {
-        private final Metadata metadata = new Metadata();
+        private final Metadata metadata;
         private final Set<CellWrapper> cells;
 
-        public CellsWrapper(Set<CellWrapper> cells) {
+        public CellsWrapper(int level, double gridResolution, Set<CellWrapper> cells) {
+            this.metadata = new Metadata(level, gridResolution);
             this.cells = cells;
         }
 
@@ -0,0 +1,132 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat.rest;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.Singleton;
+import net.jcip.annotations.ThreadSafe;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * An in-process cache of JSON responses computed from the (read-only) statistic data set.
+ *
+ * Responses are cached as serialised JSON bytes together with a strong entity tag computed from
+ * those bytes; so a repeated request is answered without accessing the repository and without
+ * JSON serialisation - or with 304 Not Modified if the client already holds the response.
+ * The cache is bounded by the total size of the cached responses; least recently used responses
+ * are evicted first.
+ */
+@ThreadSafe
+@Singleton
+public class JsonResponseCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JsonResponseCache.class);
+
+    static final long MAX_CACHED_BYTES = 64L * 1024 * 1024;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Cache<String, CachedResponse> cache;
+
+    public JsonResponseCache() {
+        this(MAX_CACHED_BYTES);
+    }
+
+    JsonResponseCache(long maxCachedBytes) {
+        cache = CacheBuilder.newBuilder()
+            .maximumWeight(maxCachedBytes)
+            .weigher((String key, CachedResponse response) -> 2 * key.length() + response.json.length)
+            .build();
+    }
+
+    /**
+     * Return the cached response for key; computing and caching it first if necessary.
+     *
+     * @param key identifies the response; requests which must be answered identically must use the same key.
+     * @param request the request being answered; used to evaluate If-None-Match.
+     * @param producer computes the entity to serialise into JSON if the response is not cached.
+     * @return a 200 response with the JSON bytes and entity tag; or 304 if the client's copy is current.
+     */
+    public Response get(String key, Request request, Supplier<?> producer) {
+        CachedResponse response;
+        try {
+            response = cache.get(key, () -> serialize(producer.get()));
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to serialize response for " + key, e.getCause());
+        }
+
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(response.entityTag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+        return Response.ok(response.json, MediaType.APPLICATION_JSON_TYPE).tag(response.entityTag).build();
+    }
+
+    /**
+     * Discard all cached responses; so that they are computed again from the statistic data set.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private CachedResponse serialize(Object entity) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(entity);
+        LOG.debug("Caching JSON response of " + json.length + " bytes.");
+        return new CachedResponse(json, new EntityTag(sha1(json)));
+    }
+
+    private static String sha1(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder(40);
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes)) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class CachedResponse {
+        final byte[] json;
+        final EntityTag entityTag;
+
+        CachedResponse(byte[] json, EntityTag entityTag) {
+            this.json = json;
+            this.entityTag = entityTag;
+        }
+    }
+}
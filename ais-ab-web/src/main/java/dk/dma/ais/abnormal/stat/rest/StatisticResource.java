@@ -27,7 +27,6 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
-import java.util.Set;
 
 @RequestScoped
 @Path("/statistics/statistic/{statisticName}")
@@ -51,17 +50,17 @@ public class StatisticResource {
     @Path("/cell")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Set<Long> geCellIdsForStatistic(@PathParam("statisticName") String statisticName) {
+    public long[] geCellIdsForStatistic(@PathParam("statisticName") String statisticName) {
         LOG.debug("Attempting get id's of cells with data statistic "+ statisticName);
 
         // http://localhost:8080/abnormal/statistic/Statistics/statistic/ShipTypeAndSizeStatistic/cell
-        Set<Long> cellIds = statisticsRepository.getCellsWithData(statisticName);
-
-        LOG.debug("There are" + (cellIds == null ? " no ":" ") + "matching cell ids");
-        if (cellIds == null) {
+        if (!statisticsRepository.getStatisticNames().contains(statisticName)) {
             throw new IllegalArgumentException("Statistic " + statisticName + " has no data");
         }
 
+        long[] cellIds = statisticsRepository.getCellIdsWithData(statisticName).toArray();
+
+        LOG.debug("There are " + cellIds.length + " matching cell ids");
         return cellIds;
     }
 
@@ -0,0 +1,346 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat.rest;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
+import dk.dma.ais.abnormal.stat.db.data.DatasetMetaData;
+import dk.dma.ais.abnormal.stat.db.data.FourKeyMap;
+import dk.dma.ais.abnormal.stat.db.data.StatisticData;
+import dk.dma.ais.abnormal.stat.db.data.ThreeKeyMap;
+import dk.dma.enav.model.geometry.BoundingBox;
+import dk.dma.enav.model.geometry.grid.Cell;
+import dk.dma.enav.model.geometry.grid.Grid;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * StatisticTiles serves the ship counts of the statistic data set as binary map tiles in the
+ * Web Mercator (slippy map) tiling scheme.
+ *
+ * On first use all cells with data are indexed once: each cell is keyed by the Morton code (z-order)
+ * of its centre at zoom INDEX_ZOOM, so that every tile covers one contiguous range of keys and
+ * its cells are found by binary search. Inside a tile the ship counts of the cells are summed into
+ * BINS_PER_SIDE x BINS_PER_SIDE bins per statistic. Built tiles are kept in a bounded cache.
+ *
+ * Tile format (big endian):
+ * <pre>
+ *   int   MAGIC
+ *   byte  FORMAT_VERSION
+ *   byte  zoom
+ *   int   x
+ *   int   y
+ *   short BINS_PER_SIDE
+ *   byte  number of statistics; then for each statistic:
+ *     UTF     statistic name
+ *     varint  number of non-empty bins; then for each bin in ascending order of index (row * BINS_PER_SIDE + column):
+ *       varint  index minus index of previous bin (or minus 0 for the first)
+ *       varint  ship count
+ * </pre>
+ * Row 0 is the northern edge of the tile; column 0 the western edge.
+ */
+@ThreadSafe
+@Singleton
+public class StatisticTiles {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StatisticTiles.class);
+
+    public static final int MAGIC = 0x41425354; // "ABST"
+    public static final byte FORMAT_VERSION = 1;
+
+    public static final int MAX_ZOOM = 18;
+    public static final int BINS_PER_SIDE = 64;
+
+    private static final int BIN_BITS = 6;
+    private static final int INDEX_ZOOM = MAX_ZOOM + BIN_BITS;
+    private static final double MAX_LATITUDE = 85.05112878;
+    private static final int TILE_CACHE_SIZE = 4096;
+
+    private final StatisticDataRepository statisticsRepository;
+
+    private final Cache<String, Tile> tileCache = CacheBuilder.newBuilder().maximumSize(TILE_CACHE_SIZE).build();
+
+    private volatile Index index;
+
+    @Inject
+    public StatisticTiles(StatisticDataRepository statisticsRepository) {
+        this.statisticsRepository = statisticsRepository;
+    }
+
+    /**
+     * Get the tile with the given coordinates. The tile is built if it is not already cached.
+     *
+     * @throws IllegalArgumentException if the coordinates are outside the tiling scheme.
+     */
+    public Tile getTile(int z, int x, int y) {
+        if (z < 0 || z > MAX_ZOOM) {
+            throw new IllegalArgumentException("Zoom level must be 0-" + MAX_ZOOM + "; not " + z + ".");
+        }
+        final int n = 1 << z;
+        if (x < 0 || x >= n || y < 0 || y >= n) {
+            throw new IllegalArgumentException("Tile " + x + "," + y + " does not exist at zoom level " + z + ".");
+        }
+
+        try {
+            return tileCache.get(z + "/" + x + "/" + y, () -> buildTile(z, x, y));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to build tile " + z + "/" + x + "/" + y, e.getCause());
+        }
+    }
+
+    private Tile buildTile(int z, int x, int y) throws IOException {
+        final Index index = getIndex();
+
+        final int shift = 2 * (INDEX_ZOOM - z);
+        final long firstKey = interleave(x, y) << shift;
+        final int from = lowerBound(index.keys, firstKey);
+        final int to = lowerBound(index.keys, firstKey + (1L << shift));
+
+        final int binShift = INDEX_ZOOM - z - BIN_BITS;
+        final int binMask = BINS_PER_SIDE - 1;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 8 * (to - from));
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(z);
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeShort(BINS_PER_SIDE);
+        out.writeByte(index.statisticNames.length);
+
+        final int[] bins = new int[BINS_PER_SIDE * BINS_PER_SIDE];
+        for (int s = 0; s < index.statisticNames.length; s++) {
+            Arrays.fill(bins, 0);
+            final int[] counts = index.counts[s];
+            int nonEmpty = 0;
+            for (int i = from; i < to; i++) {
+                if (counts[i] > 0) {
+                    final long key = index.keys[i];
+                    final int bin = ((deinterleave(key >>> 1) >>> binShift) & binMask) * BINS_PER_SIDE + ((deinterleave(key) >>> binShift) & binMask);
+                    if (bins[bin] == 0) {
+                        nonEmpty++;
+                    }
+                    bins[bin] += counts[i];
+                }
+            }
+
+            out.writeUTF(index.statisticNames[s]);
+            writeVarInt(out, nonEmpty);
+            int previous = 0;
+            for (int bin = 0; bin < bins.length; bin++) {
+                if (bins[bin] > 0) {
+                    writeVarInt(out, bin - previous);
+                    writeVarInt(out, bins[bin]);
+                    previous = bin;
+                }
+            }
+        }
+        out.flush();
+
+        byte[] data = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return new Tile(data, index.fingerprint + "-" + Long.toHexString(crc.getValue()));
+    }
+
+    private Index getIndex() {
+        Index i = index;
+        if (i == null) {
+            synchronized (this) {
+                i = index;
+                if (i == null) {
+                    index = i = buildIndex();
+                }
+            }
+        }
+        return i;
+    }
+
+    private Index buildIndex() {
+        final long start = System.currentTimeMillis();
+
+        final DatasetMetaData metaData = statisticsRepository.getMetaData();
+        final Grid grid = Grid.create(metaData.getGridResolution());
+        final String[] statisticNames = statisticsRepository.getStatisticNames().stream().sorted().toArray(String[]::new);
+
+        // Cell id -> [key, count per statistic]; cells of all statistics are merged into one index
+        final List<long[]> cells = new ArrayList<>();
+        final Map<Long, long[]> cellsById = new HashMap<>();
+        for (int s = 0; s < statisticNames.length; s++) {
+            final int statisticIndex = s;
+            final String statisticName = statisticNames[s];
+            statisticsRepository.getCellIdsWithData(statisticName).forEach(cellId -> {
+                int shipCount = shipCount(statisticsRepository.getStatisticData(statisticName, cellId));
+                if (shipCount > 0) {
+                    long[] cell = cellsById.get(cellId);
+                    if (cell == null) {
+                        cell = new long[1 + statisticNames.length];
+                        cell[0] = keyOf(grid.getBoundingBoxOfCell(new Cell(cellId)));
+                        cellsById.put(cellId, cell);
+                        cells.add(cell);
+                    }
+                    cell[1 + statisticIndex] = shipCount;
+                }
+            });
+        }
+
+        cells.sort((c1, c2) -> Long.compare(c1[0], c2[0]));
+
+        final long[] keys = new long[cells.size()];
+        final int[][] counts = new int[statisticNames.length][cells.size()];
+        for (int i = 0; i < keys.length; i++) {
+            final long[] cell = cells.get(i);
+            keys[i] = cell[0];
+            for (int s = 0; s < statisticNames.length; s++) {
+                counts[s][i] = (int) cell[1 + s];
+            }
+        }
+
+        final String fingerprint = Integer.toHexString(Arrays.hashCode(new Object[] {
+            metaData.getFormatVersion(), metaData.getGridResolution(), metaData.getDownsampling(), Arrays.hashCode(statisticNames), Arrays.hashCode(keys), Arrays.deepHashCode(counts)
+        }));
+
+        LOG.info("Indexed " + keys.length + " cells for map tiles in " + (System.currentTimeMillis() - start) + " msecs.");
+        return new Index(statisticNames, keys, counts, fingerprint);
+    }
+
+    private static int shipCount(StatisticData statisticData) {
+        if (statisticData instanceof ThreeKeyMap) {
+            return ((ThreeKeyMap) statisticData).getSumFor("shipCount");
+        } else if (statisticData instanceof FourKeyMap) {
+            return ((FourKeyMap) statisticData).getSumFor("shipCount");
+        }
+        return 0;
+    }
+
+    /**
+     * Compute the index key of a cell: the Morton code of the pixel containing the centre of the cell
+     * at zoom INDEX_ZOOM.
+     */
+    static long keyOf(BoundingBox cell) {
+        final double lat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, (cell.getMinLat() + cell.getMaxLat()) / 2.0));
+        final double lon = (cell.getMinLon() + cell.getMaxLon()) / 2.0;
+
+        final double n = 1L << INDEX_ZOOM;
+        final double sinLat = Math.sin(Math.toRadians(lat));
+        final int px = clamp((long) Math.floor((lon + 180.0) / 360.0 * n));
+        final int py = clamp((long) Math.floor((0.5 - Math.log((1.0 + sinLat) / (1.0 - sinLat)) / (4.0 * Math.PI)) * n));
+
+        return interleave(px, py);
+    }
+
+    private static int clamp(long p) {
+        return (int) Math.max(0L, Math.min((1L << INDEX_ZOOM) - 1, p));
+    }
+
+    /** Interleave the bits of x (even bits) and y (odd bits). */
+    static long interleave(int x, int y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static long spread(int v) {
+        long x = v & 0xffffffffL;
+        x = (x | (x << 16)) & 0x0000ffff0000ffffL;
+        x = (x | (x << 8)) & 0x00ff00ff00ff00ffL;
+        x = (x | (x << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /** Inverse of spread(); collects the even bits of key. */
+    static int deinterleave(long key) {
+        long x = key & 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | (x >>> 4)) & 0x00ff00ff00ff00ffL;
+        x = (x | (x >>> 8)) & 0x0000ffff0000ffffL;
+        x = (x | (x >>> 16)) & 0x00000000ffffffffL;
+        return (int) x;
+    }
+
+    /** Return the index of the first key &gt;= key. */
+    static int lowerBound(long[] keys, long key) {
+        int i = Arrays.binarySearch(keys, key);
+        if (i < 0) {
+            return -i - 1;
+        }
+        while (i > 0 && keys[i - 1] == key) {
+            i--;
+        }
+        return i;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static final class Index {
+        final String[] statisticNames;
+        final long[] keys;
+        final int[][] counts;
+        final String fingerprint;
+
+        Index(String[] statisticNames, long[] keys, int[][] counts, String fingerprint) {
+            this.statisticNames = statisticNames;
+            this.keys = keys;
+            this.counts = counts;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * A built map tile and its entity tag.
+     */
+    public static final class Tile {
+        private final byte[] data;
+        private final String entityTag;
+
+        Tile(byte[] data, String entityTag) {
+            this.data = data;
+            this.entityTag = entityTag;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getEntityTag() {
+            return entityTag;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat.rest;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.google.inject.servlet.RequestScoped;
+import dk.dma.ais.abnormal.stat.db.StatisticDataDiff;
+import dk.dma.ais.abnormal.stat.db.StatisticDataPyramid;
+import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
+import dk.dma.ais.abnormal.stat.db.data.StatisticData;
+import dk.dma.ais.abnormal.stat.db.data.StatisticDataDistribution;
+import dk.dma.enav.model.geometry.BoundingBox;
+import dk.dma.enav.model.geometry.grid.Cell;
+import dk.dma.enav.model.geometry.grid.Grid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Comparison of the statistic data with a second statistic data set (see -compareStatistics); e.g. to
+ * validate a rebuild of the statistics before it is put into production.
+ */
+@RequestScoped
+@Path("/statistics/diff")
+public class StatisticsDiffResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StatisticsDiffResource.class);
+    static {
+        LOG.debug("StatisticsDiffResource loaded.");
+    }
+    {
+        LOG.debug(this.getClass().getSimpleName() + " created (" + this + " ).");
+    }
+
+    static final int DEFAULT_TOP_CELLS = 50;
+    static final int MAX_TOP_CELLS = 1000;
+
+    private static final Comparator<StatisticDataDiff.CellDiff> BY_DIVERGENCE =
+        Comparator.comparingDouble(StatisticDataDiff.CellDiff::getDivergence);
+
+    private static final Comparator<StatisticDataDiff.CellDiff> BY_COUNT_CHANGE =
+        Comparator.comparingLong(diff -> Math.abs(diff.getCountAfter() - diff.getCountBefore()));
+
+    private StatisticDataRepository statisticsRepository;
+    private Optional<StatisticDataRepository> comparisonRepository;
+    private StatisticDataPyramid statisticDataPyramid;
+    private JsonResponseCache responseCache;
+
+    @Inject
+    public StatisticsDiffResource(StatisticDataRepository statisticsRepository, @Named("comparison") Optional<StatisticDataRepository> comparisonRepository, StatisticDataPyramid statisticDataPyramid, JsonResponseCache responseCache) {
+        this.statisticsRepository = statisticsRepository;
+        this.comparisonRepository = comparisonRepository;
+        this.statisticDataPyramid = statisticDataPyramid;
+        this.responseCache = responseCache;
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDiff(@QueryParam("top") Integer top, @Context Request request) {
+        // http://localhost:8080/abnormal/rest/statistics/diff?top=20
+        if (! comparisonRepository.isPresent()) {
+            return noComparison();
+        }
+
+        final int n = top == null ? DEFAULT_TOP_CELLS : Math.max(0, Math.min(top, MAX_TOP_CELLS));
+        return responseCache.get("statistics/diff?top=" + n, request, () -> compareAll(comparisonRepository.get(), n));
+    }
+
+    @GET
+    @Path("/{statisticName}/cell/{cellId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getCellDiff(@PathParam("statisticName") String statisticName, @PathParam("cellId") long cellId) {
+        // http://localhost:8080/abnormal/rest/statistics/diff/CourseOverGroundStatistic/cell/6249703347
+        if (! comparisonRepository.isPresent()) {
+            return noComparison();
+        }
+
+        StatisticData before = statisticsRepository.getStatisticData(statisticName, cellId);
+        StatisticData after = comparisonRepository.get().getStatisticData(statisticName, cellId);
+        if (before == null && after == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        return Response.ok(new CellComparison(statisticName, cellId, grid(), before, after)).build();
+    }
+
+    private List<StatisticComparison> compareAll(StatisticDataRepository comparison, int top) {
+        Set<String> statisticNames = new TreeSet<>(statisticsRepository.getStatisticNames());
+        statisticNames.addAll(comparison.getStatisticNames());
+
+        List<StatisticComparison> result = new ArrayList<>(statisticNames.size());
+        for (String statisticName : statisticNames) {
+            TopCells shifted = new TopCells(top, BY_DIVERGENCE);
+            TopCells countChanges = new TopCells(top, BY_COUNT_CHANGE);
+
+            StatisticDataDiff.Summary summary = StatisticDataDiff.diff(statisticsRepository, comparison, statisticName, diff -> {
+                if (diff.getKind() == StatisticDataDiff.Kind.CHANGED && ! Double.isNaN(diff.getDivergence())) {
+                    shifted.offer(diff);
+                }
+                if (diff.getCountAfter() != diff.getCountBefore()) {
+                    countChanges.offer(diff);
+                }
+            });
+
+            LOG.info("Compared " + statisticName + ": " + summary + ".");
+            result.add(new StatisticComparison(summary, shifted.toList(grid()), countChanges.toList(grid())));
+        }
+        return result;
+    }
+
+    private Grid grid() {
+        return statisticDataPyramid.getGrid(0);
+    }
+
+    private static Response noComparison() {
+        return Response.status(Response.Status.NOT_FOUND)
+            .entity("No statistic data to compare with. Start the web server with -compareStatistics.")
+            .type(MediaType.TEXT_PLAIN_TYPE)
+            .build();
+    }
+
+    private static Double finiteOrNull(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? null : value;
+    }
+
+    /**
+     * The top n cell diffs in a given order. A bounded min-heap, so memory use does not depend on the
+     * number of changed cells.
+     */
+    private static final class TopCells {
+        private final int n;
+        private final Comparator<StatisticDataDiff.CellDiff> order;
+        private final PriorityQueue<StatisticDataDiff.CellDiff> heap;
+
+        TopCells(int n, Comparator<StatisticDataDiff.CellDiff> order) {
+            this.n = n;
+            this.order = order;
+            this.heap = new PriorityQueue<>(Math.max(1, n + 1), order);
+        }
+
+        void offer(StatisticDataDiff.CellDiff diff) {
+            if (n == 0) {
+                return;
+            }
+            if (heap.size() < n) {
+                heap.add(diff);
+            } else if (order.compare(diff, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(diff);
+            }
+        }
+
+        List<CellDiffWrapper> toList(Grid grid) {
+            List<StatisticDataDiff.CellDiff> diffs = new ArrayList<>(heap);
+            Collections.sort(diffs, order.reversed());
+
+            List<CellDiffWrapper> result = new ArrayList<>(diffs.size());
+            diffs.forEach(diff -> result.add(new CellDiffWrapper(diff, grid.getBoundingBoxOfCell(new Cell(diff.getCellId())))));
+            return result;
+        }
+    }
+
+    public static final class StatisticComparison {
+        private final StatisticDataDiff.Summary summary;
+        private final List<CellDiffWrapper> mostShifted;
+        private final List<CellDiffWrapper> largestCountChanges;
+
+        StatisticComparison(StatisticDataDiff.Summary summary, List<CellDiffWrapper> mostShifted, List<CellDiffWrapper> largestCountChanges) {
+            this.summary = summary;
+            this.mostShifted = mostShifted;
+            this.largestCountChanges = largestCountChanges;
+        }
+
+        public String getStatisticName() {
+            return summary.getStatisticName();
+        }
+
+        public long getCellsBefore() {
+            return summary.getCellsBefore();
+        }
+
+        public long getCellsAfter() {
+            return summary.getCellsAfter();
+        }
+
+        public long getCellsAdded() {
+            return summary.getCellsAdded();
+        }
+
+        public long getCellsRemoved() {
+            return summary.getCellsRemoved();
+        }
+
+        public long getCellsChanged() {
+            return summary.getCellsChanged();
+        }
+
+        public long getCellsUnchanged() {
+            return summary.getCellsUnchanged();
+        }
+
+        public long getTotalBefore() {
+            return summary.getTotalBefore();
+        }
+
+        public long getTotalAfter() {
+            return summary.getTotalAfter();
+        }
+
+        public double getMeanDivergence() {
+            return summary.getMeanDivergence();
+        }
+
+        public double getMaxDivergence() {
+            return summary.getMaxDivergence();
+        }
+
+        public List<CellDiffWrapper> getMostShifted() {
+            return mostShifted;
+        }
+
+        public List<CellDiffWrapper> getLargestCountChanges() {
+            return largestCountChanges;
+        }
+    }
+
+    public static final class CellDiffWrapper {
+        private final StatisticDataDiff.CellDiff diff;
+        private final BoundingBox boundingBox;
+
+        CellDiffWrapper(StatisticDataDiff.CellDiff diff, BoundingBox boundingBox) {
+            this.diff = diff;
+            this.boundingBox = boundingBox;
+        }
+
+        public long getCellId() {
+            return diff.getCellId();
+        }
+
+        public String getKind() {
+            return diff.getKind().name();
+        }
+
+        public long getCountBefore() {
+            return diff.getCountBefore();
+        }
+
+        public long getCountAfter() {
+            return diff.getCountAfter();
+        }
+
+        /** The divergence in bits; null if the cell was added or removed */
+        public Double getDivergence() {
+            return finiteOrNull(diff.getDivergence());
+        }
+
+        public double getNorth() {
+            return boundingBox.getMaxLat();
+        }
+
+        public double getEast() {
+            return boundingBox.getMaxLon();
+        }
+
+        public double getSouth() {
+            return boundingBox.getMinLat();
+        }
+
+        public double getWest() {
+            return boundingBox.getMinLon();
+        }
+    }
+
+    public static final class CellComparison {
+        private final String statisticName;
+        private final long cellId;
+        private final BoundingBox boundingBox;
+        private final StatisticData before;
+        private final StatisticData after;
+        private final int[] distributionBefore;
+        private final int[] distributionAfter;
+
+        CellComparison(String statisticName, long cellId, Grid grid, StatisticData before, StatisticData after) {
+            this.statisticName = statisticName;
+            this.cellId = cellId;
+            this.boundingBox = grid.getBoundingBoxOfCell(new Cell(cellId));
+            this.before = before;
+            this.after = after;
+            this.distributionBefore = before == null ? null : StatisticDataDistribution.distribution(before);
+            this.distributionAfter = after == null ? null : StatisticDataDistribution.distribution(after);
+        }
+
+        public String getStatisticName() {
+            return statisticName;
+        }
+
+        public long getCellId() {
+            return cellId;
+        }
+
+        public double getNorth() {
+            return boundingBox.getMaxLat();
+        }
+
+        public double getEast() {
+            return boundingBox.getMaxLon();
+        }
+
+        public double getSouth() {
+            return boundingBox.getMinLat();
+        }
+
+        public double getWest() {
+            return boundingBox.getMinLon();
+        }
+
+        public long getCountBefore() {
+            return before == null ? 0 : StatisticDataDistribution.total(before);
+        }
+
+        public long getCountAfter() {
+            return after == null ? 0 : StatisticDataDistribution.total(after);
+        }
+
+        public int[] getDistributionBefore() {
+            return distributionBefore;
+        }
+
+        public int[] getDistributionAfter() {
+            return distributionAfter;
+        }
+
+        /** The divergence in bits of the distribution after from the distribution before; null if the cell was added or removed */
+        public Double getDivergence() {
+            if (distributionBefore == null || distributionAfter == null || distributionBefore.length != distributionAfter.length) {
+                return null;
+            }
+            return StatisticDataDistribution.klDivergence(distributionBefore, distributionAfter);
+        }
+
+        public StatisticData getBefore() {
+            return before;
+        }
+
+        public StatisticData getAfter() {
+            return after;
+        }
+    }
+
+}
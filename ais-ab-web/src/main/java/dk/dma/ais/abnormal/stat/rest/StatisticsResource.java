@@ -24,8 +24,14 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -44,34 +50,63 @@ public class StatisticsResource {
         LOG.debug(this.getClass().getSimpleName() + " created (" + this + " ).");
     }
 
+    /** Seconds clients and proxies may use a tile without revalidating it */
+    private static final int TILE_MAX_AGE_SECONDS = 3600;
+
     private StatisticDataRepository statisticsRepository;
+    private StatisticTiles statisticTiles;
+    private JsonResponseCache responseCache;
 
     @Inject
-    public StatisticsResource(StatisticDataRepository statisticsRepository) {
+    public StatisticsResource(StatisticDataRepository statisticsRepository, StatisticTiles statisticTiles, JsonResponseCache responseCache) {
         this.statisticsRepository = statisticsRepository;
+        this.statisticTiles = statisticTiles;
+        this.responseCache = responseCache;
     }
 
     @GET
     @Path("/metadata")
     @Produces(MediaType.APPLICATION_JSON)
-    public DatasetMetaData getMetadata() {
+    public Response getMetadata(@Context Request request) {
         // http://localhost:8080/abnormal/statistic/Statistics/metadata
-        return statisticsRepository.getMetaData();
+        return responseCache.get("statistics/metadata", request, statisticsRepository::getMetaData);
     }
 
     @GET
     @Path("/statisticNames")
     @Produces(MediaType.APPLICATION_JSON)
-    public Set<String> getStatisticNames() {
+    public Response getStatisticNames(@Context Request request) {
         // http://localhost:8080/abnormal/statistic/Statistics/statisticNames
-        return statisticsRepository.getStatisticNames();
+        return responseCache.get("statistics/statisticNames", request, statisticsRepository::getStatisticNames);
+    }
+
+    @GET
+    @Path("/tiles/{z}/{x}/{y}")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Response getTile(@PathParam("z") int z, @PathParam("x") int x, @PathParam("y") int y, @Context Request request) {
+        // http://localhost:8080/abnormal/rest/statistics/tiles/8/136/80
+        StatisticTiles.Tile tile = statisticTiles.getTile(z, x, y);
+
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge(TILE_MAX_AGE_SECONDS);
+
+        EntityTag entityTag = new EntityTag(tile.getEntityTag());
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(entityTag);
+        if (notModified != null) {
+            return notModified.cacheControl(cacheControl).build();
+        }
+
+        return Response.ok(tile.getData()).tag(entityTag).cacheControl(cacheControl).build();
     }
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public List sayHello() {
+    public Response sayHello(@Context Request request) {
         // http://localhost:8080/abnormal/statisticdata/Statistics/
+        return responseCache.get("statistics", request, this::getMetadataAndStatisticNames);
+    }
 
+    private List getMetadataAndStatisticNames() {
         DatasetMetaData metaData = statisticsRepository.getMetaData();
         Set<String> statisticNames = statisticsRepository.getStatisticNames();
 
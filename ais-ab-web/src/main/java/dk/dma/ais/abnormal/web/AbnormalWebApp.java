@@ -75,13 +75,19 @@ public class AbnormalWebApp extends AbstractDaemon {
             WebAppModule module = new WebAppModule(
                     userArguments.getPort(),
                     userArguments.getPathToStatisticData(),
+                    userArguments.getPathToComparisonStatisticData(),
                     userArguments.getEventDataDbFile(),
                     userArguments.getEventDataRepositoryType(),
                     userArguments.getEventDataDbHost(),
                     userArguments.getEventDataDbPort(),
                     userArguments.getEventDataDbName(),
                     userArguments.getEventDataDbUsername(),
-                    userArguments.getEventDataDbPassword()
+                    userArguments.getEventDataDbPassword(),
+                    userArguments.getEventPushSource(),
+                    userArguments.getHttpMaxThreads(),
+                    userArguments.getHttpMinThreads(),
+                    userArguments.getHttpIdleTimeout(),
+                    userArguments.getAccessLogFilename()
                     );
             injector = Guice.createInjector(module);
             AbnormalWebApp app = injector.getInstance(AbnormalWebApp.class);
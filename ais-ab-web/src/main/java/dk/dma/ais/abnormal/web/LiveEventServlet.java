@@ -0,0 +1,216 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.web;
+
+import dk.dma.ais.abnormal.event.db.live.EventNotification;
+import net.jcip.annotations.ThreadSafe;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.eclipse.jetty.servlets.EventSource;
+import org.eclipse.jetty.servlets.EventSourceServlet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Server-Sent Events servlet which pushes event notifications received from the analyzer to the
+ * browsers of the web application.
+ *
+ * Each notification is serialised to JSON once and sent to all connected browsers as an SSE event
+ * named 'raised' or 'lowered'. 'maintained' events (one per appended tracking point) are only sent to
+ * browsers which ask for them with the request parameter maintained=true. Every browser has a bounded queue drained by a small
+ * shared pool of threads, so a slow browser never delays the others. If a browser falls too far
+ * behind its queue is discarded and replaced by a 'resync' event, upon which the browser is expected
+ * to reload its data through the REST API. A 'resync' event is also sent when a browser connects,
+ * and when notifications from the analyzer may have been lost.
+ */
+@ThreadSafe
+public class LiveEventServlet extends EventSourceServlet implements Consumer<EventNotification> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LiveEventServlet.class);
+
+    static final int CLIENT_QUEUE_CAPACITY = 1000;
+
+    private static final String RESYNC = "resync";
+
+    static final String MAINTAINED_PARAMETER = "maintained";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Set<Client> clients = new CopyOnWriteArraySet<>();
+
+    private final ExecutorService senders = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "live-event-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Override
+    protected EventSource newEventSource(HttpServletRequest request) {
+        return new Client(Boolean.parseBoolean(request.getParameter(MAINTAINED_PARAMETER)));
+    }
+
+    @Override
+    public void destroy() {
+        senders.shutdownNow();
+        super.destroy();
+    }
+
+    /**
+     * Push a notification to all connected browsers. Never blocks.
+     */
+    @Override
+    public void accept(EventNotification notification) {
+        if (clients.isEmpty()) {
+            return;
+        }
+
+        final boolean maintained = notification.getKind() == EventNotification.Kind.MAINTAINED;
+        if (maintained && clients.stream().noneMatch(client -> client.maintained)) {
+            return;
+        }
+
+        final String name = notification.getKind().name().toLowerCase();
+        final String data;
+        try {
+            data = toJson(notification);
+        } catch (IOException e) {
+            LOG.error(e.getMessage(), e);
+            return;
+        }
+
+        for (Client client : clients) {
+            if (client.maintained || ! maintained) {
+                client.offer(name, data);
+            }
+        }
+    }
+
+    /**
+     * Ask all connected browsers to reload their data.
+     */
+    public void resyncAll() {
+        for (Client client : clients) {
+            client.offer(RESYNC, "{}");
+        }
+    }
+
+    public int getNumberOfClients() {
+        return clients.size();
+    }
+
+    private static String toJson(EventNotification notification) throws IOException {
+        StringWriter json = new StringWriter(256);
+        try (JsonGenerator generator = JSON_FACTORY.createJsonGenerator(json)) {
+            generator.writeStartObject();
+            generator.writeNumberField("id", notification.getEventId());
+            generator.writeStringField("eventType", notification.getEventType());
+            generator.writeNumberField("mmsi", notification.getMmsi());
+            generator.writeNumberField("timestamp", notification.getTimestamp());
+            if (notification.getLatitude() != null && notification.getLongitude() != null) {
+                generator.writeNumberField("latitude", notification.getLatitude());
+                generator.writeNumberField("longitude", notification.getLongitude());
+            }
+            generator.writeStringField("title", notification.getTitle());
+            generator.writeEndObject();
+        }
+        return json.toString();
+    }
+
+    /**
+     * A connected browser.
+     */
+    private final class Client implements EventSource {
+
+        private final BlockingQueue<String[]> queue = new ArrayBlockingQueue<>(CLIENT_QUEUE_CAPACITY);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /** True if the browser wants 'maintained' events */
+        final boolean maintained;
+
+        private volatile Emitter emitter;
+
+        Client(boolean maintained) {
+            this.maintained = maintained;
+        }
+
+        @Override
+        public void onOpen(Emitter emitter) throws IOException {
+            this.emitter = emitter;
+            clients.add(this);
+            offer(RESYNC, "{}");
+        }
+
+        @Override
+        public void onClose() {
+            clients.remove(this);
+            queue.clear();
+        }
+
+        void offer(String name, String data) {
+            String[] message = {name, data};
+            if (!queue.offer(message)) {
+                // Browser cannot keep up; make it reload instead of sending a stale backlog
+                queue.clear();
+                queue.offer(new String[]{RESYNC, "{}"});
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::send);
+                } catch (RuntimeException e) {
+                    scheduled.set(false);
+                    LOG.debug(e.getMessage(), e);
+                }
+            }
+        }
+
+        private void send() {
+            try {
+                String[] message;
+                while ((message = queue.poll()) != null) {
+                    emitter.event(message[0], message[1]);
+                }
+            } catch (IOException e) {
+                LOG.debug("Failed to push event notification to browser: " + e.getMessage());
+                clients.remove(this);
+                queue.clear();
+                emitter.close();
+            } finally {
+                scheduled.set(false);
+            }
+
+            if (!queue.isEmpty() && clients.contains(this)) {
+                schedule();
+            }
+        }
+    }
+}
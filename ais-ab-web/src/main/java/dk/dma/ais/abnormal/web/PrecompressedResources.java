@@ -0,0 +1,107 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.web;
+
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Creates gzip compressed variants of the static web resources, so that the DefaultServlet can serve
+ * them (with gzip enabled) without compressing each response on the fly.
+ *
+ * The variants are written to a separate directory mirroring the webapp directory; e.g. js/dma/app.js
+ * is compressed to js/dma/app.js.gz. Files of other types than text, or too small to benefit, are skipped.
+ */
+final class PrecompressedResources {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrecompressedResources.class);
+
+    static final Set<String> EXTENSIONS = ImmutableSet.of(".html", ".css", ".js", ".json", ".svg", ".txt", ".xml");
+
+    /** Files smaller than this are not compressed */
+    static final long MIN_SIZE = 1024;
+
+    private PrecompressedResources() {
+    }
+
+    /**
+     * Write gzip compressed variants of the static resources in sourceDirectory to targetDirectory.
+     * The created files and directories are deleted when the JVM exits.
+     *
+     * @return the no. of compressed files written.
+     */
+    static int precompress(Path sourceDirectory, Path targetDirectory) throws IOException {
+        final long startTime = System.currentTimeMillis();
+        final int[] count = {0};
+        final long[] bytes = {0, 0};
+
+        Files.walkFileTree(sourceDirectory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                if (attributes.isRegularFile() && attributes.size() >= MIN_SIZE && isCompressible(file)) {
+                    Path target = targetDirectory.resolve(sourceDirectory.relativize(file).toString() + ".gz");
+                    createDirectories(targetDirectory, target.getParent());
+                    target.toFile().deleteOnExit();
+                    compress(file, target);
+
+                    count[0]++;
+                    bytes[0] += attributes.size();
+                    bytes[1] += Files.size(target);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        LOG.info("Precompressed " + count[0] + " static resources from " + bytes[0] + " to " + bytes[1] + " bytes in " + (System.currentTimeMillis() - startTime) + " msecs.");
+        return count[0];
+    }
+
+    static boolean isCompressible(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && EXTENSIONS.contains(name.substring(dot));
+    }
+
+    private static void compress(Path source, Path target) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(target)) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            Files.copy(source, out);
+        }
+    }
+
+    /** Create the missing directories from root to directory; registering each for deletion on exit */
+    private static void createDirectories(Path root, Path directory) throws IOException {
+        if (directory.equals(root) || Files.isDirectory(directory)) {
+            return;
+        }
+        createDirectories(root, directory.getParent());
+        Files.createDirectory(directory);
+        directory.toFile().deleteOnExit();
+    }
+
+}
@@ -0,0 +1,77 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.web;
+
+import dk.dma.ais.abnormal.util.LatencyHistogram;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Servlet returning the load and latency percentiles (in msecs) of each REST endpoint as JSON.
+ */
+public class RestMetricsServlet extends HttpServlet {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    private final RestRequestLimiter limiter;
+
+    public RestMetricsServlet(RestRequestLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setHeader("Cache-Control", "no-cache");
+
+        try (JsonGenerator json = JSON_FACTORY.createJsonGenerator(response.getOutputStream(), JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeNumberField("queued", limiter.getQueueSize());
+            json.writeObjectFieldStart("endpoints");
+            for (RestRequestLimiter.Endpoint endpoint : limiter.getEndpoints()) {
+                LatencyHistogram latencies = endpoint.getLatencies();
+                json.writeObjectFieldStart(endpoint.getName());
+                json.writeNumberField("requests", latencies.getCount());
+                json.writeNumberField("rejected", endpoint.getRejected());
+                if (endpoint.getMaxConcurrentRequests() < Integer.MAX_VALUE) {
+                    json.writeNumberField("concurrent", endpoint.getConcurrentRequests());
+                    json.writeNumberField("maxConcurrent", endpoint.getMaxConcurrentRequests());
+                }
+                for (double percentile : PERCENTILES) {
+                    json.writeNumberField("p" + String.valueOf(percentile).replace(".0", ""), toMillis(latencies.getPercentileMicros(percentile / 100)));
+                }
+                json.writeNumberField("max", toMillis(latencies.getMaxMicros()));
+                json.writeEndObject();
+            }
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+
+}
@@ -20,13 +20,16 @@ import com.google.common.collect.Lists;
 import com.google.inject.Provides;
 import com.google.inject.Scopes;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import com.google.inject.servlet.ServletModule;
 import com.sun.jersey.api.core.PackagesResourceConfig;
 import com.sun.jersey.api.core.ResourceConfig;
 import com.sun.jersey.guice.spi.container.servlet.GuiceContainer;
 import dk.dma.ais.abnormal.event.db.EventRepository;
+import dk.dma.ais.abnormal.event.db.density.EventDensityIndex;
 import dk.dma.ais.abnormal.event.db.jpa.JpaEventRepository;
 import dk.dma.ais.abnormal.event.db.jpa.JpaSessionFactoryFactory;
+import dk.dma.ais.abnormal.stat.db.StatisticDataPyramid;
 import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
 import dk.dma.ais.abnormal.stat.db.mapdb.StatisticDataRepositoryMapDB;
 import org.hibernate.SessionFactory;
@@ -35,13 +38,21 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 public final class RestModule extends ServletModule {
 
     static final Logger LOG = LoggerFactory.getLogger(RestModule.class);
 
+    /** Seconds between reading new events into the event density index */
+    private static final int EVENT_DENSITY_UPDATE_PERIOD = 60;
+
     private final String repositoryFilename;
+    private final String comparisonRepositoryFilename;
     private final String pathToEventDatabase;
     private final String eventRepositoryType;
     private final String eventDataDbHost;
@@ -52,8 +63,9 @@ public final class RestModule extends ServletModule {
 
     private List<SessionFactory> sessionFactoryList = Lists.newArrayList();
 
-    public RestModule(String repositoryFilename, String pathToEventDatabase, String eventRepositoryType, String eventDataDbHost, Integer eventDataDbPort, String eventDataDbName, String eventDataDbUsername, String eventDataDbPassword) {
+    public RestModule(String repositoryFilename, String comparisonRepositoryFilename, String pathToEventDatabase, String eventRepositoryType, String eventDataDbHost, Integer eventDataDbPort, String eventDataDbName, String eventDataDbUsername, String eventDataDbPassword) {
         this.repositoryFilename = repositoryFilename;
+        this.comparisonRepositoryFilename = comparisonRepositoryFilename;
         this.pathToEventDatabase = pathToEventDatabase;
         this.eventRepositoryType = eventRepositoryType;
         this.eventDataDbHost = eventDataDbHost;
@@ -98,6 +110,38 @@ public final class RestModule extends ServletModule {
         return statisticsRepository;
     }
 
+    /**
+     * The statistic data to compare the statistic data with; e.g. a rebuild to validate. Absent if not configured.
+     */
+    @Provides
+    @Singleton
+    @Named("comparison")
+    Optional<StatisticDataRepository> provideComparisonStatisticDataRepository() {
+        if (comparisonRepositoryFilename == null || comparisonRepositoryFilename.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            StatisticDataRepository statisticsRepository = new StatisticDataRepositoryMapDB(comparisonRepositoryFilename);
+            statisticsRepository.openForRead();
+            return Optional.of(statisticsRepository);
+        } catch (Exception e) {
+            LOG.error("Problems opening comparison repository for read: " + comparisonRepositoryFilename);
+            LOG.error(e.getMessage(), e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * The levels of the pyramid are built here, so that requests never have to wait for them to be built.
+     */
+    @Provides
+    @Singleton
+    StatisticDataPyramid provideStatisticDataPyramid(StatisticDataRepository statisticsRepository) {
+        StatisticDataPyramid statisticDataPyramid = new StatisticDataPyramid(statisticsRepository);
+        statisticDataPyramid.buildLevels();
+        return statisticDataPyramid;
+    }
+
     @Provides
     @Singleton
     EventRepository provideEventRepository() {
@@ -116,6 +160,31 @@ public final class RestModule extends ServletModule {
         return new JpaEventRepository(sessionFactory, true);
     }
 
+    /**
+     * The event density index uses the grid of the statistics. It is built from the event database on a
+     * background thread after startup, and kept up to date with new events from then on.
+     */
+    @Provides
+    @Singleton
+    EventDensityIndex provideEventDensityIndex(StatisticDataPyramid statisticDataPyramid, EventRepository eventRepository) {
+        EventDensityIndex eventDensityIndex = new EventDensityIndex(statisticDataPyramid.getGrid(0));
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-density-update");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                eventDensityIndex.update(eventRepository);
+            } catch (RuntimeException e) {
+                LOG.error("Failed to update event density index: " + e.getMessage(), e);
+            }
+        }, 0, EVENT_DENSITY_UPDATE_PERIOD, TimeUnit.SECONDS);
+
+        return eventDensityIndex;
+    }
+
     @Override
     protected void finalize() {
         LOG.info("Closing database session factories.");
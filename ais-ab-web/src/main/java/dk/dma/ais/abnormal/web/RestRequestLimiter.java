@@ -0,0 +1,312 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.web;
+
+import dk.dma.ais.abnormal.util.LatencyHistogram;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Servlet filter which limits the number of requests for slow REST endpoints processed at a time.
+ *
+ * At most maxProcessing requests for registered endpoints are processed at a time, so slow database searches
+ * cannot occupy all of the Jetty request threads and starve quick requests. Requests above that limit are
+ * suspended (servlet async) in a bounded queue without holding a thread, and are dispatched again to the
+ * container when an earlier request completes; the filter must therefore also be mapped for ASYNC dispatches.
+ * Each endpoint has a limit on the number of its requests queued or in progress. Requests above that limit, or
+ * arriving when the queue is full, are rejected immediately with 503 Service Unavailable and a Retry-After
+ * header instead of waiting. Requests which have waited in the queue for queueTimeoutMillis (e.g. because the
+ * requests in progress stall) are rejected in the same way.
+ *
+ * The latency of all requests is recorded per endpoint; requests for unregistered endpoints under 'other'.
+ */
+@ThreadSafe
+public class RestRequestLimiter implements Filter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RestRequestLimiter.class);
+
+    static final String OTHER = "other";
+    static final int RETRY_AFTER_SECONDS = 5;
+
+    /** Request attributes of queued requests */
+    static final String ENDPOINT_ATTRIBUTE = RestRequestLimiter.class.getName() + ".endpoint";
+    static final String START_ATTRIBUTE = RestRequestLimiter.class.getName() + ".start";
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final Endpoint other = new Endpoint(OTHER, path -> true, Integer.MAX_VALUE);
+    private final Semaphore processing;
+    private final BlockingQueue<AsyncContext> queue;
+    private final long queueTimeoutMillis;
+
+    /**
+     * @param maxProcessing max. no. of requests for registered endpoints processed at a time.
+     * @param queueCapacity max. no. of requests waiting to be processed.
+     * @param queueTimeoutMillis max. time a request waits in the queue before it is rejected.
+     */
+    public RestRequestLimiter(int maxProcessing, int queueCapacity, long queueTimeoutMillis) {
+        this.processing = new Semaphore(maxProcessing);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.queueTimeoutMillis = queueTimeoutMillis;
+    }
+
+    /**
+     * Register an endpoint to be limited. Must be called before the filter is used.
+     *
+     * @param name name of the endpoint in metrics.
+     * @param paths matches the request paths of the endpoint relative to the context path (e.g. "/rest/cell").
+     * @param maxConcurrentRequests max. no. of requests for this endpoint queued or in progress.
+     */
+    public RestRequestLimiter addEndpoint(String name, Predicate<String> paths, int maxConcurrentRequests) {
+        endpoints.add(new Endpoint(name, paths, maxConcurrentRequests));
+        return this;
+    }
+
+    /**
+     * Return the endpoints including 'other' last.
+     */
+    public List<Endpoint> getEndpoints() {
+        List<Endpoint> all = new ArrayList<>(endpoints);
+        all.add(other);
+        return Collections.unmodifiableList(all);
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        final Endpoint resumed = (Endpoint) request.getAttribute(ENDPOINT_ATTRIBUTE);
+        if (resumed != null) {
+            // Dispatched again by dispatchQueued(); the permits were taken over from the queued request
+            request.removeAttribute(ENDPOINT_ATTRIBUTE);
+            process(resumed, (Long) request.getAttribute(START_ATTRIBUTE), request, response, chain);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final Endpoint endpoint = endpointOf((HttpServletRequest) request);
+
+        if (endpoint == other) {
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                endpoint.latencies.record(System.nanoTime() - start);
+            }
+            return;
+        }
+
+        if (!endpoint.permits.tryAcquire()) {
+            reject(endpoint, (HttpServletResponse) response);
+            return;
+        }
+
+        if (queue.isEmpty() && processing.tryAcquire()) {
+            process(endpoint, start, request, response, chain);
+            return;
+        }
+
+        if (!request.isAsyncSupported()) {
+            endpoint.permits.release();
+            reject(endpoint, (HttpServletResponse) response);
+            return;
+        }
+
+        request.setAttribute(ENDPOINT_ATTRIBUTE, endpoint);
+        request.setAttribute(START_ATTRIBUTE, start);
+        final AsyncContext asyncContext = request.startAsync();
+        // Only applies while queued; the async cycle ends when the request is dispatched
+        asyncContext.setTimeout(queueTimeoutMillis);
+        asyncContext.addListener(new QueuedRequestListener(asyncContext, endpoint, (HttpServletResponse) response));
+
+        if (!queue.offer(asyncContext)) {
+            endpoint.permits.release();
+            reject(endpoint, (HttpServletResponse) response);
+            asyncContext.complete();
+            return;
+        }
+
+        // A request may have completed after the queue was checked above
+        dispatchQueued();
+    }
+
+    @Override
+    public void destroy() {
+        queue.clear();
+    }
+
+    private void process(Endpoint endpoint, long start, ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            endpoint.permits.release();
+            endpoint.latencies.record(System.nanoTime() - start);
+            processing.release();
+            dispatchQueued();
+        }
+    }
+
+    /**
+     * Dispatch queued requests to the container while fewer than maxProcessing requests are processed.
+     */
+    private void dispatchQueued() {
+        while (!queue.isEmpty() && processing.tryAcquire()) {
+            AsyncContext next = queue.poll();
+            if (next == null) {
+                processing.release();
+                continue;
+            }
+            try {
+                next.dispatch();
+            } catch (IllegalStateException e) {
+                // Request completed while queued; e.g. by the container on shutdown
+                LOG.debug("Failed to dispatch queued request: " + e.getMessage());
+                Endpoint endpoint = (Endpoint) next.getRequest().getAttribute(ENDPOINT_ATTRIBUTE);
+                if (endpoint != null) {
+                    endpoint.permits.release();
+                }
+                processing.release();
+            }
+        }
+    }
+
+    /**
+     * Rejects a queued request which times out before it is dispatched.
+     */
+    private final class QueuedRequestListener implements AsyncListener {
+        private final AsyncContext asyncContext;
+        private final Endpoint endpoint;
+        private final HttpServletResponse response;
+
+        QueuedRequestListener(AsyncContext asyncContext, Endpoint endpoint, HttpServletResponse response) {
+            this.asyncContext = asyncContext;
+            this.endpoint = endpoint;
+            this.response = response;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            if (queue.remove(asyncContext)) {
+                asyncContext.getRequest().removeAttribute(ENDPOINT_ATTRIBUTE);
+                endpoint.permits.release();
+                reject(endpoint, response);
+                asyncContext.complete();
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            if (queue.remove(asyncContext)) {
+                asyncContext.getRequest().removeAttribute(ENDPOINT_ATTRIBUTE);
+                endpoint.permits.release();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    private Endpoint endpointOf(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.paths.test(path)) {
+                return endpoint;
+            }
+        }
+        return other;
+    }
+
+    private static void reject(Endpoint endpoint, HttpServletResponse response) throws IOException {
+        long rejected = endpoint.rejected.incrementAndGet();
+        if (rejected % 100 == 1) {
+            LOG.warn("Rejected " + rejected + " requests for " + endpoint.name + " so far due to overload.");
+        }
+        response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * A REST endpoint with its concurrency limit and metrics.
+     */
+    @ThreadSafe
+    public static final class Endpoint {
+        private final String name;
+        private final Predicate<String> paths;
+        private final int maxConcurrentRequests;
+        private final Semaphore permits;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong rejected = new AtomicLong();
+
+        Endpoint(String name, Predicate<String> paths, int maxConcurrentRequests) {
+            this.name = name;
+            this.paths = paths;
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            this.permits = new Semaphore(maxConcurrentRequests);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMaxConcurrentRequests() {
+            return maxConcurrentRequests;
+        }
+
+        public int getConcurrentRequests() {
+            return maxConcurrentRequests - permits.availablePermits();
+        }
+
+        public long getRejected() {
+            return rejected.get();
+        }
+
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+    }
+}
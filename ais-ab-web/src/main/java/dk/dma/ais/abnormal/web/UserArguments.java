@@ -30,6 +30,9 @@ public class UserArguments {
     @Parameter(names = "-statistics", description = "Filename of statistic data file to read.", required = true)
     private String pathToStatisticData;
 
+    @Parameter(names = "-compareStatistics", description = "Filename of a second statistic data file to compare with the statistic data (e.g. a rebuild).", required = false)
+    private String pathToComparisonStatisticData;
+
     // -- Repository type choice
 
     @Parameter(names = "-eventDataRepositoryType", description = "Type of repository used to hold event data ('h2', 'pgsql').", required = true)
@@ -57,6 +60,25 @@ public class UserArguments {
     @Parameter(names = "-eventDataDbFile", description = "Name of RDBMS file to hold event data.", required = false)
     private String eventDataDbFile;
 
+    // -- Live events
+
+    @Parameter(names = "-eventPushSource", description = "host:port of the analyzer pushing live events (see events.push.port and events.push.address in analyzer.properties; by default the analyzer accepts connections from localhost only).", required = false)
+    private String eventPushSource;
+
+    // -- HTTP server
+
+    @Parameter(names = "-httpMaxThreads", description = "Max. no. of threads serving HTTP requests.")
+    private int httpMaxThreads = 200;
+
+    @Parameter(names = "-httpMinThreads", description = "Min. no. of idle threads kept for serving HTTP requests.")
+    private int httpMinThreads = 8;
+
+    @Parameter(names = "-httpIdleTimeout", description = "Msecs before idle HTTP connections and threads are closed.")
+    private int httpIdleTimeout = 30000;
+
+    @Parameter(names = "-accessLog", description = "Filename of HTTP access log; 'yyyy_mm_dd' in the name is replaced by the date and rolls the log daily. No access log if omitted.", required = false)
+    private String accessLogFilename;
+
     public void setHelp(boolean help) {
         this.help = help;
     }
@@ -73,6 +95,10 @@ public class UserArguments {
         return pathToStatisticData;
     }
 
+    public String getPathToComparisonStatisticData() {
+        return pathToComparisonStatisticData;
+    }
+
     public String getEventDataRepositoryType() {
         return eventDataRepositoryType;
     }
@@ -100,4 +126,24 @@ public class UserArguments {
     public String getEventDataDbFile() {
         return eventDataDbFile;
     }
+
+    public String getEventPushSource() {
+        return eventPushSource;
+    }
+
+    public int getHttpMaxThreads() {
+        return httpMaxThreads;
+    }
+
+    public int getHttpMinThreads() {
+        return httpMinThreads;
+    }
+
+    public int getHttpIdleTimeout() {
+        return httpIdleTimeout;
+    }
+
+    public String getAccessLogFilename() {
+        return accessLogFilename;
+    }
 }
@@ -31,6 +31,7 @@ public final class WebAppModule extends AbstractModule {
 
     private final int    port;
     private final String repositoryName;
+    private final String comparisonRepositoryName;
     private final String pathToEventDatabase;
     private final String eventRepositoryType;
     private final String eventDataDbHost;
@@ -38,10 +39,16 @@ public final class WebAppModule extends AbstractModule {
     private final String eventDataDbName;
     private final String eventDataDbUsername;
     private final String eventDataDbPassword;
+    private final String eventPushSource;
+    private final int httpMaxThreads;
+    private final int httpMinThreads;
+    private final int httpIdleTimeout;
+    private final String accessLogFilename;
 
-    public WebAppModule(int port, String repositoryName, String pathToEventDatabase, String eventRepositoryType, String eventDataDbHost, Integer eventDataDbPort, String eventDataDbName, String eventDataDbUsername, String eventDataDbPassword) {
+    public WebAppModule(int port, String repositoryName, String comparisonRepositoryName, String pathToEventDatabase, String eventRepositoryType, String eventDataDbHost, Integer eventDataDbPort, String eventDataDbName, String eventDataDbUsername, String eventDataDbPassword, String eventPushSource, int httpMaxThreads, int httpMinThreads, int httpIdleTimeout, String accessLogFilename) {
         this.port = port;
         this.repositoryName = repositoryName;
+        this.comparisonRepositoryName = comparisonRepositoryName;
         this.pathToEventDatabase = pathToEventDatabase;
         this.eventRepositoryType = eventRepositoryType;
         this.eventDataDbHost = eventDataDbHost;
@@ -49,6 +56,11 @@ public final class WebAppModule extends AbstractModule {
         this.eventDataDbName = eventDataDbName;
         this.eventDataDbUsername = eventDataDbUsername;
         this.eventDataDbPassword = eventDataDbPassword;
+        this.eventPushSource = eventPushSource;
+        this.httpMaxThreads = httpMaxThreads;
+        this.httpMinThreads = httpMinThreads;
+        this.httpIdleTimeout = httpIdleTimeout;
+        this.accessLogFilename = accessLogFilename;
     }
 
     @Override
@@ -63,13 +75,19 @@ public final class WebAppModule extends AbstractModule {
             webServer = new WebServer(
                     port,
                     repositoryName,
+                    comparisonRepositoryName,
                     pathToEventDatabase,
                     eventRepositoryType,
                     eventDataDbHost,
                     eventDataDbPort,
                     eventDataDbName,
                     eventDataDbUsername,
-                    eventDataDbPassword);
+                    eventDataDbPassword,
+                    eventPushSource,
+                    httpMaxThreads,
+                    httpMinThreads,
+                    httpIdleTimeout,
+                    accessLogFilename);
         } catch (Exception e) {
             LOG.error(e.getMessage(), e);
         }
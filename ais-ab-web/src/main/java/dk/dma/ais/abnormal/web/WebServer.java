@@ -18,18 +18,35 @@ package dk.dma.ais.abnormal.web;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.servlet.GuiceServletContextListener;
+import dk.dma.ais.abnormal.event.db.live.EventNotificationClient;
+import dk.dma.ais.abnormal.stat.db.StatisticDataPyramid;
 import org.eclipse.jetty.rewrite.handler.RewriteHandler;
 import org.eclipse.jetty.rewrite.handler.RewritePatternRule;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.NCSARequestLog;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.RequestLogHandler;
 import org.eclipse.jetty.servlet.DefaultServlet;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.servlets.CrossOriginFilter;
+import org.eclipse.jetty.servlets.GzipFilter;
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.util.resource.ResourceCollection;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.DispatcherType;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.EnumSet;
 
 /**
@@ -41,10 +58,32 @@ public class WebServer {
     /** The logger */
     static final Logger LOG = LoggerFactory.getLogger(WebServer.class);
 
+    /** Max. no. of slow REST requests processed at a time; the rest wait in a queue without holding a thread */
+    private static final int REST_MAX_PROCESSING = 16;
+    private static final int REST_QUEUE_CAPACITY = 64;
+    private static final long REST_QUEUE_TIMEOUT_MILLIS = 30000;
+
+    /** Directory holding the static web resources */
+    private static final String STATIC_RESOURCE_BASE = "src/main/webapp/";
+
+    /** Seconds clients may use static resources without revalidating them (by entity tag) */
+    private static final int STATIC_MAX_AGE_SECONDS = 86400;
+
+    /** Limits of the in-memory cache of static resources */
+    private static final int STATIC_CACHE_MAX_BYTES = 64 * 1024 * 1024;
+    private static final int STATIC_CACHE_MAX_FILE_BYTES = 4 * 1024 * 1024;
+    private static final int STATIC_CACHE_MAX_FILES = 2048;
+
+    /** No. of connections the OS may queue before they are accepted */
+    private static final int ACCEPT_QUEUE_SIZE = 256;
+
+    private static final int ACCESS_LOG_RETAIN_DAYS = 30;
+
     private final ServletContextHandler context;
     private final Server server;
 
     private final String repositoryName;
+    private final String comparisonRepositoryName;
     private final String pathToEventDatabase;
     private final String eventRepositoryType;
     private final String eventDataDbHost;
@@ -52,21 +91,43 @@ public class WebServer {
     private final String eventDataDbName;
     private final String eventDataDbUsername;
     private final String eventDataDbPassword;
+    private final String eventPushSource;
+    private final String accessLogFilename;
 
     public WebServer(
             int port,
             String repositoryName,
+            String comparisonRepositoryName,
             String pathToEventDatabase,
             String eventRepositoryType,
             String eventDataDbHost,
             Integer eventDataDbPort,
             String eventDataDbName,
             String eventDataDbUsername,
-            String eventDataDbPassword
+            String eventDataDbPassword,
+            String eventPushSource,
+            int maxThreads,
+            int minThreads,
+            int idleTimeout,
+            String accessLogFilename
         ) {
-        server = new Server(port);
+        QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads, minThreads, idleTimeout);
+        threadPool.setName("http");
+        server = new Server(threadPool);
+
+        HttpConfiguration httpConfiguration = new HttpConfiguration();
+        httpConfiguration.setSendServerVersion(false);
+        ServerConnector connector = new ServerConnector(server, new HttpConnectionFactory(httpConfiguration));
+        connector.setPort(port);
+        connector.setIdleTimeout(idleTimeout);
+        connector.setAcceptQueueSize(ACCEPT_QUEUE_SIZE);
+        connector.setReuseAddress(true);
+        server.addConnector(connector);
+        LOG.info("HTTP server on port " + port + " using " + minThreads + "-" + maxThreads + " threads; idle timeout " + idleTimeout + " msecs.");
+
         this.context = new ServletContextHandler(ServletContextHandler.SESSIONS);
         this.repositoryName = repositoryName;
+        this.comparisonRepositoryName = comparisonRepositoryName;
         this.pathToEventDatabase = pathToEventDatabase;
         this.eventRepositoryType = eventRepositoryType;
         this.eventDataDbHost = eventDataDbHost;
@@ -74,6 +135,8 @@ public class WebServer {
         this.eventDataDbName = eventDataDbName;
         this.eventDataDbUsername = eventDataDbUsername;
         this.eventDataDbPassword = eventDataDbPassword;
+        this.eventPushSource = eventPushSource;
+        this.accessLogFilename = accessLogFilename;
     }
 
     /**
@@ -88,14 +151,11 @@ public class WebServer {
     }
 
     public void start() throws Exception {
-        ((ServerConnector) server.getConnectors()[0]).setReuseAddress(true);
-
         // Root context
         context.setContextPath("/abnormal");
 
         // Setup static content
-        context.setResourceBase("src/main/webapp/");
-        context.addServlet(DefaultServlet.class, "/");
+        addStaticResources();
 
         // Enable Jersey debug output
         context.setInitParameter("com.sun.jersey.config.statistic.Trace", "true");
@@ -106,8 +166,24 @@ public class WebServer {
         cors.setInitParameter("allowedHeaders", "*");
         cors.setInitParameter("allowedMethods", "OPTIONS,GET,PUT,POST,DELETE,HEAD");
         cors.setFilter(new CrossOriginFilter());
+        cors.setAsyncSupported(true);
         context.addFilter(cors, "*", EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC, DispatcherType.INCLUDE));
 
+        // Compress responses with gzip or deflate as accepted by the client. Streamed responses are
+        // compressed as they are written, so compression does not delay the first bytes.
+        FilterHolder gzip = new FilterHolder();
+        gzip.setInitParameter("mimeTypes", "application/json,application/octet-stream,text/html,text/plain,text/css,text/javascript,application/javascript,application/vnd.google-earth.kml+xml");
+        gzip.setInitParameter("minGzipSize", "1024");
+        gzip.setInitParameter("methods", "GET,POST");
+        gzip.setFilter(new GzipFilter());
+        gzip.setAsyncSupported(true);
+        context.addFilter(gzip, "/*", EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC));
+
+        // Push live events received from the analyzer to the browsers
+        if (eventPushSource != null && !eventPushSource.trim().isEmpty()) {
+            addLiveEventServlet(eventPushSource);
+        }
+
         // Little hack to satisfy OpenLayers URLs in DMA context
         RewritePatternRule openlayersRewriteRule = new RewritePatternRule();
         openlayersRewriteRule.setPattern("/abnormal/theme/*");
@@ -119,14 +195,15 @@ public class WebServer {
         rewrite.setOriginalPathAttribute("requestedPath");
         rewrite.addRule(openlayersRewriteRule);
         rewrite.setHandler(context);
-        server.setHandler(rewrite);
+        server.setHandler(withAccessLog(rewrite));
 
         // Setup Guice-Jersey integration
         context.addEventListener(new GuiceServletContextListener() {
             @Override
             protected Injector getInjector() {
-                return Guice.createInjector(new RestModule(
+                Injector injector = Guice.createInjector(new RestModule(
                         repositoryName,
+                        comparisonRepositoryName,
                         pathToEventDatabase,
                         eventRepositoryType,
                         eventDataDbHost,
@@ -135,11 +212,107 @@ public class WebServer {
                         eventDataDbUsername,
                         eventDataDbPassword
                 ));
+                // Build the statistic data pyramid at startup rather than on the first request
+                injector.getInstance(StatisticDataPyramid.class);
+                return injector;
             }
         });
+        addRestRequestLimiter();
         context.addFilter(com.google.inject.servlet.GuiceFilter.class, "/rest/*", EnumSet.allOf(DispatcherType.class));
 
         // Start the server
         server.start();
     }
+
+    /**
+     * Serve the static web resources from an in-memory cache with cache headers. Text resources are
+     * compressed once at startup, and the compressed variant is served to clients accepting gzip.
+     */
+    private void addStaticResources() throws IOException {
+        Resource webapp = Resource.newResource(STATIC_RESOURCE_BASE);
+
+        Path precompressed = Files.createTempDirectory("ais-ab-web-static");
+        precompressed.toFile().deleteOnExit();
+        PrecompressedResources.precompress(Paths.get(STATIC_RESOURCE_BASE), precompressed);
+        context.setBaseResource(new ResourceCollection(Resource.newResource(precompressed.toFile()), webapp));
+
+        ServletHolder holder = new ServletHolder("static", DefaultServlet.class);
+        holder.setInitParameter("dirAllowed", "false");
+        holder.setInitParameter("gzip", "true");
+        holder.setInitParameter("etags", "true");
+        holder.setInitParameter("cacheControl", "public, max-age=" + STATIC_MAX_AGE_SECONDS);
+        holder.setInitParameter("maxCacheSize", String.valueOf(STATIC_CACHE_MAX_BYTES));
+        holder.setInitParameter("maxCachedFileSize", String.valueOf(STATIC_CACHE_MAX_FILE_BYTES));
+        holder.setInitParameter("maxCachedFiles", String.valueOf(STATIC_CACHE_MAX_FILES));
+        holder.setInitParameter("useFileMappedBuffer", "false");
+        context.addServlet(holder, "/");
+    }
+
+    /**
+     * Log all requests in NCSA extended format including the request latency in msecs; if an access
+     * log file is configured.
+     */
+    private Handler withAccessLog(Handler handler) {
+        if (accessLogFilename == null || accessLogFilename.trim().isEmpty()) {
+            return handler;
+        }
+
+        NCSARequestLog requestLog = new NCSARequestLog(accessLogFilename);
+        requestLog.setAppend(true);
+        requestLog.setExtended(true);
+        requestLog.setLogLatency(true);
+        requestLog.setLogTimeZone("UTC");
+        requestLog.setRetainDays(ACCESS_LOG_RETAIN_DAYS);
+
+        RequestLogHandler requestLogHandler = new RequestLogHandler();
+        requestLogHandler.setRequestLog(requestLog);
+        requestLogHandler.setHandler(handler);
+        LOG.info("Writing access log to " + accessLogFilename + ".");
+        return requestLogHandler;
+    }
+
+    /**
+     * Limit the no. of slow REST requests processed at a time, with per endpoint limits; and expose their latencies.
+     */
+    private void addRestRequestLimiter() {
+        RestRequestLimiter limiter = new RestRequestLimiter(REST_MAX_PROCESSING, REST_QUEUE_CAPACITY, REST_QUEUE_TIMEOUT_MILLIS)
+            .addEndpoint("eventSearch", path -> path.equals("/rest/event"), 6)
+            .addEndpoint("eventExport", path -> path.equals("/rest/event/kml") || path.equals("/rest/event/kmz"), 2)
+            .addEndpoint("cell", path -> path.startsWith("/rest/cell"), 8)
+            .addEndpoint("statisticTiles", path -> path.startsWith("/rest/statistics/tiles/"), 8)
+            .addEndpoint("statisticsDiff", path -> path.startsWith("/rest/statistics/diff"), 1);
+
+        FilterHolder holder = new FilterHolder(limiter);
+        holder.setAsyncSupported(true);
+        // Queued requests are resumed by an ASYNC dispatch
+        context.addFilter(holder, "/rest/*", EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC));
+
+        context.addServlet(new ServletHolder(new RestMetricsServlet(limiter)), "/metrics/rest");
+    }
+
+    private void addLiveEventServlet(String pushSource) {
+        int separator = pushSource.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("eventPushSource must be host:port; not " + pushSource);
+        }
+        int port;
+        try {
+            port = Integer.parseInt(pushSource.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            port = -1;
+        }
+        if (port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("eventPushSource must be host:port; not " + pushSource);
+        }
+        InetSocketAddress address = new InetSocketAddress(pushSource.substring(0, separator), port);
+
+        LiveEventServlet liveEventServlet = new LiveEventServlet();
+        ServletHolder holder = new ServletHolder(liveEventServlet);
+        holder.setAsyncSupported(true);
+        context.addServlet(holder, "/live/events");
+
+        EventNotificationClient client = new EventNotificationClient(address, liveEventServlet, liveEventServlet::resyncAll);
+        client.start();
+        LOG.info("Receiving live events from " + address + ".");
+    }
 }
@@ -35,6 +35,7 @@ var eventModule = {
         });
 
         $("#event-search-modal .search-results .search-show-all").hide();
+        $("#event-search-modal .search-results .search-export-kmz").hide();
         $("#event-search-modal .search-results .search-show-all").click(function() {
             eventModule.visualizeAllSearchResults();
             $('#event-search-modal').modal('hide');
@@ -122,6 +123,7 @@ var eventModule = {
     clearSearchResults: function () {
         $("#event-search-modal .search-results .search-status").empty();
         $("#event-search-modal .search-results .search-show-all").hide();
+        $("#event-search-modal .search-results .search-export-kmz").hide();
 
         var searchResults = $('#event-search-modal .search-results .search-data');
         searchResults.empty();
@@ -208,6 +210,11 @@ var eventModule = {
             var eventRequest = eventModule.eventResourceService + "?" + $.param(queryParams);
 
             $.getJSON(eventRequest).done(function (events) {
+                if (events.length > 0) {
+                    $("#event-search-modal .search-results .search-export-kmz")
+                        .attr("href", eventModule.eventResourceService + "/kmz?" + $.param(queryParams))
+                        .show();
+                }
                 $.each(events, function (idx, event) {
                     eventModule.addSearchResult(event);
                 });
@@ -1,54 +1,131 @@
 var tickerModule = {
 
+    numberOfEvents: 5,
+
+    live: false,
+
+    /* The events shown in the ticker; newest first. Each item holds id, startTime, ongoing, eventType and description */
+    items: [],
+
     init: function() {
+        tickerModule.connectLiveEvents();
         tickerModule.reloadTickerData();
     },
 
-    reloadTickerData: function() {
-        $.get('/abnormal/rest/event?numberOfRecentEvents=5', function(events) {
+    /* Update the ticker from the events pushed by the server; fall back to polling if push is unavailable */
+    connectLiveEvents: function() {
+        if (typeof(EventSource) === "undefined") {
+            return;
+        }
 
-            $("#ticker").empty();
+        var source = new EventSource('/abnormal/live/events');
+        source.addEventListener('open', function() {
+            tickerModule.live = true;
+        });
+        source.addEventListener('error', function() {
+            if (source.readyState == EventSource.CLOSED) {
+                tickerModule.live = false;
+                setTimeout(tickerModule.reloadTickerData, 60000);
+            }
+        });
+        source.addEventListener('raised', function(e) {
+            tickerModule.eventRaised(JSON.parse(e.data));
+        });
+        source.addEventListener('lowered', function(e) {
+            tickerModule.eventLowered(JSON.parse(e.data));
+        });
+        source.addEventListener('resync', tickerModule.reloadTickerData);
+    },
+
+    eventRaised: function(notification) {
+        var description = notification.title;
+        if (notification.latitude !== undefined && notification.longitude !== undefined) {
+            description += tickerModule.nearToString(notification.latitude, notification.longitude);
+        }
+
+        tickerModule.items = $.grep(tickerModule.items, function(item) {
+            return item.id != notification.id;
+        });
+        tickerModule.items.unshift({
+            id: notification.id,
+            startTime: notification.timestamp,
+            ongoing: true,
+            eventType: notification.eventType,
+            description: description
+        });
+        tickerModule.items = tickerModule.items.slice(0, tickerModule.numberOfEvents);
+        tickerModule.render();
+    },
 
-            $.each(events, function(i, event) {
-                $("#ticker").append(
-                    '<li style="display: list-item;">' +
-                    tickerModule.eventToString(event) + ' ' +
-                    '<span class="glyphicon glyphicon-arrow-up" id="ticker-event-' + event.id + '" data-event-id="' + event.id + '"></span>' +
-                    '</li>');
+    eventLowered: function(notification) {
+        $.each(tickerModule.items, function(i, item) {
+            if (item.id == notification.id && item.ongoing) {
+                item.ongoing = false;
+                tickerModule.render();
+            }
+        });
+    },
 
-                $("#ticker li > span.glyphicon#ticker-event-" + event.id).click(function(event) {
-                    eventModule.visualizeEventId(event.target.dataset.eventId);
-                });
+    reloadTickerData: function() {
+        $.get('/abnormal/rest/event?numberOfRecentEvents=' + tickerModule.numberOfEvents, function(events) {
+            tickerModule.items = $.map(events, function(event) {
+                var bounds = eventModule.computeEventExtent(event);
+                return {
+                    id: event.id,
+                    startTime: event.startTime,
+                    ongoing: event.state == 'ONGOING',
+                    eventType: event.eventType,
+                    description: "involving "
+                        + event.behaviours[0].vessel.name + " "
+                        + "(" + event.behaviours[0].vessel.callsign + ") "
+                        + tickerModule.nearToString(bounds.getCenterLonLat().lat, bounds.getCenterLonLat().lon)
+                };
             });
+            tickerModule.render();
+
+            if (!tickerModule.live) {
+                setTimeout(tickerModule.reloadTickerData, 60000);
+            }
+        });
+    },
 
-            $("#ticker").ticker({
-                controls: false, //show controls, to be implemented
-                interval: 3000, //interval to show next item
-                effect: "fadeIn", // available effects: fadeIn, slideUp, slideDown
-                duration: 400 //duration of the change to the next item
+    render: function() {
+        $("#ticker").empty();
+
+        $.each(tickerModule.items, function(i, item) {
+            $("#ticker").append(
+                '<li style="display: list-item;">' +
+                tickerModule.itemToString(item) + ' ' +
+                '<span class="glyphicon glyphicon-arrow-up" id="ticker-event-' + item.id + '" data-event-id="' + item.id + '"></span>' +
+                '</li>');
+
+            $("#ticker li > span.glyphicon#ticker-event-" + item.id).click(function(event) {
+                eventModule.visualizeEventId(event.target.dataset.eventId);
             });
+        });
 
-            setTimeout(tickerModule.reloadTickerData, 60000);
+        $("#ticker").ticker({
+            controls: false, //show controls, to be implemented
+            interval: 3000, //interval to show next item
+            effect: "fadeIn", // available effects: fadeIn, slideUp, slideDown
+            duration: 400 //duration of the change to the next item
         });
     },
 
-    eventToString: function(event) {
-        var bounds = eventModule.computeEventExtent(event);
+    itemToString: function(item) {
+        return eventModule.formatTimestamp(item.startTime) + ": "
+                + (item.ongoing ? "Ongoing " : "Past ")
+                + eventModule.camelCaseToSentenceCase(item.eventType).toLowerCase() + " event "
+                + item.description;
+    },
 
-        var s = eventModule.formatTimestamp(event.startTime) + ": "
-                + (event.state == 'ONGOING' ? "Ongoing " : "Past ")
-                + eventModule.camelCaseToSentenceCase(event.eventType).toLowerCase() + " event involving "
-                + event.behaviours[0].vessel.name + " "
-                + "(" + event.behaviours[0].vessel.callsign + ") "
-                + " near "
+    nearToString: function(lat, lon) {
+        return " near "
                 + "["
-                + OpenLayers.Util.getFormattedLonLat(bounds.getCenterLonLat().lat, 'lat', 'dms')
+                + OpenLayers.Util.getFormattedLonLat(lat, 'lat', 'dms')
                 + ", "
-                + OpenLayers.Util.getFormattedLonLat(bounds.getCenterLonLat().lon, 'lon', 'dms')
+                + OpenLayers.Util.getFormattedLonLat(lon, 'lon', 'dms')
                 + "] ";
-
-        return s;
     }
 
-
 }
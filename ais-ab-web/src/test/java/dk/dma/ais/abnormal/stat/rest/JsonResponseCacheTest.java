@@ -0,0 +1,153 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat.rest;
+
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class JsonResponseCacheTest {
+
+    private JUnit4Mockery context;
+    private Request request;
+    private JsonResponseCache cache;
+    private AtomicInteger numberOfProductions;
+
+    @Before
+    public void init() {
+        context = new JUnit4Mockery();
+        request = context.mock(Request.class);
+        cache = new JsonResponseCache();
+        numberOfProductions = new AtomicInteger();
+        context.checking(new Expectations() {{
+            allowing(request).evaluatePreconditions(with(any(EntityTag.class))); will(returnValue(null));
+        }});
+    }
+
+    @Test
+    public void responseIsSerialisedJsonWithEntityTag() {
+        Response response = cache.get("names", request, produce(Arrays.asList("a", "b")));
+
+        assertEquals(200, response.getStatus());
+        assertArrayEquals("[\"a\",\"b\"]".getBytes(), (byte[]) response.getEntity());
+        assertEquals("application/json", response.getMetadata().getFirst("Content-Type").toString());
+        assertEquals(40, tagOf(response).length());
+        assertEquals(1, numberOfProductions.get());
+    }
+
+    @Test
+    public void repeatedRequestIsAnsweredFromCache() {
+        Response first = cache.get("names", request, produce(Arrays.asList("a", "b")));
+        Response second = cache.get("names", request, produce(Arrays.asList("c")));
+
+        assertEquals(1, numberOfProductions.get());
+        assertArrayEquals((byte[]) first.getEntity(), (byte[]) second.getEntity());
+        assertEquals(tagOf(first), tagOf(second));
+    }
+
+    @Test
+    public void differentKeysAreCachedSeparately() {
+        Response first = cache.get("names", request, produce(Arrays.asList("a", "b")));
+        Response second = cache.get("other", request, produce(Arrays.asList("c")));
+
+        assertEquals(2, numberOfProductions.get());
+        assertArrayEquals("[\"c\"]".getBytes(), (byte[]) second.getEntity());
+        assertNotEquals(tagOf(first), tagOf(second));
+    }
+
+    @Test
+    public void equalResponsesHaveEqualEntityTags() {
+        Response first = cache.get("names", request, produce(Arrays.asList("a", "b")));
+        Response second = cache.get("other", request, produce(Arrays.asList("a", "b")));
+
+        assertEquals(tagOf(first), tagOf(second));
+    }
+
+    @Test
+    public void notModifiedWhenClientHoldsCurrentResponse() {
+        final Request conditionalRequest = context.mock(Request.class, "conditionalRequest");
+        final EntityTag entityTag = new EntityTag(tagOf(cache.get("names", request, produce(Arrays.asList("a", "b")))));
+
+        context.checking(new Expectations() {{
+            oneOf(conditionalRequest).evaluatePreconditions(entityTag); will(returnValue(Response.notModified(entityTag)));
+        }});
+
+        Response response = cache.get("names", conditionalRequest, produce(Arrays.asList("c")));
+
+        assertEquals(304, response.getStatus());
+        assertNull(response.getEntity());
+        assertEquals(1, numberOfProductions.get());
+    }
+
+    @Test
+    public void invalidatedResponsesAreComputedAgain() {
+        Response first = cache.get("names", request, produce(Arrays.asList("a", "b")));
+        cache.invalidateAll();
+        Response second = cache.get("names", request, produce(Arrays.asList("c")));
+
+        assertEquals(2, numberOfProductions.get());
+        assertArrayEquals("[\"c\"]".getBytes(), (byte[]) second.getEntity());
+        assertNotEquals(tagOf(first), tagOf(second));
+    }
+
+    @Test
+    public void leastRecentlyUsedResponsesAreEvictedWhenFull() {
+        // Room for one response of 2 * 1 + 9 bytes; small enough to keep the cache in one segment
+        cache = new JsonResponseCache(19);
+
+        cache.get("a", request, produce("0123456"));
+        cache.get("b", request, produce("0123456"));
+        assertEquals(2, numberOfProductions.get());
+
+        cache.get("b", request, produce("0123456"));
+        assertEquals(2, numberOfProductions.get());
+
+        cache.get("a", request, produce("0123456"));
+        assertEquals(3, numberOfProductions.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failureToProduceResponseIsPropagated() {
+        cache.get("names", request, () -> {
+            throw new IllegalArgumentException();
+        });
+    }
+
+    private Supplier<Object> produce(Object entity) {
+        return () -> {
+            numberOfProductions.incrementAndGet();
+            return entity;
+        };
+    }
+
+    private static String tagOf(Response response) {
+        return ((EntityTag) response.getMetadata().getFirst("ETag")).getValue();
+    }
+}
@@ -0,0 +1,235 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.stat.rest;
+
+import dk.dma.ais.abnormal.stat.db.StatisticDataRepository;
+import dk.dma.ais.abnormal.stat.db.data.DatasetMetaData;
+import dk.dma.ais.abnormal.stat.db.data.ShipTypeAndSizeStatisticData;
+import dk.dma.enav.model.geometry.grid.Grid;
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StatisticTilesTest {
+
+    private static final Grid GRID = Grid.create(0.01);
+
+    private JUnit4Mockery context;
+    private StatisticDataRepository statisticsRepository;
+    private StatisticTiles tiles;
+
+    @Before
+    public void init() {
+        context = new JUnit4Mockery();
+        statisticsRepository = context.mock(StatisticDataRepository.class);
+        tiles = new StatisticTiles(statisticsRepository);
+    }
+
+    @Test
+    public void interleaveAndDeinterleaveRoundTrip() {
+        assertEquals(0L, StatisticTiles.interleave(0, 0));
+        assertEquals(1L, StatisticTiles.interleave(1, 0));
+        assertEquals(2L, StatisticTiles.interleave(0, 1));
+        assertEquals(15L, StatisticTiles.interleave(3, 3));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            int x = random.nextInt(1 << 24);
+            int y = random.nextInt(1 << 24);
+            long key = StatisticTiles.interleave(x, y);
+            assertEquals(x, StatisticTiles.deinterleave(key));
+            assertEquals(y, StatisticTiles.deinterleave(key >>> 1));
+        }
+
+        int max = (1 << 24) - 1;
+        assertEquals(max, StatisticTiles.deinterleave(StatisticTiles.interleave(max, 0)));
+        assertEquals(max, StatisticTiles.deinterleave(StatisticTiles.interleave(0, max) >>> 1));
+    }
+
+    @Test
+    public void keyOfCellIsInTileHoldingItsCentre() {
+        // Zoom 1 tiles; 2 * (24 - 1) bits of the key below the tile
+        assertEquals(StatisticTiles.interleave(1, 0), keyOf(55.0, 10.0) >>> 46);
+        assertEquals(StatisticTiles.interleave(0, 0), keyOf(55.0, -10.0) >>> 46);
+        assertEquals(StatisticTiles.interleave(0, 1), keyOf(-35.0, -60.0) >>> 46);
+        assertEquals(StatisticTiles.interleave(1, 1), keyOf(-35.0, 150.0) >>> 46);
+
+        // Half a degree east and south of 0,0 is about 23,000 pixels from the centre at zoom 24
+        long key = keyOf(-0.5, 0.5);
+        assertEquals(23302, StatisticTiles.deinterleave(key) - (1 << 23), 300);
+        assertEquals(23302, StatisticTiles.deinterleave(key >>> 1) - (1 << 23), 300);
+
+        // Latitudes beyond the Web Mercator limit are clamped to the edge
+        assertEquals(0, StatisticTiles.deinterleave(keyOf(89.0, 10.0) >>> 1));
+        assertEquals((1 << 24) - 1, StatisticTiles.deinterleave(keyOf(-89.0, 10.0) >>> 1));
+
+        // Cells further north have smaller row numbers
+        assertTrue(StatisticTiles.deinterleave(keyOf(56.0, 10.0) >>> 1) < StatisticTiles.deinterleave(keyOf(55.0, 10.0) >>> 1));
+    }
+
+    @Test
+    public void lowerBoundReturnsFirstIndexOfKeyOrAbove() {
+        long[] keys = {1, 3, 3, 3, 7};
+        assertEquals(0, StatisticTiles.lowerBound(keys, 0));
+        assertEquals(0, StatisticTiles.lowerBound(keys, 1));
+        assertEquals(1, StatisticTiles.lowerBound(keys, 2));
+        assertEquals(1, StatisticTiles.lowerBound(keys, 3));
+        assertEquals(4, StatisticTiles.lowerBound(keys, 4));
+        assertEquals(4, StatisticTiles.lowerBound(keys, 7));
+        assertEquals(5, StatisticTiles.lowerBound(keys, 8));
+        assertEquals(0, StatisticTiles.lowerBound(new long[0], 5));
+    }
+
+    @Test
+    public void tileHoldsSummedShipCountsPerBinInFormat() throws IOException {
+        expectStatistics();
+
+        Map<String, Map<Integer, Integer>> bins = parse(tiles.getTile(0, 0, 0).getData(), 0, 0, 0);
+
+        assertEquals(2, bins.size());
+        // 55N 10E: column floor(190 / 360 * 64) = 33, row 20 (Web Mercator); both cells fall in the same bin
+        assertEquals(Integer.valueOf(5 + 7), bins.get("ShipTypeAndSizeStatistic").get(20 * 64 + 33));
+        assertEquals(Integer.valueOf(3), bins.get("ShipTypeAndSizeStatistic").get(32 * 64 + 32));
+        assertEquals(2, bins.get("ShipTypeAndSizeStatistic").size());
+        assertEquals(Integer.valueOf(11), bins.get("AnotherStatistic").get(32 * 64 + 32));
+        assertEquals(1, bins.get("AnotherStatistic").size());
+    }
+
+    @Test
+    public void tileHoldsOnlyCellsInsideIt() throws IOException {
+        expectStatistics();
+
+        Map<String, Map<Integer, Integer>> northEast = parse(tiles.getTile(1, 1, 0).getData(), 1, 1, 0);
+        assertEquals(1, northEast.get("ShipTypeAndSizeStatistic").size());
+        assertEquals(0, northEast.get("AnotherStatistic").size());
+
+        Map<String, Map<Integer, Integer>> northWest = parse(tiles.getTile(1, 0, 0).getData(), 1, 0, 0);
+        assertEquals(0, northWest.get("ShipTypeAndSizeStatistic").size());
+        assertEquals(0, northWest.get("AnotherStatistic").size());
+
+        // Cell at 0.5S 0.5E is in the north west corner of the south eastern tile
+        Map<String, Map<Integer, Integer>> southEast = parse(tiles.getTile(1, 1, 1).getData(), 1, 1, 1);
+        assertEquals(Integer.valueOf(3), southEast.get("ShipTypeAndSizeStatistic").get(0));
+        assertEquals(Integer.valueOf(11), southEast.get("AnotherStatistic").get(0));
+    }
+
+    @Test
+    public void tilesAreCachedAndTaggedByContent() {
+        expectStatistics();
+
+        StatisticTiles.Tile tile = tiles.getTile(1, 1, 0);
+        assertSame(tile, tiles.getTile(1, 1, 0));
+        assertNotEquals(tile.getEntityTag(), tiles.getTile(1, 0, 0).getEntityTag());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZoomAboveMax() {
+        tiles.getTile(StatisticTiles.MAX_ZOOM + 1, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTileOutsideZoomLevel() {
+        tiles.getTile(1, 2, 0);
+    }
+
+    private void expectStatistics() {
+        final long cell1 = GRID.getCell(55.0, 10.0).getCellId();
+        final long cell2 = GRID.getCell(55.1, 10.1).getCellId();
+        final long cell3 = GRID.getCell(-0.5, 0.5).getCellId();
+
+        context.checking(new Expectations() {{
+            oneOf(statisticsRepository).getMetaData(); will(returnValue(new DatasetMetaData(0.01, 10)));
+            oneOf(statisticsRepository).getStatisticNames(); will(returnValue(new HashSet<>(java.util.Arrays.asList("ShipTypeAndSizeStatistic", "AnotherStatistic"))));
+            oneOf(statisticsRepository).getCellIdsWithData("ShipTypeAndSizeStatistic"); will(returnValue(LongStream.of(cell1, cell2, cell3)));
+            oneOf(statisticsRepository).getCellIdsWithData("AnotherStatistic"); will(returnValue(LongStream.of(cell3)));
+            oneOf(statisticsRepository).getStatisticData("ShipTypeAndSizeStatistic", cell1); will(returnValue(shipCount(5)));
+            oneOf(statisticsRepository).getStatisticData("ShipTypeAndSizeStatistic", cell2); will(returnValue(shipCount(7)));
+            oneOf(statisticsRepository).getStatisticData("ShipTypeAndSizeStatistic", cell3); will(returnValue(shipCount(3)));
+            oneOf(statisticsRepository).getStatisticData("AnotherStatistic", cell3); will(returnValue(shipCount(11)));
+        }});
+    }
+
+    private static ShipTypeAndSizeStatisticData shipCount(int shipCount) {
+        ShipTypeAndSizeStatisticData statisticData = ShipTypeAndSizeStatisticData.create();
+        statisticData.setValue(1, 2, ShipTypeAndSizeStatisticData.STAT_SHIP_COUNT, shipCount);
+        return statisticData;
+    }
+
+    private static long keyOf(double latitude, double longitude) {
+        return StatisticTiles.keyOf(GRID.getBoundingBoxOfCell(GRID.getCell(latitude, longitude)));
+    }
+
+    /**
+     * Parse a tile; checking its header.
+     *
+     * @return statistic name -> bin index -> ship count; in the order of the tile.
+     */
+    private static Map<String, Map<Integer, Integer>> parse(byte[] tile, int z, int x, int y) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(tile));
+        assertEquals(StatisticTiles.MAGIC, in.readInt());
+        assertEquals(StatisticTiles.FORMAT_VERSION, in.readByte());
+        assertEquals(z, in.readByte());
+        assertEquals(x, in.readInt());
+        assertEquals(y, in.readInt());
+        assertEquals(StatisticTiles.BINS_PER_SIDE, in.readShort());
+
+        Map<String, Map<Integer, Integer>> statistics = new LinkedHashMap<>();
+        int numberOfStatistics = in.readByte();
+        for (int s = 0; s < numberOfStatistics; s++) {
+            String name = in.readUTF();
+            Map<Integer, Integer> bins = new LinkedHashMap<>();
+            int nonEmpty = readVarInt(in);
+            int index = 0;
+            for (int b = 0; b < nonEmpty; b++) {
+                int delta = readVarInt(in);
+                assertTrue(b == 0 || delta > 0);
+                index += delta;
+                bins.put(index, readVarInt(in));
+            }
+            statistics.put(name, bins);
+        }
+        assertEquals(-1, in.read());
+        assertEquals("[AnotherStatistic, ShipTypeAndSizeStatistic]", statistics.keySet().toString());
+        return statistics;
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
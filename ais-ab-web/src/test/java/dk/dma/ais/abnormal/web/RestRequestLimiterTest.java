@@ -0,0 +1,305 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.web;
+
+import org.jmock.Expectations;
+import org.jmock.States;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RestRequestLimiterTest {
+
+    private static final long QUEUE_TIMEOUT_MILLIS = 1000;
+
+    private JUnit4Mockery context;
+    private FilterChain chain;
+    private RestRequestLimiter limiter;
+
+    @Before
+    public void init() {
+        context = new JUnit4Mockery();
+        chain = context.mock(FilterChain.class);
+        limiter = new RestRequestLimiter(1, 1, QUEUE_TIMEOUT_MILLIS)
+            .addEndpoint("a", path -> path.startsWith("/rest/a"), 2)
+            .addEndpoint("b", path -> path.startsWith("/rest/b"), 1);
+    }
+
+    @After
+    public void after() {
+        context.assertIsSatisfied();
+    }
+
+    @Test
+    public void requestsForOtherPathsPassThrough() throws Exception {
+        final HttpServletRequest request = request("request", "/rest/other");
+        final HttpServletResponse response = context.mock(HttpServletResponse.class);
+
+        context.checking(new Expectations() {{
+            oneOf(chain).doFilter(request, response);
+            never(request).startAsync();
+        }});
+
+        limiter.doFilter(request, response, chain);
+
+        assertEquals(1, endpoint(RestRequestLimiter.OTHER).getLatencies().getCount());
+        assertEquals(0, endpoint("a").getLatencies().getCount());
+    }
+
+    @Test
+    public void requestIsProcessedDirectlyWhenBelowLimits() throws Exception {
+        final HttpServletRequest request = request("request", "/rest/a/1");
+        final HttpServletResponse response = context.mock(HttpServletResponse.class);
+
+        context.checking(new Expectations() {{
+            oneOf(chain).doFilter(request, response); will(new CustomAction("check concurrent requests") {
+                @Override
+                public Object invoke(Invocation invocation) {
+                    assertEquals(1, endpoint("a").getConcurrentRequests());
+                    return null;
+                }
+            });
+            never(request).startAsync();
+        }});
+
+        limiter.doFilter(request, response, chain);
+
+        assertEquals(1, endpoint("a").getLatencies().getCount());
+        assertEquals(0, endpoint("a").getConcurrentRequests());
+    }
+
+    @Test
+    public void requestAboveEndpointLimitIsRejected() throws Exception {
+        final HttpServletRequest request1 = request("request1", "/rest/b");
+        final HttpServletResponse response1 = context.mock(HttpServletResponse.class, "response1");
+        final HttpServletRequest request2 = request("request2", "/rest/b");
+        final HttpServletResponse response2 = context.mock(HttpServletResponse.class, "response2");
+
+        context.checking(new Expectations() {{
+            oneOf(chain).doFilter(request1, response1); will(doFilter(request2, response2));
+            never(chain).doFilter(request2, response2);
+            never(request2).startAsync();
+            oneOf(response2).setHeader("Retry-After", String.valueOf(RestRequestLimiter.RETRY_AFTER_SECONDS));
+            oneOf(response2).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }});
+
+        limiter.doFilter(request1, response1, chain);
+
+        assertEquals(1, endpoint("b").getRejected());
+        assertEquals(0, endpoint("b").getConcurrentRequests());
+    }
+
+    @Test
+    public void requestAboveProcessingLimitIsQueuedAndDispatchedWhenProcessingCompletes() throws Exception {
+        final HttpServletRequest request1 = request("request1", "/rest/a");
+        final HttpServletResponse response1 = context.mock(HttpServletResponse.class, "response1");
+        final HttpServletRequest request2 = request("request2", "/rest/b");
+        final HttpServletResponse response2 = context.mock(HttpServletResponse.class, "response2");
+        final AsyncContext asyncContext = context.mock(AsyncContext.class);
+        final States processing = context.states("processing").startsAs("request1");
+
+        context.checking(new Expectations() {{
+            oneOf(chain).doFilter(request1, response1); will(doFilter(request2, response2, processing));
+            oneOf(request2).startAsync(); will(returnValue(asyncContext));
+            oneOf(asyncContext).setTimeout(QUEUE_TIMEOUT_MILLIS);
+            oneOf(asyncContext).addListener(with(any(AsyncListener.class)));
+            allowing(asyncContext).getRequest(); will(returnValue(request2));
+            oneOf(asyncContext).dispatch(); when(processing.is("done"));
+        }});
+
+        limiter.doFilter(request1, response1, chain);
+
+        assertEquals(0, limiter.getQueueSize());
+        assertEquals(1, endpoint("b").getConcurrentRequests());
+
+        // The ASYNC dispatch of the queued request
+        context.checking(new Expectations() {{
+            oneOf(chain).doFilter(request2, response2);
+            never(request2).startAsync();
+        }});
+
+        limiter.doFilter(request2, response2, chain);
+
+        assertEquals(1, endpoint("a").getLatencies().getCount());
+        assertEquals(1, endpoint("b").getLatencies().getCount());
+        assertEquals(0, endpoint("b").getConcurrentRequests());
+        assertEquals(0, endpoint("b").getRejected());
+    }
+
+    @Test
+    public void requestIsRejectedWhenQueueIsFull() throws Exception {
+        final HttpServletRequest request1 = request("request1", "/rest/a");
+        final HttpServletResponse response1 = context.mock(HttpServletResponse.class, "response1");
+        final HttpServletRequest request2 = request("request2", "/rest/a");
+        final HttpServletResponse response2 = context.mock(HttpServletResponse.class, "response2");
+        final HttpServletRequest request3 = request("request3", "/rest/b");
+        final HttpServletResponse response3 = context.mock(HttpServletResponse.class, "response3");
+        final AsyncContext asyncContext2 = context.mock(AsyncContext.class, "asyncContext2");
+        final AsyncContext asyncContext3 = context.mock(AsyncContext.class, "asyncContext3");
+
+        context.checking(new Expectations() {{
+            oneOf(chain).doFilter(request1, response1); will(new CustomAction("queue request2; reject request3") {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable {
+                    limiter.doFilter(request2, response2, chain);
+                    assertEquals(1, limiter.getQueueSize());
+                    limiter.doFilter(request3, response3, chain);
+                    assertEquals(1, limiter.getQueueSize());
+                    return null;
+                }
+            });
+            oneOf(request2).startAsync(); will(returnValue(asyncContext2));
+            oneOf(asyncContext2).setTimeout(QUEUE_TIMEOUT_MILLIS);
+            oneOf(asyncContext2).addListener(with(any(AsyncListener.class)));
+            oneOf(request3).startAsync(); will(returnValue(asyncContext3));
+            oneOf(asyncContext3).setTimeout(QUEUE_TIMEOUT_MILLIS);
+            oneOf(asyncContext3).addListener(with(any(AsyncListener.class)));
+            oneOf(response3).setHeader("Retry-After", String.valueOf(RestRequestLimiter.RETRY_AFTER_SECONDS));
+            oneOf(response3).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            oneOf(asyncContext3).complete();
+            oneOf(asyncContext2).dispatch();
+        }});
+
+        limiter.doFilter(request1, response1, chain);
+
+        assertEquals(1, endpoint("b").getRejected());
+        assertEquals(0, endpoint("b").getConcurrentRequests());
+        assertEquals(2, endpoint("a").getConcurrentRequests());
+    }
+
+    @Test
+    public void queuedRequestIsRejectedWhenItTimesOut() throws Exception {
+        final HttpServletRequest request1 = request("request1", "/rest/a");
+        final HttpServletResponse response1 = context.mock(HttpServletResponse.class, "response1");
+        final HttpServletRequest request2 = request("request2", "/rest/b");
+        final HttpServletResponse response2 = context.mock(HttpServletResponse.class, "response2");
+        final AsyncContext asyncContext = context.mock(AsyncContext.class);
+        final AsyncListener[] listener = new AsyncListener[1];
+
+        context.checking(new Expectations() {{
+            oneOf(chain).doFilter(request1, response1); will(new CustomAction("queue request2; time it out") {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable {
+                    limiter.doFilter(request2, response2, chain);
+                    assertEquals(1, limiter.getQueueSize());
+                    assertEquals(1, endpoint("b").getConcurrentRequests());
+                    listener[0].onTimeout(new AsyncEvent(asyncContext, request2, response2));
+                    assertEquals(0, limiter.getQueueSize());
+                    assertEquals(0, endpoint("b").getConcurrentRequests());
+                    return null;
+                }
+            });
+            oneOf(request2).startAsync(); will(returnValue(asyncContext));
+            oneOf(asyncContext).setTimeout(QUEUE_TIMEOUT_MILLIS);
+            oneOf(asyncContext).addListener(with(any(AsyncListener.class))); will(new CustomAction("capture listener") {
+                @Override
+                public Object invoke(Invocation invocation) {
+                    listener[0] = (AsyncListener) invocation.getParameter(0);
+                    return null;
+                }
+            });
+            allowing(asyncContext).getRequest(); will(returnValue(request2));
+            oneOf(response2).setHeader("Retry-After", String.valueOf(RestRequestLimiter.RETRY_AFTER_SECONDS));
+            oneOf(response2).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            oneOf(asyncContext).complete();
+            never(asyncContext).dispatch();
+            never(chain).doFilter(request2, response2);
+        }});
+
+        limiter.doFilter(request1, response1, chain);
+
+        assertEquals(1, endpoint("b").getRejected());
+        assertEquals(0, endpoint("b").getConcurrentRequests());
+        assertNull(request2.getAttribute(RestRequestLimiter.ENDPOINT_ATTRIBUTE));
+    }
+
+    private RestRequestLimiter.Endpoint endpoint(String name) {
+        return limiter.getEndpoints().stream().filter(e -> e.getName().equals(name)).findFirst().get();
+    }
+
+    private CustomAction doFilter(final HttpServletRequest request, final HttpServletResponse response) {
+        return new CustomAction("filter " + request.getRequestURI()) {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                limiter.doFilter(request, response, chain);
+                return null;
+            }
+        };
+    }
+
+    private CustomAction doFilter(final HttpServletRequest request, final HttpServletResponse response, final States processing) {
+        return new CustomAction("filter " + request.getRequestURI()) {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                limiter.doFilter(request, response, chain);
+                processing.become("done");
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Mock a request for the given URI; with working attributes.
+     */
+    private HttpServletRequest request(String name, final String uri) {
+        final HttpServletRequest request = context.mock(HttpServletRequest.class, name);
+        final Map<String, Object> attributes = new HashMap<>();
+
+        context.checking(new Expectations() {{
+            allowing(request).getRequestURI(); will(returnValue(uri));
+            allowing(request).getContextPath(); will(returnValue(""));
+            allowing(request).isAsyncSupported(); will(returnValue(true));
+            allowing(request).getAttribute(with(any(String.class))); will(new CustomAction("get attribute") {
+                @Override
+                public Object invoke(Invocation invocation) {
+                    return attributes.get(invocation.getParameter(0));
+                }
+            });
+            allowing(request).setAttribute(with(any(String.class)), with(any(Object.class))); will(new CustomAction("set attribute") {
+                @Override
+                public Object invoke(Invocation invocation) {
+                    attributes.put((String) invocation.getParameter(0), invocation.getParameter(1));
+                    return null;
+                }
+            });
+            allowing(request).removeAttribute(with(any(String.class))); will(new CustomAction("remove attribute") {
+                @Override
+                public Object invoke(Invocation invocation) {
+                    attributes.remove(invocation.getParameter(0));
+                    return null;
+                }
+            });
+        }});
+
+        return request;
+    }
+}
@@ -0,0 +1,133 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dk.dma.ais.abnormal.web;
+
+import dk.dma.ais.abnormal.util.LatencyHistogram;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test of a local instance of the web application; see IntegrationTestHelper. A number of clients
+ * repeatedly request a mix of static resources and cached REST responses over keep-alive connections.
+ * Throughput and latency percentiles are printed.
+ */
+public class WebServerLoadIT {
+
+    static final String BASE_URL = "http://127.0.0.1:8080/abnormal/";
+
+    static final int CLIENTS = Integer.getInteger("load.clients", 32);
+    static final int DURATION_SECONDS = Integer.getInteger("load.duration", 30);
+
+    /** The min. no. of requests per second the instance must sustain */
+    static final int MIN_THROUGHPUT = Integer.getInteger("load.minThroughput", 500);
+
+    static final String[] PATHS = {
+        "index.html",
+        "css/abnormal.css",
+        "js/dma/abnormal.js",
+        "js/dma/map.js",
+        "js/jquery.tablesorter.min.js",
+        "rest/statistics",
+        "rest/statistics/statisticNames"
+    };
+
+    @Test
+    public void staticResourcesArePrecompressedAndCacheable() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(BASE_URL + "js/jquery.tablesorter.min.js").openConnection();
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        try {
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+            assertTrue(connection.getHeaderField("Cache-Control").contains("max-age="));
+            assertTrue(connection.getHeaderField("ETag") != null);
+            drain(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void sustainsThroughput() throws Exception {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<?>> futures = new ArrayList<>(CLIENTS);
+        for (int c = 0; c < CLIENTS; c++) {
+            final int client = c;
+            futures.add(clients.submit(() -> {
+                int i = client;
+                while (System.nanoTime() < end) {
+                    long start = System.nanoTime();
+                    if (! get(BASE_URL + PATHS[i++ % PATHS.length])) {
+                        errors.incrementAndGet();
+                    }
+                    latencies.record(System.nanoTime() - start);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        clients.shutdown();
+
+        final double throughput = (double) latencies.getCount() / DURATION_SECONDS;
+        System.out.println(String.format("%d clients, %d requests in %d secs: %.0f requests/sec, %d errors", CLIENTS, latencies.getCount(), DURATION_SECONDS, throughput, errors.get()));
+        System.out.println(String.format("Latency (msecs): p50 %.1f, p90 %.1f, p99 %.1f, max %.1f", latencies.getPercentileMicros(0.50) / 1e3, latencies.getPercentileMicros(0.90) / 1e3, latencies.getPercentileMicros(0.99) / 1e3, latencies.getMaxMicros() / 1e3));
+
+        assertEquals(0, errors.get());
+        assertTrue("Throughput " + throughput + " requests/sec is below " + MIN_THROUGHPUT + ".", throughput >= MIN_THROUGHPUT);
+    }
+
+    private static boolean get(String url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            int status = connection.getResponseCode();
+            drain(connection);
+            return status == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Read the response fully; so that the keep-alive connection can be reused */
+    private static void drain(HttpURLConnection connection) throws IOException {
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        }
+    }
+
+}